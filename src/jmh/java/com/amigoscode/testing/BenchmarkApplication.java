@@ -0,0 +1,63 @@
+package com.amigoscode.testing;
+
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+* Starts the application for benchmarks - in memory H2, MockStripeService and no web server
+* so only the service and persistence layers are measured
+* */
+public final class BenchmarkApplication {
+
+    private BenchmarkApplication() {
+    }
+
+    public static ConfigurableApplicationContext start(String... properties) {
+        return start(WebApplicationType.NONE, properties);
+    }
+
+    // with a web server on a random port, for benchmarks that go through http
+    // the properties are passed as command line arguments, default properties lose to application.properties
+    public static ConfigurableApplicationContext start(WebApplicationType webApplicationType, String... properties) {
+        String[] args = new String[properties.length + 1];
+        for (int i = 0; i < properties.length; i++) {
+            args[i] = "--" + properties[i];
+        }
+        // the production profile has no default journal directory
+        args[properties.length] = "--payment.journal.directory=" + journalDirectory();
+        return new SpringApplicationBuilder(TestingApplication.class)
+            .web(webApplicationType)
+            .bannerMode(Banner.Mode.OFF)
+            .logStartupInfo(false)
+            .properties(
+                "stripe.enabled=false",
+                "logging.level.root=WARN",
+                "spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1")
+            .run(args);
+    }
+
+    // a directory per application, a benchmark never replays the journal of another
+    private static Path journalDirectory() {
+        try {
+            return Files.createTempDirectory("benchmark-journal");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create a journal directory", e);
+        }
+    }
+
+    // fixed size text so payload size can be a benchmark parameter
+    public static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package com.amigoscode.testing;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRepository;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+* The threads that use the database at the same time, under the production profile, against pools of
+* maximumPoolSize connections:
+*   writer    1 thread, the PaymentJournalWriter storing a batch of 50 payments
+*   importer  customer.import.parallelism workers, each inserting a chunk of customers
+*   rebuild   customer-spend.rebuild.parallelism workers, each summing the payments of a chunk of customers
+*   request   request threads, each looking up one customer
+* A pool smaller than the threads shows up in the request latency and in the time spent waiting for a
+* connection, printed after every iteration from hikaricp.connections.acquire
+* */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConnectionPoolBenchmark {
+
+    private static final Money AMOUNT = Money.parse("100.00", Currency.USD);
+    private static final int CUSTOMERS = 1000;
+    private static final int WRITER_BATCH = 50;
+    private static final int IMPORT_CHUNK = 100;
+    private static final int REBUILD_CHUNK = 500;
+
+    @Param({"5", "10", "17"})
+    private int maximumPoolSize;
+
+    private final AtomicLong phoneNumbers = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+    private CustomerRepository customerRepository;
+    private PaymentRepository paymentRepository;
+    private Timer connectionAcquire;
+    private long acquiredBefore;
+    private double acquireMicrosBefore;
+    private UUID[] customerIds;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start(
+            "spring.profiles.active=production",
+            "spring.datasource.hikari.maximum-pool-size=" + maximumPoolSize);
+        customerRepository = context.getBean(CustomerRepository.class);
+        paymentRepository = context.getBean(PaymentRepository.class);
+        connectionAcquire = context.getBean(MeterRegistry.class).get("hikaricp.connections.acquire").timer();
+        customerIds = new UUID[CUSTOMERS];
+        List<Customer> customers = new ArrayList<>(CUSTOMERS);
+        for (int i = 0; i < CUSTOMERS; i++) {
+            customerIds[i] = UUID.randomUUID();
+            customers.add(new Customer(customerIds[i], "customer", "existing-" + i));
+        }
+        customerRepository.insertAllInBatches(customers);
+    }
+
+    // the time all threads of the iteration waited for a connection, the timer's max covers the last minutes
+    @TearDown(Level.Iteration)
+    public void printConnectionAcquire() {
+        long acquired = connectionAcquire.count();
+        double acquireMicros = connectionAcquire.totalTime(TimeUnit.MICROSECONDS);
+        System.out.printf("%nconnection acquire: %d acquisitions, mean %.0fus, max %.0fus%n",
+            acquired - acquiredBefore, (acquireMicros - acquireMicrosBefore) / Math.max(1, acquired - acquiredBefore),
+            connectionAcquire.max(TimeUnit.MICROSECONDS));
+        acquiredBefore = acquired;
+        acquireMicrosBefore = acquireMicros;
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @Group("database")
+    @GroupThreads(1)
+    public List<Payment> writer() {
+        List<Payment> payments = new ArrayList<>(WRITER_BATCH);
+        for (int i = 0; i < WRITER_BATCH; i++) {
+            payments.add(new Payment(null, randomCustomerId(), AMOUNT, "card123", "benchmark"));
+        }
+        return paymentRepository.saveAllInBatches(payments);
+    }
+
+    @Benchmark
+    @Group("database")
+    @GroupThreads(4)
+    public List<Customer> importer() {
+        List<Customer> customers = new ArrayList<>(IMPORT_CHUNK);
+        for (int i = 0; i < IMPORT_CHUNK; i++) {
+            customers.add(new Customer(UUID.randomUUID(), "imported",
+                Long.toString(phoneNumbers.incrementAndGet())));
+        }
+        return customerRepository.insertAllInBatches(customers);
+    }
+
+    @Benchmark
+    @Group("database")
+    @GroupThreads(4)
+    public Object rebuild() {
+        int from = ThreadLocalRandom.current().nextInt(CUSTOMERS - REBUILD_CHUNK);
+        return paymentRepository.selectSpendTotalsOfCustomers(
+            Arrays.asList(customerIds).subList(from, from + REBUILD_CHUNK));
+    }
+
+    @Benchmark
+    @Group("database")
+    @GroupThreads(8)
+    public Object request() {
+        return customerRepository.findById(randomCustomerId());
+    }
+
+    private UUID randomCustomerId() {
+        return customerIds[ThreadLocalRandom.current().nextInt(customerIds.length)];
+    }
+}
@@ -0,0 +1,132 @@
+package com.amigoscode.testing;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.customer.CustomerRegistrationService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Load test of the payment endpoint over http, servlet stack against reactive stack. Every invocation
+* keeps concurrency payments in flight from a non blocking client until REQUESTS are answered, and the
+* card charge takes providerLatency on a simulated provider, so the stack that holds a thread per pending
+* request runs out of threads first. Failed responses (e.g. 504 once the deadline is missed) are reported
+* as a separate counter rather than ending the run.
+*
+* Client and server share the JVM, run it on a machine with enough cores for both.
+*
+*   ./mvnw -Pbenchmark -DskipTests verify -Djmh.include=HttpStackBenchmark
+* */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HttpStackBenchmark {
+
+    private static final int REQUESTS = 2000;
+    private static final int CUSTOMERS = 1000;
+
+    @Param({"servlet", "reactive"})
+    private String stack;
+
+    @Param({"fixed:20", "lognormal:20,200"})
+    private String providerLatency;
+
+    // tomcat serves 200 requests at a time by default
+    @Param({"100", "500"})
+    private int concurrency;
+
+    private ConfigurableApplicationContext context;
+    private WebClient webClient;
+    private ConnectionProvider connectionProvider;
+    private String[] paymentRequests;
+
+    @Setup
+    public void setUp() {
+        boolean reactive = stack.equals("reactive");
+        context = BenchmarkApplication.start(
+            reactive ? WebApplicationType.REACTIVE : WebApplicationType.SERVLET,
+            "spring.profiles.active=" + (reactive ? "reactive" : "default"),
+            "server.port=0",
+            "payment.routing.enabled=true",
+            "payment.routing.providers=simulated",
+            "payment.routing.simulated.simulated.latency=" + providerLatency,
+            "payment.async.max-in-flight=" + concurrency,
+            "payment.async.threads=" + concurrency,
+            // every request pays with the same card, the limiter would answer most of them with 429
+            "payment.rate-limit.enabled=false");
+
+        CustomerRegistrationService registrationService = context.getBean(CustomerRegistrationService.class);
+        paymentRequests = new String[CUSTOMERS];
+        for (int i = 0; i < CUSTOMERS; i++) {
+            UUID customerId = UUID.randomUUID();
+            registrationService.registerNewCustomer(new CustomerRegistrationRequest(
+                new Customer(customerId, "customer" + i, "+44" + i)));
+            paymentRequests[i] = "{\"payment\":{\"customerId\":\"" + customerId + "\","
+                + "\"amount\":100.00,\"currency\":\"USD\",\"source\":\"card123\",\"description\":\"load test\"}}";
+        }
+
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        connectionProvider = ConnectionProvider.fixed("load-test", concurrency);
+        webClient = WebClient.builder()
+            .baseUrl("http://localhost:" + port)
+            .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider)))
+            .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        connectionProvider.dispose();
+        context.close();
+    }
+
+    // the same request goes to the blocking endpoint on the servlet stack and its reactive counterpart
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void chargeCards(Responses responses) {
+        Flux.range(0, REQUESTS)
+            .flatMap(i -> webClient.put()
+                .uri("/api/v1/payment")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(paymentRequests[ThreadLocalRandom.current().nextInt(paymentRequests.length)])
+                .exchange()
+                .flatMap(response -> response.releaseBody().thenReturn(response.statusCode().is2xxSuccessful()))
+                .onErrorReturn(false), concurrency)
+            .doOnNext(ok -> {
+                if (ok) {
+                    responses.ok++;
+                } else {
+                    responses.failed++;
+                }
+            })
+            .blockLast();
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Responses {
+        public long ok;
+        public long failed;
+    }
+}
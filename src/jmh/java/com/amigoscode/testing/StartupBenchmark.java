@@ -0,0 +1,130 @@
+package com.amigoscode.testing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Cold start of the thin jar built by the fast-startup maven profile, from launching the jvm until the first
+* /api/v1/payment succeeds. Every invocation is a new jvm, so there is nothing to warm up:
+*   ./mvnw -Pfast-startup,benchmark -DskipTests verify -Djmh.include=StartupBenchmark \
+*     -Djmh.args="-f 1 -bm ss -wi 0 -i 5 -tu ms"
+* default   the plain start
+* cds       the same, with the classes mapped from the AppCDS archive of the build
+* .github/workflows/startup-benchmark.yml checks the result against src/jmh/startup-baseline.properties
+* */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StartupBenchmark {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    @Param({"default", "cds"})
+    private String mode;
+
+    private Path directory;
+    private Path jar;
+    private HttpClient httpClient;
+    private Process process;
+    private int invocation;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Paths.get(System.getProperty("startup.directory", "target/fast-startup"));
+        try (DirectoryStream<Path> jars = Files.newDirectoryStream(directory, "*-app.jar")) {
+            jar = jars.iterator().next();
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("No thin jar in " + directory + ", build with -Pfast-startup", e);
+        }
+        httpClient = HttpClient.newHttpClient();
+    }
+
+    @Benchmark
+    public int firstPayment() throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (mode.equals("cds")) {
+            command.add("-XX:SharedArchiveFile=" + directory.resolve("app-cds.jsa"));
+        }
+        command.add("-Dserver.port=" + port);
+        // a journal of its own, nothing is replayed from an earlier invocation
+        command.add("-Dpayment.journal.directory=" + directory.resolve("benchmark-journal/" + invocation));
+        command.add("-jar");
+        command.add(jar.toString());
+        process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(directory.resolve("benchmark-" + mode + "-" + invocation++ + ".log").toFile())
+            .start();
+
+        UUID customerId = UUID.randomUUID();
+        awaitOk(port, "/api/v1/customer-registration", "{\"customer\":{\"id\":\"" + customerId + "\","
+            + "\"name\":\"startup\",\"phoneNumber\":\"+440000000001\"}}");
+        awaitOk(port, "/api/v1/payment", "{\"payment\":{\"customerId\":\"" + customerId + "\","
+            + "\"amount\":1.00,\"currency\":\"USD\",\"source\":\"card123\",\"description\":\"startup\"}}");
+        return port;
+    }
+
+    @TearDown(Level.Invocation)
+    public void stop() throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+    }
+
+    // a refused connection means the server is not listening yet
+    private void awaitOk(int port, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+            .header("Content-Type", "application/json")
+            .PUT(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (true) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Application exited with " + process.exitValue());
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new IllegalStateException(path + " did not answer 200 in time");
+            }
+            try {
+                if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (ConnectException e) {
+                // not up yet
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.BenchmarkApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+* CustomerRegistrationService.registerNewCustomer for new customers and for already registered ones
+* */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CustomerRegistrationBenchmark {
+
+    @Param({"16", "128"})
+    private int nameLength;
+
+    private final AtomicLong phoneNumbers = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+    private CustomerRegistrationService registrationService;
+    private String name;
+    private CustomerRegistrationRequest existingCustomer;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        registrationService = context.getBean(CustomerRegistrationService.class);
+        name = BenchmarkApplication.text(nameLength);
+        existingCustomer = new CustomerRegistrationRequest(new Customer(null, name, "existing"));
+        registrationService.registerNewCustomer(existingCustomer);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void registerNewCustomer() {
+        registrationService.registerNewCustomer(new CustomerRegistrationRequest(
+            new Customer(null, name, Long.toString(phoneNumbers.incrementAndGet()))));
+    }
+
+    @Benchmark
+    public void registerExistingCustomer() {
+        registrationService.registerNewCustomer(existingCustomer);
+    }
+}
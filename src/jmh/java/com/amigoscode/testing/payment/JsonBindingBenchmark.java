@@ -0,0 +1,66 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.BenchmarkApplication;
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.json.JsonBindingModule;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Jackson binding of the request bodies with the same ObjectMapper setup spring mvc uses, including the
+* JsonBindingModule bean it picks up. Run with -prof gc for the bytes allocated per request
+* */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonBindingBenchmark {
+
+    @Param({"16", "1024"})
+    private int descriptionLength;
+
+    private ObjectMapper objectMapper;
+    private PaymentRequest paymentRequest;
+    private byte[] paymentRequestJson;
+    private byte[] customerRegistrationRequestJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = Jackson2ObjectMapperBuilder.json().modulesToInstall(new JsonBindingModule()).build();
+        paymentRequest = new PaymentRequest(new Payment(
+            null,
+            UUID.randomUUID(),
+            Money.parse("100.00", Currency.GBP),
+            "x0x0x0x0",
+            BenchmarkApplication.text(descriptionLength)));
+        paymentRequestJson = objectMapper.writeValueAsBytes(paymentRequest);
+        customerRegistrationRequestJson = objectMapper.writeValueAsBytes(new CustomerRegistrationRequest(
+            new Customer(UUID.randomUUID(), BenchmarkApplication.text(descriptionLength), "+447000000000")));
+    }
+
+    @Benchmark
+    public PaymentRequest readPaymentRequest() throws Exception {
+        return objectMapper.readValue(paymentRequestJson, PaymentRequest.class);
+    }
+
+    @Benchmark
+    public byte[] writePaymentRequest() throws Exception {
+        return objectMapper.writeValueAsBytes(paymentRequest);
+    }
+
+    @Benchmark
+    public CustomerRegistrationRequest readCustomerRegistrationRequest() throws Exception {
+        return objectMapper.readValue(customerRegistrationRequestJson, CustomerRegistrationRequest.class);
+    }
+}
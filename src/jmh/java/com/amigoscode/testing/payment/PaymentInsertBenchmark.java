@@ -0,0 +1,89 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.BenchmarkApplication;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Insert throughput of the payment write path against H2. paymentsPerTransaction 1 is a payment stored on
+* its own, larger values are the batches PaymentJournalWriter stores. Run it with profile=default and
+* profile=production to compare the default persistence settings with application-production.properties.
+*
+* On one CPU the inserts take about 25 seconds of warmup before the JIT is done, the default -wi 3 measures the
+* warmup instead of the inserts. Run it with -f 3 -wi 15 -w 2s -i 10 -r 2s, see the README for the numbers.
+* Every iteration starts from an empty payment table so a later iteration does not insert into a bigger one
+* */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PaymentInsertBenchmark {
+
+    private static final int PAYMENTS = 500;
+    private static final Money AMOUNT = Money.parse("100.00", Currency.USD);
+
+    @Param({"default", "production"})
+    private String profile;
+
+    @Param({"1", "50", "500"})
+    private int paymentsPerTransaction;
+
+    private ConfigurableApplicationContext context;
+    private PaymentRepository paymentRepository;
+    private JdbcTemplate jdbcTemplate;
+    private UUID[] customerIds;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start("spring.profiles.active=" + profile);
+        paymentRepository = context.getBean(PaymentRepository.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        customerIds = new UUID[1000];
+        for (int i = 0; i < customerIds.length; i++) {
+            customerIds[i] = UUID.randomUUID();
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void emptyPaymentTable() {
+        jdbcTemplate.execute("truncate table payment");
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAYMENTS)
+    public void insertPayments() {
+        List<Payment> payments = new ArrayList<>(paymentsPerTransaction);
+        for (int i = 0; i < PAYMENTS; i++) {
+            UUID customerId = customerIds[ThreadLocalRandom.current().nextInt(customerIds.length)];
+            payments.add(new Payment(null, customerId, AMOUNT, "card123", "benchmark"));
+            if (payments.size() == paymentsPerTransaction) {
+                paymentRepository.saveAllInBatches(payments);
+                payments = new ArrayList<>(paymentsPerTransaction);
+            }
+        }
+        if (!payments.isEmpty()) {
+            paymentRepository.saveAllInBatches(payments);
+        }
+    }
+}
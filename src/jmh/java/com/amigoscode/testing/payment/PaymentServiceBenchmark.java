@@ -0,0 +1,86 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.BenchmarkApplication;
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.customer.CustomerRegistrationService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Full PaymentService.chargeCard path - customer lookup, currency check, MockStripeService charge and the append
+* of the payment to the PaymentJournal, which returns once the entry is forced to disk. The H2 insert happens
+* behind the response in PaymentJournalWriter and is measured by PaymentInsertBenchmark, so the numbers here
+* mostly follow the fsync of the disk payment.journal.directory is on. Concurrent threads share a force.
+* Every iteration waits for the writer to store what was journaled, on one CPU eight charging threads
+* otherwise starve it until payment.journal.max-pending refuses the charges
+* */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PaymentServiceBenchmark {
+
+    private static final Money AMOUNT = Money.parse("100.00", Currency.USD);
+
+    @Param({"1000"})
+    private int customers;
+
+    @Param({"16", "255"}) // description is a varchar(255)
+    private int descriptionLength;
+
+    private ConfigurableApplicationContext context;
+    private PaymentService paymentService;
+    private Gauge journalPending;
+    private UUID[] customerIds;
+    private String description;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start();
+        paymentService = context.getBean(PaymentService.class);
+        journalPending = context.getBean(MeterRegistry.class).get("payment.journal.pending").gauge();
+        CustomerRegistrationService registrationService = context.getBean(CustomerRegistrationService.class);
+
+        customerIds = new UUID[customers];
+        for (int i = 0; i < customers; i++) {
+            customerIds[i] = UUID.randomUUID();
+            registrationService.registerNewCustomer(new CustomerRegistrationRequest(
+                new Customer(customerIds[i], "customer" + i, "+44" + i)));
+        }
+        description = BenchmarkApplication.text(descriptionLength);
+    }
+
+    @TearDown(Level.Iteration)
+    public void awaitJournalStored() throws InterruptedException {
+        while (journalPending.value() > 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void chargeCard() {
+        UUID customerId = customerIds[ThreadLocalRandom.current().nextInt(customerIds.length)];
+        paymentService.chargeCard(customerId, new PaymentRequest(
+            new Payment(null, customerId, AMOUNT, "card123", description)), Deadline.none());
+    }
+}
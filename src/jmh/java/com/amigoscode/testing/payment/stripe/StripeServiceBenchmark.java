@@ -0,0 +1,76 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.BenchmarkApplication;
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.CardPaymentCharger;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Deadline;
+import com.amigoscode.testing.payment.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+* StripeService charges against SimulatedStripeApi, so the latency percentiles include its retries, circuit
+* breaker and concurrency limiter under a provider with a long tail and failures. The seed is fixed, so with
+* one thread every run draws the same latencies and errors
+* */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StripeServiceBenchmark {
+
+    private static final Money AMOUNT = Money.parse("100.00", Currency.USD);
+
+    @Param({"normal:20,5", "lognormal:20,400"})
+    private String latency;
+
+    @Param({"none", "api_connection_error:0.02,api_error:0.01,rate_limit_error:0.02"})
+    private String errors;
+
+    @Param({"0.05"})
+    private double declineRate;
+
+    @Param({"1000"})
+    private long deadlineMillis;
+
+    private ConfigurableApplicationContext context;
+    private CardPaymentCharger stripeService;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkApplication.start(
+            "stripe.enabled=true",
+            "stripe.simulator.enabled=true",
+            "stripe.simulator.latency=" + latency,
+            "stripe.simulator.errors=" + ("none".equals(errors) ? "" : errors),
+            "stripe.simulator.decline-rate=" + declineRate,
+            "stripe.simulator.seed=1");
+        stripeService = context.getBean("stripeService", CardPaymentCharger.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public CardPaymentCharge chargeCard() {
+        try {
+            return stripeService.chargeCard("tok_visa", AMOUNT, "benchmark",
+                Deadline.after(deadlineMillis, TimeUnit.MILLISECONDS));
+        } catch (RuntimeException e) {
+            // declines, errors that were not retried and missed deadlines are part of what is measured
+            return null;
+        }
+    }
+}
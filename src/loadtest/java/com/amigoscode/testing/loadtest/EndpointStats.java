@@ -0,0 +1,73 @@
+package com.amigoscode.testing.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+* Latencies and outcomes of the requests to one endpoint, in microseconds.
+*
+* Latency runs from the time a request was due, not from the time it was sent, so a server or generator that
+* stalls shows up in the percentiles instead of holding back the requests that would have seen it
+* (coordinated omission). Service time runs from the send and is only reported next to it
+* */
+final class EndpointStats {
+
+    private final String name;
+    private final Histogram latency = new ConcurrentHistogram(3);
+    private final Histogram serviceTime = new ConcurrentHistogram(3);
+    private final LongAdder successes = new LongAdder();
+    // by http status, 0 for requests that got no answer
+    private final Map<Integer, LongAdder> failures = new ConcurrentHashMap<>();
+
+    EndpointStats(String name) {
+        this.name = name;
+    }
+
+    void record(long dueNanos, long sentNanos, long completedNanos, int status) {
+        latency.recordValue(TimeUnit.NANOSECONDS.toMicros(completedNanos - dueNanos));
+        serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(completedNanos - sentNanos));
+        if (status >= 200 && status < 300) {
+            successes.increment();
+        } else {
+            failures.computeIfAbsent(status, s -> new LongAdder()).increment();
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getSuccesses() {
+        return successes.sum();
+    }
+
+    Map<Integer, Long> getFailures() {
+        Map<Integer, Long> failuresByStatus = new TreeMap<>();
+        failures.forEach((status, count) -> failuresByStatus.put(status, count.sum()));
+        return failuresByStatus;
+    }
+
+    double latencyMillis(double percentile) {
+        return latency.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    double serviceTimeMillis(double percentile) {
+        return serviceTime.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    double maxLatencyMillis() {
+        return latency.getMaxValue() / 1000.0;
+    }
+
+    // the .hgrm format, which the HdrHistogram plotter reads
+    void writeLatencyDistribution(PrintStream out) {
+        latency.outputPercentileDistribution(out, 1000.0);
+    }
+}
@@ -0,0 +1,82 @@
+package com.amigoscode.testing.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/*
+* The measured window of a load test run. Throughput only counts the requests answered with a 2xx
+* */
+final class LoadResult {
+
+    private final double ratePerSecond;
+    private final Duration duration;
+    private final List<EndpointStats> endpoints;
+
+    LoadResult(double ratePerSecond, Duration duration, List<EndpointStats> endpoints) {
+        this.ratePerSecond = ratePerSecond;
+        this.duration = duration;
+        this.endpoints = endpoints;
+    }
+
+    double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    List<EndpointStats> getEndpoints() {
+        return endpoints;
+    }
+
+    double throughputPerSecond() {
+        long successes = 0;
+        for (EndpointStats endpoint : endpoints) {
+            successes += endpoint.getSuccesses();
+        }
+        return successes / (duration.toNanos() / 1e9);
+    }
+
+    void print(PrintStream out) {
+        out.printf(Locale.ROOT, "%nOffered %.1f requests/s for %ss, answered %.1f/s with a 2xx%n",
+            ratePerSecond, duration.getSeconds(), throughputPerSecond());
+        out.printf(Locale.ROOT, "%-22s %8s %9s %9s %9s %9s %9s %12s  %s%n",
+            "endpoint (ms)", "2xx", "p50", "p90", "p99", "p99.9", "max", "p99 service", "failures by status");
+        for (EndpointStats endpoint : endpoints) {
+            out.printf(Locale.ROOT, "%-22s %8d %9.2f %9.2f %9.2f %9.2f %9.2f %12.2f  %s%n",
+                endpoint.getName(), endpoint.getSuccesses(), endpoint.latencyMillis(50),
+                endpoint.latencyMillis(90), endpoint.latencyMillis(99), endpoint.latencyMillis(99.9),
+                endpoint.maxLatencyMillis(), endpoint.serviceTimeMillis(99), endpoint.getFailures());
+        }
+        out.println("Latency is counted from when a request was due, service time from when it was sent");
+    }
+
+    // the same keys as the baseline
+    Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("rate-per-second", format(ratePerSecond));
+        properties.setProperty("throughput-per-second", format(throughputPerSecond()));
+        for (EndpointStats endpoint : endpoints) {
+            properties.setProperty(endpoint.getName() + ".p99-ms", format(endpoint.latencyMillis(99)));
+        }
+        return properties;
+    }
+
+    void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (EndpointStats endpoint : endpoints) {
+            try (PrintStream out = new PrintStream(
+                Files.newOutputStream(directory.resolve(endpoint.getName() + ".hgrm")), false, "UTF-8")) {
+                endpoint.writeLatencyDistribution(out);
+            }
+        }
+        LoadTestBaseline.store(toProperties(), directory.resolve("result.properties"), "last run");
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
@@ -0,0 +1,97 @@
+package com.amigoscode.testing.loadtest;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+* The measured windows of a run, summed up by the median of each number over the windows. A p99 of a single
+* window moves with whatever else the machine did at the time, the median of several windows a lot less, so
+* a run can be held to a baseline within a few tenths instead of a factor of two
+* */
+final class LoadSummary {
+
+    private final double ratePerSecond;
+    private final int windows;
+    private final Map<String, double[]> p99sByEndpoint;
+    private final double[] throughputs;
+
+    private LoadSummary(double ratePerSecond, int windows, Map<String, double[]> p99sByEndpoint,
+        double[] throughputs) {
+        this.ratePerSecond = ratePerSecond;
+        this.windows = windows;
+        this.p99sByEndpoint = p99sByEndpoint;
+        this.throughputs = throughputs;
+    }
+
+    static LoadSummary of(List<LoadResult> results) {
+        if (results.isEmpty()) {
+            throw new IllegalArgumentException("A load test run needs at least one measured window");
+        }
+        Map<String, double[]> p99sByEndpoint = new LinkedHashMap<>();
+        double[] throughputs = new double[results.size()];
+        for (int window = 0; window < results.size(); window++) {
+            LoadResult result = results.get(window);
+            for (EndpointStats endpoint : result.getEndpoints()) {
+                p99sByEndpoint.computeIfAbsent(endpoint.getName(), name -> new double[results.size()])[window] =
+                    endpoint.latencyMillis(99);
+            }
+            throughputs[window] = result.throughputPerSecond();
+        }
+        return new LoadSummary(results.get(0).getRatePerSecond(), results.size(), p99sByEndpoint, throughputs);
+    }
+
+    double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    List<String> getEndpointNames() {
+        return new ArrayList<>(p99sByEndpoint.keySet());
+    }
+
+    double p99Millis(String endpoint) {
+        return median(p99sByEndpoint.get(endpoint));
+    }
+
+    double throughputPerSecond() {
+        return median(throughputs);
+    }
+
+    void print(PrintStream out) {
+        out.printf(Locale.ROOT, "%nMedian of %s measured windows, the range over the windows in brackets%n", windows);
+        for (Map.Entry<String, double[]> endpoint : p99sByEndpoint.entrySet()) {
+            double[] p99s = endpoint.getValue().clone();
+            Arrays.sort(p99s);
+            out.printf(Locale.ROOT, "p99 of %-22s %9.2fms [%.2f - %.2f]%n",
+                endpoint.getKey(), median(p99s), p99s[0], p99s[p99s.length - 1]);
+        }
+        out.printf(Locale.ROOT, "throughput %27.1f/s%n", throughputPerSecond());
+    }
+
+    // the same keys as the baseline
+    Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("rate-per-second", format(ratePerSecond));
+        properties.setProperty("throughput-per-second", format(throughputPerSecond()));
+        for (String endpoint : p99sByEndpoint.keySet()) {
+            properties.setProperty(endpoint + ".p99-ms", format(p99Millis(endpoint)));
+        }
+        return properties;
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
@@ -0,0 +1,173 @@
+package com.amigoscode.testing.loadtest;
+
+import com.amigoscode.testing.TestingApplication;
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.json.JsonBindingModule;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentRequest;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+* Load test of api/v1/customer-registration and api/v1/payment at a constant arrival rate, see OpenModelLoad.
+* Without loadtest.url the application is started in this jvm on in-memory H2 with the MockStripeService.
+*   loadtest.rate                   requests a second
+*   loadtest.warmup-seconds         load before the first measured window, not recorded
+*   loadtest.duration-seconds       a measured window
+*   loadtest.windows                measured windows one after the other, compared by their median
+*   loadtest.registration-share     share of the requests that register a new customer, the rest pay
+*   loadtest.customers              customers registered before the load, the ones that pay
+*   loadtest.baseline               properties file of a good run, the build fails when this run regresses
+*   loadtest.update-baseline        stores this run as the baseline instead of comparing
+*   loadtest.p99-tolerance, loadtest.p99-slack-ms, loadtest.throughput-tolerance  see LoadTestBaseline
+* Percentile distributions and the numbers of the run are written to loadtest.report-directory
+* */
+public final class LoadTest {
+
+    private static final Money AMOUNT = Money.parse("10.00", Currency.GBP);
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        double rate = Double.parseDouble(property("loadtest.rate", "50"));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(property("loadtest.warmup-seconds", "15")));
+        Duration duration = Duration.ofSeconds(Long.parseLong(property("loadtest.duration-seconds", "60")));
+        int windows = Integer.parseInt(property("loadtest.windows", "5"));
+        double registrationShare = Double.parseDouble(property("loadtest.registration-share", "0.1"));
+        int customers = Integer.parseInt(property("loadtest.customers", "1000"));
+        Duration requestTimeout = Duration.ofMillis(Long.parseLong(property("loadtest.request-timeout-ms", "10000")));
+        long seed = Long.parseLong(property("loadtest.seed", "1"));
+        Path baselinePath = Paths.get(property("loadtest.baseline", "src/loadtest/baseline.properties"));
+        Path reportDirectory = Paths.get(property("loadtest.report-directory", "target/loadtest"));
+        boolean updateBaseline = Boolean.parseBoolean(property("loadtest.update-baseline", "false"));
+
+        String url = property("loadtest.url", "");
+        ConfigurableApplicationContext context = url.isEmpty() ? start() : null;
+        List<LoadResult> results = new ArrayList<>(windows);
+        try {
+            URI baseUri = URI.create(context == null
+                ? url
+                : "http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+            HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(requestTimeout)
+                .build();
+            // a run of its own, the customers of an earlier run against the same server are still registered
+            String runId = String.format("%06d", System.currentTimeMillis() % 1_000_000);
+            ObjectMapper objectMapper = new ObjectMapper().registerModule(new JsonBindingModule());
+
+            List<String> paymentBodies = registerCustomers(httpClient, baseUri, objectMapper, runId, customers);
+            OpenModelLoad load = new OpenModelLoad(httpClient, baseUri, rate, registrationShare, paymentBodies,
+                i -> registrationBody(objectMapper, runId, customers + i), requestTimeout, seed);
+            for (int window = 0; window < windows; window++) {
+                results.add(load.run(window == 0 ? warmup : Duration.ZERO, duration));
+            }
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+
+        for (int window = 0; window < results.size(); window++) {
+            results.get(window).print(System.out);
+            results.get(window).write(reportDirectory.resolve("window-" + (window + 1)));
+        }
+        LoadSummary summary = LoadSummary.of(results);
+        summary.print(System.out);
+        LoadTestBaseline.store(summary.toProperties(), reportDirectory.resolve("result.properties"), "last run");
+        if (updateBaseline) {
+            LoadTestBaseline.store(summary.toProperties(), baselinePath,
+                "load test baseline, see LoadTestBaseline. Taken with -Dloadtest.update-baseline=true");
+            System.out.printf("Stored as the baseline in %s%n", baselinePath);
+            return;
+        }
+        List<String> regressions = LoadTestBaseline.load(baselinePath).regressions(summary,
+            Double.parseDouble(property("loadtest.p99-tolerance", "0.2")),
+            Double.parseDouble(property("loadtest.p99-slack-ms", "2")),
+            Double.parseDouble(property("loadtest.throughput-tolerance", "0.02")));
+        if (!regressions.isEmpty()) {
+            System.out.printf("Regressed against the baseline in %s:%n", baselinePath);
+            regressions.forEach(regression -> System.out.println("  " + regression));
+            System.exit(1);
+        }
+        System.out.printf("No regression against the baseline in %s%n", baselinePath);
+    }
+
+    // the properties go in as command line arguments, default properties lose to application.properties
+    private static ConfigurableApplicationContext start() throws Exception {
+        Path journalDirectory = Files.createTempDirectory("loadtest-journal");
+        return new SpringApplicationBuilder(TestingApplication.class)
+            .web(WebApplicationType.SERVLET)
+            .bannerMode(Banner.Mode.OFF)
+            .logStartupInfo(false)
+            .run(
+                "--server.port=0",
+                "--stripe.enabled=false",
+                "--logging.level.root=WARN",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest;DB_CLOSE_DELAY=-1",
+                // a journal left by another run would be replayed into this database
+                "--payment.journal.directory=" + journalDirectory);
+    }
+
+    // every customer pays with a card of their own, so the per source rate limit treats them apart
+    private static List<String> registerCustomers(HttpClient httpClient, URI baseUri, ObjectMapper objectMapper,
+        String runId, int customers) throws Exception {
+        List<String> paymentBodies = new ArrayList<>(customers);
+        for (int i = 0; i < customers; i++) {
+            UUID customerId = UUID.randomUUID();
+            HttpResponse<Void> response = httpClient.send(HttpRequest.newBuilder(
+                baseUri.resolve("/api/v1/customer-registration"))
+                    .header("Content-Type", "application/json")
+                    .PUT(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(
+                        new CustomerRegistrationRequest(new Customer(customerId, "customer" + i,
+                            phoneNumber(runId, i))))))
+                    .build(),
+                HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException(String.format(
+                    "Registering customer [%s] before the load was answered with [%s]", i, response.statusCode()));
+            }
+            paymentBodies.add(objectMapper.writeValueAsString(new PaymentRequest(
+                new Payment(null, customerId, AMOUNT, "card-" + runId + "-" + i, "load test"))));
+        }
+        return paymentBodies;
+    }
+
+    private static String registrationBody(ObjectMapper objectMapper, String runId, int i) {
+        try {
+            return objectMapper.writeValueAsString(new CustomerRegistrationRequest(
+                new Customer(UUID.randomUUID(), "customer" + i, phoneNumber(runId, i))));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String phoneNumber(String runId, int i) {
+        return String.format("+44%s%07d", runId, i);
+    }
+
+    private static String property(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
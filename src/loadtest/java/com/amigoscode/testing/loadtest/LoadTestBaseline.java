@@ -0,0 +1,91 @@
+package com.amigoscode.testing.loadtest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/*
+* The p99 of every endpoint and the throughput of a run that is known to be good, both the median over the
+* measured windows of the run (see LoadSummary). A run regresses when
+*   the p99 of an endpoint is above baseline * (1 + p99Tolerance) + p99SlackMillis
+*   the throughput is below baseline * (1 - throughputTolerance)
+* The slack keeps a p99 of a few milliseconds from failing on scheduling noise. The tolerances should sit just
+* above the run-to-run spread of a good build, the baseline file records the spread it was taken with.
+* Latencies only compare on the machine the baseline was taken on, and only at the same arrival rate
+* */
+final class LoadTestBaseline {
+
+    private final Properties baseline;
+
+    private LoadTestBaseline(Properties baseline) {
+        this.baseline = baseline;
+    }
+
+    static LoadTestBaseline load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            throw new IllegalStateException(String.format(
+                "No load test baseline at [%s], take one with -Dloadtest.update-baseline=true", path));
+        }
+        Properties baseline = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            baseline.load(reader);
+        }
+        return new LoadTestBaseline(baseline);
+    }
+
+    static void store(Properties properties, Path path, String comment) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            properties.store(writer, comment);
+        }
+    }
+
+    // one line per regression, empty when the run is as good as the baseline
+    List<String> regressions(LoadSummary result, double p99Tolerance, double p99SlackMillis,
+        double throughputTolerance) {
+        double baselineRate = value("rate-per-second");
+        if (Math.abs(baselineRate - result.getRatePerSecond()) > 1e-6) {
+            throw new IllegalStateException(String.format(Locale.ROOT,
+                "The baseline was taken at [%s] requests/s, this run offered [%s], the numbers do not compare",
+                baselineRate, result.getRatePerSecond()));
+        }
+        List<String> regressions = new ArrayList<>();
+        for (String endpoint : result.getEndpointNames()) {
+            double baselineP99 = value(endpoint + ".p99-ms");
+            double allowed = baselineP99 * (1 + p99Tolerance) + p99SlackMillis;
+            double p99 = result.p99Millis(endpoint);
+            if (p99 > allowed) {
+                regressions.add(String.format(Locale.ROOT,
+                    "p99 of %s is %.2fms, baseline %.2fms allows up to %.2fms",
+                    endpoint, p99, baselineP99, allowed));
+            }
+        }
+        double baselineThroughput = value("throughput-per-second");
+        double required = baselineThroughput * (1 - throughputTolerance);
+        double throughput = result.throughputPerSecond();
+        if (throughput < required) {
+            regressions.add(String.format(Locale.ROOT,
+                "throughput is %.1f/s, baseline %.1f/s requires at least %.1f/s",
+                throughput, baselineThroughput, required));
+        }
+        return regressions;
+    }
+
+    private double value(String key) {
+        String value = baseline.getProperty(key);
+        if (value == null) {
+            throw new IllegalStateException(String.format(
+                "Load test baseline has no [%s], take a new one with -Dloadtest.update-baseline=true", key));
+        }
+        return Double.parseDouble(value);
+    }
+}
@@ -0,0 +1,111 @@
+package com.amigoscode.testing.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/*
+* Sends requests at a constant arrival rate whatever the answers take (an open model), the next request is
+* due at a fixed time and never waits for an earlier one. A share of the arrivals register a new customer,
+* the rest pay as one of the registered customers.
+*
+* Only requests due after the warm-up are recorded. A run ends once the requests of the measured window
+* are answered or have timed out. Runs one after the other carry on with the same sequence of requests
+* and never register a customer twice
+* */
+final class OpenModelLoad {
+
+    private final HttpClient httpClient;
+    private final URI registrationUri;
+    private final URI paymentUri;
+    private final double ratePerSecond;
+    private final double registrationShare;
+    private final List<String> paymentBodies;
+    private final IntFunction<String> registrationBodies;
+    private final Duration requestTimeout;
+    private final Random random;
+    private final AtomicLong inFlight = new AtomicLong();
+    // only touched by the sending thread
+    private int registered;
+
+    OpenModelLoad(HttpClient httpClient, URI baseUri, double ratePerSecond, double registrationShare,
+        List<String> paymentBodies, IntFunction<String> registrationBodies, Duration requestTimeout, long seed) {
+        if (!(ratePerSecond > 0)) {
+            throw new IllegalArgumentException(String.format("Arrival rate [%s] must be positive", ratePerSecond));
+        }
+        this.httpClient = httpClient;
+        this.registrationUri = baseUri.resolve("/api/v1/customer-registration");
+        this.paymentUri = baseUri.resolve("/api/v1/payment");
+        this.ratePerSecond = ratePerSecond;
+        this.registrationShare = registrationShare;
+        this.paymentBodies = paymentBodies;
+        this.registrationBodies = registrationBodies;
+        this.requestTimeout = requestTimeout;
+        // only the sending thread draws, in order, so a seed gives the same sequence of requests
+        this.random = new Random(seed);
+    }
+
+    LoadResult run(Duration warmup, Duration duration) throws InterruptedException {
+        EndpointStats registrations = new EndpointStats("customer-registration");
+        EndpointStats payments = new EndpointStats("payment");
+        long start = System.nanoTime();
+        long measuredFrom = start + warmup.toNanos();
+        long end = measuredFrom + duration.toNanos();
+        for (long arrival = 0; ; arrival++) {
+            // from the start instead of adding up intervals, so rounding never drifts the rate
+            long due = start + (long) (arrival * TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+            if (due - end >= 0) {
+                break;
+            }
+            for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+            boolean measured = due - measuredFrom >= 0;
+            if (random.nextDouble() < registrationShare) {
+                send(registrationUri, registrationBodies.apply(registered++), due, measured ? registrations : null);
+            } else {
+                String body = paymentBodies.get(random.nextInt(paymentBodies.size()));
+                send(paymentUri, body, due, measured ? payments : null);
+            }
+        }
+        awaitAnswers(requestTimeout.toNanos() + TimeUnit.SECONDS.toNanos(5));
+        return new LoadResult(ratePerSecond, duration, List.of(registrations, payments));
+    }
+
+    private void send(URI uri, String body, long due, EndpointStats stats) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+            .timeout(requestTimeout)
+            .header("Content-Type", "application/json")
+            .PUT(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        inFlight.incrementAndGet();
+        long sent = System.nanoTime();
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+            .whenComplete((response, failure) -> {
+                long completed = System.nanoTime();
+                if (stats != null) {
+                    stats.record(due, sent, completed, failure == null ? response.statusCode() : 0);
+                }
+                inFlight.decrementAndGet();
+            });
+    }
+
+    private void awaitAnswers(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (inFlight.get() > 0 && deadline - System.nanoTime() > 0) {
+            Thread.sleep(10);
+        }
+        if (inFlight.get() > 0) {
+            throw new IllegalStateException(String.format(
+                "[%s] requests were neither answered nor timed out", inFlight.get()));
+        }
+    }
+}
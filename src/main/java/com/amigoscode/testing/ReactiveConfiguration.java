@@ -0,0 +1,35 @@
+package com.amigoscode.testing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/*
+* Reactive stack, started with the reactive profile. Controllers answer on the netty event loop,
+* anything that blocks on JDBC runs on the jdbc scheduler instead
+* */
+@Configuration
+@Profile("reactive")
+public class ReactiveConfiguration {
+
+    // tomcat is on the classpath for the servlet stack and would otherwise be picked for reactive as well
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /*
+    * One thread per pooled connection - more threads would only wait for a connection, fewer would leave
+    * connections idle. Work beyond that queues instead of taking a thread
+    * */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler jdbcScheduler(
+        @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+        @Value("${reactive.jdbc.max-queued-tasks:10000}") int maxQueuedTasks) {
+        return Schedulers.newBoundedElastic(poolSize, maxQueuedTasks, "jdbc");
+    }
+}
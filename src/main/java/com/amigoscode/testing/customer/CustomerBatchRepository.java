@@ -0,0 +1,12 @@
+package com.amigoscode.testing.customer;
+
+import java.util.List;
+
+/*
+* Custom fragment of CustomerRepository for bulk imports - spring data picks up CustomerBatchRepositoryImpl
+* by naming convention and mixes it into the repository proxy
+* */
+public interface CustomerBatchRepository {
+    // inserts new customers using jdbc batch inserts, the ids must be set and must not be taken
+    List<Customer> insertAllInBatches(List<Customer> customers);
+}
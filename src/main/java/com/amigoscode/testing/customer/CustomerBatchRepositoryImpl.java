@@ -0,0 +1,40 @@
+package com.amigoscode.testing.customer;
+
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+
+public class CustomerBatchRepositoryImpl implements CustomerBatchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final int batchSize;
+
+    public CustomerBatchRepositoryImpl(@Value("${customer.import.jdbc-batch-size:50}") int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    @Transactional
+    public List<Customer> insertAllInBatches(List<Customer> customers) {
+        // hibernate groups the inserts queued between flushes into a single jdbc batch
+        entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+
+        for (int i = 0; i < customers.size(); i++) {
+            // persist rather than save, save would select every assigned id first to decide on a merge
+            entityManager.persist(customers.get(i));
+            if ((i + 1) % batchSize == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return customers;
+    }
+}
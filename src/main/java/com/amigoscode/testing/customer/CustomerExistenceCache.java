@@ -0,0 +1,141 @@
+package com.amigoscode.testing.customer;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+* Read through cache answering "does this customer exist" without loading the Customer entity.
+* Customers are never deleted so a found customer stays cached until evicted, unknown ids are only cached
+* for a short while because they may be registered on another node in the meantime.
+*
+* Lookups do not take a lock. A full cache evicts whichever entries its iterator hands out first, which for
+* random UUIDs is an arbitrary customer rather than the least recently used one.
+* An unknown id loaded while invalidate ran is dropped again, so a registration on this node is never hidden
+* behind a "not found" read before it
+* */
+@Service
+public class CustomerExistenceCache implements MeterBinder {
+
+    private static final long PRESENT = Long.MAX_VALUE;
+
+    private final CustomerRepository customerRepository;
+    private final ConcurrentHashMap<UUID, Long> expiryByCustomerId = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final long negativeTtlNanos;
+    private final LongSupplier nanoTime;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // bumped by every invalidate, before it removes the entry
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Autowired
+    public CustomerExistenceCache(CustomerRepository customerRepository,
+        @Value("${customer.existence-cache.max-size:100000}") int maxSize,
+        @Value("${customer.existence-cache.negative-ttl-ms:5000}") long negativeTtlMillis) {
+        this(customerRepository, maxSize, negativeTtlMillis, System::nanoTime);
+    }
+
+    CustomerExistenceCache(CustomerRepository customerRepository, int maxSize, long negativeTtlMillis,
+        LongSupplier nanoTime) {
+        this.customerRepository = customerRepository;
+        this.maxSize = maxSize;
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.nanoTime = nanoTime;
+    }
+
+    public boolean exists(UUID customerId) {
+        if (customerId == null) {
+            return false;
+        }
+
+        Long expiresAt = expiryByCustomerId.get(customerId);
+        if (expiresAt != null) {
+            if (expiresAt == PRESENT) {
+                hits.increment();
+                return true;
+            }
+            if (expiresAt - nanoTime.getAsLong() > 0) {
+                hits.increment();
+                return false;
+            }
+            expiryByCustomerId.remove(customerId, expiresAt);
+        }
+
+        // miss - existsById is a count query so the entity is never hydrated
+        misses.increment();
+        long invalidationsBefore = invalidations.get();
+        boolean exists = customerRepository.existsById(customerId);
+        if (exists) {
+            put(customerId, PRESENT);
+            return true;
+        }
+        Long notFound = nanoTime.getAsLong() + negativeTtlNanos;
+        put(customerId, notFound);
+        // checked after the put: an invalidate that bumped the count later also removes the entry itself
+        if (invalidations.get() != invalidationsBefore) {
+            expiryByCustomerId.remove(customerId, notFound);
+        }
+        return false;
+    }
+
+    // lets callers that already validated customers in bulk warm the cache
+    public void markExisting(Collection<UUID> customerIds) {
+        for (UUID customerId : customerIds) {
+            put(customerId, PRESENT);
+        }
+    }
+
+    public void invalidate(UUID customerId) {
+        invalidations.incrementAndGet();
+        expiryByCustomerId.remove(customerId);
+    }
+
+    private void put(UUID customerId, Long expiresAt) {
+        expiryByCustomerId.put(customerId, expiresAt);
+        Iterator<UUID> eviction = expiryByCustomerId.keySet().iterator();
+        while (expiryByCustomerId.size() > maxSize && eviction.hasNext()) {
+            UUID evicted = eviction.next();
+            if (!evicted.equals(customerId)) {
+                eviction.remove();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        FunctionCounter.builder("customer.existence_cache.requests", hits, LongAdder::sum)
+            .tag("result", "hit")
+            .register(meterRegistry);
+        FunctionCounter.builder("customer.existence_cache.requests", misses, LongAdder::sum)
+            .tag("result", "miss")
+            .register(meterRegistry);
+        Gauge.builder("customer.existence_cache.size", this, CustomerExistenceCache::size)
+            .register(meterRegistry);
+    }
+
+    public int size() {
+        return expiryByCustomerId.size();
+    }
+}
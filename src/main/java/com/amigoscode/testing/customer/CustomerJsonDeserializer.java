@@ -0,0 +1,46 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.json.JsonText;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+
+/*
+* Reads a customer in the format CustomerJsonSerializer writes, the id straight from the parser's buffer.
+* The id is optional, registration gives a customer without one a random id
+* */
+public class CustomerJsonDeserializer extends StdDeserializer<Customer> {
+
+    public CustomerJsonDeserializer() {
+        super(Customer.class);
+    }
+
+    @Override
+    public Customer deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            return (Customer) ctxt.handleUnexpectedToken(Customer.class, p);
+        }
+        Customer customer = new Customer();
+        for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+            p.nextToken();
+            switch (field) {
+                case "id":
+                    customer.setId(JsonText.readUuid(p, ctxt));
+                    break;
+                case "name":
+                    customer.setName(JsonText.readString(p, ctxt));
+                    break;
+                case "phoneNumber":
+                    customer.setPhoneNumber(JsonText.readString(p, ctxt));
+                    break;
+                default:
+                    // skips the value unless unknown properties fail the request
+                    ctxt.handleUnknownProperty(p, this, Customer.class, field);
+            }
+        }
+        return customer;
+    }
+}
@@ -0,0 +1,36 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.json.JsonText;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/*
+* Writes a customer as {"id":"...","name":"...","phoneNumber":"..."}
+* */
+public class CustomerJsonSerializer extends StdSerializer<Customer> {
+
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString NAME = new SerializedString("name");
+    private static final SerializableString PHONE_NUMBER = new SerializedString("phoneNumber");
+
+    public CustomerJsonSerializer() {
+        super(Customer.class);
+    }
+
+    @Override
+    public void serialize(Customer customer, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject(customer);
+        gen.writeFieldName(ID);
+        JsonText.writeUuid(gen, customer.getId());
+        gen.writeFieldName(NAME);
+        gen.writeString(customer.getName());
+        gen.writeFieldName(PHONE_NUMBER);
+        gen.writeString(customer.getPhoneNumber());
+        gen.writeEndObject();
+    }
+}
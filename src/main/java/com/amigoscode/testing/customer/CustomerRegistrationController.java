@@ -1,6 +1,7 @@
 package com.amigoscode.testing.customer;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -9,6 +10,7 @@ import org.springframework.web.bind.annotation.RestController;
 import javax.validation.Valid;
 
 @RestController
+@Profile("!reactive")
 @RequestMapping("api/v1/customer-registration")
 public class CustomerRegistrationController {
 
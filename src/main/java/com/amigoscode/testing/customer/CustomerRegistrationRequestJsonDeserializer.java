@@ -0,0 +1,38 @@
+package com.amigoscode.testing.customer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+
+/*
+* Reads {"customer":{...}} with the customer deserializer it is given, see PaymentRequestJsonDeserializer
+* */
+public class CustomerRegistrationRequestJsonDeserializer extends StdDeserializer<CustomerRegistrationRequest> {
+
+    private final CustomerJsonDeserializer customerDeserializer;
+
+    public CustomerRegistrationRequestJsonDeserializer(CustomerJsonDeserializer customerDeserializer) {
+        super(CustomerRegistrationRequest.class);
+        this.customerDeserializer = customerDeserializer;
+    }
+
+    @Override
+    public CustomerRegistrationRequest deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            return (CustomerRegistrationRequest) ctxt.handleUnexpectedToken(CustomerRegistrationRequest.class, p);
+        }
+        Customer customer = null;
+        for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+            JsonToken token = p.nextToken();
+            if (field.equals("customer")) {
+                customer = token == JsonToken.VALUE_NULL ? null : customerDeserializer.deserialize(p, ctxt);
+            } else {
+                ctxt.handleUnknownProperty(p, this, CustomerRegistrationRequest.class, field);
+            }
+        }
+        return new CustomerRegistrationRequest(customer);
+    }
+}
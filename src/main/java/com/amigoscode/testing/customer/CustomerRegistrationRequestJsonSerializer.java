@@ -0,0 +1,37 @@
+package com.amigoscode.testing.customer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/*
+* Writes {"customer":{...}} with the customer serializer it is given, without a lookup per request
+* */
+public class CustomerRegistrationRequestJsonSerializer extends StdSerializer<CustomerRegistrationRequest> {
+
+    private static final SerializableString CUSTOMER = new SerializedString("customer");
+
+    private final CustomerJsonSerializer customerSerializer;
+
+    public CustomerRegistrationRequestJsonSerializer(CustomerJsonSerializer customerSerializer) {
+        super(CustomerRegistrationRequest.class);
+        this.customerSerializer = customerSerializer;
+    }
+
+    @Override
+    public void serialize(CustomerRegistrationRequest request, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+        gen.writeStartObject(request);
+        gen.writeFieldName(CUSTOMER);
+        if (request.getCustomer() == null) {
+            gen.writeNull();
+        } else {
+            customerSerializer.serialize(request.getCustomer(), gen, provider);
+        }
+        gen.writeEndObject();
+    }
+}
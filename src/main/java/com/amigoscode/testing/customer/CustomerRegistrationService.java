@@ -1,6 +1,7 @@
 package com.amigoscode.testing.customer;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
@@ -10,25 +11,35 @@ import java.util.UUID;
 public class CustomerRegistrationService {
 
     private final CustomerRepository customerRepository;
+    private final CustomerExistenceCache customerExistenceCache;
+    private final PhoneNumberIndex phoneNumberIndex;
 
     @Autowired
-    public CustomerRegistrationService(CustomerRepository customerRepository) {
+    public CustomerRegistrationService(CustomerRepository customerRepository,
+        CustomerExistenceCache customerExistenceCache,
+        PhoneNumberIndex phoneNumberIndex) {
         this.customerRepository = customerRepository;
+        this.customerExistenceCache = customerExistenceCache;
+        this.phoneNumberIndex = phoneNumberIndex;
     }
 
     public void registerNewCustomer(CustomerRegistrationRequest request) {
-        // Check if phone number exists
+        // Reserve the phone number, the index answers without a query
         String phoneNumber = request.getCustomer().getPhoneNumber();
-        Optional<Customer> customerOptional = customerRepository.selectCustomerByPhoneNumber(phoneNumber);
+        String name = request.getCustomer().getName();
+        PhoneNumberIndex.Reservation reservation = phoneNumberIndex.reserve(phoneNumber, name);
 
         // if taken lets check if it belongs to same customer
-        if (customerOptional.isPresent()) {
-            Customer customer = customerOptional.get();
-            if (customer.getName().equals(request.getCustomer().getName())) {
-                return; // no need to do anything since customer exists
+        if (!reservation.isGranted()) {
+            if (!reservation.getOwnerName().equals(name)) {
+                // throw error if phone number is taken
+                throw new PhoneNumberTakenException(phoneNumber, null);
             }
-            // throw error if phone number is taken
-            throw new IllegalStateException(String.format("phone number [%s] is taken", phoneNumber));
+            if (reservation.isPending()) {
+                // the other registration may still fail, only the one holding the number can tell
+                throw new PhoneNumberPendingException(phoneNumber);
+            }
+            return; // no need to do anything since customer exists
         }
 
         if (request.getCustomer().getId() == null) {
@@ -36,6 +47,26 @@ public class CustomerRegistrationService {
         }
 
         // customer doesnt exist so save to repo
-        customerRepository.save(request.getCustomer());
+        try {
+            customerRepository.save(request.getCustomer());
+        } catch (DataIntegrityViolationException e) {
+            // the unique constraint caught a number registered on another node
+            phoneNumberIndex.release(reservation);
+            Optional<Customer> customerOptional = customerRepository.selectCustomerByPhoneNumber(phoneNumber);
+            if (customerOptional.isEmpty()) {
+                throw e;
+            }
+            phoneNumberIndex.register(phoneNumber, customerOptional.get().getName());
+            if (customerOptional.get().getName().equals(name)) {
+                return;
+            }
+            throw new PhoneNumberTakenException(phoneNumber, e);
+        } catch (RuntimeException e) {
+            phoneNumberIndex.release(reservation);
+            throw e;
+        }
+        phoneNumberIndex.confirm(reservation);
+        // drop a cached "not found" so payments for the new customer are accepted straight away
+        customerExistenceCache.invalidate(request.getCustomer().getId());
     }
 }
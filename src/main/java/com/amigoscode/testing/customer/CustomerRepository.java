@@ -1,16 +1,33 @@
 package com.amigoscode.testing.customer;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
-public interface CustomerRepository extends CrudRepository<Customer, UUID> {
+public interface CustomerRepository extends CrudRepository<Customer, UUID>, CustomerBatchRepository {
     // get customer with given phone number
     @Query(value = "select id, name, phone_number from customer where phone_number = :phone_number",
         nativeQuery = true // use native query because we want to use native sql since Customer is capital C when native you use c
     )
     Optional<Customer> selectCustomerByPhoneNumber(@Param("phone_number") String phoneNumber);
+
+    // only select the ids so we can validate many customers in one query without loading the entities
+    @Query("select c.id from Customer c where c.id in :ids")
+    Set<UUID> selectExistingCustomerIds(@Param("ids") Collection<UUID> ids);
+
+    // owners in phone number order from the one after the given number, the index is warmed a page at a time
+    @Query("select c.phoneNumber as phoneNumber, c.name as name from Customer c where c.phoneNumber > :after"
+        + " order by c.phoneNumber")
+    List<PhoneNumberOwner> selectPhoneNumberOwnersAfter(@Param("after") String after, Pageable page);
+
+    // owners of the given numbers only, an import resolves a whole chunk of rows in one query
+    @Query("select c.phoneNumber as phoneNumber, c.name as name from Customer c where c.phoneNumber in :phoneNumbers")
+    List<PhoneNumberOwner> selectPhoneNumberOwners(@Param("phoneNumbers") Collection<String> phoneNumbers);
 }
@@ -0,0 +1,133 @@
+package com.amigoscode.testing.customer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+* In process index of taken phone numbers - reserving a number is a single atomic putIfAbsent so concurrent
+* registrations of the same number cannot both pass the check, and duplicates are rejected without a query.
+*
+* Every reservation puts an owner of its own into the index, so only the request that made it can release it,
+* even when another request registers the same name. The owner stays pending until its customer is stored,
+* a request that finds a pending owner cannot tell yet whether the number is taken.
+*
+* The index holds at most maxSize registered numbers. It is warmed from the customer table at startup, a page
+* at a time, and a number registered once it is full is dropped from it as soon as its customer is stored.
+* A number that is not in the index is still caught by the unique constraint of the customer table
+* */
+@Service
+public class PhoneNumberIndex {
+
+    private static final int WARM_PAGE_SIZE = 1000;
+
+    private final CustomerRepository customerRepository;
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Owner> ownerByPhoneNumber = new ConcurrentHashMap<>();
+
+    @Autowired
+    public PhoneNumberIndex(CustomerRepository customerRepository,
+        @Value("${customer.phone-number-index.max-size:100000}") int maxSize) {
+        this.customerRepository = customerRepository;
+        this.maxSize = maxSize;
+    }
+
+    @PostConstruct
+    void warm() {
+        String after = "";
+        int warmed = 0;
+        while (warmed < maxSize) {
+            List<PhoneNumberOwner> page = customerRepository.selectPhoneNumberOwnersAfter(
+                after, PageRequest.of(0, Math.min(WARM_PAGE_SIZE, maxSize - warmed)));
+            for (PhoneNumberOwner owner : page) {
+                ownerByPhoneNumber.putIfAbsent(owner.getPhoneNumber(), new Owner(owner.getName(), true));
+                after = owner.getPhoneNumber();
+            }
+            warmed += page.size();
+            if (page.size() < WARM_PAGE_SIZE) {
+                return;
+            }
+        }
+    }
+
+    /*
+    * Reserves the phone number for the given name. The reservation is granted when the number was free,
+    * otherwise it tells who holds the number
+    * */
+    public Reservation reserve(String phoneNumber, String name) {
+        Owner owner = new Owner(name, false);
+        Owner holder = ownerByPhoneNumber.putIfAbsent(phoneNumber, owner);
+        return holder == null ? new Reservation(phoneNumber, owner, true) : new Reservation(phoneNumber, holder, false);
+    }
+
+    // the customer of a granted reservation is stored, the number is taken for good
+    public void confirm(Reservation reservation) {
+        if (reservation.granted) {
+            reservation.owner.registered = true;
+            // a full index only holds reservations in flight, the unique constraint guards the number from here
+            if (ownerByPhoneNumber.size() > maxSize) {
+                ownerByPhoneNumber.remove(reservation.phoneNumber, reservation.owner);
+            }
+        }
+    }
+
+    // records the owner found in the database, used when another node registered the number first
+    public void register(String phoneNumber, String name) {
+        if (ownerByPhoneNumber.size() < maxSize) {
+            ownerByPhoneNumber.put(phoneNumber, new Owner(name, true));
+        }
+    }
+
+    // hands back a granted reservation whose customer could not be saved, nobody else's
+    public void release(Reservation reservation) {
+        if (reservation.granted) {
+            ownerByPhoneNumber.remove(reservation.phoneNumber, reservation.owner);
+        }
+    }
+
+    public int size() {
+        return ownerByPhoneNumber.size();
+    }
+
+    public static final class Reservation {
+        private final String phoneNumber;
+        private final Owner owner;
+        private final boolean granted;
+
+        private Reservation(String phoneNumber, Owner owner, boolean granted) {
+            this.phoneNumber = phoneNumber;
+            this.owner = owner;
+            this.granted = granted;
+        }
+
+        public boolean isGranted() {
+            return granted;
+        }
+
+        // the name the number is held for, the own name when granted
+        public String getOwnerName() {
+            return owner.name;
+        }
+
+        // held by a registration that is not stored yet and may still be released
+        public boolean isPending() {
+            return !owner.registered;
+        }
+    }
+
+    // compared by identity, each reservation is an owner of its own
+    private static final class Owner {
+        private final String name;
+        private volatile boolean registered;
+
+        private Owner(String name, boolean registered) {
+            this.name = name;
+            this.registered = registered;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.amigoscode.testing.customer;
+
+// projection used to warm the phone number index without hydrating Customer entities
+public interface PhoneNumberOwner {
+    String getPhoneNumber();
+
+    String getName();
+}
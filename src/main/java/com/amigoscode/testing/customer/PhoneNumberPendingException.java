@@ -0,0 +1,16 @@
+package com.amigoscode.testing.customer;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/*
+* Another registration holds the phone number and has not stored its customer yet. Answered with 409,
+* the same request may succeed once the other registration completes or fails
+* */
+@ResponseStatus(HttpStatus.CONFLICT)
+public class PhoneNumberPendingException extends IllegalStateException {
+
+    public PhoneNumberPendingException(String phoneNumber) {
+        super(String.format("phone number [%s] is being registered, try again", phoneNumber));
+    }
+}
@@ -0,0 +1,15 @@
+package com.amigoscode.testing.customer;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/*
+* The phone number is registered to a customer of another name, answered with 409
+* */
+@ResponseStatus(HttpStatus.CONFLICT)
+public class PhoneNumberTakenException extends IllegalStateException {
+
+    public PhoneNumberTakenException(String phoneNumber, Throwable cause) {
+        super(String.format("phone number [%s] is taken", phoneNumber), cause);
+    }
+}
@@ -0,0 +1,37 @@
+package com.amigoscode.testing.customer;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import javax.validation.Valid;
+
+/*
+* Same contract as CustomerRegistrationController for the reactive stack, the registration itself
+* is JDBC so it runs on the jdbc scheduler
+* */
+@RestController
+@Profile("reactive")
+@RequestMapping("api/v1/customer-registration")
+public class ReactiveCustomerRegistrationController {
+
+    private final CustomerRegistrationService customerRegistrationService;
+    private final Scheduler jdbcScheduler;
+
+    public ReactiveCustomerRegistrationController(CustomerRegistrationService customerRegistrationService,
+        @Qualifier("jdbcScheduler") Scheduler jdbcScheduler) {
+        this.customerRegistrationService = customerRegistrationService;
+        this.jdbcScheduler = jdbcScheduler;
+    }
+
+    @PutMapping
+    public Mono<Void> registerNewCustomer(@Valid @RequestBody CustomerRegistrationRequest request) {
+        return Mono.<Void>fromRunnable(() -> customerRegistrationService.registerNewCustomer(request))
+            .subscribeOn(jdbcScheduler);
+    }
+}
@@ -0,0 +1,123 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import com.amigoscode.testing.customer.Customer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+* Comma separated rows under a header naming the columns, in any order:
+*   name,phoneNumber[,id]
+* Fields may be quoted with " and a quote inside a quoted field is doubled. A field cannot span lines,
+* blank lines are skipped and other columns are ignored
+* */
+final class CsvCustomerRowReader implements CustomerRowReader {
+
+    private final BufferedReader reader;
+    private final int nameColumn;
+    private final int phoneNumberColumn;
+    private final int idColumn;
+    private long row;
+
+    CsvCustomerRowReader(BufferedReader reader) throws IOException {
+        this.reader = reader;
+        String header = nextLine();
+        List<String> columns = header == null ? null : split(header);
+        if (columns == null) {
+            throw new InvalidUploadException("Upload needs a header of name,phoneNumber and optionally id");
+        }
+        this.nameColumn = column(columns, "name", true);
+        this.phoneNumberColumn = column(columns, "phoneNumber", true);
+        this.idColumn = column(columns, "id", false);
+    }
+
+    @Override
+    public CustomerRow next() throws IOException {
+        String line = nextLine();
+        if (line == null) {
+            return null;
+        }
+        row++;
+        List<String> fields = split(line);
+        if (fields == null) {
+            return CustomerRow.invalid(row, "Row has an unterminated quote");
+        }
+        int columns = Math.max(Math.max(nameColumn, phoneNumberColumn), idColumn) + 1;
+        if (fields.size() < columns) {
+            return CustomerRow.invalid(row, String.format("Row has [%s] fields, the header needs [%s]",
+                fields.size(), columns));
+        }
+        UUID id = null;
+        if (idColumn >= 0 && !fields.get(idColumn).isBlank()) {
+            try {
+                id = UUID.fromString(fields.get(idColumn).trim());
+            } catch (IllegalArgumentException e) {
+                return CustomerRow.invalid(row, String.format("Id [%s] is not a valid UUID", fields.get(idColumn)));
+            }
+        }
+        return CustomerRow.of(row, new Customer(id, fields.get(nameColumn).trim(),
+            fields.get(phoneNumberColumn).trim()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private String nextLine() throws IOException {
+        String line = reader.readLine();
+        while (line != null && line.isBlank()) {
+            line = reader.readLine();
+        }
+        return line;
+    }
+
+    private static int column(List<String> columns, String name, boolean required) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).trim().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        if (required) {
+            throw new InvalidUploadException(String.format("Upload header has no [%s] column", name));
+        }
+        return -1;
+    }
+
+    /*
+    * Fields of a line, null when a quote is not closed
+    * */
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
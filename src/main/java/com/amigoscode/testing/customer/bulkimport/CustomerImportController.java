@@ -0,0 +1,61 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+
+@RestController
+@Profile("!reactive") // reads the upload and streams the report through the servlet streams, like the payment export
+@RequestMapping("api/v1/customer-registration/import")
+public class CustomerImportController {
+
+    static final String TEXT_CSV = "text/csv";
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private final CustomerImportService customerImportService;
+    private final long timeoutMillis;
+
+    public CustomerImportController(CustomerImportService customerImportService,
+        @Value("${customer.import.timeout-ms:3600000}") long timeoutMillis) {
+        this.customerImportService = customerImportService;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @PostMapping(consumes = TEXT_CSV)
+    public ResponseEntity<StreamingResponseBody> importCsv(InputStream upload, HttpServletRequest request,
+        HttpServletResponse response) throws IOException {
+        return importCustomers(CustomerImportFormat.CSV, upload, request, response);
+    }
+
+    @PostMapping(consumes = APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> importNdjson(InputStream upload, HttpServletRequest request,
+        HttpServletResponse response) throws IOException {
+        return importCustomers(CustomerImportFormat.NDJSON, upload, request, response);
+    }
+
+    // the upload is opened here so a bad header is a 400, the rows are read on the mvc async thread
+    private ResponseEntity<StreamingResponseBody> importCustomers(CustomerImportFormat format, InputStream upload,
+        HttpServletRequest request, HttpServletResponse response) throws IOException {
+        CustomerRowReader rows = customerImportService.open(format, upload);
+        // the mvc async timeout suits ordinary requests, an import runs for as long as the upload takes.
+        // StreamingResponseBody has no timeout of its own, so the async request it starts on is swapped here
+        AsyncWebRequest asyncWebRequest = WebAsyncUtils.createAsyncWebRequest(request, response);
+        asyncWebRequest.setTimeout(timeoutMillis);
+        WebAsyncUtils.getAsyncManager(request).setAsyncWebRequest(asyncWebRequest);
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(APPLICATION_NDJSON))
+            .body(outputStream -> customerImportService.importRows(rows, outputStream));
+    }
+}
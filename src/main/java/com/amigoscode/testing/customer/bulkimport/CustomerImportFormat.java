@@ -0,0 +1,32 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+// the formats an upload can come in, both are read line by line in UTF-8
+public enum CustomerImportFormat {
+
+    CSV {
+        @Override
+        CustomerRowReader open(InputStream upload, ObjectReader customerReader) throws IOException {
+            return new CsvCustomerRowReader(lines(upload));
+        }
+    },
+    NDJSON {
+        @Override
+        CustomerRowReader open(InputStream upload, ObjectReader customerReader) {
+            return new NdjsonCustomerRowReader(lines(upload), customerReader);
+        }
+    };
+
+    abstract CustomerRowReader open(InputStream upload, ObjectReader customerReader) throws IOException;
+
+    private static BufferedReader lines(InputStream upload) {
+        return new BufferedReader(new InputStreamReader(upload, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,68 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import java.util.UUID;
+
+/*
+* Outcome of a single row of an import - one rejected row does not fail the rest of the upload.
+* Rows are numbered from 1, a csv header is not counted
+* */
+public class CustomerImportResult {
+
+    public enum Status {
+        REGISTERED,
+        ALREADY_REGISTERED,
+        PHONE_NUMBER_TAKEN,
+        CUSTOMER_ID_TAKEN,
+        DUPLICATE_IN_IMPORT,
+        INVALID,
+        FAILED
+    }
+
+    private final long row;
+    private final Status status;
+    private final UUID customerId;
+    private final String phoneNumber;
+    private final String message;
+
+    public CustomerImportResult(long row, Status status, UUID customerId, String phoneNumber, String message) {
+        this.row = row;
+        this.status = status;
+        this.customerId = customerId;
+        this.phoneNumber = phoneNumber;
+        this.message = message;
+    }
+
+    public static CustomerImportResult registered(long row, UUID customerId, String phoneNumber) {
+        return new CustomerImportResult(row, Status.REGISTERED, customerId, phoneNumber, null);
+    }
+
+    public static CustomerImportResult rejected(long row, Status status, String phoneNumber, String message) {
+        return new CustomerImportResult(row, status, null, phoneNumber, message);
+    }
+
+    public long getRow() {
+        return row;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public UUID getCustomerId() {
+        return customerId;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerImportResult{" + "row=" + row + ", status=" + status + ", customerId=" + customerId
+            + ", phoneNumber='" + phoneNumber + '\'' + ", message='" + message + '\'' + '}';
+    }
+}
@@ -0,0 +1,310 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerExistenceCache;
+import com.amigoscode.testing.customer.CustomerRepository;
+import com.amigoscode.testing.customer.PhoneNumberIndex;
+import com.amigoscode.testing.customer.PhoneNumberOwner;
+import com.amigoscode.testing.customer.bulkimport.CustomerImportResult.Status;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+* Registers the customers of an upload and reports the outcome of every row, in row order.
+*
+* The upload is read in chunks. The reading thread checks each row, drops phone numbers and uploaded ids seen
+* earlier in the upload and reserves the rest in the PhoneNumberIndex, so rows race single registrations exactly like
+* CustomerRegistrationService does. A pool of workers then looks the chunk up with IN queries, for numbers
+* and ids taken on other nodes, and inserts what is left with jdbc batches. At most one chunk per worker is
+* waiting, so the upload is read no faster than it is stored.
+*
+* Only the phone numbers and uploaded ids of the upload are kept until the end, to report duplicates across
+* chunks - a duplicate would otherwise fail the insert of every row of its chunk
+* */
+@Service
+public class CustomerImportService {
+
+    // rows per IN list, the lookups stay below the bind parameter limits of the databases
+    private static final int IN_LIST_CHUNK_SIZE = 1000;
+    // a second lookup settles numbers registered elsewhere between the first lookup and the insert
+    private static final int INSERT_ATTEMPTS = 2;
+
+    private final CustomerRepository customerRepository;
+    private final PhoneNumberIndex phoneNumberIndex;
+    private final CustomerExistenceCache customerExistenceCache;
+    private final ObjectMapper objectMapper;
+    private final ObjectReader customerReader;
+    private final ObjectWriter resultWriter;
+    private final int chunkSize;
+    private final int parallelism;
+
+    @Autowired
+    public CustomerImportService(CustomerRepository customerRepository,
+        PhoneNumberIndex phoneNumberIndex,
+        CustomerExistenceCache customerExistenceCache,
+        ObjectMapper objectMapper,
+        @Value("${customer.import.chunk-size:1000}") int chunkSize,
+        @Value("${customer.import.parallelism:4}") int parallelism) {
+        this.customerRepository = customerRepository;
+        this.phoneNumberIndex = phoneNumberIndex;
+        this.customerExistenceCache = customerExistenceCache;
+        this.objectMapper = objectMapper;
+        this.customerReader = objectMapper.readerFor(Customer.class);
+        this.resultWriter = objectMapper.writerFor(CustomerImportResult.class);
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    /*
+    * Imports the upload and writes one result per row as ndjson, returns the number of rows.
+    * Throws InvalidUploadException before anything is written when the upload cannot be read at all
+    * */
+    public long importCustomers(CustomerImportFormat format, InputStream upload, OutputStream report)
+        throws IOException {
+        return importRows(open(format, upload), report);
+    }
+
+    // reads the start of the upload, e.g. the csv header, so a bad upload fails before the report starts
+    CustomerRowReader open(CustomerImportFormat format, InputStream upload) throws IOException {
+        return format.open(upload, customerReader);
+    }
+
+    long importRows(CustomerRowReader rows, OutputStream report) throws IOException {
+        long imported = 0;
+        Map<String, Long> firstRowByPhoneNumber = new HashMap<>();
+        Map<UUID, Long> firstRowByCustomerId = new HashMap<>();
+        Deque<CompletableFuture<CustomerImportResult[]>> inFlight = new ArrayDeque<>();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try (CustomerRowReader reader = rows;
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(report)) {
+            // the servlet container owns the response stream
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            for (List<CustomerRow> chunk = readChunk(reader); !chunk.isEmpty(); chunk = readChunk(reader)) {
+                Chunk reserved = reserve(chunk, firstRowByPhoneNumber, firstRowByCustomerId);
+                inFlight.addLast(CompletableFuture.supplyAsync(() -> store(reserved), executor));
+                if (inFlight.size() > parallelism) {
+                    imported += write(inFlight.removeFirst().join(), generator);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                imported += write(inFlight.removeFirst().join(), generator);
+            }
+        } finally {
+            // chunks already handed to the workers are still stored when the client goes away
+            executor.shutdown();
+        }
+        return imported;
+    }
+
+    private List<CustomerRow> readChunk(CustomerRowReader reader) throws IOException {
+        List<CustomerRow> chunk = new ArrayList<>(chunkSize);
+        CustomerRow row;
+        while (chunk.size() < chunkSize && (row = reader.next()) != null) {
+            chunk.add(row);
+        }
+        return chunk;
+    }
+
+    private Chunk reserve(List<CustomerRow> rows, Map<String, Long> firstRowByPhoneNumber,
+        Map<UUID, Long> firstRowByCustomerId) {
+        Chunk chunk = new Chunk(rows);
+        for (int position = 0; position < rows.size(); position++) {
+            CustomerRow row = rows.get(position);
+            Customer customer = row.getCustomer();
+            if (row.getError() != null) {
+                chunk.results[position] = CustomerImportResult.rejected(
+                    row.getRow(), Status.INVALID, null, row.getError());
+                continue;
+            }
+            String phoneNumber = customer.getPhoneNumber();
+            String name = customer.getName();
+            if (isBlank(name) || isBlank(phoneNumber)) {
+                chunk.results[position] = CustomerImportResult.rejected(
+                    row.getRow(), Status.INVALID, phoneNumber, "Row needs a name and a phoneNumber");
+                continue;
+            }
+            // only rows that go on to the insert hold their id, a rejected row leaves it to the rows after it
+            Long firstRowOfId = row.isIdUploaded() ? firstRowByCustomerId.get(customer.getId()) : null;
+            if (firstRowOfId != null) {
+                chunk.results[position] = CustomerImportResult.rejected(row.getRow(), Status.DUPLICATE_IN_IMPORT,
+                    phoneNumber, String.format("customer id [%s] is on row [%s] already", customer.getId(),
+                        firstRowOfId));
+                continue;
+            }
+            Long firstRow = firstRowByPhoneNumber.putIfAbsent(phoneNumber, row.getRow());
+            if (firstRow != null) {
+                chunk.results[position] = CustomerImportResult.rejected(row.getRow(), Status.DUPLICATE_IN_IMPORT,
+                    phoneNumber, String.format("phone number [%s] is on row [%s] already", phoneNumber, firstRow));
+                continue;
+            }
+            PhoneNumberIndex.Reservation reservation = phoneNumberIndex.reserve(phoneNumber, name);
+            if (!reservation.isGranted()) {
+                chunk.results[position] = reservation.isPending() && reservation.getOwnerName().equals(name)
+                    ? CustomerImportResult.rejected(row.getRow(), Status.FAILED, phoneNumber,
+                        String.format("phone number [%s] is being registered, try again", phoneNumber))
+                    : registeredTo(row, reservation.getOwnerName());
+                continue;
+            }
+            if (customer.getId() == null) {
+                customer.setId(UUID.randomUUID());
+            } else {
+                firstRowByCustomerId.put(customer.getId(), row.getRow());
+            }
+            chunk.reservations[position] = reservation;
+            chunk.reserved.add(position);
+        }
+        return chunk;
+    }
+
+    private CustomerImportResult[] store(Chunk chunk) {
+        List<Integer> pending = chunk.reserved;
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            try {
+                pending = resolveAgainstDatabase(chunk, pending);
+                insert(chunk, pending);
+                break;
+            } catch (DataIntegrityViolationException e) {
+                // the whole batch rolled back, look the rows up again unless that was the last attempt
+                if (attempt == INSERT_ATTEMPTS) {
+                    fail(chunk, pending, e);
+                    break;
+                }
+            } catch (RuntimeException e) {
+                fail(chunk, pending, e);
+                break;
+            }
+        }
+        return chunk.results;
+    }
+
+    /*
+    * Rejects the rows whose number or uploaded id the database already holds, e.g. registered on another
+    * node, and returns the positions that are still free to insert
+    * */
+    private List<Integer> resolveAgainstDatabase(Chunk chunk, List<Integer> pending) {
+        Map<String, String> ownerByPhoneNumber = new HashMap<>();
+        Set<UUID> takenIds = new HashSet<>();
+        for (int from = 0; from < pending.size(); from += IN_LIST_CHUNK_SIZE) {
+            List<String> phoneNumbers = new ArrayList<>();
+            List<UUID> uploadedIds = new ArrayList<>();
+            for (int position : pending.subList(from, Math.min(from + IN_LIST_CHUNK_SIZE, pending.size()))) {
+                CustomerRow row = chunk.rows.get(position);
+                phoneNumbers.add(row.getCustomer().getPhoneNumber());
+                if (row.isIdUploaded()) {
+                    uploadedIds.add(row.getCustomer().getId());
+                }
+            }
+            for (PhoneNumberOwner owner : customerRepository.selectPhoneNumberOwners(phoneNumbers)) {
+                ownerByPhoneNumber.put(owner.getPhoneNumber(), owner.getName());
+            }
+            if (!uploadedIds.isEmpty()) {
+                takenIds.addAll(customerRepository.selectExistingCustomerIds(uploadedIds));
+            }
+        }
+
+        List<Integer> free = new ArrayList<>(pending.size());
+        for (int position : pending) {
+            CustomerRow row = chunk.rows.get(position);
+            Customer customer = row.getCustomer();
+            String owner = ownerByPhoneNumber.get(customer.getPhoneNumber());
+            if (owner != null) {
+                phoneNumberIndex.release(chunk.reservations[position]);
+                phoneNumberIndex.register(customer.getPhoneNumber(), owner);
+                chunk.results[position] = registeredTo(row, owner);
+            } else if (takenIds.contains(customer.getId())) {
+                phoneNumberIndex.release(chunk.reservations[position]);
+                chunk.results[position] = CustomerImportResult.rejected(row.getRow(), Status.CUSTOMER_ID_TAKEN,
+                    customer.getPhoneNumber(), String.format("customer id [%s] is taken", customer.getId()));
+            } else {
+                free.add(position);
+            }
+        }
+        return free;
+    }
+
+    private void insert(Chunk chunk, List<Integer> positions) {
+        List<Customer> customers = new ArrayList<>(positions.size());
+        for (int position : positions) {
+            customers.add(chunk.rows.get(position).getCustomer());
+        }
+        customerRepository.insertAllInBatches(customers);
+        for (int position : positions) {
+            CustomerRow row = chunk.rows.get(position);
+            phoneNumberIndex.confirm(chunk.reservations[position]);
+            chunk.results[position] = CustomerImportResult.registered(
+                row.getRow(), row.getCustomer().getId(), row.getCustomer().getPhoneNumber());
+            // drop a cached "not found" so payments for the new customer are accepted straight away
+            customerExistenceCache.invalidate(row.getCustomer().getId());
+        }
+    }
+
+    private void fail(Chunk chunk, List<Integer> positions, RuntimeException e) {
+        for (int position : positions) {
+            CustomerRow row = chunk.rows.get(position);
+            phoneNumberIndex.release(chunk.reservations[position]);
+            chunk.results[position] = CustomerImportResult.rejected(
+                row.getRow(), Status.FAILED, row.getCustomer().getPhoneNumber(), e.getMessage());
+        }
+    }
+
+    private long write(CustomerImportResult[] results, JsonGenerator generator) throws IOException {
+        for (CustomerImportResult result : results) {
+            resultWriter.writeValue(generator, result);
+            generator.writeRaw('\n');
+        }
+        // a chunk at a time reaches the client while the rest of the upload is imported
+        generator.flush();
+        return results.length;
+    }
+
+    // same as a single registration, a number already held by the same name is not an error
+    private static CustomerImportResult registeredTo(CustomerRow row, String owner) {
+        String phoneNumber = row.getCustomer().getPhoneNumber();
+        if (owner.equals(row.getCustomer().getName())) {
+            return CustomerImportResult.rejected(row.getRow(), Status.ALREADY_REGISTERED, phoneNumber, null);
+        }
+        return CustomerImportResult.rejected(row.getRow(), Status.PHONE_NUMBER_TAKEN, phoneNumber,
+            String.format("phone number [%s] is taken", phoneNumber));
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static final class Chunk {
+        private final List<CustomerRow> rows;
+        private final CustomerImportResult[] results;
+        // positions of the rows holding a reservation in the phone number index, and the reservations
+        private final List<Integer> reserved = new ArrayList<>();
+        private final PhoneNumberIndex.Reservation[] reservations;
+
+        private Chunk(List<CustomerRow> rows) {
+            this.rows = rows;
+            this.results = new CustomerImportResult[rows.size()];
+            this.reservations = new PhoneNumberIndex.Reservation[rows.size()];
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import com.amigoscode.testing.customer.Customer;
+
+// one row of an upload, either a customer or the reason the row could not be read
+final class CustomerRow {
+
+    private final long row;
+    private final Customer customer;
+    private final boolean idUploaded;
+    private final String error;
+
+    private CustomerRow(long row, Customer customer, String error) {
+        this.row = row;
+        this.customer = customer;
+        this.idUploaded = customer != null && customer.getId() != null;
+        this.error = error;
+    }
+
+    static CustomerRow of(long row, Customer customer) {
+        return new CustomerRow(row, customer, null);
+    }
+
+    static CustomerRow invalid(long row, String error) {
+        return new CustomerRow(row, null, error);
+    }
+
+    long getRow() {
+        return row;
+    }
+
+    Customer getCustomer() {
+        return customer;
+    }
+
+    // the import gives rows without an id a random one, only uploaded ids can already be taken
+    boolean isIdUploaded() {
+        return idUploaded;
+    }
+
+    String getError() {
+        return error;
+    }
+}
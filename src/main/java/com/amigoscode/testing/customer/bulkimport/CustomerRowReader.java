@@ -0,0 +1,10 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// reads the rows of an upload as they arrive, the upload is never held in memory as a whole
+interface CustomerRowReader extends Closeable {
+    // the next row, null once the upload is exhausted
+    CustomerRow next() throws IOException;
+}
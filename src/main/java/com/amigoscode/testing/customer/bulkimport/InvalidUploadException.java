@@ -0,0 +1,16 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/*
+* The upload as a whole cannot be imported, e.g. a csv header without a phoneNumber column.
+* Checked before the report starts, a bad row only shows up as INVALID in the report
+* */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidUploadException extends IllegalArgumentException {
+
+    public InvalidUploadException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,48 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import com.amigoscode.testing.customer.Customer;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/*
+* One customer per line in the format of the registration request's customer, e.g.
+*   {"name":"Maryam","phoneNumber":"+447000000000"}
+* A line that is not a customer only invalidates its own row, blank lines are skipped
+* */
+final class NdjsonCustomerRowReader implements CustomerRowReader {
+
+    private final BufferedReader reader;
+    private final ObjectReader customerReader;
+    private long row;
+
+    NdjsonCustomerRowReader(BufferedReader reader, ObjectReader customerReader) {
+        this.reader = reader;
+        this.customerReader = customerReader;
+    }
+
+    @Override
+    public CustomerRow next() throws IOException {
+        String line = reader.readLine();
+        while (line != null && line.isBlank()) {
+            line = reader.readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+        row++;
+        try {
+            Customer customer = customerReader.readValue(line);
+            return customer == null ? CustomerRow.invalid(row, "Row is not a customer") : CustomerRow.of(row, customer);
+        } catch (JsonProcessingException e) {
+            return CustomerRow.invalid(row, e.getOriginalMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
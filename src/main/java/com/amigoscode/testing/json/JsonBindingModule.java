@@ -0,0 +1,44 @@
+package com.amigoscode.testing.json;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerJsonDeserializer;
+import com.amigoscode.testing.customer.CustomerJsonSerializer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.customer.CustomerRegistrationRequestJsonDeserializer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequestJsonSerializer;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentJsonDeserializer;
+import com.amigoscode.testing.payment.PaymentJsonSerializer;
+import com.amigoscode.testing.payment.PaymentRequest;
+import com.amigoscode.testing.payment.PaymentRequestJsonDeserializer;
+import com.amigoscode.testing.payment.PaymentRequestJsonSerializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.springframework.stereotype.Component;
+
+/*
+* The streaming (de)serializers of the request bodies and the types in them. Spring boot registers
+* every Module bean with the ObjectMapper it builds, an ObjectMapper made by hand needs
+* registerModule(new JsonBindingModule())
+* */
+@Component
+public class JsonBindingModule extends SimpleModule {
+
+    public JsonBindingModule() {
+        super(JsonBindingModule.class.getSimpleName());
+        PaymentJsonSerializer paymentSerializer = new PaymentJsonSerializer();
+        PaymentJsonDeserializer paymentDeserializer = new PaymentJsonDeserializer();
+        addSerializer(Payment.class, paymentSerializer);
+        addDeserializer(Payment.class, paymentDeserializer);
+        addSerializer(PaymentRequest.class, new PaymentRequestJsonSerializer(paymentSerializer));
+        addDeserializer(PaymentRequest.class, new PaymentRequestJsonDeserializer(paymentDeserializer));
+
+        CustomerJsonSerializer customerSerializer = new CustomerJsonSerializer();
+        CustomerJsonDeserializer customerDeserializer = new CustomerJsonDeserializer();
+        addSerializer(Customer.class, customerSerializer);
+        addDeserializer(Customer.class, customerDeserializer);
+        addSerializer(CustomerRegistrationRequest.class,
+            new CustomerRegistrationRequestJsonSerializer(customerSerializer));
+        addDeserializer(CustomerRegistrationRequest.class,
+            new CustomerRegistrationRequestJsonDeserializer(customerDeserializer));
+    }
+}
@@ -0,0 +1,144 @@
+package com.amigoscode.testing.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+
+import java.io.IOException;
+import java.util.UUID;
+
+/*
+* Reads and writes values straight from and into char arrays, so the (de)serializers of the request bodies
+* do not make a String of every UUID, currency and amount they see.
+*
+* scratch() hands out one buffer per thread. It is only valid until the next call into a (de)serializer
+* */
+public final class JsonText {
+
+    private static final int UUID_LENGTH = 36;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[64]);
+
+    private JsonText() {
+    }
+
+    // a buffer of at least length chars, the thread's own one unless length is unusually long
+    public static char[] scratch(int length) {
+        char[] scratch = SCRATCH.get();
+        return length <= scratch.length ? scratch : new char[length];
+    }
+
+    public static UUID readUuid(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.VALUE_STRING) {
+            return (UUID) ctxt.handleUnexpectedToken(UUID.class, p);
+        }
+        UUID uuid = parseUuid(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+        if (uuid != null) {
+            return uuid;
+        }
+        // anything but the canonical form, UUID.fromString decides as before
+        String text = p.getText();
+        try {
+            return UUID.fromString(text);
+        } catch (IllegalArgumentException e) {
+            return (UUID) ctxt.handleWeirdStringValue(UUID.class, text, "not a valid UUID");
+        }
+    }
+
+    // any scalar as its text like jackson's own String deserializer, an object or an array is a bad request
+    public static String readString(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken().isStructStart()) {
+            return (String) ctxt.handleUnexpectedToken(String.class, p);
+        }
+        return p.getValueAsString();
+    }
+
+    public static Long readLong(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonToken token = p.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isStructStart()) {
+            return (Long) ctxt.handleUnexpectedToken(Long.class, p);
+        }
+        return p.getValueAsLong();
+    }
+
+    public static void writeUuid(JsonGenerator gen, UUID uuid) throws IOException {
+        if (uuid == null) {
+            gen.writeNull();
+            return;
+        }
+        char[] chars = scratch(UUID_LENGTH);
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        writeHex(msb >>> 32, chars, 0, 8);
+        chars[8] = '-';
+        writeHex(msb >>> 16, chars, 9, 4);
+        chars[13] = '-';
+        writeHex(msb, chars, 14, 4);
+        chars[18] = '-';
+        writeHex(lsb >>> 48, chars, 19, 4);
+        chars[23] = '-';
+        writeHex(lsb, chars, 24, 12);
+        gen.writeString(chars, 0, UUID_LENGTH);
+    }
+
+    /*
+    * The UUID in canonical form, e.g. 123e4567-e89b-12d3-a456-426614174000, null when the text is in any
+    * other form
+    * */
+    static UUID parseUuid(char[] chars, int offset, int length) {
+        if (length != UUID_LENGTH) {
+            return null;
+        }
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = chars[offset + i];
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return null;
+                }
+                continue;
+            }
+            int digit = hexDigit(c);
+            if (digit < 0) {
+                return null;
+            }
+            // the first 16 hex digits end before the dash at 18
+            if (i < 18) {
+                msb = msb << 4 | digit;
+            } else {
+                lsb = lsb << 4 | digit;
+            }
+        }
+        return new UUID(msb, lsb);
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    // the lowest digits hex digits of value, lower case like UUID.toString
+    private static void writeHex(long value, char[] dest, int offset, int digits) {
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            dest[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.amigoscode.testing.payment;
+
+import java.util.concurrent.CompletableFuture;
+
+/*
+* Non blocking variant of CardPaymentCharger - the returned future completes once the provider answers
+* so callers do not hold a request thread while the charge is pending
+* */
+public interface AsyncCardPaymentCharger {
+    default CompletableFuture<CardPaymentCharge> chargeCardAsync(
+        String source,
+        Money amount,
+        String description
+    ) {
+        return chargeCardAsync(source, amount, description, Deadline.none());
+    }
+
+    default CompletableFuture<CardPaymentCharge> chargeCardAsync(
+        String source,
+        Money amount,
+        String description,
+        Deadline deadline
+    ) {
+        return chargeCardAsync(source, amount, description, deadline, null);
+    }
+
+    // the idempotency key is handed to the provider, see CardPaymentCharger
+    CompletableFuture<CardPaymentCharge> chargeCardAsync(
+        String source,
+        Money amount,
+        String description,
+        Deadline deadline,
+        String idempotencyKey
+    );
+}
@@ -0,0 +1,320 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.customer.CustomerExistenceCache;
+import com.amigoscode.testing.customer.CustomerRepository;
+import com.amigoscode.testing.payment.idempotency.IdempotencyStore;
+import com.amigoscode.testing.payment.journal.PaymentJournal;
+import com.amigoscode.testing.payment.ratelimit.PaymentRateLimiter;
+import com.amigoscode.testing.payment.ratelimit.RateLimitExceededException;
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+* Charges many payments in one go - customers are validated with one query per chunk and card charges run
+* with bounded concurrency. Once the charges are done the debited payments are saved per shard, up to
+* saveChunkSize of them in one transaction. The payments of a chunk the database does not take are
+* journaled instead and stored by PaymentJournalWriter later, their result is CHARGED without a payment id,
+* so a failing save never takes the other chunks along.
+*
+* Every payment takes a token from the PaymentRateLimiter like a single one, a payment over its limit is
+* RATE_LIMITED and the rest of the batch goes on. A charge that has not started by the deadline of the batch
+* is NOT_ATTEMPTED. With an idempotency key each payment runs through the IdempotencyStore under the key and
+* its position in the batch, so a retried batch does not charge again the payments charged the first time
+* */
+@Service
+public class BatchPaymentService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchPaymentService.class);
+
+    private static final int CUSTOMER_ID_CHUNK_SIZE = 1000; // keep the IN list well below database limits
+
+    private final CustomerRepository customerRepository;
+    private final CustomerExistenceCache customerExistenceCache;
+    private final PaymentRepository paymentRepository;
+    private final PaymentShards paymentShards;
+    private final PaymentJournal paymentJournal;
+    private final CardPaymentCharger cardPaymentCharger;
+    private final PaymentRateLimiter paymentRateLimiter;
+    private final IdempotencyStore idempotencyStore;
+    private final ExecutorService chargeExecutor;
+    private final int maxBatchSize;
+    private final int saveChunkSize;
+
+    @Autowired
+    public BatchPaymentService(CustomerRepository customerRepository,
+        CustomerExistenceCache customerExistenceCache,
+        PaymentRepository paymentRepository,
+        PaymentShards paymentShards,
+        PaymentJournal paymentJournal,
+        CardPaymentCharger cardPaymentCharger,
+        PaymentRateLimiter paymentRateLimiter,
+        IdempotencyStore idempotencyStore,
+        @Value("${payment.batch.max-concurrency:8}") int maxConcurrency,
+        @Value("${payment.batch.max-size:10000}") int maxBatchSize,
+        @Value("${payment.batch.save-chunk-size:500}") int saveChunkSize) {
+        this.customerRepository = customerRepository;
+        this.customerExistenceCache = customerExistenceCache;
+        this.paymentRepository = paymentRepository;
+        this.paymentShards = paymentShards;
+        this.paymentJournal = paymentJournal;
+        this.cardPaymentCharger = cardPaymentCharger;
+        this.paymentRateLimiter = paymentRateLimiter;
+        this.idempotencyStore = idempotencyStore;
+        // the pool size is the upper bound of charges in flight for a batch
+        this.chargeExecutor = Executors.newFixedThreadPool(maxConcurrency);
+        this.maxBatchSize = maxBatchSize;
+        this.saveChunkSize = saveChunkSize;
+    }
+
+    public List<PaymentResult> chargeCards(List<PaymentRequest> paymentRequests) {
+        return chargeCards(paymentRequests, null, Deadline.none());
+    }
+
+    public List<PaymentResult> chargeCards(List<PaymentRequest> paymentRequests, String idempotencyKey,
+        Deadline deadline) {
+        if (paymentRequests.size() > maxBatchSize) {
+            throw new IllegalStateException(String.format(
+                "Batch of [%s] payments exceeds the maximum of [%s]", paymentRequests.size(), maxBatchSize));
+        }
+        // every payment runs under the key and its position, the longest of them is checked before any charge
+        if (idempotencyKey != null && !paymentRequests.isEmpty()) {
+            IdempotencyStore.checkKey(idempotencyKey + ":" + (paymentRequests.size() - 1));
+        }
+
+        // 1. Validate every customer of the batch up front
+        Set<UUID> existingCustomerIds = selectExistingCustomerIds(paymentRequests);
+
+        // 2. Charge cards concurrently, results keep the order of the requests
+        List<CompletableFuture<PaymentResult>> pendingResults = new ArrayList<>(paymentRequests.size());
+        // completed once the payment of the position is recorded, only with an idempotency key
+        Map<Integer, CompletableFuture<Void>> pendingRecords = new TreeMap<>();
+        for (int i = 0; i < paymentRequests.size(); i++) {
+            PaymentRequest paymentRequest = paymentRequests.get(i);
+            PaymentResult refused = refuse(paymentRequest.getPayment(), existingCustomerIds);
+            if (refused != null) {
+                pendingResults.add(CompletableFuture.completedFuture(refused));
+            } else if (idempotencyKey == null) {
+                pendingResults.add(charge(paymentRequest.getPayment(), deadline, null)
+                    .exceptionally(e -> failed(paymentRequest.getPayment().getCustomerId(), e)));
+            } else {
+                CompletableFuture<Void> recorded = new CompletableFuture<>();
+                pendingRecords.put(i, recorded);
+                pendingResults.add(chargeOnce(paymentRequest, idempotencyKey + ":" + i, deadline, recorded));
+            }
+        }
+
+        List<PaymentResult> results = new ArrayList<>(paymentRequests.size());
+        // positions of the debited payments, by shard
+        Map<Integer, List<Integer>> debitedByShard = new TreeMap<>();
+        for (int i = 0; i < pendingResults.size(); i++) {
+            PaymentResult result = pendingResults.get(i).join();
+            results.add(result);
+            if (result == null) {
+                UUID customerId = paymentRequests.get(i).getPayment().getCustomerId();
+                debitedByShard.computeIfAbsent(paymentShards.shardOf(customerId), shard -> new ArrayList<>()).add(i);
+            }
+        }
+
+        // 3. Record the debited payments, a chunk at a time
+        debitedByShard.forEach((shard, positions) -> {
+            for (int from = 0; from < positions.size(); from += saveChunkSize) {
+                List<Integer> chunk = positions.subList(from, Math.min(from + saveChunkSize, positions.size()));
+                List<Payment> payments = new ArrayList<>(chunk.size());
+                chunk.forEach(position -> payments.add(paymentRequests.get(position).getPayment()));
+                List<PaymentResult> recorded = record(shard, payments);
+                for (int i = 0; i < chunk.size(); i++) {
+                    results.set(chunk.get(i), recorded.get(i));
+                }
+            }
+        });
+
+        // 4. The idempotency keys of recorded payments are completed, an unrecorded charge keeps its key bound
+        pendingRecords.forEach((position, recorded) -> {
+            PaymentResult result = results.get(position);
+            if (result.getStatus() == PaymentResult.Status.CHARGED) {
+                recorded.complete(null);
+            } else {
+                recorded.completeExceptionally(new IllegalStateException(result.getMessage()));
+            }
+        });
+        return results;
+    }
+
+    private Set<UUID> selectExistingCustomerIds(List<PaymentRequest> paymentRequests) {
+        List<UUID> customerIds = new ArrayList<>(new HashSet<>(customerIdsOf(paymentRequests)));
+        Set<UUID> existingCustomerIds = new HashSet<>();
+        for (int from = 0; from < customerIds.size(); from += CUSTOMER_ID_CHUNK_SIZE) {
+            int to = Math.min(from + CUSTOMER_ID_CHUNK_SIZE, customerIds.size());
+            existingCustomerIds.addAll(customerRepository.selectExistingCustomerIds(customerIds.subList(from, to)));
+        }
+        // single payments for these customers can skip the lookup from now on
+        customerExistenceCache.markExisting(existingCustomerIds);
+        return existingCustomerIds;
+    }
+
+    private static List<UUID> customerIdsOf(List<PaymentRequest> paymentRequests) {
+        List<UUID> customerIds = new ArrayList<>(paymentRequests.size());
+        for (PaymentRequest paymentRequest : paymentRequests) {
+            UUID customerId = paymentRequest.getPayment().getCustomerId();
+            if (customerId != null) {
+                customerIds.add(customerId);
+            }
+        }
+        return customerIds;
+    }
+
+    // the result of a payment that is not charged at all, null when it may be charged
+    private PaymentResult refuse(Payment payment, Set<UUID> existingCustomerIds) {
+        UUID customerId = payment.getCustomerId();
+
+        if (customerId == null || !existingCustomerIds.contains(customerId)) {
+            return PaymentResult.failed(
+                customerId,
+                PaymentResult.Status.CUSTOMER_NOT_FOUND,
+                String.format("Customer with id [%s] not found", customerId));
+        }
+
+        if (!PaymentService.ACCEPTED_CURRENCIES.contains(payment.getCurrency())) {
+            return PaymentResult.failed(
+                customerId,
+                PaymentResult.Status.CURRENCY_NOT_SUPPORTED,
+                String.format("Currency [%s] not suported", payment.getCurrency()));
+        }
+
+        String exceededColumnLimit = payment.exceededColumnLimit();
+        if (exceededColumnLimit != null) {
+            return PaymentResult.failed(
+                customerId,
+                PaymentResult.Status.INVALID,
+                String.format("Payment not stored, %s", exceededColumnLimit));
+        }
+
+        try {
+            paymentRateLimiter.acquire(payment);
+        } catch (RateLimitExceededException e) {
+            return PaymentResult.failed(customerId, PaymentResult.Status.RATE_LIMITED, e.getMessage());
+        }
+        return null;
+    }
+
+    // completes with null once the card is debited, the payment is recorded with the others of its shard
+    private CompletableFuture<PaymentResult> charge(Payment payment, Deadline deadline, String providerIdempotencyKey) {
+        UUID customerId = payment.getCustomerId();
+        return CompletableFuture.supplyAsync(() -> {
+            if (deadline.isExpired()) {
+                throw new ChargeNotAttemptedException("Deadline of the batch passed before the charge");
+            }
+            paymentJournal.checkCapacity();
+            CardPaymentCharge cardPaymentCharge = cardPaymentCharger.chargeCard(
+                payment.getSource(),
+                payment.getAmount(),
+                payment.getDescription(),
+                deadline,
+                providerIdempotencyKey
+            );
+            if (!cardPaymentCharge.isCardDebited()) {
+                return PaymentResult.failed(
+                    customerId,
+                    PaymentResult.Status.CARD_NOT_DEBITED,
+                    String.format("Card not debited for customer %s", customerId));
+            }
+            return null;
+        }, chargeExecutor);
+    }
+
+    /*
+    * Charges under the key unless an earlier request with it charged already. The key is completed once
+    * recorded is, after the payment is stored or journaled
+    * */
+    private CompletableFuture<PaymentResult> chargeOnce(PaymentRequest paymentRequest, String idempotencyKey,
+        Deadline deadline, CompletableFuture<Void> recorded) {
+        Payment payment = paymentRequest.getPayment();
+        UUID customerId = payment.getCustomerId();
+        CompletableFuture<PaymentResult> charged = new CompletableFuture<>();
+        idempotencyStore.executeAsync(customerId, idempotencyKey, PaymentService.requestHash(paymentRequest), () ->
+            charge(payment, deadline, PaymentService.providerIdempotencyKey(customerId, idempotencyKey))
+                .whenComplete((result, e) -> charged.complete(e == null ? result : failed(customerId, e)))
+                .thenCompose(result -> result == null
+                    ? recorded
+                    : CompletableFuture.failedFuture(new PaymentRefusedException(result.getMessage()))),
+            PaymentService::mayHaveCharged
+        ).whenComplete((ignored, e) -> {
+            // not run, an earlier request with the key charged already or the key is taken by another payment
+            recorded.complete(null);
+            charged.complete(e == null
+                ? new PaymentResult(customerId, PaymentResult.Status.CHARGED, null,
+                    "Payment charged already by an earlier request with this idempotency key")
+                : failed(customerId, e));
+        });
+        return charged;
+    }
+
+    private static PaymentResult failed(UUID customerId, Throwable e) {
+        Throwable failure = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return PaymentResult.failed(
+            customerId,
+            failure instanceof ChargeNotAttemptedException
+                ? PaymentResult.Status.NOT_ATTEMPTED
+                : PaymentResult.Status.FAILED,
+            failure.getMessage());
+    }
+
+    // the cards are debited, the payments must not get lost whatever happens to the rest of the batch
+    private List<PaymentResult> record(int shard, List<Payment> payments) {
+        payments.forEach(payment -> payment.setPaymentId(null)); // ids are generated on insert
+        RuntimeException saveFailure;
+        try {
+            paymentShards.onShard(shard, () -> paymentRepository.saveAllInBatches(payments));
+            List<PaymentResult> results = new ArrayList<>(payments.size());
+            payments.forEach(payment -> results.add(PaymentResult.charged(payment.getCustomerId(),
+                payment.getPaymentId())));
+            return results;
+        } catch (RuntimeException e) {
+            saveFailure = e;
+        }
+        List<PaymentResult> results = new ArrayList<>(payments.size());
+        for (Payment payment : payments) {
+            payment.setPaymentId(null); // the rolled back insert may have assigned one
+            results.add(journal(payment, saveFailure));
+        }
+        return results;
+    }
+
+    private PaymentResult journal(Payment payment, RuntimeException saveFailure) {
+        UUID customerId = payment.getCustomerId();
+        try {
+            paymentJournal.append(payment);
+        } catch (RuntimeException journalFailure) {
+            journalFailure.addSuppressed(saveFailure);
+            LOGGER.error("Card charged for customer {} but the payment could not be recorded", customerId,
+                journalFailure);
+            return PaymentResult.failed(customerId, PaymentResult.Status.FAILED, String.format(
+                "Card charged for customer %s but the payment could not be recorded: %s", customerId,
+                journalFailure.getMessage()));
+        }
+        return new PaymentResult(customerId, PaymentResult.Status.CHARGED, null,
+            "Payment journaled, it is stored once the database takes it");
+    }
+
+    @PreDestroy
+    void shutdown() {
+        chargeExecutor.shutdown();
+    }
+}
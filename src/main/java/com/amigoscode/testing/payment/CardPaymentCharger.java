@@ -1,12 +1,38 @@
 package com.amigoscode.testing.payment;
 
-import java.math.BigDecimal;
-
 public interface CardPaymentCharger {
     CardPaymentCharge chargeCard(
         String source,
-        BigDecimal amount,
-        Currency currency,
+        Money amount,
         String description
     );
+
+    /*
+    * Charges within what is left of the deadline. Chargers that can bound their call to the provider
+    * override this, the default only refuses to start once the deadline has passed
+    * */
+    default CardPaymentCharge chargeCard(
+        String source,
+        Money amount,
+        String description,
+        Deadline deadline
+    ) {
+        deadline.check(PaymentMetrics.Step.CARD_CHARGE);
+        return chargeCard(source, amount, description);
+    }
+
+    /*
+    * Charges under a key the caller derived from its own request, so a provider that deduplicates charges
+    * answers a retried payment with the first charge instead of charging again. The default ignores the key,
+    * null means the payment has no key of its own
+    * */
+    default CardPaymentCharge chargeCard(
+        String source,
+        Money amount,
+        String description,
+        Deadline deadline,
+        String idempotencyKey
+    ) {
+        return chargeCard(source, amount, description, deadline);
+    }
 }
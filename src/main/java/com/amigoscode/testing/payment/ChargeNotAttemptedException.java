@@ -0,0 +1,21 @@
+package com.amigoscode.testing.payment;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/*
+* Thrown by a CardPaymentCharger that refused a charge before sending it to the provider,
+* e.g. because its circuit breaker is open or too many charges are in flight. The card was not charged so
+* the charge can safely go elsewhere, and a client is answered with 503 to retry later
+* */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ChargeNotAttemptedException extends IllegalStateException {
+
+    public ChargeNotAttemptedException(String message) {
+        super(message);
+    }
+
+    public ChargeNotAttemptedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
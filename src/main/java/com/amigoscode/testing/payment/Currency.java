@@ -4,4 +4,36 @@ public enum Currency {
     USD,
     GBP,
     EUR,
+    ;
+
+    // values() copies the array on every call
+    private static final Currency[] VALUES = values();
+
+    // number of digits after the decimal point, e.g. 2 for cents and pence
+    private final int scale = java.util.Currency.getInstance(name()).getDefaultFractionDigits();
+
+    public int getScale() {
+        return scale;
+    }
+
+    /*
+    * The currency whose code is in chars[offset, offset + length), null when there is none.
+    * Compares the chars in place, so a parser can look up the code without making a String of it
+    * */
+    public static Currency of(char[] chars, int offset, int length) {
+        for (Currency currency : VALUES) {
+            String code = currency.name();
+            if (code.length() != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && code.charAt(i) == chars[offset + i]) {
+                i++;
+            }
+            if (i == length) {
+                return currency;
+            }
+        }
+        return null;
+    }
 }
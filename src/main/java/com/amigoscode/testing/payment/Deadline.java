@@ -0,0 +1,68 @@
+package com.amigoscode.testing.payment;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+* Point in time by which a payment has to be answered. It is set once per request and handed down the
+* charge path, so every step works with what is left of the budget instead of its own fixed timeout
+* */
+public final class Deadline {
+
+    private static final Deadline NONE = new Deadline(0, false);
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+
+    private Deadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout), true);
+    }
+
+    // for callers without a budget of their own, e.g. batches and replays
+    public static Deadline none() {
+        return NONE;
+    }
+
+    public boolean isBounded() {
+        return bounded;
+    }
+
+    public long remainingNanos() {
+        if (!bounded) {
+            return Long.MAX_VALUE;
+        }
+        // compare the difference, nanoTime may wrap
+        return Math.max(0, deadlineNanos - System.nanoTime());
+    }
+
+    // rounded up so a budget under a millisecond is not mistaken for none left (or for no timeout at all)
+    public long remainingMillis() {
+        long remainingNanos = remainingNanos();
+        if (remainingNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return (remainingNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1) / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public boolean isExpired() {
+        return bounded && deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /*
+    * Called before a step starts, a step that cannot finish in time is not worth starting
+    * */
+    public void check(PaymentMetrics.Step step) {
+        if (isExpired()) {
+            throw new DeadlineExceededException(step);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return bounded ? "Deadline{remainingMillis=" + remainingMillis() + '}' : "Deadline{none}";
+    }
+}
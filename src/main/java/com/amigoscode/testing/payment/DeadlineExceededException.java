@@ -0,0 +1,31 @@
+package com.amigoscode.testing.payment;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/*
+* The budget of a payment ran out. Thrown before a step starts, or by a step that gave up waiting on the
+* provider - in that case the cause is the provider's failure and the card may have been charged.
+* Clients retry with the same Idempotency-Key and the same request: the IdempotencyStore keeps the key as
+* OUTCOME_UNKNOWN and the retry charges under the provider key derived from it, so stripe answers with the
+* charge it made. A provider that does not deduplicate charges cannot give that guarantee
+* */
+@ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+public class DeadlineExceededException extends IllegalStateException {
+
+    private final PaymentMetrics.Step step;
+
+    public DeadlineExceededException(PaymentMetrics.Step step) {
+        super(String.format("Payment deadline exceeded before step [%s]", step));
+        this.step = step;
+    }
+
+    public DeadlineExceededException(PaymentMetrics.Step step, Throwable cause) {
+        super(String.format("Payment deadline exceeded during step [%s]", step), cause);
+        this.step = step;
+    }
+
+    public PaymentMetrics.Step getStep() {
+        return step;
+    }
+}
@@ -0,0 +1,94 @@
+package com.amigoscode.testing.payment;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/*
+* Runs the blocking CardPaymentCharger on a dedicated executor so the calling thread is released straight away.
+* The number of charges in flight is capped - once the cap is reached new charges fail fast instead of queueing
+* up behind a slow provider. Both that and a shut down executor fail with ChargeNotAttemptedException, the
+* charge never reached the provider
+* */
+@Service
+public class ExecutorCardPaymentCharger implements AsyncCardPaymentCharger {
+
+    private final CardPaymentCharger cardPaymentCharger;
+    private final ExecutorService chargeExecutor;
+    private final Semaphore inFlightCharges;
+    private final int maxInFlight;
+
+    @Autowired
+    public ExecutorCardPaymentCharger(CardPaymentCharger cardPaymentCharger, MeterRegistry meterRegistry,
+        @Value("${payment.async.max-in-flight:200}") int maxInFlight,
+        @Value("${payment.async.threads:50}") int threads) {
+        this(cardPaymentCharger, newChargeExecutor(threads), maxInFlight);
+        // registered here rather than as a MeterBinder, binders are created with the registry and
+        // the charger would pull StripeService (which needs the registry) into that cycle
+        Gauge.builder("payment.async.charges.in_flight", this, ExecutorCardPaymentCharger::getInFlightCharges)
+            .description("Charges submitted to the async charger that have not completed yet")
+            .register(meterRegistry);
+        Gauge.builder("payment.async.charges.limit", this, charger -> charger.maxInFlight)
+            .register(meterRegistry);
+    }
+
+    ExecutorCardPaymentCharger(CardPaymentCharger cardPaymentCharger, ExecutorService chargeExecutor, int maxInFlight) {
+        this.cardPaymentCharger = cardPaymentCharger;
+        this.chargeExecutor = chargeExecutor;
+        this.inFlightCharges = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public CompletableFuture<CardPaymentCharge> chargeCardAsync(String source, Money amount,
+        String description, Deadline deadline, String idempotencyKey) {
+        if (!inFlightCharges.tryAcquire()) {
+            return CompletableFuture.failedFuture(new ChargeNotAttemptedException(
+                String.format("Too many charges in flight, limit is [%s]", maxInFlight)));
+        }
+
+        try {
+            return CompletableFuture
+                // the charger checks the deadline again once it runs, time spent queued counts against it
+                .supplyAsync(() -> cardPaymentCharger.chargeCard(source, amount, description, deadline,
+                    idempotencyKey), chargeExecutor)
+                .whenComplete((charge, e) -> inFlightCharges.release());
+        } catch (RejectedExecutionException e) {
+            inFlightCharges.release();
+            return CompletableFuture.failedFuture(new ChargeNotAttemptedException("Charge executor is shut down", e));
+        }
+    }
+
+    public int getInFlightCharges() {
+        return maxInFlight - inFlightCharges.availablePermits();
+    }
+
+    ExecutorService getChargeExecutor() {
+        return chargeExecutor;
+    }
+
+    // virtual threads are cheap enough to park one per pending charge, fall back to a fixed pool on older jdks
+    static ExecutorService newChargeExecutor(int threads) {
+        try {
+            Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        chargeExecutor.shutdown();
+    }
+}
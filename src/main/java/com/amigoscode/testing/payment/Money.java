@@ -0,0 +1,190 @@
+package com.amigoscode.testing.payment;
+
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import java.util.Objects;
+
+/*
+* Amount of money in the minor unit of its currency, e.g. 1050 GBP is 10.50 GBP.
+*
+* Amounts come in as decimal text and go out as decimal text or minor units, so the charge path
+* never has to create a BigDecimal. The fields are only assigned by the factories and by JPA.
+* */
+@Embeddable
+public final class Money {
+
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+    // largest value that can take another digit without overflowing
+    private static final long MAX_BEFORE_DIGIT = (Long.MAX_VALUE - 9) / 10;
+
+    @Column(name = "amount_minor_units", nullable = false)
+    private long minorUnits;
+
+    @Column(nullable = false)
+    private Currency currency;
+
+    protected Money() {
+        // for JPA
+    }
+
+    private Money(long minorUnits, Currency currency) {
+        this.minorUnits = minorUnits;
+        this.currency = Objects.requireNonNull(currency, "currency");
+    }
+
+    public static Money of(long minorUnits, Currency currency) {
+        return new Money(minorUnits, currency);
+    }
+
+    public static Money parse(CharSequence decimal, Currency currency) {
+        return parse(decimal, 0, decimal.length(), currency);
+    }
+
+    /*
+    * Parses a plain decimal like 10, 10.5 or -10.50. More fraction digits than the currency has
+    * are only accepted when they are zeros, an amount is never rounded
+    * */
+    public static Money parse(CharSequence decimal, int offset, int length, Currency currency) {
+        int end = offset + length;
+        int i = offset;
+        boolean negative = false;
+        if (i < end && (decimal.charAt(i) == '-' || decimal.charAt(i) == '+')) {
+            negative = decimal.charAt(i) == '-';
+            i++;
+        }
+        int scale = currency.getScale();
+        long minorUnits = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            char c = decimal.charAt(i);
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                throw invalidAmount(decimal, offset, length, currency);
+            }
+            digits++;
+            if (fractionDigits >= 0 && ++fractionDigits > scale) {
+                if (c != '0') {
+                    throw invalidAmount(decimal, offset, length, currency);
+                }
+                continue;
+            }
+            if (minorUnits > MAX_BEFORE_DIGIT) {
+                throw invalidAmount(decimal, offset, length, currency);
+            }
+            minorUnits = minorUnits * 10 + (c - '0');
+        }
+        if (digits == 0) {
+            throw invalidAmount(decimal, offset, length, currency);
+        }
+        int missingDigits = scale - Math.min(Math.max(fractionDigits, 0), scale);
+        if (minorUnits > Long.MAX_VALUE / POWERS_OF_TEN[missingDigits]) {
+            throw invalidAmount(decimal, offset, length, currency);
+        }
+        minorUnits *= POWERS_OF_TEN[missingDigits];
+        return new Money(negative ? -minorUnits : minorUnits, currency);
+    }
+
+    private static IllegalArgumentException invalidAmount(CharSequence decimal, int offset, int length,
+        Currency currency) {
+        return new IllegalArgumentException(String.format(
+            "Amount [%s] is not a valid %s amount", decimal.subSequence(offset, offset + length), currency));
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    public boolean isPositive() {
+        return minorUnits > 0;
+    }
+
+    public Money plus(Money other) {
+        if (other.currency != currency) {
+            throw new IllegalArgumentException(String.format(
+                "Cannot add %s to %s amount", other.currency, currency));
+        }
+        return new Money(Math.addExact(minorUnits, other.minorUnits), currency);
+    }
+
+    /*
+    * Decimal text in the scale of the currency, e.g. 10.50
+    * */
+    public String toDecimalString() {
+        return appendDecimal(new StringBuilder(21)).toString();
+    }
+
+    public StringBuilder appendDecimal(StringBuilder builder) {
+        int scale = currency.getScale();
+        if (minorUnits < 0) {
+            builder.append('-');
+        }
+        // Math.abs overflows for Long.MIN_VALUE, divide the negative value instead
+        long negativeMajor = (minorUnits < 0 ? minorUnits : -minorUnits) / POWERS_OF_TEN[scale];
+        builder.append(-negativeMajor);
+        if (scale > 0) {
+            long minor = Math.abs(minorUnits % POWERS_OF_TEN[scale]);
+            builder.append('.');
+            for (int digit = scale - 1; digit >= 0; digit--) {
+                builder.append((char) ('0' + (minor / POWERS_OF_TEN[digit]) % 10));
+            }
+        }
+        return builder;
+    }
+
+    /*
+    * Writes the same text as appendDecimal into dest from offset and returns its length, at most 21 chars
+    * */
+    public int getDecimalChars(char[] dest, int offset) {
+        int scale = currency.getScale();
+        // the negative value again, Math.abs overflows for Long.MIN_VALUE
+        long negative = minorUnits < 0 ? minorUnits : -minorUnits;
+        int digits = 1;
+        for (long rest = negative / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        // at least one digit before the decimal point, e.g. 0.05
+        digits = Math.max(digits, scale + 1);
+        int length = (minorUnits < 0 ? 1 : 0) + digits + (scale > 0 ? 1 : 0);
+        int position = offset + length;
+        for (int digit = 0; digit < digits; digit++) {
+            if (digit == scale && scale > 0) {
+                dest[--position] = '.';
+            }
+            dest[--position] = (char) ('0' - negative % 10);
+            negative /= 10;
+        }
+        if (minorUnits < 0) {
+            dest[--position] = '-';
+        }
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Money money = (Money) o;
+        return minorUnits == money.minorUnits &&
+            currency == money.currency;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(minorUnits) + currency.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return appendDecimal(new StringBuilder(25)).append(' ').append(currency).toString();
+    }
+}
@@ -1,34 +1,56 @@
 package com.amigoscode.testing.payment;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import javax.persistence.Column;
+import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
-import java.math.BigDecimal;
+import javax.persistence.Index;
+import javax.persistence.Table;
 
 import java.util.Objects;
 import java.util.UUID;
 
 @Entity
+@Table(indexes = @Index(name = "payment_customer_id_payment_id_idx", columnList = "customerId, paymentId"))
 public class Payment {
 
+    // ids come from a pooled sequence: one database round trip hands out this many ids, so a jdbc batch
+    // of that size needs a single sequence call instead of one per row
+    static final int PAYMENT_ID_ALLOCATION_SIZE = 50;
+    // length of the text columns, longer text is refused before the card is charged
+    public static final int MAX_TEXT_LENGTH = 255;
+
+    // every shard has its own sequence, the id carries the shard it was stored on
     @Id
-    @GeneratedValue
+    @GenericGenerator(
+        name = "payment_id",
+        strategy = "com.amigoscode.testing.payment.shard.ShardedPaymentIdGenerator",
+        parameters = {
+            @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "payment_id_seq"),
+            @Parameter(name = SequenceStyleGenerator.INCREMENT_PARAM, value = "" + PAYMENT_ID_ALLOCATION_SIZE)
+        })
+    @GeneratedValue(generator = "payment_id")
     private Long paymentId;
     private UUID customerId;
-    private BigDecimal amount;
-    private Currency currency;
+    @Embedded
+    private Money amount;
+    @Column(length = MAX_TEXT_LENGTH)
     private String source;
+    @Column(length = MAX_TEXT_LENGTH)
     private String description;
 
     public Payment() {
     }
 
-    public Payment(Long paymentId, UUID customerId, BigDecimal amount, Currency currency,
-        String source, String description) {
+    public Payment(Long paymentId, UUID customerId, Money amount, String source, String description) {
         this.paymentId = paymentId;
         this.customerId = customerId;
         this.amount = amount;
-        this.currency = currency;
         this.source = source;
         this.description = description;
     }
@@ -49,20 +71,16 @@ public class Payment {
         this.customerId = customerId;
     }
 
-    public BigDecimal getAmount() {
+    public Money getAmount() {
         return amount;
     }
 
-    public void setAmount(BigDecimal amount) {
+    public void setAmount(Money amount) {
         this.amount = amount;
     }
 
     public Currency getCurrency() {
-        return currency;
-    }
-
-    public void setCurrency(Currency currency) {
-        this.currency = currency;
+        return amount == null ? null : amount.getCurrency();
     }
 
     public String getSource() {
@@ -81,6 +99,17 @@ public class Payment {
         this.description = description;
     }
 
+    // why the payment table would refuse this payment, null when it fits
+    public String exceededColumnLimit() {
+        if (source != null && source.length() > MAX_TEXT_LENGTH) {
+            return String.format("source is longer than [%s] characters", MAX_TEXT_LENGTH);
+        }
+        if (description != null && description.length() > MAX_TEXT_LENGTH) {
+            return String.format("description is longer than [%s] characters", MAX_TEXT_LENGTH);
+        }
+        return null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -89,13 +118,12 @@ public class Payment {
         return paymentId.equals(payment.paymentId) &&
             customerId.equals(payment.customerId) &&
             amount.equals(payment.amount) &&
-            currency == payment.currency &&
             source.equals(payment.source) &&
             description.equals(payment.description);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(paymentId, customerId, amount, currency, source, description);
+        return Objects.hash(paymentId, customerId, amount, source, description);
     }
 }
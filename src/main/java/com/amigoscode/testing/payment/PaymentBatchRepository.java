@@ -0,0 +1,12 @@
+package com.amigoscode.testing.payment;
+
+import java.util.List;
+
+/*
+* Custom fragment of PaymentRepository for bulk writes - spring data picks up PaymentBatchRepositoryImpl
+* by naming convention and mixes it into the repository proxy
+* */
+public interface PaymentBatchRepository {
+    // persists payments using jdbc batch inserts instead of one insert per round trip
+    List<Payment> saveAllInBatches(List<Payment> payments);
+}
@@ -0,0 +1,61 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import com.amigoscode.testing.payment.spend.CustomerSpendRepository;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.List;
+
+public class PaymentBatchRepositoryImpl implements PaymentBatchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final CustomerSpendRepository customerSpendRepository;
+    private final PaymentShards paymentShards;
+    private final int batchSize;
+
+    public PaymentBatchRepositoryImpl(CustomerSpendRepository customerSpendRepository,
+        PaymentShards paymentShards,
+        @Value("${payment.batch.jdbc-batch-size:50}") int batchSize) {
+        this.customerSpendRepository = customerSpendRepository;
+        this.paymentShards = paymentShards;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    @Transactional
+    public List<Payment> saveAllInBatches(List<Payment> payments) {
+        // the transaction is on the bound shard already, a payment of another shard would be stored out of reach
+        int shard = PaymentShards.currentShard();
+        for (Payment payment : payments) {
+            if (paymentShards.shardOf(payment.getCustomerId()) != shard) {
+                throw new IllegalStateException(String.format(
+                    "Payment of customer [%s] belongs on shard [%s], not on shard [%s]",
+                    payment.getCustomerId(), paymentShards.shardOf(payment.getCustomerId()), shard));
+            }
+        }
+
+        // hibernate groups the inserts queued between flushes into a single jdbc batch
+        entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+
+        for (int i = 0; i < payments.size(); i++) {
+            entityManager.persist(payments.get(i));
+            if ((i + 1) % batchSize == 0) {
+                // flush the batch and clear so the persistence context does not grow with the batch
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        // every insert path goes through here, so the running totals move in the same transaction
+        customerSpendRepository.addPayments(payments);
+        return payments;
+    }
+}
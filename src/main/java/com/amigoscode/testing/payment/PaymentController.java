@@ -1,24 +1,69 @@
 package com.amigoscode.testing.payment;
 
-import org.springframework.web.bind.annotation.PathVariable;
+import com.amigoscode.testing.payment.ratelimit.PaymentRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.UUID;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @RestController
+@Profile("!reactive")
 @RequestMapping("api/v1/payment")
 public class PaymentController {
 
+    // clients send the same key when retrying a payment so it is charged only once
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     private final PaymentService paymentService;
+    private final BatchPaymentService batchPaymentService;
+    private final PaymentRateLimiter paymentRateLimiter;
+    private final long deadlineMillis;
+    private final long batchDeadlineMillis;
 
-    public PaymentController(PaymentService paymentService) {
+    public PaymentController(PaymentService paymentService, BatchPaymentService batchPaymentService,
+        PaymentRateLimiter paymentRateLimiter, @Value("${payment.deadline-ms:5000}") long deadlineMillis,
+        @Value("${payment.batch.deadline-ms:60000}") long batchDeadlineMillis) {
         this.paymentService = paymentService;
+        this.batchPaymentService = batchPaymentService;
+        this.paymentRateLimiter = paymentRateLimiter;
+        this.deadlineMillis = deadlineMillis;
+        this.batchDeadlineMillis = batchDeadlineMillis;
     }
 
     @RequestMapping
-    public void makePayment(@RequestBody PaymentRequest paymentRequest) {
-        paymentService.chargeCard(paymentRequest.getPayment().getCustomerId(), paymentRequest);
+    public void makePayment(@RequestBody PaymentRequest paymentRequest,
+        @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        paymentRateLimiter.acquire(paymentRequest.getPayment());
+        paymentService.chargeCard(paymentRequest.getPayment().getCustomerId(), paymentRequest, idempotencyKey,
+            newDeadline());
+    }
+
+    // the request thread is released while the charge is pending, spring completes the response from the future
+    @RequestMapping("async")
+    public CompletableFuture<Void> makePaymentAsync(@RequestBody PaymentRequest paymentRequest,
+        @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        paymentRateLimiter.acquire(paymentRequest.getPayment());
+        return paymentService.chargeCardAsync(
+            paymentRequest.getPayment().getCustomerId(), paymentRequest, idempotencyKey, newDeadline());
+    }
+
+    // every payment is rate limited on its own, the key covers each payment of the batch by its position
+    @PostMapping("batch")
+    public List<PaymentResult> makePayments(@RequestBody List<PaymentRequest> paymentRequests,
+        @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        return batchPaymentService.chargeCards(paymentRequests, idempotencyKey,
+            Deadline.after(batchDeadlineMillis, TimeUnit.MILLISECONDS));
+    }
+
+    // the budget starts when the request arrives and covers the lookup, the charge and the journal append
+    private Deadline newDeadline() {
+        return Deadline.after(deadlineMillis, TimeUnit.MILLISECONDS);
     }
 }
@@ -0,0 +1,42 @@
+package com.amigoscode.testing.payment;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.UUID;
+
+@RestController
+@Profile("!reactive") // the export streams through the servlet response, there is no reactive variant yet
+@RequestMapping("api/v1/payment-history")
+public class PaymentHistoryController {
+
+    static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private final PaymentHistoryService paymentHistoryService;
+
+    public PaymentHistoryController(PaymentHistoryService paymentHistoryService) {
+        this.paymentHistoryService = paymentHistoryService;
+    }
+
+    @GetMapping("{customerId}")
+    public PaymentHistoryPage getPayments(@PathVariable("customerId") UUID customerId,
+        @RequestParam(value = "afterPaymentId", defaultValue = "0") long afterPaymentId,
+        @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        return paymentHistoryService.getPayments(customerId, afterPaymentId, limit);
+    }
+
+    // written on an mvc async thread so the response is streamed instead of built in memory
+    @GetMapping("{customerId}/export")
+    public ResponseEntity<StreamingResponseBody> exportPayments(@PathVariable("customerId") UUID customerId) {
+        return ResponseEntity.ok()
+            .contentType(APPLICATION_NDJSON)
+            .body(outputStream -> paymentHistoryService.exportPayments(customerId, outputStream));
+    }
+}
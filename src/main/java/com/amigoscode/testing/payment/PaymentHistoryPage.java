@@ -0,0 +1,31 @@
+package com.amigoscode.testing.payment;
+
+import java.util.List;
+
+/*
+* One page of a customer's payments, oldest first. nextAfterPaymentId is passed back as afterPaymentId
+* to get the next page and is null on the last page
+* */
+public class PaymentHistoryPage {
+
+    private final List<Payment> payments;
+    private final Long nextAfterPaymentId;
+
+    public PaymentHistoryPage(List<Payment> payments, Long nextAfterPaymentId) {
+        this.payments = payments;
+        this.nextAfterPaymentId = nextAfterPaymentId;
+    }
+
+    public List<Payment> getPayments() {
+        return payments;
+    }
+
+    public Long getNextAfterPaymentId() {
+        return nextAfterPaymentId;
+    }
+
+    @Override
+    public String toString() {
+        return "PaymentHistoryPage{" + "payments=" + payments + ", nextAfterPaymentId=" + nextAfterPaymentId + '}';
+    }
+}
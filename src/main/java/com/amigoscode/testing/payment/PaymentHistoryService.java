@@ -0,0 +1,97 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+@Service
+public class PaymentHistoryService {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final PaymentRepository paymentRepository;
+    private final PaymentShards paymentShards;
+    private final TransactionTemplate readOnlyTransactionTemplate;
+    private final ObjectWriter paymentWriter;
+    private final ObjectMapper objectMapper;
+    private final int maxPageSize;
+
+    @Autowired
+    public PaymentHistoryService(PaymentRepository paymentRepository, PaymentShards paymentShards,
+        PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+        @Value("${payment.history.max-page-size:500}") int maxPageSize) {
+        this.paymentRepository = paymentRepository;
+        this.paymentShards = paymentShards;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+        this.objectMapper = objectMapper;
+        // the servlet response is buffered already, flushing after every row would be a write per payment
+        this.paymentWriter = objectMapper.writerFor(Payment.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.maxPageSize = maxPageSize;
+    }
+
+    // every payment of a customer is on the customer's shard, so is the next page
+    public PaymentHistoryPage getPayments(UUID customerId, long afterPaymentId, int limit) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageSize));
+        List<Payment> payments = paymentShards.onShard(paymentShards.shardOf(customerId),
+            () -> paymentRepository.selectPaymentsForCustomer(customerId, afterPaymentId, PageRequest.of(0, pageSize)));
+        Long nextAfterPaymentId = payments.size() < pageSize
+            ? null
+            : payments.get(payments.size() - 1).getPaymentId();
+        return new PaymentHistoryPage(payments, nextAfterPaymentId);
+    }
+
+    /*
+    * Writes every payment of the customer as one json document per line while the rows come off the
+    * cursor. Each payment is detached once written so the persistence context stays empty
+    * */
+    public long exportPayments(UUID customerId, OutputStream outputStream) throws IOException {
+        try {
+            return paymentShards.onShard(paymentShards.shardOf(customerId), () ->
+                readOnlyTransactionTemplate.execute(status -> export(customerId, outputStream)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private long export(UUID customerId, OutputStream outputStream) {
+        long exported = 0;
+        try (Stream<Payment> payments = paymentRepository.streamPaymentsForCustomer(customerId);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            // the servlet container owns the response stream
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            Iterator<Payment> iterator = payments.iterator();
+            while (iterator.hasNext()) {
+                Payment payment = iterator.next();
+                paymentWriter.writeValue(generator, payment);
+                generator.writeRaw('\n');
+                entityManager.detach(payment);
+                exported++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return exported;
+    }
+}
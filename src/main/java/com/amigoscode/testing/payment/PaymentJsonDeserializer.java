@@ -0,0 +1,98 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.json.JsonText;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/*
+* Reads a payment in the format PaymentJsonSerializer writes. The amount is parsed from the text of the
+* number token straight into minor units, so a request never goes through BigDecimal or double.
+* The customer id, amount and currency are read from the parser's own buffer, without a String in between
+* */
+public class PaymentJsonDeserializer extends StdDeserializer<Payment> {
+
+    public PaymentJsonDeserializer() {
+        super(Payment.class);
+    }
+
+    @Override
+    public Payment deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            return (Payment) ctxt.handleUnexpectedToken(Payment.class, p);
+        }
+        Payment payment = new Payment();
+        // the currency usually comes after the amount, keep the digits until both are read.
+        // The parser reuses its buffer for the next token, so they are copied
+        char[] amount = null;
+        int amountLength = 0;
+        Currency currency = null;
+        for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+            JsonToken token = p.nextToken();
+            switch (field) {
+                case "paymentId":
+                    payment.setPaymentId(JsonText.readLong(p, ctxt));
+                    break;
+                case "customerId":
+                    payment.setCustomerId(JsonText.readUuid(p, ctxt));
+                    break;
+                case "amount":
+                    if (token == JsonToken.VALUE_NULL) {
+                        amount = null;
+                    } else if (token.isStructStart()) {
+                        // throws unless a problem handler takes it, which cannot hand back the digits
+                        ctxt.handleUnexpectedToken(Money.class, p);
+                        p.skipChildren();
+                        amount = null;
+                    } else {
+                        amountLength = p.getTextLength();
+                        amount = JsonText.scratch(amountLength);
+                        System.arraycopy(p.getTextCharacters(), p.getTextOffset(), amount, 0, amountLength);
+                    }
+                    break;
+                case "currency":
+                    currency = token == JsonToken.VALUE_NULL ? null : currency(p, ctxt);
+                    break;
+                case "source":
+                    payment.setSource(JsonText.readString(p, ctxt));
+                    break;
+                case "description":
+                    payment.setDescription(JsonText.readString(p, ctxt));
+                    break;
+                default:
+                    // skips the value unless unknown properties fail the request
+                    ctxt.handleUnknownProperty(p, this, Payment.class, field);
+            }
+        }
+        if (amount != null || currency != null) {
+            if (amount == null || currency == null) {
+                return (Payment) ctxt.reportInputMismatch(this, "Payment needs both an amount and a currency");
+            }
+            try {
+                payment.setAmount(Money.parse(CharBuffer.wrap(amount), 0, amountLength, currency));
+            } catch (IllegalArgumentException e) {
+                return (Payment) ctxt.reportInputMismatch(this, e.getMessage());
+            }
+        }
+        return payment;
+    }
+
+    private static Currency currency(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken().isStructStart()) {
+            return (Currency) ctxt.handleUnexpectedToken(Currency.class, p);
+        }
+        Currency currency = p.currentToken() == JsonToken.VALUE_STRING
+            ? Currency.of(p.getTextCharacters(), p.getTextOffset(), p.getTextLength())
+            : null;
+        if (currency != null) {
+            return currency;
+        }
+        return (Currency) ctxt.handleWeirdStringValue(Currency.class, p.getText(), "not one of %s",
+            Arrays.toString(Currency.values()));
+    }
+}
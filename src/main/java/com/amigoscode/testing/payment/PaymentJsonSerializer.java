@@ -0,0 +1,69 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.json.JsonText;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/*
+* Writes the amount as a plain decimal next to its currency, e.g. "amount":10.50,"currency":"GBP"
+* The field names are encoded once, the customer id and the amount go out of a char buffer
+* */
+public class PaymentJsonSerializer extends StdSerializer<Payment> {
+
+    private static final SerializableString PAYMENT_ID = new SerializedString("paymentId");
+    private static final SerializableString CUSTOMER_ID = new SerializedString("customerId");
+    private static final SerializableString AMOUNT = new SerializedString("amount");
+    private static final SerializableString CURRENCY = new SerializedString("currency");
+    private static final SerializableString SOURCE = new SerializedString("source");
+    private static final SerializableString DESCRIPTION = new SerializedString("description");
+
+    public PaymentJsonSerializer() {
+        super(Payment.class);
+    }
+
+    @Override
+    public void serialize(Payment payment, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject(payment);
+        gen.writeFieldName(PAYMENT_ID);
+        if (payment.getPaymentId() == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(payment.getPaymentId());
+        }
+        gen.writeFieldName(CUSTOMER_ID);
+        JsonText.writeUuid(gen, payment.getCustomerId());
+        Money amount = payment.getAmount();
+        gen.writeFieldName(AMOUNT);
+        if (amount == null) {
+            gen.writeNull();
+            gen.writeFieldName(CURRENCY);
+            gen.writeNull();
+        } else {
+            writeAmount(amount, gen);
+            gen.writeFieldName(CURRENCY);
+            gen.writeString(amount.getCurrency().name());
+        }
+        gen.writeFieldName(SOURCE);
+        gen.writeString(payment.getSource());
+        gen.writeFieldName(DESCRIPTION);
+        gen.writeString(payment.getDescription());
+        gen.writeEndObject();
+    }
+
+    private static void writeAmount(Money amount, JsonGenerator gen) throws IOException {
+        // a token buffer keeps a raw value as an embedded object, which reads back as no number at all
+        if (gen instanceof TokenBuffer) {
+            gen.writeNumber(amount.toDecimalString());
+            return;
+        }
+        // jackson 2.10 only takes a number as a String, the digits are a valid json number as they are
+        char[] chars = JsonText.scratch(21);
+        gen.writeRawValue(chars, 0, amount.getDecimalChars(chars, 0));
+    }
+}
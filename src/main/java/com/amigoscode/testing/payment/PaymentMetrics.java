@@ -0,0 +1,113 @@
+package com.amigoscode.testing.payment;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+* Meters of the charge path. Every timer and counter is registered up front and looked up by enum,
+* so recording on the hot path is a nanoTime difference and an increment - no tags or samples are allocated.
+* Steps are timed whether they succeed or throw, tagged with the outcome like stripe.api.calls, so a step that
+* fails slowly shows up in its latency
+* */
+@Component
+public class PaymentMetrics {
+
+    public enum Step {
+        CUSTOMER_LOOKUP("customer_lookup"),
+        CURRENCY_CHECK("currency_check"),
+        CARD_CHARGE("card_charge"),
+        PAYMENT_SAVE("payment_save");
+
+        private final String tag;
+
+        Step(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    public enum Outcome {
+        DEBITED("debited"),
+        DECLINED("declined"),
+        ERROR("error");
+
+        private final String tag;
+
+        Outcome(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final Map<Step, Timer> succeededSteps = new EnumMap<>(Step.class);
+    private final Map<Step, Timer> failedSteps = new EnumMap<>(Step.class);
+    private final Map<Currency, Map<Outcome, Counter>> chargeCounters = new EnumMap<>(Currency.class);
+    private final Map<Step, Counter> deadlineCounters = new EnumMap<>(Step.class);
+    private final AtomicInteger inFlightCharges = new AtomicInteger();
+
+    @Autowired
+    public PaymentMetrics(MeterRegistry meterRegistry) {
+        for (Step step : Step.values()) {
+            succeededSteps.put(step, stepTimer(meterRegistry, step, "success"));
+            failedSteps.put(step, stepTimer(meterRegistry, step, "failure"));
+            deadlineCounters.put(step, Counter.builder("payment.deadline.exceeded")
+                .description("Payments that ran out of their deadline, by the step they were at")
+                .tag("step", step.tag)
+                .register(meterRegistry));
+        }
+        for (Currency currency : Currency.values()) {
+            Map<Outcome, Counter> outcomeCounters = new EnumMap<>(Outcome.class);
+            for (Outcome outcome : Outcome.values()) {
+                outcomeCounters.put(outcome, Counter.builder("payment.charges")
+                    .description("Card charges by currency and outcome")
+                    .tag("currency", currency.name())
+                    .tag("outcome", outcome.tag)
+                    .register(meterRegistry));
+            }
+            chargeCounters.put(currency, outcomeCounters);
+        }
+        meterRegistry.gauge("payment.charges.in_flight", inFlightCharges);
+    }
+
+    private static Timer stepTimer(MeterRegistry meterRegistry, Step step, String outcome) {
+        return Timer.builder("payment.step")
+            .description("Latency of each step of a card payment")
+            .tag("step", step.tag)
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    public void recordStep(Step step, long startNanos, boolean succeeded) {
+        (succeeded ? succeededSteps : failedSteps).get(step)
+            .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordOutcome(Currency currency, Outcome outcome) {
+        if (currency != null) {
+            chargeCounters.get(currency).get(outcome).increment();
+        }
+    }
+
+    public void recordDeadlineExceeded(Step step) {
+        deadlineCounters.get(step).increment();
+    }
+
+    public void chargeStarted() {
+        inFlightCharges.incrementAndGet();
+    }
+
+    public void chargeFinished() {
+        inFlightCharges.decrementAndGet();
+    }
+
+    public int getInFlightCharges() {
+        return inFlightCharges.get();
+    }
+}
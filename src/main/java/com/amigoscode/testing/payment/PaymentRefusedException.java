@@ -0,0 +1,12 @@
+package com.amigoscode.testing.payment;
+
+/*
+* The payment was refused for good and the card was not charged: the customer is unknown,
+* the currency is not supported or the card was declined
+* */
+public class PaymentRefusedException extends IllegalStateException {
+
+    public PaymentRefusedException(String message) {
+        super(message);
+    }
+}
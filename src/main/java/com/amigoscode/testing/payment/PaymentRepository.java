@@ -1,6 +1,55 @@
 package com.amigoscode.testing.payment;
 
+import com.amigoscode.testing.payment.spend.SpendTotal;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
-public interface PaymentRepository extends CrudRepository<Payment, Long> {
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+public interface PaymentRepository extends CrudRepository<Payment, Long>, PaymentBatchRepository {
+
+    // keyset page: seeks to afterPaymentId on the (customer_id, payment_id) index instead of skipping an offset
+    @Query("select p from Payment p where p.customerId = :customerId and p.paymentId > :afterPaymentId"
+        + " order by p.paymentId")
+    List<Payment> selectPaymentsForCustomer(@Param("customerId") UUID customerId,
+        @Param("afterPaymentId") long afterPaymentId, Pageable pageable);
+
+    // rows are read from the jdbc cursor as the stream is consumed, it has to be closed inside a transaction
+    @QueryHints({
+        @QueryHint(name = HINT_FETCH_SIZE, value = "500"),
+        @QueryHint(name = HINT_READONLY, value = "true")
+    })
+    @Query("select p from Payment p where p.customerId = :customerId order by p.paymentId")
+    Stream<Payment> streamPaymentsForCustomer(@Param("customerId") UUID customerId);
+
+    @Query("select min(p.paymentId) from Payment p")
+    Long selectMinPaymentId();
+
+    @Query("select max(p.paymentId) from Payment p")
+    Long selectMaxPaymentId();
+
+    // totals of a range of payment ids, the spend rebuild sums the table one range at a time
+    @Query("select p.customerId as customerId, p.amount.currency as currency,"
+        + " sum(p.amount.minorUnits) as totalMinorUnits, count(p) as paymentCount"
+        + " from Payment p where p.paymentId between :fromPaymentId and :toPaymentId"
+        + " group by p.customerId, p.amount.currency")
+    List<SpendTotal> selectSpendTotals(@Param("fromPaymentId") long fromPaymentId,
+        @Param("toPaymentId") long toPaymentId);
+
+    // totals of a set of customers, served from the (customer_id, payment_id) index
+    @Query("select p.customerId as customerId, p.amount.currency as currency,"
+        + " sum(p.amount.minorUnits) as totalMinorUnits, count(p) as paymentCount"
+        + " from Payment p where p.customerId in :customerIds"
+        + " group by p.customerId, p.amount.currency")
+    List<SpendTotal> selectSpendTotalsOfCustomers(@Param("customerIds") Collection<UUID> customerIds);
 }
@@ -0,0 +1,39 @@
+package com.amigoscode.testing.payment;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+
+/*
+* Reads {"payment":{...}} with the payment deserializer it is given. The creator of PaymentRequest would
+* have jackson buffer the properties before it can call it
+* */
+public class PaymentRequestJsonDeserializer extends StdDeserializer<PaymentRequest> {
+
+    private final PaymentJsonDeserializer paymentDeserializer;
+
+    public PaymentRequestJsonDeserializer(PaymentJsonDeserializer paymentDeserializer) {
+        super(PaymentRequest.class);
+        this.paymentDeserializer = paymentDeserializer;
+    }
+
+    @Override
+    public PaymentRequest deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            return (PaymentRequest) ctxt.handleUnexpectedToken(PaymentRequest.class, p);
+        }
+        Payment payment = null;
+        for (String field = p.nextFieldName(); field != null; field = p.nextFieldName()) {
+            JsonToken token = p.nextToken();
+            if (field.equals("payment")) {
+                payment = token == JsonToken.VALUE_NULL ? null : paymentDeserializer.deserialize(p, ctxt);
+            } else {
+                ctxt.handleUnknownProperty(p, this, PaymentRequest.class, field);
+            }
+        }
+        return new PaymentRequest(payment);
+    }
+}
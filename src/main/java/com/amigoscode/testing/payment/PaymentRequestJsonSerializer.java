@@ -0,0 +1,37 @@
+package com.amigoscode.testing.payment;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/*
+* Writes {"payment":{...}} with the payment serializer it is given, without a lookup per request
+* */
+public class PaymentRequestJsonSerializer extends StdSerializer<PaymentRequest> {
+
+    private static final SerializableString PAYMENT = new SerializedString("payment");
+
+    private final PaymentJsonSerializer paymentSerializer;
+
+    public PaymentRequestJsonSerializer(PaymentJsonSerializer paymentSerializer) {
+        super(PaymentRequest.class);
+        this.paymentSerializer = paymentSerializer;
+    }
+
+    @Override
+    public void serialize(PaymentRequest request, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+        gen.writeStartObject(request);
+        gen.writeFieldName(PAYMENT);
+        if (request.getPayment() == null) {
+            gen.writeNull();
+        } else {
+            paymentSerializer.serialize(request.getPayment(), gen, provider);
+        }
+        gen.writeEndObject();
+    }
+}
@@ -0,0 +1,63 @@
+package com.amigoscode.testing.payment;
+
+import java.util.UUID;
+
+/*
+* Outcome of a single payment inside a batch - one failing payment does not fail the whole batch
+* */
+public class PaymentResult {
+
+    public enum Status {
+        CHARGED,
+        CUSTOMER_NOT_FOUND,
+        CURRENCY_NOT_SUPPORTED,
+        CARD_NOT_DEBITED,
+        INVALID,
+        RATE_LIMITED,
+        // certainly not charged, e.g. the deadline of the batch passed first
+        NOT_ATTEMPTED,
+        FAILED
+    }
+
+    private final UUID customerId;
+    private final Status status;
+    private final Long paymentId;
+    private final String message;
+
+    public PaymentResult(UUID customerId, Status status, Long paymentId, String message) {
+        this.customerId = customerId;
+        this.status = status;
+        this.paymentId = paymentId;
+        this.message = message;
+    }
+
+    public static PaymentResult charged(UUID customerId, Long paymentId) {
+        return new PaymentResult(customerId, Status.CHARGED, paymentId, null);
+    }
+
+    public static PaymentResult failed(UUID customerId, Status status, String message) {
+        return new PaymentResult(customerId, status, null, message);
+    }
+
+    public UUID getCustomerId() {
+        return customerId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Long getPaymentId() {
+        return paymentId;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "PaymentResult{" + "customerId=" + customerId + ", status=" + status + ", paymentId="
+            + paymentId + ", message='" + message + '\'' + '}';
+    }
+}
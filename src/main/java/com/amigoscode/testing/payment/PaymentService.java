@@ -1,61 +1,238 @@
 package com.amigoscode.testing.payment;
 
-import com.amigoscode.testing.customer.Customer;
-import com.amigoscode.testing.customer.CustomerRepository;
+import com.amigoscode.testing.customer.CustomerExistenceCache;
+import com.amigoscode.testing.payment.idempotency.IdempotencyStore;
+import com.amigoscode.testing.payment.journal.PaymentJournal;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Service
 public class PaymentService {
 
-    private static final List<Currency> ACCEPTED_CURRENCIES = List.of(Currency.USD, Currency.GBP);
+    static final List<Currency> ACCEPTED_CURRENCIES = List.of(Currency.USD, Currency.GBP);
 
-    private final CustomerRepository customerRepository;
-    private final PaymentRepository paymentRepository;
+    private final CustomerExistenceCache customerExistenceCache;
+    private final PaymentJournal paymentJournal;
     private final CardPaymentCharger cardPaymentCharger;
+    private final AsyncCardPaymentCharger asyncCardPaymentCharger;
+    private final IdempotencyStore idempotencyStore;
+    private final PaymentMetrics paymentMetrics;
 
     @Autowired
-    public PaymentService(CustomerRepository customerRepository, PaymentRepository paymentRepository, CardPaymentCharger cardPaymentCharger) {
-        this.customerRepository = customerRepository;
-        this.paymentRepository = paymentRepository;
+    public PaymentService(CustomerExistenceCache customerExistenceCache, PaymentJournal paymentJournal,
+        CardPaymentCharger cardPaymentCharger, AsyncCardPaymentCharger asyncCardPaymentCharger,
+        IdempotencyStore idempotencyStore, PaymentMetrics paymentMetrics) {
+        this.customerExistenceCache = customerExistenceCache;
+        this.paymentJournal = paymentJournal;
         this.cardPaymentCharger = cardPaymentCharger;
+        this.asyncCardPaymentCharger = asyncCardPaymentCharger;
+        this.idempotencyStore = idempotencyStore;
+        this.paymentMetrics = paymentMetrics;
     }
 
-    void chargeCard(UUID customerId,  PaymentRequest paymentRequest) {
+    /*
+    * A replayed idempotency key returns without charging the card again. A retry after a failure that may have
+    * charged runs again, the provider gets a key derived from the client's so it answers with the first charge
+    * */
+    void chargeCard(UUID customerId, PaymentRequest paymentRequest, String idempotencyKey, Deadline deadline) {
+        if (idempotencyKey == null) {
+            chargeCard(customerId, paymentRequest, deadline);
+            return;
+        }
+        String providerIdempotencyKey = providerIdempotencyKey(customerId, idempotencyKey);
+        idempotencyStore.execute(customerId, idempotencyKey, requestHash(paymentRequest),
+            () -> chargeCard(customerId, paymentRequest, deadline, providerIdempotencyKey),
+            PaymentService::mayHaveCharged);
+    }
+
+    CompletableFuture<Void> chargeCardAsync(UUID customerId, PaymentRequest paymentRequest, String idempotencyKey,
+        Deadline deadline) {
+        if (idempotencyKey == null) {
+            return chargeCardAsync(customerId, paymentRequest, deadline);
+        }
+        String providerIdempotencyKey = providerIdempotencyKey(customerId, idempotencyKey);
+        return idempotencyStore.executeAsync(customerId, idempotencyKey, requestHash(paymentRequest),
+            () -> chargeCardAsync(customerId, paymentRequest, deadline, providerIdempotencyKey),
+            PaymentService::mayHaveCharged);
+    }
+
+    // the same for every retry of a payment, and scoped by the customer like the key in the IdempotencyStore
+    static String providerIdempotencyKey(UUID customerId, String idempotencyKey) {
+        return UUID.nameUUIDFromBytes((customerId + ":" + idempotencyKey).getBytes(StandardCharsets.UTF_8))
+            .toString();
+    }
+
+    // the customer scopes the key, so only what is charged makes up the request
+    static String requestHash(PaymentRequest paymentRequest) {
+        Payment payment = paymentRequest.getPayment();
+        return IdempotencyStore.requestHash(payment.getAmount(), payment.getSource(), payment.getDescription());
+    }
+
+    /*
+    * Refused payments and charges the charger never sent certainly left the card alone, any other failure
+    * happened during or after the charge and may not have
+    * */
+    static boolean mayHaveCharged(Throwable failure) {
+        return !(failure instanceof PaymentRefusedException || failure instanceof ChargeNotAttemptedException);
+    }
+
+    void chargeCard(UUID customerId, PaymentRequest paymentRequest, Deadline deadline) {
+        chargeCard(customerId, paymentRequest, deadline, null);
+    }
+
+    private void chargeCard(UUID customerId, PaymentRequest paymentRequest, Deadline deadline,
+        String providerIdempotencyKey) {
+        // 1. and 2. customer exists and currency is supported
+        validate(customerId, paymentRequest, deadline);
+
+        // 3. Charge Card
+        checkDeadline(deadline, PaymentMetrics.Step.CARD_CHARGE);
+        Currency currency = paymentRequest.getPayment().getCurrency();
+        long chargeStart = System.nanoTime();
+        paymentMetrics.chargeStarted();
+        CardPaymentCharge cardPaymentCharge = null;
+        try {
+            cardPaymentCharge = cardPaymentCharger.chargeCard(
+                paymentRequest.getPayment().getSource(),
+                paymentRequest.getPayment().getAmount(),
+                paymentRequest.getPayment().getDescription(),
+                deadline,
+                providerIdempotencyKey
+            );
+        } catch (RuntimeException e) {
+            throw chargeFailed(currency, deadline, e);
+        } finally {
+            paymentMetrics.chargeFinished();
+            paymentMetrics.recordStep(PaymentMetrics.Step.CARD_CHARGE, chargeStart, cardPaymentCharge != null);
+        }
+
+        // 4. and 5. check if debited and persist payment
+        persistDebitedPayment(customerId, paymentRequest, cardPaymentCharge);
+    }
+
+    /*
+    * Same steps as chargeCard but the card charge and the save run on the charger's executor,
+    * the returned future completes once the payment is journaled
+    * */
+    CompletableFuture<Void> chargeCardAsync(UUID customerId, PaymentRequest paymentRequest, Deadline deadline) {
+        return chargeCardAsync(customerId, paymentRequest, deadline, null);
+    }
+
+    private CompletableFuture<Void> chargeCardAsync(UUID customerId, PaymentRequest paymentRequest,
+        Deadline deadline, String providerIdempotencyKey) {
+        try {
+            validate(customerId, paymentRequest, deadline);
+            checkDeadline(deadline, PaymentMetrics.Step.CARD_CHARGE);
+        } catch (IllegalStateException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Currency currency = paymentRequest.getPayment().getCurrency();
+        long chargeStart = System.nanoTime();
+        paymentMetrics.chargeStarted();
+        return asyncCardPaymentCharger.chargeCardAsync(
+            paymentRequest.getPayment().getSource(),
+            paymentRequest.getPayment().getAmount(),
+            paymentRequest.getPayment().getDescription(),
+            deadline,
+            providerIdempotencyKey
+        ).handle((cardPaymentCharge, e) -> {
+            paymentMetrics.chargeFinished();
+            paymentMetrics.recordStep(PaymentMetrics.Step.CARD_CHARGE, chargeStart, e == null);
+            if (e != null) {
+                throw chargeFailed(currency, deadline, e instanceof CompletionException ? e.getCause() : e);
+            }
+            return cardPaymentCharge;
+        }).thenAccept(cardPaymentCharge -> persistDebitedPayment(customerId, paymentRequest, cardPaymentCharge));
+    }
+
+    /*
+    * A charge that failed once the deadline had passed is reported as a deadline breach, the provider
+    * most likely gave up because its timeout was cut to the remaining budget
+    * */
+    private RuntimeException chargeFailed(Currency currency, Deadline deadline, Throwable e) {
+        paymentMetrics.recordOutcome(currency, PaymentMetrics.Outcome.ERROR);
+        if (e instanceof DeadlineExceededException) {
+            paymentMetrics.recordDeadlineExceeded(((DeadlineExceededException) e).getStep());
+            return (DeadlineExceededException) e;
+        }
+        if (deadline.isExpired()) {
+            paymentMetrics.recordDeadlineExceeded(PaymentMetrics.Step.CARD_CHARGE);
+            return new DeadlineExceededException(PaymentMetrics.Step.CARD_CHARGE, e);
+        }
+        return e instanceof RuntimeException ? (RuntimeException) e : new CompletionException(e);
+    }
+
+    private void checkDeadline(Deadline deadline, PaymentMetrics.Step step) {
+        if (deadline.isExpired()) {
+            paymentMetrics.recordDeadlineExceeded(step);
+            throw new DeadlineExceededException(step);
+        }
+    }
+
+    private void validate(UUID customerId, PaymentRequest paymentRequest, Deadline deadline) {
         // 1. Does customer exists if not throw
-        boolean isCustomerFound = customerRepository.findById(customerId).isPresent();
+        checkDeadline(deadline, PaymentMetrics.Step.CUSTOMER_LOOKUP);
+        long lookupStart = System.nanoTime();
+        boolean lookedUp = false;
+        boolean isCustomerFound;
+        try {
+            isCustomerFound = customerExistenceCache.exists(customerId);
+            lookedUp = true;
+        } finally {
+            paymentMetrics.recordStep(PaymentMetrics.Step.CUSTOMER_LOOKUP, lookupStart, lookedUp);
+        }
         if (!isCustomerFound) {
-            throw new IllegalStateException(String.format("Customer with id [%s] not found", customerId));
+            throw new PaymentRefusedException(String.format("Customer with id [%s] not found", customerId));
         }
 
         // 2. check if we support the currency
+        long currencyCheckStart = System.nanoTime();
         boolean isCurrencySupported = ACCEPTED_CURRENCIES.contains(paymentRequest.getPayment().getCurrency());
+        paymentMetrics.recordStep(PaymentMetrics.Step.CURRENCY_CHECK, currencyCheckStart, true);
 
         if (!isCurrencySupported) {
             String unsupportedCurrencyMessage = String.format(
                 "Currency [%s] not suported",
                 paymentRequest.getPayment().getCurrency());
-            throw new IllegalStateException(unsupportedCurrencyMessage);
+            throw new PaymentRefusedException(unsupportedCurrencyMessage);
         }
 
-        // 3. Charge Card
-        CardPaymentCharge cardPaymentCharge = cardPaymentCharger.chargeCard(
-            paymentRequest.getPayment().getSource(),
-            paymentRequest.getPayment().getAmount(),
-            paymentRequest.getPayment().getCurrency(),
-            paymentRequest.getPayment().getDescription()
-        );
+        // the database must take the payment once the card is debited, and must not be too far behind
+        String exceededColumnLimit = paymentRequest.getPayment().exceededColumnLimit();
+        if (exceededColumnLimit != null) {
+            throw new PaymentRefusedException(String.format("Payment not stored, %s", exceededColumnLimit));
+        }
+        paymentJournal.checkCapacity();
+    }
 
+    private void persistDebitedPayment(UUID customerId, PaymentRequest paymentRequest,
+        CardPaymentCharge cardPaymentCharge) {
         // 4. check if debited
+        Currency currency = paymentRequest.getPayment().getCurrency();
         if (!cardPaymentCharge.isCardDebited()) {
-            throw new IllegalStateException(String.format("Card not debited for customer %s", customerId));
+            paymentMetrics.recordOutcome(currency, PaymentMetrics.Outcome.DECLINED);
+            throw new PaymentRefusedException(String.format("Card not debited for customer %s", customerId));
         }
+        paymentMetrics.recordOutcome(currency, PaymentMetrics.Outcome.DEBITED);
 
-        // 5. Persist payment
-        paymentRequest.getPayment().setCustomerId(customerId);
-        paymentRepository.save(paymentRequest.getPayment());
+        // 5. Journal payment, the card is charged already so it must not get lost if the database is down.
+        // No deadline check here, once the card is debited the payment is recorded however late it is
+        // PaymentJournalWriter stores it in the payment table in the background
+        long saveStart = System.nanoTime();
+        boolean saved = false;
+        try {
+            paymentRequest.getPayment().setCustomerId(customerId);
+            paymentJournal.append(paymentRequest.getPayment());
+            saved = true;
+        } finally {
+            paymentMetrics.recordStep(PaymentMetrics.Step.PAYMENT_SAVE, saveStart, saved);
+        }
     }
 }
@@ -0,0 +1,78 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.payment.ratelimit.PaymentRateLimiter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Same contract as PaymentController for the reactive stack. Every payment takes the async path:
+* validation runs on the jdbc scheduler, the charge on the async charger and the response completes
+* once the payment is journaled - no event loop thread waits on any of it
+* */
+@RestController
+@Profile("reactive")
+@RequestMapping("api/v1/payment")
+public class ReactivePaymentController {
+
+    private final PaymentService paymentService;
+    private final BatchPaymentService batchPaymentService;
+    private final PaymentRateLimiter paymentRateLimiter;
+    private final Scheduler jdbcScheduler;
+    private final long deadlineMillis;
+    private final long batchDeadlineMillis;
+
+    public ReactivePaymentController(PaymentService paymentService, BatchPaymentService batchPaymentService,
+        PaymentRateLimiter paymentRateLimiter, @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+        @Value("${payment.deadline-ms:5000}") long deadlineMillis,
+        @Value("${payment.batch.deadline-ms:60000}") long batchDeadlineMillis) {
+        this.paymentService = paymentService;
+        this.batchPaymentService = batchPaymentService;
+        this.paymentRateLimiter = paymentRateLimiter;
+        this.jdbcScheduler = jdbcScheduler;
+        this.deadlineMillis = deadlineMillis;
+        this.batchDeadlineMillis = batchDeadlineMillis;
+    }
+
+    @RequestMapping
+    public Mono<Void> makePayment(@RequestBody PaymentRequest paymentRequest,
+        @RequestHeader(value = PaymentController.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        return charge(paymentRequest, idempotencyKey);
+    }
+
+    @RequestMapping("async")
+    public Mono<Void> makePaymentAsync(@RequestBody PaymentRequest paymentRequest,
+        @RequestHeader(value = PaymentController.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        return charge(paymentRequest, idempotencyKey);
+    }
+
+    // a batch waits on all of its charges, it gets an elastic thread rather than one of the few jdbc threads
+    @PostMapping("batch")
+    public Mono<List<PaymentResult>> makePayments(@RequestBody List<PaymentRequest> paymentRequests,
+        @RequestHeader(value = PaymentController.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+        Deadline deadline = Deadline.after(batchDeadlineMillis, TimeUnit.MILLISECONDS);
+        return Mono.fromCallable(() -> batchPaymentService.chargeCards(paymentRequests, idempotencyKey, deadline))
+            .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<Void> charge(PaymentRequest paymentRequest, String idempotencyKey) {
+        // the deadline starts with the request, not when the jdbc scheduler gets to it
+        Deadline deadline = Deadline.after(deadlineMillis, TimeUnit.MILLISECONDS);
+        // the in-memory store answers without blocking, a shared store waiting on the network would not
+        paymentRateLimiter.acquire(paymentRequest.getPayment());
+        return Mono.fromFuture(() -> paymentService.chargeCardAsync(
+                paymentRequest.getPayment().getCustomerId(), paymentRequest, idempotencyKey, deadline))
+            .subscribeOn(jdbcScheduler);
+    }
+}
@@ -0,0 +1,17 @@
+package com.amigoscode.testing.payment.idempotency;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/*
+* An idempotency key was reused with a request other than the one it was first used with,
+* answered with 422 as the key cannot stand for two payments
+* */
+@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+public class IdempotencyKeyMismatchException extends IllegalStateException {
+
+    public IdempotencyKeyMismatchException(String idempotencyKey) {
+        super(String.format(
+            "Idempotency key [%s] was already used with another request", idempotencyKey));
+    }
+}
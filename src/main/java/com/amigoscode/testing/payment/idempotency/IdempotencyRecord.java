@@ -0,0 +1,71 @@
+package com.amigoscode.testing.payment.idempotency;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.Instant;
+
+/*
+* Persisted state of an idempotency key so a replayed key is recognised after a restart.
+* The key is scoped by the customer that used it and bound to the hash of the request it first came with.
+* IdempotencyStore purges records by createdAt
+* */
+@Entity
+@Table(indexes = @Index(name = "idempotency_record_created_at_idx", columnList = "createdAt"))
+public class IdempotencyRecord {
+
+    public enum Status {
+        COMPLETED,
+        // the operation failed in a way that may still have taken effect, e.g. a charge whose answer was lost
+        OUTCOME_UNKNOWN
+    }
+
+    @Id
+    private String idempotencyKey;
+
+    @Column(nullable = false)
+    private String requestHash;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+
+    public IdempotencyRecord() {
+    }
+
+    public IdempotencyRecord(String idempotencyKey, String requestHash, Status status, Instant createdAt) {
+        this.idempotencyKey = idempotencyKey;
+        this.requestHash = requestHash;
+        this.status = status;
+        this.createdAt = createdAt;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "IdempotencyRecord{" + "idempotencyKey='" + idempotencyKey + '\'' + ", requestHash='" + requestHash
+            + '\'' + ", status=" + status + ", createdAt=" + createdAt + '}';
+    }
+}
@@ -0,0 +1,263 @@
+package com.amigoscode.testing.payment.idempotency;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/*
+* Deduplicates payments by idempotency key.
+* A key is scoped by the customer that sent it and bound to the hash of the request it first came with,
+* reusing it with another request fails with IdempotencyKeyMismatchException (422).
+* Completed keys are looked up in a bounded in-memory tier first and then in the idempotency_record table,
+* a replayed key completes straight away without running the operation again.
+* Concurrent requests with the same key share the future of the first one instead of racing each other.
+* A failure that may have taken effect, e.g. a charge whose answer was lost, is recorded as OUTCOME_UNKNOWN:
+* the key stays bound to its request and a retry runs the operation again, which must be idempotent itself
+* (PaymentService hands the provider a key derived from this one). Only a failure that certainly had no
+* effect leaves the key free.
+* Keys longer than MAX_KEY_LENGTH are refused with InvalidIdempotencyKeyException (400) before the operation runs.
+* Records are purged once they are older than the ttl of the in-memory tier, a key sent after that runs again
+* */
+@Service
+public class IdempotencyStore {
+
+    // the record's primary key is the customer id, a colon and the key, in a column of 255 characters
+    public static final int MAX_KEY_LENGTH = 200;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdempotencyStore.class);
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Completed> completedKeys;
+    private final Duration ttl;
+    private final Clock clock;
+
+    @Autowired
+    public IdempotencyStore(IdempotencyRecordRepository idempotencyRecordRepository,
+        @Value("${payment.idempotency.cache-size:10000}") int cacheSize,
+        @Value("${payment.idempotency.cache-ttl-seconds:86400}") long ttlSeconds) {
+        this(idempotencyRecordRepository, cacheSize, Duration.ofSeconds(ttlSeconds), Clock.systemUTC());
+    }
+
+    IdempotencyStore(IdempotencyRecordRepository idempotencyRecordRepository, int cacheSize, Duration ttl, Clock clock) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.ttl = ttl;
+        this.clock = clock;
+        // access ordered so the least recently used key is evicted once the cache is full
+        this.completedKeys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Completed> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    // hex sha-256 of the parts of a request, nulls included, to tell whether a key comes back with the same one
+    public static String requestHash(Object... parts) {
+        StringBuilder request = new StringBuilder();
+        for (Object part : parts) {
+            // length prefixed so ("ab", "c") and ("a", "bc") differ
+            String value = String.valueOf(part);
+            request.append(value.length()).append(':').append(value);
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(request.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public static void checkKey(String idempotencyKey) {
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new InvalidIdempotencyKeyException(String.format(
+                "Idempotency key of [%s] characters exceeds the maximum of [%s]",
+                idempotencyKey.length(), MAX_KEY_LENGTH));
+        }
+    }
+
+    public void execute(UUID customerId, String idempotencyKey, String requestHash, Runnable operation,
+        Predicate<Throwable> mayHaveTakenEffect) {
+        CompletableFuture<Void> outcome = executeAsync(customerId, idempotencyKey, requestHash, () -> {
+            operation.run();
+            return CompletableFuture.completedFuture(null);
+        }, mayHaveTakenEffect);
+        try {
+            outcome.join();
+        } catch (CompletionException e) {
+            // rethrow the original exception so callers see the same failure as without a key
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<Void> executeAsync(UUID customerId, String idempotencyKey, String requestHash,
+        Supplier<CompletableFuture<Void>> operation, Predicate<Throwable> mayHaveTakenEffect) {
+        String scopedKey = customerId + ":" + idempotencyKey;
+        try {
+            checkKey(idempotencyKey);
+            if (isCompleted(scopedKey, idempotencyKey, requestHash)) {
+                return CompletableFuture.completedFuture(null);
+            }
+        } catch (InvalidIdempotencyKeyException | IdempotencyKeyMismatchException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        InFlight attempt = new InFlight(requestHash);
+        InFlight pending = inFlight.putIfAbsent(scopedKey, attempt);
+        if (pending != null) {
+            // same key already running, coalesce onto it
+            return pending.requestHash.equals(requestHash)
+                ? pending.outcome
+                : CompletableFuture.failedFuture(new IdempotencyKeyMismatchException(idempotencyKey));
+        }
+
+        try {
+            // re-check now that we own the key, a concurrent request may have finished in between
+            if (isCompleted(scopedKey, idempotencyKey, requestHash)) {
+                complete(scopedKey, attempt, null);
+                return attempt.outcome;
+            }
+            Optional<IdempotencyRecord> record = idempotencyRecordRepository.findById(scopedKey);
+            if (record.isPresent()) {
+                if (!record.get().getRequestHash().equals(requestHash)) {
+                    throw new IdempotencyKeyMismatchException(idempotencyKey);
+                }
+                if (record.get().getStatus() == IdempotencyRecord.Status.COMPLETED) {
+                    rememberCompleted(scopedKey, requestHash);
+                    complete(scopedKey, attempt, null);
+                    return attempt.outcome;
+                }
+                // OUTCOME_UNKNOWN, the operation runs again and deduplicates itself
+            }
+
+            CompletableFuture<Void> result;
+            try {
+                result = operation.get();
+            } catch (RuntimeException e) {
+                // thrown instead of returned, it is recorded the same way
+                result = CompletableFuture.failedFuture(e);
+            }
+            result.whenComplete((ignored, e) -> {
+                Throwable failure = unwrap(e);
+                try {
+                    if (failure == null) {
+                        save(scopedKey, requestHash, IdempotencyRecord.Status.COMPLETED);
+                        rememberCompleted(scopedKey, requestHash);
+                    } else if (mayHaveTakenEffect.test(failure)) {
+                        save(scopedKey, requestHash, IdempotencyRecord.Status.OUTCOME_UNKNOWN);
+                    }
+                } catch (RuntimeException saveFailure) {
+                    if (failure != null) {
+                        failure.addSuppressed(saveFailure);
+                    }
+                    complete(scopedKey, attempt, failure == null ? saveFailure : failure);
+                    return;
+                }
+                complete(scopedKey, attempt, failure);
+            });
+        } catch (RuntimeException e) {
+            complete(scopedKey, attempt, e);
+        }
+        return attempt.outcome;
+    }
+
+    @Scheduled(initialDelayString = "${payment.idempotency.purge-interval-ms:3600000}",
+        fixedDelayString = "${payment.idempotency.purge-interval-ms:3600000}")
+    public void purgeExpiredRecords() {
+        Instant createdBefore = clock.instant().minus(ttl);
+        int purged = idempotencyRecordRepository.deleteCreatedBefore(createdBefore);
+        if (purged > 0) {
+            LOGGER.info("Purged [{}] idempotency records created before [{}]", purged, createdBefore);
+        }
+    }
+
+    private void save(String scopedKey, String requestHash, IdempotencyRecord.Status status) {
+        idempotencyRecordRepository.save(new IdempotencyRecord(scopedKey, requestHash, status, clock.instant()));
+    }
+
+    private void complete(String scopedKey, InFlight attempt, Throwable failure) {
+        inFlight.remove(scopedKey, attempt);
+        if (failure == null) {
+            attempt.outcome.complete(null);
+        } else {
+            attempt.outcome.completeExceptionally(unwrap(failure));
+        }
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null
+            ? failure.getCause()
+            : failure;
+    }
+
+    private boolean isCompleted(String scopedKey, String idempotencyKey, String requestHash) {
+        synchronized (completedKeys) {
+            Completed completed = completedKeys.get(scopedKey);
+            if (completed == null) {
+                return false;
+            }
+            if (completed.expiresAt.isBefore(clock.instant())) {
+                completedKeys.remove(scopedKey);
+                return false;
+            }
+            if (!completed.requestHash.equals(requestHash)) {
+                throw new IdempotencyKeyMismatchException(idempotencyKey);
+            }
+            return true;
+        }
+    }
+
+    private void rememberCompleted(String scopedKey, String requestHash) {
+        synchronized (completedKeys) {
+            completedKeys.put(scopedKey, new Completed(requestHash, clock.instant().plus(ttl)));
+        }
+    }
+
+    private static final class InFlight {
+
+        private final String requestHash;
+        private final CompletableFuture<Void> outcome = new CompletableFuture<>();
+
+        private InFlight(String requestHash) {
+            this.requestHash = requestHash;
+        }
+    }
+
+    private static final class Completed {
+
+        private final String requestHash;
+        private final Instant expiresAt;
+
+        private Completed(String requestHash, Instant expiresAt) {
+            this.requestHash = requestHash;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
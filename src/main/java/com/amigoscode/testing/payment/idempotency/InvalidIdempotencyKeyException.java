@@ -0,0 +1,15 @@
+package com.amigoscode.testing.payment.idempotency;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/*
+* The idempotency key is longer than IdempotencyStore.MAX_KEY_LENGTH, answered with 400 before anything is charged
+* */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidIdempotencyKeyException extends IllegalArgumentException {
+
+    public InvalidIdempotencyKeyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,40 @@
+package com.amigoscode.testing.payment.journal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/*
+* Highest journal sequence of a segment that is stored in the payment table. It is updated in the same
+* transaction as the payments themselves so a replay never inserts a payment twice
+* */
+@Entity
+public class JournalCheckpoint {
+
+    @Id
+    private String segment;
+
+    @Column(nullable = false)
+    private long lastSequence;
+
+    public JournalCheckpoint() {
+    }
+
+    public JournalCheckpoint(String segment, long lastSequence) {
+        this.segment = segment;
+        this.lastSequence = lastSequence;
+    }
+
+    public String getSegment() {
+        return segment;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalCheckpoint{" + "segment='" + segment + '\'' + ", lastSequence=" + lastSequence + '}';
+    }
+}
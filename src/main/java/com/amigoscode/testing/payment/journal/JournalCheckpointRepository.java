@@ -0,0 +1,6 @@
+package com.amigoscode.testing.payment.journal;
+
+import org.springframework.data.repository.CrudRepository;
+
+public interface JournalCheckpointRepository extends CrudRepository<JournalCheckpoint, String> {
+}
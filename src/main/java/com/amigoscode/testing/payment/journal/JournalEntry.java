@@ -0,0 +1,31 @@
+package com.amigoscode.testing.payment.journal;
+
+import com.amigoscode.testing.payment.Payment;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/*
+* One line of a journal segment - sequence numbers grow by one per entry within a segment
+* */
+public class JournalEntry {
+
+    private final long sequence;
+    private final Payment payment;
+
+    public JournalEntry(@JsonProperty("sequence") long sequence, @JsonProperty("payment") Payment payment) {
+        this.sequence = sequence;
+        this.payment = payment;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Payment getPayment() {
+        return payment;
+    }
+
+    @Override
+    public String toString() {
+        return "JournalEntry{" + "sequence=" + sequence + ", payment=" + payment + '}';
+    }
+}
@@ -0,0 +1,255 @@
+package com.amigoscode.testing.payment.journal;
+
+import com.amigoscode.testing.payment.ChargeNotAttemptedException;
+import com.amigoscode.testing.payment.Payment;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Local append-only journal of debited payments. Every instance writes its own segment file and holds
+* a lock on it for as long as it runs, so a segment nobody holds a lock on belongs to an instance that
+* stopped before PaymentJournalWriter stored all of its entries.
+*
+* append returns once the entry is forced to disk. Concurrent appends share a force: whoever gets the
+* sync lock first forces everything written so far and the others find their entry already durable.
+* A failed write is cut back off the segment, a failed force closes the journal.
+*
+* Payments charged already are always appended, but new charges are refused while maxPending payments wait for
+* the database, so a database that falls behind turns into refused charges instead of a queue without end.
+*
+* The directory has no default. application.properties points it at the temp directory for local runs,
+* the production profile does not start without one that outlives the machine's temp files
+* */
+@Service
+public class PaymentJournal implements MeterBinder {
+
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".ndjson";
+
+    private final ObjectMapper objectMapper;
+    private final Path directory;
+    private final String segment;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final BlockingQueue<JournalEntry> pending = new LinkedBlockingQueue<>();
+    private final Object syncLock = new Object();
+    private final int maxPending;
+
+    // guarded by this
+    private long lastSequence;
+    // guarded by syncLock
+    private long durableSequence;
+    private volatile long storedSequence;
+    private volatile boolean closed;
+
+    @Autowired
+    public PaymentJournal(ObjectMapper objectMapper,
+        @Value("${payment.journal.directory}") String directory,
+        @Value("${payment.journal.max-pending:10000}") int maxPending) {
+        this.objectMapper = objectMapper;
+        this.maxPending = maxPending;
+        this.directory = Paths.get(directory);
+        this.segment = SEGMENT_PREFIX + UUID.randomUUID() + SEGMENT_SUFFIX;
+        try {
+            Files.createDirectories(this.directory);
+            this.channel = FileChannel.open(this.directory.resolve(segment),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.READ);
+            this.lock = channel.lock();
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Cannot open payment journal in [%s]", directory), e);
+        }
+    }
+
+    // called before a card is charged, the charge is not attempted while the journal is backed up
+    public void checkCapacity() {
+        int waiting = pending.size();
+        if (waiting >= maxPending) {
+            throw new ChargeNotAttemptedException(String.format(
+                "Payment journal has [%s] payments waiting for the database", waiting));
+        }
+    }
+
+    public void append(Payment payment) {
+        sync(write(payment));
+    }
+
+    // entries are queued under the same lock that hands out sequences so the writer sees them in order
+
+    private synchronized long write(Payment payment) {
+        if (closed) {
+            throw new IllegalStateException("Payment journal is closed");
+        }
+        long sequence = lastSequence + 1;
+        long end;
+        try {
+            end = channel.position();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write payment to journal", e);
+        }
+        try {
+            byte[] line = objectMapper.writeValueAsBytes(new JournalEntry(sequence, payment));
+            ByteBuffer buffer = ByteBuffer.allocate(line.length + 1).put(line).put((byte) '\n').flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            IllegalStateException failure = new IllegalStateException("Cannot write payment to journal", e);
+            cutBack(end, failure);
+            throw failure;
+        }
+        lastSequence = sequence;
+        pending.add(new JournalEntry(sequence, payment));
+        return sequence;
+    }
+
+    private void sync(long sequence) {
+        synchronized (syncLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            long written;
+            synchronized (this) {
+                written = lastSequence;
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                // after a failed force the kernel may have dropped the pages, a later force cannot tell
+                closed = true;
+                throw new IllegalStateException("Cannot force payment journal to disk, closed it", e);
+            }
+            durableSequence = written;
+        }
+    }
+
+    /*
+    * Drops the part of a line a failed write left behind, so the next entry starts on a line of its own.
+    * When even that fails the journal takes no more entries, recovery only skips a torn last line
+    * */
+    private void cutBack(long end, IllegalStateException failure) {
+        try {
+            channel.truncate(end);
+            channel.position(end);
+        } catch (IOException e) {
+            closed = true;
+            failure.addSuppressed(e);
+        }
+    }
+
+    /*
+    * Waits up to timeout for the first entry and then takes whatever else is pending, up to maxEntries
+    * */
+    int drainTo(List<JournalEntry> batch, int maxEntries, long timeout, TimeUnit unit) throws InterruptedException {
+        JournalEntry first = pending.poll(timeout, unit);
+        if (first == null) {
+            return 0;
+        }
+        batch.add(first);
+        return 1 + pending.drainTo(batch, maxEntries - 1);
+    }
+
+    /*
+    * Called by the writer once the checkpoint for sequence is committed
+    * */
+    void stored(long sequence) {
+        storedSequence = sequence;
+    }
+
+    /*
+    * Empties the segment once every entry in it is stored, so a long running instance does not keep
+    * a file of payments that are all in the database already
+    * */
+    synchronized boolean truncateIfStored(long maxSegmentBytes) {
+        if (storedSequence != lastSequence) {
+            return false;
+        }
+        try {
+            if (channel.size() < maxSegmentBytes) {
+                return false;
+            }
+            channel.truncate(0);
+            channel.force(true);
+            return true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot truncate payment journal", e);
+        }
+    }
+
+    /*
+    * Stops new appends, the writer calls this before its last drain
+    * */
+    void close() {
+        closed = true;
+    }
+
+    /*
+    * Releases the segment and returns whether it was deleted. It is only deleted when everything in it
+    * is stored, otherwise the next instance to start replays it
+    * */
+    synchronized boolean release() {
+        closed = true;
+        if (!channel.isOpen()) {
+            return false;
+        }
+        boolean stored = storedSequence == lastSequence;
+        try {
+            if (stored) {
+                Files.delete(directory.resolve(segment));
+            }
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot release payment journal", e);
+        }
+        return stored;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        release();
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    String getSegment() {
+        return segment;
+    }
+
+    int getPendingEntries() {
+        return pending.size();
+    }
+
+    long getStoredSequence() {
+        return storedSequence;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("payment.journal.pending", pending, BlockingQueue::size)
+            .description("Journaled payments waiting to be written to the database")
+            .register(registry);
+    }
+}
@@ -0,0 +1,370 @@
+package com.amigoscode.testing.payment.journal;
+
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentRepository;
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+* Drains the payment journal into the payment table in batches. Each batch and the checkpoint of its
+* segment commit in one transaction, so after a crash replaying everything past the checkpoint stores
+* every journaled payment exactly once.
+*
+* On startup segments left behind by instances that did not shut down cleanly are replayed before the
+* writer starts taking new entries.
+*
+* With several shards a batch is stored as one transaction per shard, each with a checkpoint of the
+* segment on that shard. An entry is replayed when it is past the checkpoint on its own shard.
+*
+* A payment the database refuses for good is moved to a dead letter file next to the segments instead of
+* being retried, only failures that may pass, like a lost connection, are retried.
+*
+* The writer is a SmartLifecycle so it drains and stops before the context destroys any bean, while the
+* database is still there to take the last batch
+* */
+@Service
+public class PaymentJournalWriter implements Runnable, SmartLifecycle, MeterBinder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PaymentJournalWriter.class);
+
+    static final String DEAD_LETTER_PREFIX = "dead-letter-";
+
+    private final PaymentJournal paymentJournal;
+    private final PaymentRepository paymentRepository;
+    private final PaymentShards paymentShards;
+    private final JournalCheckpointRepository journalCheckpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final int batchSize;
+    private final long maxSegmentBytes;
+    private final long retryBackoffMillis;
+    private final Thread thread;
+    private final LongAdder deadLettered = new LongAdder();
+
+    private volatile boolean running = true;
+    private volatile boolean started;
+
+    @Autowired
+    public PaymentJournalWriter(PaymentJournal paymentJournal,
+        PaymentRepository paymentRepository,
+        PaymentShards paymentShards,
+        JournalCheckpointRepository journalCheckpointRepository,
+        PlatformTransactionManager transactionManager,
+        ObjectMapper objectMapper,
+        @Value("${payment.journal.batch-size:500}") int batchSize,
+        @Value("${payment.journal.max-segment-bytes:67108864}") long maxSegmentBytes,
+        @Value("${payment.journal.retry-backoff-ms:1000}") long retryBackoffMillis) {
+        this.paymentJournal = paymentJournal;
+        this.paymentRepository = paymentRepository;
+        this.paymentShards = paymentShards;
+        this.journalCheckpointRepository = journalCheckpointRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.thread = new Thread(this, "payment-journal-writer");
+        this.thread.setDaemon(true);
+    }
+
+    @Override
+    public void start() {
+        recover();
+        thread.start();
+        started = true;
+    }
+
+    @Override
+    public void run() {
+        List<JournalEntry> batch = new ArrayList<>(batchSize);
+        // keep going after stop until the queue is empty so a clean shutdown leaves nothing to replay
+        while (running || paymentJournal.getPendingEntries() > 0) {
+            try {
+                if (paymentJournal.drainTo(batch, batchSize, 100, TimeUnit.MILLISECONDS) == 0) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (!storeWithRetry(paymentJournal.getSegment(), batch)) {
+                return;
+            }
+            paymentJournal.stored(batch.get(batch.size() - 1).getSequence());
+            paymentJournal.truncateIfStored(maxSegmentBytes);
+            batch.clear();
+        }
+    }
+
+    // the entries are on disk so a failed batch is retried rather than dropped, on shutdown it is left for replay
+    private boolean storeWithRetry(String segment, List<JournalEntry> batch) {
+        long lastSequence = batch.get(batch.size() - 1).getSequence();
+        // entries that are stored or dead lettered are dropped from here, a retry only stores the rest
+        Map<Integer, List<JournalEntry>> pending = entriesByShard(batch);
+        while (true) {
+            try {
+                storeOrDeadLetter(segment, lastSequence, pending);
+                return true;
+            } catch (RuntimeException e) {
+                LOGGER.warn("Cannot store {} journaled payments of segment {}, retrying", batch.size(), segment, e);
+            }
+            if (!running) {
+                return false;
+            }
+            try {
+                Thread.sleep(retryBackoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    void store(String segment, List<JournalEntry> entries) {
+        storeOrDeadLetter(segment, entries.get(entries.size() - 1).getSequence(), entriesByShard(entries));
+    }
+
+    /*
+    * A batch the database refuses for good, e.g. a value it cannot hold, is stored again one payment at a time.
+    * The payments it refuses on their own are moved to the dead letter file of the segment, so one bad payment
+    * does not hold back the ones after it. Any other failure is thrown for a retry
+    * */
+    private void storeOrDeadLetter(String segment, long lastSequence, Map<Integer, List<JournalEntry>> pending) {
+        try {
+            store(segment, lastSequence, pending);
+            return;
+        } catch (DataIntegrityViolationException e) {
+            LOGGER.warn("Database refused a batch of journal segment {}, storing it one payment at a time", segment, e);
+        }
+        Iterator<Map.Entry<Integer, List<JournalEntry>>> shards = pending.entrySet().iterator();
+        while (shards.hasNext()) {
+            Map.Entry<Integer, List<JournalEntry>> shard = shards.next();
+            Iterator<JournalEntry> entries = shard.getValue().iterator();
+            while (entries.hasNext()) {
+                JournalEntry entry = entries.next();
+                try {
+                    storeOnShard(segment, entry.getSequence(), shard.getKey(), List.of(entry));
+                } catch (DataIntegrityViolationException e) {
+                    deadLetter(segment, shard.getKey(), entry, e);
+                }
+                entries.remove();
+            }
+            shards.remove();
+        }
+    }
+
+    private void store(String segment, long lastSequence, Map<Integer, List<JournalEntry>> pending) {
+        Iterator<Map.Entry<Integer, List<JournalEntry>>> shards = pending.entrySet().iterator();
+        while (shards.hasNext()) {
+            Map.Entry<Integer, List<JournalEntry>> shard = shards.next();
+            storeOnShard(segment, lastSequence, shard.getKey(), shard.getValue());
+            shards.remove();
+        }
+    }
+
+    private void storeOnShard(String segment, long lastSequence, int shard, List<JournalEntry> entries) {
+        List<Payment> payments = new ArrayList<>(entries.size());
+        for (JournalEntry entry : entries) {
+            payments.add(entry.getPayment());
+        }
+        paymentShards.runOnShard(shard, () -> transactionTemplate.executeWithoutResult(status -> {
+            // ids are generated here, a retried batch must not carry the ids of a rolled back attempt
+            payments.forEach(payment -> payment.setPaymentId(null));
+            paymentRepository.saveAllInBatches(payments);
+            journalCheckpointRepository.save(new JournalCheckpoint(segment, lastSequence));
+        }));
+    }
+
+    /*
+    * Appends the entry to dead-letter-<segment> next to the segments, in the format of a segment, and moves the
+    * checkpoint past it. The card was charged, the file is for an operator to settle the payment by hand
+    * */
+    private void deadLetter(String segment, int shard, JournalEntry entry, RuntimeException refusal) {
+        Path deadLetters = paymentJournal.getDirectory().resolve(DEAD_LETTER_PREFIX + segment);
+        try (FileChannel channel = FileChannel.open(deadLetters,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            byte[] line = objectMapper.writeValueAsBytes(entry);
+            ByteBuffer buffer = ByteBuffer.allocate(line.length + 1).put(line).put((byte) '\n').flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Cannot dead letter payment [%s] of journal segment [%s]",
+                entry.getSequence(), segment), e);
+        }
+        paymentShards.runOnShard(shard, () -> transactionTemplate.executeWithoutResult(status ->
+            journalCheckpointRepository.save(new JournalCheckpoint(segment, entry.getSequence()))));
+        deadLettered.increment();
+        LOGGER.error("Database refused payment {} of journal segment {} for good, moved it to {}",
+            entry.getSequence(), segment, deadLetters, refusal);
+    }
+
+    private Map<Integer, List<JournalEntry>> entriesByShard(List<JournalEntry> entries) {
+        Map<Integer, List<JournalEntry>> byShard = new TreeMap<>();
+        for (JournalEntry entry : entries) {
+            byShard.computeIfAbsent(paymentShards.shardOf(entry.getPayment().getCustomerId()),
+                shard -> new ArrayList<>()).add(entry);
+        }
+        return byShard;
+    }
+
+    void recover() {
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(paymentJournal.getDirectory(),
+            PaymentJournal.SEGMENT_PREFIX + "*" + PaymentJournal.SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                if (!segment.getFileName().toString().equals(paymentJournal.getSegment())) {
+                    recover(segment);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list payment journal segments", e);
+        }
+    }
+
+    private void recover(Path path) throws IOException {
+        String segment = path.getFileName().toString();
+        int replayed = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                return; // another journal in this JVM owns it
+            }
+            if (lock == null) {
+                return; // another instance is still running
+            }
+            long[] checkpoints = new long[paymentShards.getShardCount()];
+            for (int shard = 0; shard < checkpoints.length; shard++) {
+                checkpoints[shard] = paymentShards.onShard(shard, () -> journalCheckpointRepository.findById(segment)
+                    .map(JournalCheckpoint::getLastSequence)
+                    .orElse(0L));
+            }
+            List<JournalEntry> batch = new ArrayList<>(batchSize);
+            BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+            String line;
+            int lineNumber = 0;
+            int unreadableLine = 0;
+            boolean corrupt = false;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                JournalEntry entry = readEntry(line);
+                if (entry == null) {
+                    // a torn write at the end of the segment, the caller never got an answer for it, unless
+                    // readable lines follow
+                    unreadableLine = unreadableLine == 0 ? lineNumber : unreadableLine;
+                    continue;
+                }
+                corrupt = corrupt || unreadableLine != 0;
+                if (entry.getSequence() <= checkpoints[paymentShards.shardOf(entry.getPayment().getCustomerId())]) {
+                    continue;
+                }
+                batch.add(entry);
+                if (batch.size() == batchSize) {
+                    store(segment, batch);
+                    replayed += batch.size();
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                store(segment, batch);
+                replayed += batch.size();
+            }
+            if (corrupt) {
+                // the checkpoints keep the readable entries from being stored twice when it is replayed again
+                LOGGER.error("Replayed {} payments from journal segment {} but line {} cannot be read and is not "
+                    + "the last one, kept the segment for an operator", replayed, segment, unreadableLine);
+                return;
+            }
+            // delete while still holding the lock so no other instance picks the segment up in between
+            Files.delete(path);
+        }
+        deleteCheckpoints(segment);
+        LOGGER.info("Replayed {} payments from journal segment {}", replayed, segment);
+    }
+
+    private JournalEntry readEntry(String line) {
+        try {
+            return objectMapper.readValue(line, JournalEntry.class);
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+        paymentJournal.close();
+        running = false;
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!paymentJournal.release()) {
+            return;
+        }
+        try {
+            deleteCheckpoints(paymentJournal.getSegment());
+        } catch (RuntimeException e) {
+            // the segment is gone already and its checkpoints are never read again, e.g. another context
+            // sharing an in-memory database dropped the schema first
+            LOGGER.warn("Cannot delete the checkpoints of stored journal segment {}: {}",
+                paymentJournal.getSegment(), e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return started;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        FunctionCounter.builder("payment.journal.dead_letters", deadLettered, LongAdder::sum)
+            .description("Journaled payments the database refused for good, moved to a dead letter file")
+            .register(meterRegistry);
+    }
+
+    private void deleteCheckpoints(String segment) {
+        for (int shard = 0; shard < paymentShards.getShardCount(); shard++) {
+            paymentShards.runOnShard(shard, () -> journalCheckpointRepository.findById(segment)
+                .ifPresent(journalCheckpointRepository::delete));
+        }
+    }
+}
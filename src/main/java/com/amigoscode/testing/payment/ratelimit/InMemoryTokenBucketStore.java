@@ -0,0 +1,118 @@
+package com.amigoscode.testing.payment.ratelimit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+* Token buckets in this node's memory. The keys are spread over stripes, each a small LRU map behind its own
+* lock, so requests for different keys rarely wait on each other.
+*
+* A full bucket is the same as no bucket, so buckets that have refilled are dropped from the least recently
+* used end of their stripe on every call. A stripe never holds more than its share of maxKeys. Only full
+* buckets are ever dropped, dropping one that is not would hand its key a fresh burst, so a flood of new keys
+* could reset everybody else's limit. When a stripe has no full bucket left to drop, the keys it has no bucket
+* for share the stripe's overflow bucket until some of its buckets refill
+* */
+public class InMemoryTokenBucketStore implements TokenBucketStore, MeterBinder {
+
+    private final Stripe[] stripes;
+    private final LongSupplier nanoTime;
+    private final LongAdder overflowed = new LongAdder();
+
+    public InMemoryTokenBucketStore(int stripes, int maxKeys, LongSupplier nanoTime) {
+        int stripeCount = 1;
+        while (stripeCount < stripes) {
+            stripeCount <<= 1;
+        }
+        int maxKeysPerStripe = Math.max(1, (maxKeys + stripeCount - 1) / stripeCount);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe(maxKeysPerStripe);
+        }
+        this.nanoTime = nanoTime;
+    }
+
+    @Override
+    public long tryAcquire(String key, RateLimit limit) {
+        int hash = key.hashCode();
+        Stripe stripe = stripes[(hash ^ hash >>> 16) & (stripes.length - 1)];
+        long now = nanoTime.getAsLong();
+        synchronized (stripe) {
+            stripe.evictFull(now);
+            Bucket bucket = stripe.get(key);
+            if (bucket == null && stripe.isFull(now)) {
+                overflowed.increment();
+                bucket = stripe.overflow;
+            }
+            long fullAt = bucket == null || bucket.fullAt - now < 0 ? now : bucket.fullAt;
+            long waitNanos = fullAt - now - limit.getToleranceNanos();
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (bucket == null) {
+                bucket = new Bucket();
+                stripe.put(key, bucket);
+            }
+            bucket.fullAt = fullAt + limit.getRefillIntervalNanos();
+            return 0;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("payment.rate_limit.buckets", this, InMemoryTokenBucketStore::size)
+            .register(meterRegistry);
+        FunctionCounter.builder("payment.rate_limit.overflowed", overflowed, LongAdder::sum)
+            .description("Calls for keys that found their stripe full and used its shared bucket")
+            .register(meterRegistry);
+    }
+
+    private static final class Bucket {
+        private long fullAt;
+    }
+
+    // access ordered, the least recently used bucket comes first
+    private static final class Stripe extends LinkedHashMap<String, Bucket> {
+
+        private final int maxKeys;
+        private final Bucket overflow = new Bucket();
+
+        Stripe(int maxKeys) {
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        void evictFull(long now) {
+            Iterator<Bucket> buckets = values().iterator();
+            while (buckets.hasNext() && buckets.next().fullAt - now <= 0) {
+                buckets.remove();
+            }
+        }
+
+        // evictFull stops at the first bucket that is not full, a full stripe is swept all the way through
+        boolean isFull(long now) {
+            if (size() < maxKeys) {
+                return false;
+            }
+            values().removeIf(bucket -> bucket.fullAt - now <= 0);
+            return size() >= maxKeys;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.amigoscode.testing.payment.ratelimit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/*
+* Rate limits of api/v1/payment, a customer and a card source each get a bucket of
+*   burst                tokens, the payments that can be made at once
+*   refill-per-second    tokens added back every second, the sustained rate
+* */
+@Configuration
+public class PaymentRateLimitConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(
+        value = "payment.rate-limit.store",
+        havingValue = "in-memory",
+        matchIfMissing = true
+    )
+    public InMemoryTokenBucketStore inMemoryTokenBucketStore(
+        @Value("${payment.rate-limit.in-memory.stripes:64}") int stripes,
+        @Value("${payment.rate-limit.in-memory.max-keys:100000}") int maxKeys) {
+        return new InMemoryTokenBucketStore(stripes, maxKeys, System::nanoTime);
+    }
+
+    @Bean
+    public PaymentRateLimiter paymentRateLimiter(
+        TokenBucketStore tokenBucketStore,
+        @Value("${payment.rate-limit.enabled:true}") boolean enabled,
+        @Value("${payment.rate-limit.customer.burst:10}") int customerBurst,
+        @Value("${payment.rate-limit.customer.refill-per-second:1}") double customerRefillPerSecond,
+        @Value("${payment.rate-limit.source.burst:10}") int sourceBurst,
+        @Value("${payment.rate-limit.source.refill-per-second:1}") double sourceRefillPerSecond) {
+        return new PaymentRateLimiter(tokenBucketStore, enabled,
+            new RateLimit(customerBurst, customerRefillPerSecond),
+            new RateLimit(sourceBurst, sourceRefillPerSecond));
+    }
+}
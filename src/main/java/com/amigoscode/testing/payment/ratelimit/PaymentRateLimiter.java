@@ -0,0 +1,62 @@
+package com.amigoscode.testing.payment.ratelimit;
+
+import com.amigoscode.testing.payment.Payment;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+* Limits the payments a single customer and a single card source can make, so one misbehaving client
+* cannot use up the provider's rate limits for everyone. A payment needs a token from both buckets.
+* The customer's token is taken first and stays taken when the source has none left
+* */
+public class PaymentRateLimiter implements MeterBinder {
+
+    private final TokenBucketStore tokenBucketStore;
+    private final boolean enabled;
+    private final RateLimit customerLimit;
+    private final RateLimit sourceLimit;
+    private final LongAdder customerRejections = new LongAdder();
+    private final LongAdder sourceRejections = new LongAdder();
+
+    public PaymentRateLimiter(TokenBucketStore tokenBucketStore, boolean enabled, RateLimit customerLimit,
+        RateLimit sourceLimit) {
+        this.tokenBucketStore = tokenBucketStore;
+        this.enabled = enabled;
+        this.customerLimit = customerLimit;
+        this.sourceLimit = sourceLimit;
+    }
+
+    // throws RateLimitExceededException when the customer or the source of the payment is over its limit
+    public void acquire(Payment payment) {
+        if (!enabled || payment == null) {
+            return;
+        }
+        if (payment.getCustomerId() != null) {
+            long waitNanos = tokenBucketStore.tryAcquire("customer:" + payment.getCustomerId(), customerLimit);
+            if (waitNanos > 0) {
+                customerRejections.increment();
+                throw new RateLimitExceededException("customer", waitNanos);
+            }
+        }
+        if (payment.getSource() != null) {
+            long waitNanos = tokenBucketStore.tryAcquire("source:" + payment.getSource(), sourceLimit);
+            if (waitNanos > 0) {
+                sourceRejections.increment();
+                throw new RateLimitExceededException("card source", waitNanos);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        FunctionCounter.builder("payment.rate_limit.rejections", customerRejections, LongAdder::sum)
+            .tag("limit", "customer")
+            .register(meterRegistry);
+        FunctionCounter.builder("payment.rate_limit.rejections", sourceRejections, LongAdder::sum)
+            .tag("limit", "source")
+            .register(meterRegistry);
+    }
+}
@@ -0,0 +1,41 @@
+package com.amigoscode.testing.payment.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+* A token bucket holding up to burst tokens, refilled with refillPerSecond tokens a second
+* */
+public final class RateLimit {
+
+    private final int burst;
+    private final long refillIntervalNanos;
+
+    public RateLimit(int burst, double refillPerSecond) {
+        if (burst < 1 || !(refillPerSecond > 0)) {
+            throw new IllegalStateException(String.format(
+                "Rate limit needs a burst of at least 1 and a positive refill, got [%s] and [%s]",
+                burst, refillPerSecond));
+        }
+        this.burst = burst;
+        this.refillIntervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / refillPerSecond));
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    // time it takes to refill one token
+    public long getRefillIntervalNanos() {
+        return refillIntervalNanos;
+    }
+
+    // how far the bucket can be from full and still have a token
+    public long getToleranceNanos() {
+        return (burst - 1) * refillIntervalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimit{" + "burst=" + burst + ", refillIntervalNanos=" + refillIntervalNanos + '}';
+    }
+}
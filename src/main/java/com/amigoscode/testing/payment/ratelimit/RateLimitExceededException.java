@@ -0,0 +1,31 @@
+package com.amigoscode.testing.payment.ratelimit;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+* A payment came in faster than the rate limit of its customer or card source allows.
+* Answered with 429 and a Retry-After header by RateLimitExceptionHandler
+* */
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+public class RateLimitExceededException extends IllegalStateException {
+
+    private final long retryAfterNanos;
+
+    public RateLimitExceededException(String limited, long retryAfterNanos) {
+        super(String.format("Payment rate limit of the %s exceeded, retry in [%s] ms",
+            limited, TimeUnit.NANOSECONDS.toMillis(retryAfterNanos)));
+        this.retryAfterNanos = retryAfterNanos;
+    }
+
+    public long getRetryAfterNanos() {
+        return retryAfterNanos;
+    }
+
+    // Retry-After takes whole seconds, rounded up so a client retrying on time finds a token
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (retryAfterNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+}
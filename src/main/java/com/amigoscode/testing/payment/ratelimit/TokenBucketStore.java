@@ -0,0 +1,18 @@
+package com.amigoscode.testing.payment.ratelimit;
+
+/*
+* Holds the token buckets of the rate limiter by key. InMemoryTokenBucketStore keeps them on this node, so
+* every node enforces the limits on its own. A store shared by all nodes, e.g. on redis, holds them across
+* nodes: declare it as a bean and set payment.rate-limit.store to anything but in-memory.
+*
+* A bucket is a single value - the time at which it is full again. Taking a token moves that time one refill
+* interval further out, which a shared store can do in one atomic compare and set
+* */
+public interface TokenBucketStore {
+
+    /*
+    * Takes a token from the bucket of key, a key not seen before has a full bucket.
+    * Returns 0 when a token was taken, otherwise the nanos until the bucket has one again
+    * */
+    long tryAcquire(String key, RateLimit limit);
+}
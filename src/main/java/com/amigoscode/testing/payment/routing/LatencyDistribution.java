@@ -0,0 +1,119 @@
+package com.amigoscode.testing.payment.routing;
+
+import java.util.Random;
+
+/*
+* Latency of a simulated provider in milliseconds, written as
+*   fixed:50          always 50ms
+*   uniform:20-80     anything between 20ms and 80ms
+*   normal:50,10      mean of 50ms with a standard deviation of 10ms, never below 0
+*   lognormal:50,400  median of 50ms with a p99 of 400ms, the long tail real providers have
+* */
+public abstract class LatencyDistribution {
+
+    // z score of the 99th percentile of the standard normal distribution
+    private static final double Z_99 = 2.3263;
+
+    public abstract long sampleMillis(Random random);
+
+    public static LatencyDistribution parse(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon < 0) {
+            throw invalid(spec);
+        }
+        String type = spec.substring(0, colon).trim();
+        String[] args = spec.substring(colon + 1).split("[-,]");
+        try {
+            switch (type) {
+                case "fixed":
+                    return fixed(Long.parseLong(args[0].trim()));
+                case "uniform":
+                    return uniform(Long.parseLong(args[0].trim()), Long.parseLong(args[1].trim()));
+                case "normal":
+                    return normal(Double.parseDouble(args[0].trim()), Double.parseDouble(args[1].trim()));
+                case "lognormal":
+                    return logNormal(Double.parseDouble(args[0].trim()), Double.parseDouble(args[1].trim()));
+                default:
+                    throw invalid(spec);
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw invalid(spec);
+        }
+    }
+
+    public static LatencyDistribution fixed(long millis) {
+        return new LatencyDistribution() {
+            @Override
+            public long sampleMillis(Random random) {
+                return millis;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed:" + millis;
+            }
+        };
+    }
+
+    public static LatencyDistribution uniform(long minMillis, long maxMillis) {
+        if (maxMillis < minMillis) {
+            throw new IllegalArgumentException(String.format(
+                "Latency [%s-%s] has a maximum below its minimum", minMillis, maxMillis));
+        }
+        return new LatencyDistribution() {
+            @Override
+            public long sampleMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+            }
+
+            @Override
+            public String toString() {
+                return "uniform:" + minMillis + "-" + maxMillis;
+            }
+        };
+    }
+
+    public static LatencyDistribution normal(double meanMillis, double standardDeviationMillis) {
+        if (meanMillis < 0 || standardDeviationMillis < 0) {
+            throw new IllegalArgumentException(String.format(
+                "Latency mean [%s] and standard deviation [%s] cannot be negative", meanMillis,
+                standardDeviationMillis));
+        }
+        return new LatencyDistribution() {
+            @Override
+            public long sampleMillis(Random random) {
+                return Math.max(0, Math.round(meanMillis + standardDeviationMillis * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return "normal:" + meanMillis + "," + standardDeviationMillis;
+            }
+        };
+    }
+
+    public static LatencyDistribution logNormal(double medianMillis, double p99Millis) {
+        if (medianMillis <= 0 || p99Millis < medianMillis) {
+            throw new IllegalArgumentException(String.format(
+                "Latency median [%s] has to be positive and not above the p99 [%s]", medianMillis, p99Millis));
+        }
+        double sigma = Math.log(p99Millis / medianMillis) / Z_99;
+        return new LatencyDistribution() {
+            @Override
+            public long sampleMillis(Random random) {
+                return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return "lognormal:" + medianMillis + "," + p99Millis;
+            }
+        };
+    }
+
+    private static IllegalArgumentException invalid(String spec) {
+        return new IllegalArgumentException(String.format(
+            "Latency [%s] is not one of fixed:<ms>, uniform:<min>-<max>, normal:<mean>,<standard deviation> "
+                + "or lognormal:<median>,<p99>", spec));
+    }
+}
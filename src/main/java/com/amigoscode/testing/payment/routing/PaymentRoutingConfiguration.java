@@ -0,0 +1,74 @@
+package com.amigoscode.testing.payment.routing;
+
+import com.amigoscode.testing.payment.CardPaymentCharger;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+/*
+* Puts RoutingCardPaymentCharger in front of the configured providers. A provider name is either the name
+* of a CardPaymentCharger bean (stripeService, mockStripeService) or a simulated provider described by
+*   payment.routing.simulated.<name>.latency       e.g. lognormal:50,400
+*   payment.routing.simulated.<name>.error-rate    share of charges failing, default 0
+*   payment.routing.simulated.<name>.decline-rate  share of cards declined, default 0
+*   payment.routing.simulated.<name>.seed          fixes the random sequence for repeatable runs
+* */
+@Configuration
+@ConditionalOnProperty(
+    value = "payment.routing.enabled",
+    havingValue = "true"
+)
+public class PaymentRoutingConfiguration {
+
+    @Bean
+    @Primary
+    public RoutingCardPaymentCharger routingCardPaymentCharger(
+        BeanFactory beanFactory,
+        Environment environment,
+        MeterRegistry meterRegistry,
+        @Value("${payment.routing.providers}") List<String> providerNames,
+        @Value("${payment.routing.hedgeable:}") Set<String> hedgeable,
+        @Value("${payment.routing.threads:50}") int threads,
+        @Value("${payment.routing.window-size:200}") int windowSize,
+        @Value("${payment.routing.stats-ttl-ms:10000}") long statsTimeToLiveMillis,
+        @Value("${payment.routing.min-samples:20}") int minSamples,
+        @Value("${payment.routing.max-error-rate:0.2}") double maxErrorRate,
+        @Value("${payment.routing.hedge-min-delay-ms:50}") long hedgeMinDelayMillis) {
+        Map<String, CardPaymentCharger> providers = new LinkedHashMap<>();
+        for (String name : providerNames) {
+            providers.put(name, provider(beanFactory, environment, name.trim()));
+        }
+        return new RoutingCardPaymentCharger(providers, hedgeable, Executors.newFixedThreadPool(threads),
+            meterRegistry, windowSize, statsTimeToLiveMillis, minSamples, maxErrorRate, hedgeMinDelayMillis,
+            System::nanoTime);
+    }
+
+    private static CardPaymentCharger provider(BeanFactory beanFactory, Environment environment, String name) {
+        if (beanFactory.containsBean(name)) {
+            return beanFactory.getBean(name, CardPaymentCharger.class);
+        }
+        String prefix = "payment.routing.simulated." + name + ".";
+        String latency = environment.getProperty(prefix + "latency");
+        if (latency == null) {
+            throw new IllegalStateException(String.format(
+                "Card payment provider [%s] is neither a bean nor has a [%slatency]", name, prefix));
+        }
+        return new SimulatedCardPaymentCharger(name,
+            LatencyDistribution.parse(latency),
+            environment.getProperty(prefix + "error-rate", Double.class, 0.0),
+            environment.getProperty(prefix + "decline-rate", Double.class, 0.0),
+            new Random(environment.getProperty(prefix + "seed", Long.class, System.nanoTime())));
+    }
+}
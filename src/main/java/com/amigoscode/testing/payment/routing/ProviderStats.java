@@ -0,0 +1,92 @@
+package com.amigoscode.testing.payment.routing;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/*
+* Rolling window over the last calls to one provider - latencies of every call and whether it failed.
+* Samples older than the time to live are ignored, so a provider that was avoided because of a bad
+* spell gets traffic again and can show that it recovered
+* */
+class ProviderStats {
+
+    private final long[] latencyNanos;
+    private final long[] recordedAtNanos;
+    private final boolean[] failures;
+    private final long timeToLiveNanos;
+    private final LongSupplier clock;
+
+    // guarded by this
+    private int next;
+    private int size;
+    private long[] sorted;
+
+    ProviderStats(int windowSize, long timeToLiveNanos, LongSupplier clock) {
+        this.latencyNanos = new long[windowSize];
+        this.recordedAtNanos = new long[windowSize];
+        this.failures = new boolean[windowSize];
+        this.timeToLiveNanos = timeToLiveNanos;
+        this.clock = clock;
+    }
+
+    synchronized void record(long durationNanos, boolean failure) {
+        latencyNanos[next] = durationNanos;
+        recordedAtNanos[next] = clock.getAsLong();
+        failures[next] = failure;
+        next = (next + 1) % latencyNanos.length;
+        size = Math.min(size + 1, latencyNanos.length);
+        sorted = null;
+    }
+
+    synchronized int getSamples() {
+        expire();
+        return size;
+    }
+
+    synchronized double getErrorRate() {
+        expire();
+        if (size == 0) {
+            return 0;
+        }
+        int failed = 0;
+        for (int i = 0; i < size; i++) {
+            if (failures[slot(i)]) {
+                failed++;
+            }
+        }
+        return (double) failed / size;
+    }
+
+    /*
+    * Latency below which the given share of calls completed, 0 while there are no samples
+    * */
+    synchronized long getPercentileNanos(double percentile) {
+        expire();
+        if (size == 0) {
+            return 0;
+        }
+        // several requests rank providers between two records, sort once per change
+        if (sorted == null) {
+            sorted = new long[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = latencyNanos[slot(i)];
+            }
+            Arrays.sort(sorted);
+        }
+        int index = (int) Math.ceil(percentile * size) - 1;
+        return sorted[Math.max(0, Math.min(index, size - 1))];
+    }
+
+    // index of the i-th oldest sample
+    private int slot(int i) {
+        return (next - size + i + latencyNanos.length) % latencyNanos.length;
+    }
+
+    private void expire() {
+        long now = clock.getAsLong();
+        while (size > 0 && now - recordedAtNanos[slot(0)] > timeToLiveNanos) {
+            size--;
+            sorted = null;
+        }
+    }
+}
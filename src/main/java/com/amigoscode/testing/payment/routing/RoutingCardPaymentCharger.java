@@ -0,0 +1,287 @@
+package com.amigoscode.testing.payment.routing;
+
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.CardPaymentCharger;
+import com.amigoscode.testing.payment.ChargeNotAttemptedException;
+import com.amigoscode.testing.payment.Deadline;
+import com.amigoscode.testing.payment.DeadlineExceededException;
+import com.amigoscode.testing.payment.Money;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/*
+* Spreads charges over several providers. Every charge goes to the provider that currently answers fastest,
+* judged by the p99 latency of its recent calls, and providers failing more than the allowed error rate
+* are only used once nothing healthy is left. A provider with fewer than the minimum samples ranks first
+* so new and recovered providers are probed.
+*
+* A charge is only sent to the next provider when the first one did not attempt it - a provider that
+* failed after sending the charge may still have debited the card, so that failure goes to the caller.
+*
+* Hedging: when both the chosen provider and the one after it are marked hedgeable and the chosen one has
+* not answered within its p95 latency, the charge is sent to the second one as well and the first answer
+* wins. The other call still completes, so only providers where that second charge is harmless (simulated
+* providers, or ones that deduplicate the charge on their side) may be hedgeable.
+* */
+public class RoutingCardPaymentCharger implements CardPaymentCharger {
+
+    private final List<Provider> providers;
+    private final ExecutorService hedgeExecutor;
+    private final int minSamples;
+    private final double maxErrorRate;
+    private final long hedgeMinDelayNanos;
+    private final LongSupplier clock;
+    private final Counter hedges;
+
+    public RoutingCardPaymentCharger(Map<String, CardPaymentCharger> chargers, Set<String> hedgeable,
+        ExecutorService hedgeExecutor, MeterRegistry meterRegistry, int windowSize, long statsTimeToLiveMillis,
+        int minSamples, double maxErrorRate, long hedgeMinDelayMillis, LongSupplier clock) {
+        if (chargers.isEmpty()) {
+            throw new IllegalStateException("Routing needs at least one card payment provider");
+        }
+        this.providers = new ArrayList<>(chargers.size());
+        chargers.forEach((name, charger) -> providers.add(new Provider(name, charger, hedgeable.contains(name),
+            new ProviderStats(windowSize, TimeUnit.MILLISECONDS.toNanos(statsTimeToLiveMillis), clock),
+            meterRegistry)));
+        this.hedgeExecutor = hedgeExecutor;
+        this.minSamples = minSamples;
+        this.maxErrorRate = maxErrorRate;
+        this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos(hedgeMinDelayMillis);
+        this.clock = clock;
+        this.hedges = Counter.builder("payment.routing.hedges")
+            .description("Charges sent to a second provider because the first was slow")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public CardPaymentCharge chargeCard(String source, Money amount, String description) {
+        return chargeCard(source, amount, description, Deadline.none());
+    }
+
+    @Override
+    public CardPaymentCharge chargeCard(String source, Money amount, String description, Deadline deadline) {
+        return chargeCard(source, amount, description, deadline, null);
+    }
+
+    /*
+    * Every provider gets the same deadline, so time spent on a provider that refused the charge
+    * comes out of the budget of the next one. Every provider gets the same idempotency key too,
+    * each deduplicates its own charges
+    * */
+    @Override
+    public CardPaymentCharge chargeCard(String source, Money amount, String description, Deadline deadline,
+        String idempotencyKey) {
+        List<Provider> ranked = rank();
+        ChargeNotAttemptedException notAttempted = null;
+        int i = 0;
+        while (i < ranked.size()) {
+            Provider primary = ranked.get(i);
+            Provider secondary = i + 1 < ranked.size() ? ranked.get(i + 1) : null;
+            try {
+                if (secondary != null && primary.hedgeable && secondary.hedgeable) {
+                    return chargeHedged(primary, secondary, source, amount, description, deadline, idempotencyKey);
+                }
+                return charge(primary, source, amount, description, deadline, idempotencyKey);
+            } catch (HedgeNotAttemptedException e) {
+                notAttempted = e;
+                i += 2; // neither of the two took the charge
+            } catch (ChargeNotAttemptedException e) {
+                notAttempted = e;
+                i++;
+            }
+        }
+        throw new ChargeNotAttemptedException(String.format(
+            "No card payment provider took the charge, last one said [%s]", notAttempted.getMessage()));
+    }
+
+    List<String> getRanking() {
+        List<String> names = new ArrayList<>(providers.size());
+        for (Provider provider : rank()) {
+            names.add(provider.name);
+        }
+        return names;
+    }
+
+    // healthy providers first, then fastest first. The sort is stable so ties keep the configured order
+    private List<Provider> rank() {
+        List<Ranked> ranked = new ArrayList<>(providers.size());
+        for (Provider provider : providers) {
+            boolean warm = provider.stats.getSamples() >= minSamples;
+            boolean healthy = !warm || provider.stats.getErrorRate() <= maxErrorRate;
+            long p99Nanos = warm ? provider.stats.getPercentileNanos(0.99) : 0;
+            ranked.add(new Ranked(provider, healthy, p99Nanos));
+        }
+        ranked.sort(Comparator.comparing((Ranked r) -> !r.healthy).thenComparingLong(r -> r.p99Nanos));
+        List<Provider> result = new ArrayList<>(ranked.size());
+        for (Ranked r : ranked) {
+            result.add(r.provider);
+        }
+        return result;
+    }
+
+    private CardPaymentCharge chargeHedged(Provider primary, Provider secondary, String source, Money amount,
+        String description, Deadline deadline, String idempotencyKey) {
+        CompletableFuture<CardPaymentCharge> primaryCharge = CompletableFuture.supplyAsync(
+            () -> charge(primary, source, amount, description, deadline, idempotencyKey), hedgeExecutor);
+        long hedgeDelayNanos = Math.max(hedgeMinDelayNanos, primary.stats.getPercentileNanos(0.95));
+        try {
+            if (deadline.remainingNanos() <= hedgeDelayNanos) {
+                // a hedge would start too late to finish in time
+                return primaryCharge.get();
+            }
+            return primaryCharge.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // slower than usual, hedge below
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for card payment provider", e);
+        }
+
+        hedges.increment();
+        CompletableFuture<CardPaymentCharge> secondaryCharge = CompletableFuture.supplyAsync(
+            () -> charge(secondary, source, amount, description, deadline, idempotencyKey), hedgeExecutor);
+        CompletableFuture<CardPaymentCharge> firstAnswer = new CompletableFuture<>();
+        AtomicReferenceArray<Throwable> failures = new AtomicReferenceArray<>(2);
+        whenAnswered(primaryCharge, 0, firstAnswer, failures);
+        whenAnswered(secondaryCharge, 1, firstAnswer, failures);
+        try {
+            return firstAnswer.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    // completes with the first charge, or with a failure once both failed
+    private static void whenAnswered(CompletableFuture<CardPaymentCharge> charge, int index,
+        CompletableFuture<CardPaymentCharge> firstAnswer, AtomicReferenceArray<Throwable> failures) {
+        charge.whenComplete((result, e) -> {
+            if (e == null) {
+                firstAnswer.complete(result);
+                return;
+            }
+            failures.set(index, e instanceof CompletionException ? e.getCause() : e);
+            if (failures.get(0) != null && failures.get(1) != null) {
+                firstAnswer.completeExceptionally(bothFailed(failures.get(0), failures.get(1)));
+            }
+        });
+    }
+
+    // a failure after the charge was sent matters more to the caller than a provider that refused it
+    private static Throwable bothFailed(Throwable primary, Throwable secondary) {
+        if (!(primary instanceof ChargeNotAttemptedException)) {
+            return primary;
+        }
+        if (!(secondary instanceof ChargeNotAttemptedException)) {
+            return secondary;
+        }
+        return new HedgeNotAttemptedException(secondary.getMessage());
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return new IllegalStateException("Card payment provider failed", cause);
+    }
+
+    private CardPaymentCharge charge(Provider provider, String source, Money amount, String description,
+        Deadline deadline, String idempotencyKey) {
+        long start = clock.getAsLong();
+        try {
+            CardPaymentCharge charge = provider.charger.chargeCard(source, amount, description, deadline,
+                idempotencyKey);
+            provider.stats.record(clock.getAsLong() - start, false);
+            (charge.isCardDebited() ? provider.debited : provider.declined).increment();
+            return charge;
+        } catch (DeadlineExceededException e) {
+            // the caller ran out of time, that says nothing about the provider
+            throw e;
+        } catch (ChargeNotAttemptedException e) {
+            // refused without calling out, counts against its health but not its latency
+            provider.stats.record(0, true);
+            provider.notAttempted.increment();
+            throw e;
+        } catch (RuntimeException e) {
+            provider.stats.record(clock.getAsLong() - start, true);
+            provider.failed.increment();
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hedgeExecutor.shutdown();
+    }
+
+    private static class Provider {
+        private final String name;
+        private final CardPaymentCharger charger;
+        private final boolean hedgeable;
+        private final ProviderStats stats;
+        private final Counter debited;
+        private final Counter declined;
+        private final Counter failed;
+        private final Counter notAttempted;
+
+        Provider(String name, CardPaymentCharger charger, boolean hedgeable, ProviderStats stats,
+            MeterRegistry meterRegistry) {
+            this.name = name;
+            this.charger = charger;
+            this.hedgeable = hedgeable;
+            this.stats = stats;
+            this.debited = chargeCounter(meterRegistry, name, "debited");
+            this.declined = chargeCounter(meterRegistry, name, "declined");
+            this.failed = chargeCounter(meterRegistry, name, "failed");
+            this.notAttempted = chargeCounter(meterRegistry, name, "not_attempted");
+            Gauge.builder("payment.routing.latency.p99", stats, s -> s.getPercentileNanos(0.99) / 1e9)
+                .description("p99 latency of the recent charges of a provider in seconds")
+                .tag("provider", name)
+                .register(meterRegistry);
+        }
+
+        private static Counter chargeCounter(MeterRegistry meterRegistry, String provider, String outcome) {
+            return Counter.builder("payment.routing.charges")
+                .description("Charges sent to a card payment provider")
+                .tag("provider", provider)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+        }
+    }
+
+    private static class Ranked {
+        private final Provider provider;
+        private final boolean healthy;
+        private final long p99Nanos;
+
+        Ranked(Provider provider, boolean healthy, long p99Nanos) {
+            this.provider = provider;
+            this.healthy = healthy;
+            this.p99Nanos = p99Nanos;
+        }
+    }
+
+    // both providers of a hedge refused the charge, the caller can move past both
+    private static class HedgeNotAttemptedException extends ChargeNotAttemptedException {
+        HedgeNotAttemptedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.amigoscode.testing.payment.routing;
+
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.CardPaymentCharger;
+import com.amigoscode.testing.payment.Deadline;
+import com.amigoscode.testing.payment.DeadlineExceededException;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.PaymentMetrics;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+* Provider that only exists in this process - it takes a sampled latency to answer and fails or declines
+* at the configured rates, so routing can be exercised without a network
+* */
+public class SimulatedCardPaymentCharger implements CardPaymentCharger {
+
+    private final String name;
+    private final LatencyDistribution latency;
+    private final double errorRate;
+    private final double declineRate;
+    private final Random random;
+    private final AtomicLong charges = new AtomicLong();
+
+    public SimulatedCardPaymentCharger(String name, LatencyDistribution latency, double errorRate,
+        double declineRate, Random random) {
+        this.name = name;
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.declineRate = declineRate;
+        this.random = random;
+    }
+
+    @Override
+    public CardPaymentCharge chargeCard(String source, Money amount, String description) {
+        return chargeCard(source, amount, description, Deadline.none());
+    }
+
+    // behaves like a client whose timeout is cut to the deadline - a charge slower than that is given up on
+    @Override
+    public CardPaymentCharge chargeCard(String source, Money amount, String description, Deadline deadline) {
+        deadline.check(PaymentMetrics.Step.CARD_CHARGE);
+        charges.incrementAndGet();
+        double outcome;
+        long latencyMillis;
+        // java.util.Random is thread safe but a shared seed is only reproducible when drawn in order
+        synchronized (random) {
+            latencyMillis = latency.sampleMillis(random);
+            outcome = random.nextDouble();
+        }
+        long remainingMillis = deadline.remainingMillis();
+        try {
+            Thread.sleep(Math.max(0, Math.min(latencyMillis, remainingMillis)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(String.format("Simulated provider [%s] was interrupted", name), e);
+        }
+        if (latencyMillis > remainingMillis) {
+            throw new DeadlineExceededException(PaymentMetrics.Step.CARD_CHARGE);
+        }
+        if (outcome < errorRate) {
+            throw new IllegalStateException(String.format("Simulated provider [%s] failed", name));
+        }
+        return new CardPaymentCharge(outcome >= errorRate + declineRate);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getCharges() {
+        return charges.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedCardPaymentCharger{" + "name='" + name + '\'' + ", latency=" + latency
+            + ", errorRate=" + errorRate + ", declineRate=" + declineRate + '}';
+    }
+}
@@ -0,0 +1,74 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.Metrics;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+* Replaces the single data source with one pool per shard behind ShardRoutingDataSource.
+*   payment.sharding.urls   jdbc urls of the shards, in shard order. The order must never change
+* Every shard pool takes the spring.datasource.username, password and hikari settings
+* */
+@Configuration
+@ConditionalOnProperty(
+    value = "payment.sharding.enabled",
+    havingValue = "true"
+)
+public class PaymentShardingConfiguration {
+
+    @Bean
+    @Primary
+    public ShardRoutingDataSource dataSource(
+        Environment environment,
+        PaymentShards paymentShards,
+        @Value("${payment.sharding.urls}") List<String> urls,
+        @Value("${spring.datasource.username:sa}") String username,
+        @Value("${spring.datasource.password:}") String password) {
+        List<DataSource> shards = new ArrayList<>(paymentShards.getShardCount());
+        for (int shard = 0; shard < paymentShards.getShardCount(); shard++) {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
+                .url(urls.get(shard).trim())
+                .username(username)
+                .password(password)
+                .build();
+            Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+            dataSource.setPoolName("shard-" + shard);
+            // the shard pools are not beans, so the hikaricp metrics are wired here. Through the global registry,
+            // the meter registry itself waits for meter binders that need this data source
+            dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(Metrics.globalRegistry));
+            shards.add(dataSource);
+        }
+        return new ShardRoutingDataSource(shards);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer shardingHibernatePropertiesCustomizer(PaymentShards paymentShards) {
+        return properties -> {
+            // spring holds a session's connection until the session closes, open-in-view would then carry
+            // the first shard's connection into transactions meant for another shard
+            properties.put(AvailableSettings.CONNECTION_HANDLING,
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+            properties.put(EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER,
+                (IntegratorProvider) () -> List.of(new ShardSchemaExporter(paymentShards)));
+        };
+    }
+}
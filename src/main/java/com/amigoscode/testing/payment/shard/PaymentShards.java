@@ -0,0 +1,143 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.amigoscode.testing.payment.Payment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/*
+* Payments and the spend totals of a customer live on the shard picked by the hash of the customer id,
+* customers and everything else stay on shard 0. Code runs against a shard by binding it with onShard
+* before the transaction starts - the connection is taken from the bound shard when the transaction begins,
+* so a transaction never spans two shards.
+*
+* The shard of a customer depends on the number of shards, adding a shard means moving payments.
+* Without payment.sharding.enabled there is a single shard and binding it changes nothing.
+* */
+@Component
+public class PaymentShards {
+
+    private static final ThreadLocal<Integer> BOUND_SHARD = new ThreadLocal<>();
+
+    private final int shardCount;
+    private final ExecutorService scatterExecutor;
+
+    @Autowired
+    public PaymentShards(@Value("${payment.sharding.enabled:false}") boolean enabled,
+        @Value("${payment.sharding.urls:}") List<String> urls) {
+        this(enabled ? urls.size() : 1);
+    }
+
+    public PaymentShards(int shardCount) {
+        if (shardCount < 1 || shardCount > ShardedPaymentIdGenerator.MAX_SHARDS) {
+            throw new IllegalStateException(String.format(
+                "Sharding needs between 1 and %s payment.sharding.urls, got [%s]",
+                ShardedPaymentIdGenerator.MAX_SHARDS, shardCount));
+        }
+        this.shardCount = shardCount;
+        // one thread per shard so a scatter-gather query asks every shard at the same time
+        this.scatterExecutor = shardCount > 1 ? Executors.newFixedThreadPool(shardCount) : null;
+    }
+
+    // the shard the current thread is bound to, shard 0 when nothing is bound
+    public static int currentShard() {
+        Integer shard = BOUND_SHARD.get();
+        return shard == null ? 0 : shard;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public int shardOf(UUID customerId) {
+        return Math.floorMod(customerId.hashCode(), shardCount);
+    }
+
+    public int shardOfPaymentId(long paymentId) {
+        return ShardedPaymentIdGenerator.shardOf(paymentId);
+    }
+
+    // payments grouped by shard, in shard order
+    public Map<Integer, List<Payment>> partition(List<Payment> payments) {
+        Map<Integer, List<Payment>> byShard = new TreeMap<>();
+        for (Payment payment : payments) {
+            byShard.computeIfAbsent(shardOf(payment.getCustomerId()), shard -> new ArrayList<>()).add(payment);
+        }
+        return byShard;
+    }
+
+    public <T> T onShard(int shard, Supplier<T> action) {
+        int current = currentShard();
+        if (current != shard && TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException(String.format(
+                "Cannot switch to shard [%s] inside a transaction on shard [%s]", shard, current));
+        }
+        Integer previous = BOUND_SHARD.get();
+        BOUND_SHARD.set(shard);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                BOUND_SHARD.remove();
+            } else {
+                BOUND_SHARD.set(previous);
+            }
+        }
+    }
+
+    public void runOnShard(int shard, Runnable action) {
+        onShard(shard, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /*
+    * Scatter-gather: runs the query on every shard at the same time and returns the results in shard order.
+    * Each shard runs in its own transaction, the results are not a consistent snapshot across shards.
+    * Must not be nested, the inner call would wait for threads held by the outer one
+    * */
+    public <T> List<T> onEveryShard(IntFunction<T> query) {
+        if (shardCount == 1) {
+            return List.of(onShard(0, () -> query.apply(0)));
+        }
+        List<CompletableFuture<T>> pending = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            int s = shard;
+            pending.add(CompletableFuture.supplyAsync(() -> onShard(s, () -> query.apply(s)), scatterExecutor));
+        }
+        List<T> results = new ArrayList<>(shardCount);
+        try {
+            for (CompletableFuture<T> result : pending) {
+                results.add(result.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scatterExecutor != null) {
+            scatterExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.amigoscode.testing.payment.shard;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+import org.hibernate.tool.schema.TargetType;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/*
+* Hibernate creates the schema through the routing data source, which only reaches shard 0. When it is
+* asked to create the schema this does the same on the other shards. Shards of a database that is not
+* created by hibernate have to be migrated one by one like any other database
+* */
+class ShardSchemaExporter implements Integrator {
+
+    private static final Set<String> CREATE_ACTIONS = Set.of("create", "create-drop", "create-only");
+
+    private final PaymentShards paymentShards;
+
+    ShardSchemaExporter(PaymentShards paymentShards) {
+        this.paymentShards = paymentShards;
+    }
+
+    @Override
+    public void integrate(Metadata metadata, SessionFactoryImplementor sessionFactory,
+        SessionFactoryServiceRegistry serviceRegistry) {
+        Object action = sessionFactory.getProperties().get(AvailableSettings.HBM2DDL_AUTO);
+        if (action == null || !CREATE_ACTIONS.contains(action.toString())) {
+            return;
+        }
+        for (int shard = 1; shard < paymentShards.getShardCount(); shard++) {
+            paymentShards.runOnShard(shard,
+                () -> new SchemaExport().createOnly(EnumSet.of(TargetType.DATABASE), metadata));
+        }
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+}
@@ -0,0 +1,65 @@
+package com.amigoscode.testing.payment.shard;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.Optimizer;
+import org.hibernate.id.enhanced.OptimizerFactory;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+* Payment ids taken from the sequence of the shard the payment is stored on, with the shard in the bits
+* above the sequence value. Ids stay unique across shards and the shard of a payment can be read from its
+* id. Shard 0 ids are the plain sequence values, so a single database sees no difference.
+*
+* Every shard has its own sequence and so its own pool of preallocated values - sharing one pool would
+* hand out values of one shard's sequence on another shard, where they come round again.
+* */
+public class ShardedPaymentIdGenerator extends SequenceStyleGenerator {
+
+    // ids stay below 2^53 and survive a trip through a javascript number
+    static final int SEQUENCE_BITS = 42;
+    static final int MAX_SHARDS = 1 << (53 - SEQUENCE_BITS);
+
+    private final ConcurrentHashMap<Integer, Optimizer> optimizers = new ConcurrentHashMap<>();
+    private String optimizationStrategy;
+    private Class<?> returnClass;
+    private int incrementSize;
+    private int initialValue;
+
+    public static long paymentId(int shard, long sequenceValue) {
+        if (sequenceValue >= 1L << SEQUENCE_BITS) {
+            throw new IllegalStateException(String.format(
+                "Payment id sequence of shard [%s] ran past [%s]", shard, (1L << SEQUENCE_BITS) - 1));
+        }
+        return (long) shard << SEQUENCE_BITS | sequenceValue;
+    }
+
+    public static int shardOf(long paymentId) {
+        return (int) (paymentId >>> SEQUENCE_BITS);
+    }
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        super.configure(type, params, serviceRegistry);
+        this.optimizationStrategy = determineOptimizationStrategy(params, determineIncrementSize(params));
+        this.incrementSize = determineAdjustedIncrementSize(optimizationStrategy, determineIncrementSize(params));
+        this.initialValue = determineInitialValue(params);
+        this.returnClass = type.getReturnedClass();
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+        // the session is connected to the bound shard, so the callback reads that shard's sequence
+        int shard = PaymentShards.currentShard();
+        Optimizer optimizer = optimizers.computeIfAbsent(shard, s -> OptimizerFactory.buildOptimizer(
+            optimizationStrategy, returnClass, incrementSize, initialValue));
+        Number sequenceValue = (Number) optimizer.generate(getDatabaseStructure().buildCallback(session));
+        return paymentId(shard, sequenceValue.longValue());
+    }
+}
@@ -0,0 +1,122 @@
+package com.amigoscode.testing.payment.spend;
+
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.UUID;
+
+/*
+* Running total of the payments of one customer in one currency, kept up to date with every insert
+* into the payment table so reading it never aggregates over payments
+* */
+@Entity
+@IdClass(CustomerSpend.Key.class)
+public class CustomerSpend {
+
+    @Id
+    private UUID customerId;
+
+    @Id
+    private Currency currency;
+
+    @Column(nullable = false)
+    private long totalMinorUnits;
+
+    @Column(nullable = false)
+    private long paymentCount;
+
+    public CustomerSpend() {
+    }
+
+    public CustomerSpend(UUID customerId, Currency currency, long totalMinorUnits, long paymentCount) {
+        this.customerId = customerId;
+        this.currency = currency;
+        this.totalMinorUnits = totalMinorUnits;
+        this.paymentCount = paymentCount;
+    }
+
+    public UUID getCustomerId() {
+        return customerId;
+    }
+
+    public Currency getCurrency() {
+        return currency;
+    }
+
+    @JsonIgnore
+    public long getTotalMinorUnits() {
+        return totalMinorUnits;
+    }
+
+    @JsonIgnore
+    public Money getTotal() {
+        return Money.of(totalMinorUnits, currency);
+    }
+
+    // written as a plain json number in the scale of the currency, like the amount of a payment
+    @JsonProperty("total")
+    @JsonRawValue
+    public String getTotalDecimal() {
+        return getTotal().toDecimalString();
+    }
+
+    public long getPaymentCount() {
+        return paymentCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerSpend{" + "customerId=" + customerId + ", currency=" + currency
+            + ", totalMinorUnits=" + totalMinorUnits + ", paymentCount=" + paymentCount + '}';
+    }
+
+    public static class Key implements Serializable {
+
+        private UUID customerId;
+        private Currency currency;
+
+        public Key() {
+        }
+
+        public Key(UUID customerId, Currency currency) {
+            this.customerId = customerId;
+            this.currency = currency;
+        }
+
+        public UUID getCustomerId() {
+            return customerId;
+        }
+
+        public Currency getCurrency() {
+            return currency;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return customerId.equals(key.customerId) &&
+                currency == key.currency;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(customerId, currency);
+        }
+
+        @Override
+        public String toString() {
+            return customerId + "/" + currency;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.amigoscode.testing.payment.spend;
+
+import com.amigoscode.testing.payment.Payment;
+
+import java.util.Comparator;
+import java.util.List;
+
+/*
+* Custom fragment of CustomerSpendRepository, mixed in like PaymentBatchRepository
+* */
+public interface CustomerSpendBatchRepository {
+
+    // totals are always locked in this order so two transactions cannot lock them the other way round
+    Comparator<CustomerSpend.Key> LOCK_ORDER = Comparator
+        .comparing(CustomerSpend.Key::getCustomerId)
+        .thenComparing(CustomerSpend.Key::getCurrency);
+
+    // adds stored payments to the running totals, must run in the transaction that inserts them
+    void addPayments(List<Payment> payments);
+
+    // the total locked until the transaction ends, null when there is none
+    CustomerSpend findLocked(CustomerSpend.Key key);
+
+    // like findLocked, but creates an empty total first when there is none
+    CustomerSpend lockSpend(CustomerSpend.Key key);
+}
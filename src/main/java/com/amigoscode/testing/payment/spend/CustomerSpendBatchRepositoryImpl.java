@@ -0,0 +1,107 @@
+package com.amigoscode.testing.payment.spend;
+
+import com.amigoscode.testing.payment.Payment;
+import org.springframework.dao.DataAccessException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+* Writers only lock the totals they change. The increment is a single update on the row, which holds
+* its lock until the transaction commits, so a rebuild that locks the same row waits for the payments
+* behind it to commit, or the writer waits for the rebuild
+* */
+public class CustomerSpendBatchRepositoryImpl implements CustomerSpendBatchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate newTransactionTemplate;
+
+    public CustomerSpendBatchRepositoryImpl(PlatformTransactionManager transactionManager) {
+        this.newTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY) // a total must never count a payment that was rolled back
+    public void addPayments(List<Payment> payments) {
+        Map<CustomerSpend.Key, long[]> totals = new TreeMap<>(LOCK_ORDER);
+        for (Payment payment : payments) {
+            long[] total = totals.computeIfAbsent(
+                new CustomerSpend.Key(payment.getCustomerId(), payment.getCurrency()), key -> new long[2]);
+            total[0] = Math.addExact(total[0], payment.getAmount().getMinorUnits());
+            total[1]++;
+        }
+        // the payments are inserted already, only the increments and the commit wait on other writers
+        // of the same customer or on a rebuild of their totals
+        totals.forEach((key, total) -> {
+            if (increment(key, total) == 0) {
+                // first payment of the customer in this currency
+                createIfAbsent(key);
+                if (increment(key, total) == 0) {
+                    throw new IllegalStateException(String.format("Cannot create the spend total of [%s]", key));
+                }
+            }
+        });
+    }
+
+    // increments in the database so concurrent writers cannot overwrite each other's totals
+    private int increment(CustomerSpend.Key key, long[] total) {
+        return entityManager.createQuery("update CustomerSpend s"
+            + " set s.totalMinorUnits = s.totalMinorUnits + :amount, s.paymentCount = s.paymentCount + :payments"
+            + " where s.customerId = :customerId and s.currency = :currency")
+            .setParameter("amount", total[0])
+            .setParameter("payments", total[1])
+            .setParameter("customerId", key.getCustomerId())
+            .setParameter("currency", key.getCurrency())
+            .executeUpdate();
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY)
+    public CustomerSpend findLocked(CustomerSpend.Key key) {
+        return entityManager.find(CustomerSpend.class, key, LockModeType.PESSIMISTIC_WRITE);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.MANDATORY)
+    public CustomerSpend lockSpend(CustomerSpend.Key key) {
+        CustomerSpend spend = findLocked(key);
+        if (spend != null) {
+            return spend;
+        }
+        createIfAbsent(key);
+        spend = findLocked(key);
+        if (spend == null) {
+            throw new IllegalStateException(String.format("Cannot create the spend total of [%s]", key));
+        }
+        return spend;
+    }
+
+    /*
+    * Creates an empty total in a transaction of its own, so a writer that lost the race to create it only has
+    * its insert rolled back, not the payments it is storing. An empty total left by a writer that rolled back
+    * counts nothing and is dropped by the next rebuild
+    * */
+    private void createIfAbsent(CustomerSpend.Key key) {
+        try {
+            newTransactionTemplate.executeWithoutResult(status -> {
+                entityManager.persist(new CustomerSpend(key.getCustomerId(), key.getCurrency(), 0, 0));
+                entityManager.flush();
+            });
+        } catch (PersistenceException | DataAccessException e) {
+            // created by a concurrent writer
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.amigoscode.testing.payment.spend;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.UUID;
+
+@RestController
+@RequestMapping("api/v1/customer-spend")
+public class CustomerSpendController {
+
+    private final CustomerSpendService customerSpendService;
+
+    public CustomerSpendController(CustomerSpendService customerSpendService) {
+        this.customerSpendService = customerSpendService;
+    }
+
+    // one total per currency the customer paid in
+    @GetMapping("{customerId}")
+    public List<CustomerSpend> getSpend(@PathVariable("customerId") UUID customerId) {
+        return customerSpendService.getSpend(customerId);
+    }
+}
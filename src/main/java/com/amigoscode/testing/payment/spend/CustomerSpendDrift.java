@@ -0,0 +1,104 @@
+package com.amigoscode.testing.payment.spend;
+
+import com.amigoscode.testing.payment.Currency;
+
+import java.util.List;
+import java.util.UUID;
+
+/*
+* Difference between the running totals and the totals recomputed from the payment table.
+* Only the first mismatches are listed, driftedRows counts all of them
+* */
+public class CustomerSpendDrift {
+
+    private final long expectedRows;
+    private final long storedRows;
+    private final long driftedRows;
+    private final List<Mismatch> mismatches;
+
+    public CustomerSpendDrift(long expectedRows, long storedRows, long driftedRows, List<Mismatch> mismatches) {
+        this.expectedRows = expectedRows;
+        this.storedRows = storedRows;
+        this.driftedRows = driftedRows;
+        this.mismatches = mismatches;
+    }
+
+    public long getExpectedRows() {
+        return expectedRows;
+    }
+
+    public long getStoredRows() {
+        return storedRows;
+    }
+
+    public long getDriftedRows() {
+        return driftedRows;
+    }
+
+    public boolean isDrifted() {
+        return driftedRows > 0;
+    }
+
+    public List<Mismatch> getMismatches() {
+        return mismatches;
+    }
+
+    @Override
+    public String toString() {
+        return "CustomerSpendDrift{" + "expectedRows=" + expectedRows + ", storedRows=" + storedRows
+            + ", driftedRows=" + driftedRows + ", mismatches=" + mismatches + '}';
+    }
+
+    public static class Mismatch {
+
+        private final UUID customerId;
+        private final Currency currency;
+        private final long expectedTotalMinorUnits;
+        private final long storedTotalMinorUnits;
+        private final long expectedPaymentCount;
+        private final long storedPaymentCount;
+
+        public Mismatch(UUID customerId, Currency currency, long expectedTotalMinorUnits,
+            long storedTotalMinorUnits, long expectedPaymentCount, long storedPaymentCount) {
+            this.customerId = customerId;
+            this.currency = currency;
+            this.expectedTotalMinorUnits = expectedTotalMinorUnits;
+            this.storedTotalMinorUnits = storedTotalMinorUnits;
+            this.expectedPaymentCount = expectedPaymentCount;
+            this.storedPaymentCount = storedPaymentCount;
+        }
+
+        public UUID getCustomerId() {
+            return customerId;
+        }
+
+        public Currency getCurrency() {
+            return currency;
+        }
+
+        public long getExpectedTotalMinorUnits() {
+            return expectedTotalMinorUnits;
+        }
+
+        public long getStoredTotalMinorUnits() {
+            return storedTotalMinorUnits;
+        }
+
+        public long getExpectedPaymentCount() {
+            return expectedPaymentCount;
+        }
+
+        public long getStoredPaymentCount() {
+            return storedPaymentCount;
+        }
+
+        @Override
+        public String toString() {
+            return "Mismatch{" + "customerId=" + customerId + ", currency=" + currency
+                + ", expectedTotalMinorUnits=" + expectedTotalMinorUnits
+                + ", storedTotalMinorUnits=" + storedTotalMinorUnits
+                + ", expectedPaymentCount=" + expectedPaymentCount
+                + ", storedPaymentCount=" + storedPaymentCount + '}';
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.amigoscode.testing.payment.spend;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/*
+* GET /actuator/customerspend compares the running totals with the payment table,
+* POST /actuator/customerspend recomputes them
+* */
+@Component
+@Endpoint(id = "customerspend")
+public class CustomerSpendEndpoint {
+
+    private final CustomerSpendRebuilder customerSpendRebuilder;
+
+    public CustomerSpendEndpoint(CustomerSpendRebuilder customerSpendRebuilder) {
+        this.customerSpendRebuilder = customerSpendRebuilder;
+    }
+
+    @ReadOperation
+    public CustomerSpendDrift drift() {
+        return customerSpendRebuilder.verify();
+    }
+
+    @WriteOperation
+    public Map<String, Long> rebuild() {
+        return Map.of("rebuiltTotals", customerSpendRebuilder.rebuild());
+    }
+}
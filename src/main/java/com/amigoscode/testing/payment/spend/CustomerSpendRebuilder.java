@@ -0,0 +1,268 @@
+package com.amigoscode.testing.payment.spend;
+
+import com.amigoscode.testing.payment.PaymentRepository;
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+* Recomputes the running totals from the payment table without stopping the writers.
+*
+* A first pass sums the table in ranges of payment ids on a pool of threads, without any lock, only to find
+* every customer and currency that has payments. Those and the stored totals are then checked or rewritten a
+* chunk of customers at a time: each chunk locks its totals in the order writers lock them, sums the payments
+* of its customers again from the customer index and compares or writes the totals before it commits.
+* Writers increment a total as the last step before their commit, so while the lock is held every payment
+* behind the total is either committed and in the sum, or waits to add its increment to the rewritten total.
+* Writers of other customers never wait, those of a chunk's customers wait for that chunk only.
+*
+* The payments and totals of a customer share a shard, so every shard is checked or rebuilt on its own,
+* all shards at the same time.
+* */
+@Service
+public class CustomerSpendRebuilder {
+
+    private static final int MAX_LISTED_MISMATCHES = 100;
+    private static final int CUSTOMER_CHUNK_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final PaymentRepository paymentRepository;
+    private final CustomerSpendRepository customerSpendRepository;
+    private final PaymentShards paymentShards;
+    private final TransactionTemplate transactionTemplate;
+    private final long chunkSize;
+    private final int parallelism;
+
+    @Autowired
+    public CustomerSpendRebuilder(PaymentRepository paymentRepository,
+        CustomerSpendRepository customerSpendRepository,
+        PaymentShards paymentShards,
+        PlatformTransactionManager transactionManager,
+        @Value("${customer-spend.rebuild.chunk-size:50000}") long chunkSize,
+        @Value("${customer-spend.rebuild.parallelism:4}") int parallelism) {
+        this.paymentRepository = paymentRepository;
+        this.customerSpendRepository = customerSpendRepository;
+        this.paymentShards = paymentShards;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+    }
+
+    public CustomerSpendDrift verify() {
+        List<CustomerSpendDrift> drifts = paymentShards.onEveryShard(shard -> verifyShard());
+        long expectedRows = 0;
+        long storedRows = 0;
+        long driftedRows = 0;
+        List<CustomerSpendDrift.Mismatch> mismatches = new ArrayList<>();
+        for (CustomerSpendDrift drift : drifts) {
+            expectedRows += drift.getExpectedRows();
+            storedRows += drift.getStoredRows();
+            driftedRows += drift.getDriftedRows();
+            for (CustomerSpendDrift.Mismatch mismatch : drift.getMismatches()) {
+                if (mismatches.size() < MAX_LISTED_MISMATCHES) {
+                    mismatches.add(mismatch);
+                }
+            }
+        }
+        return new CustomerSpendDrift(expectedRows, storedRows, driftedRows, mismatches);
+    }
+
+    /*
+    * Replaces every running total, returns the number of totals written
+    * */
+    public long rebuild() {
+        long written = 0;
+        for (long shardWritten : paymentShards.onEveryShard(shard -> rebuildShard())) {
+            written += shardWritten;
+        }
+        return written;
+    }
+
+    private CustomerSpendDrift verifyShard() {
+        long expectedRows = 0;
+        long storedRows = 0;
+        long driftedRows = 0;
+        List<CustomerSpendDrift.Mismatch> mismatches = new ArrayList<>();
+        for (List<CustomerSpend.Key> chunk : customerChunks()) {
+            CustomerSpendDrift drift = transactionTemplate.execute(status -> {
+                Map<CustomerSpend.Key, long[]> expected = sumOfCustomers(chunk);
+                List<CustomerSpend> stored = new ArrayList<>();
+                for (CustomerSpend.Key key : chunk) {
+                    CustomerSpend spend = customerSpendRepository.findLocked(key);
+                    if (spend != null && spend.getPaymentCount() > 0) {
+                        stored.add(spend);
+                    }
+                }
+                entityManager.clear();
+                return compare(expected, stored);
+            });
+            expectedRows += drift.getExpectedRows();
+            storedRows += drift.getStoredRows();
+            driftedRows += drift.getDriftedRows();
+            for (CustomerSpendDrift.Mismatch mismatch : drift.getMismatches()) {
+                if (mismatches.size() < MAX_LISTED_MISMATCHES) {
+                    mismatches.add(mismatch);
+                }
+            }
+        }
+        return new CustomerSpendDrift(expectedRows, storedRows, driftedRows, mismatches);
+    }
+
+    private long rebuildShard() {
+        long written = 0;
+        for (List<CustomerSpend.Key> chunk : customerChunks()) {
+            written += transactionTemplate.execute(status -> {
+                for (CustomerSpend.Key key : chunk) {
+                    customerSpendRepository.lockSpend(key);
+                }
+                Map<CustomerSpend.Key, long[]> expected = sumOfCustomers(chunk);
+                long chunkWritten = 0;
+                for (CustomerSpend.Key key : chunk) {
+                    CustomerSpend spend = entityManager.find(CustomerSpend.class, key);
+                    long[] total = expected.get(key);
+                    if (total == null) {
+                        entityManager.remove(spend);
+                    } else {
+                        entityManager.merge(new CustomerSpend(key.getCustomerId(), key.getCurrency(), total[0],
+                            total[1]));
+                        chunkWritten++;
+                    }
+                }
+                entityManager.flush();
+                entityManager.clear();
+                return chunkWritten;
+            });
+        }
+        return written;
+    }
+
+    /*
+    * Every customer and currency of the bound shard that has payments or a total, in chunks of whole customers
+    * in the order totals are locked
+    * */
+    private List<List<CustomerSpend.Key>> customerChunks() {
+        Set<CustomerSpend.Key> keys = new TreeSet<>(CustomerSpendBatchRepository.LOCK_ORDER);
+        keys.addAll(sumUpTo(maxPaymentId()).keySet());
+        customerSpendRepository.findAll().forEach(spend ->
+            keys.add(new CustomerSpend.Key(spend.getCustomerId(), spend.getCurrency())));
+        entityManager.clear();
+        List<List<CustomerSpend.Key>> chunks = new ArrayList<>();
+        List<CustomerSpend.Key> chunk = new ArrayList<>();
+        Set<UUID> customers = new HashSet<>();
+        for (CustomerSpend.Key key : keys) {
+            // the currencies of a customer stay in one chunk, the sum of a chunk covers whole customers
+            if (customers.add(key.getCustomerId()) && customers.size() > CUSTOMER_CHUNK_SIZE) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                customers.clear();
+                customers.add(key.getCustomerId());
+            }
+            chunk.add(key);
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    // the totals of the given keys from the committed payments, keys without payments are left out
+    private Map<CustomerSpend.Key, long[]> sumOfCustomers(List<CustomerSpend.Key> keys) {
+        Set<UUID> customerIds = new HashSet<>();
+        keys.forEach(key -> customerIds.add(key.getCustomerId()));
+        Map<CustomerSpend.Key, long[]> totals = new HashMap<>();
+        addTotals(totals, paymentRepository.selectSpendTotalsOfCustomers(customerIds));
+        // a currency of the customer that was first paid in after the chunks were made is left to its writer
+        totals.keySet().retainAll(new HashSet<>(keys));
+        return totals;
+    }
+
+    private long maxPaymentId() {
+        Long maxPaymentId = paymentRepository.selectMaxPaymentId();
+        return maxPaymentId == null ? 0 : maxPaymentId;
+    }
+
+    Map<CustomerSpend.Key, long[]> sumUpTo(long toPaymentId) {
+        Map<CustomerSpend.Key, long[]> totals = new HashMap<>();
+        Long minPaymentId = paymentRepository.selectMinPaymentId();
+        if (minPaymentId == null || minPaymentId > toPaymentId) {
+            return totals;
+        }
+        // the workers read the shard this thread is bound to
+        int shard = PaymentShards.currentShard();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<CompletableFuture<List<SpendTotal>>> chunks = new ArrayList<>();
+            for (long from = minPaymentId; from <= toPaymentId; from += chunkSize) {
+                long chunkFrom = from;
+                long chunkTo = toPaymentId - from < chunkSize ? toPaymentId : from + chunkSize - 1;
+                chunks.add(CompletableFuture.supplyAsync(() -> paymentShards.onShard(shard,
+                    () -> paymentRepository.selectSpendTotals(chunkFrom, chunkTo)), executor));
+                if (chunkTo == toPaymentId) {
+                    break;
+                }
+            }
+            // a customer can have payments in several chunks, their partial totals are added up here
+            for (CompletableFuture<List<SpendTotal>> chunk : chunks) {
+                addTotals(totals, chunk.join());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return totals;
+    }
+
+    private static void addTotals(Map<CustomerSpend.Key, long[]> totals, List<SpendTotal> spendTotals) {
+        for (SpendTotal spendTotal : spendTotals) {
+            long[] total = totals.computeIfAbsent(
+                new CustomerSpend.Key(spendTotal.getCustomerId(), spendTotal.getCurrency()), key -> new long[2]);
+            total[0] = Math.addExact(total[0], spendTotal.getTotalMinorUnits());
+            total[1] += spendTotal.getPaymentCount();
+        }
+    }
+
+    private static CustomerSpendDrift compare(Map<CustomerSpend.Key, long[]> expected, List<CustomerSpend> stored) {
+        long expectedRows = expected.size();
+        long drifted = 0;
+        List<CustomerSpendDrift.Mismatch> mismatches = new ArrayList<>();
+        for (CustomerSpend spend : stored) {
+            long[] total = expected.remove(new CustomerSpend.Key(spend.getCustomerId(), spend.getCurrency()));
+            long expectedTotal = total == null ? 0 : total[0];
+            long expectedCount = total == null ? 0 : total[1];
+            if (expectedTotal != spend.getTotalMinorUnits() || expectedCount != spend.getPaymentCount()) {
+                drifted++;
+                if (mismatches.size() < MAX_LISTED_MISMATCHES) {
+                    mismatches.add(new CustomerSpendDrift.Mismatch(spend.getCustomerId(), spend.getCurrency(),
+                        expectedTotal, spend.getTotalMinorUnits(), expectedCount, spend.getPaymentCount()));
+                }
+            }
+        }
+        // whatever is left has payments but no running total at all
+        for (Map.Entry<CustomerSpend.Key, long[]> missing : expected.entrySet()) {
+            drifted++;
+            if (mismatches.size() < MAX_LISTED_MISMATCHES) {
+                mismatches.add(new CustomerSpendDrift.Mismatch(missing.getKey().getCustomerId(),
+                    missing.getKey().getCurrency(), missing.getValue()[0], 0, missing.getValue()[1], 0));
+            }
+        }
+        return new CustomerSpendDrift(expectedRows, stored.size(), drifted, mismatches);
+    }
+}
@@ -0,0 +1,23 @@
+package com.amigoscode.testing.payment.spend;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+import java.util.UUID;
+
+public interface CustomerSpendRepository extends CrudRepository<CustomerSpend, CustomerSpend.Key>,
+    CustomerSpendBatchRepository {
+
+    // served from the primary key, customer_id is its leading column. Empty totals are left by writers that
+    // created a total and rolled back
+    @Query("select s from CustomerSpend s where s.customerId = :customerId and s.paymentCount > 0"
+        + " order by s.currency")
+    List<CustomerSpend> selectSpendOfCustomer(@Param("customerId") UUID customerId);
+
+    @Modifying
+    @Query("delete from CustomerSpend")
+    int deleteAllSpend();
+}
@@ -0,0 +1,27 @@
+package com.amigoscode.testing.payment.spend;
+
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.UUID;
+
+@Service
+public class CustomerSpendService {
+
+    private final CustomerSpendRepository customerSpendRepository;
+    private final PaymentShards paymentShards;
+
+    @Autowired
+    public CustomerSpendService(CustomerSpendRepository customerSpendRepository, PaymentShards paymentShards) {
+        this.customerSpendRepository = customerSpendRepository;
+        this.paymentShards = paymentShards;
+    }
+
+    // the totals are kept next to the payments, on the customer's shard
+    public List<CustomerSpend> getSpend(UUID customerId) {
+        return paymentShards.onShard(paymentShards.shardOf(customerId),
+            () -> customerSpendRepository.selectSpendOfCustomer(customerId));
+    }
+}
@@ -0,0 +1,16 @@
+package com.amigoscode.testing.payment.spend;
+
+import com.amigoscode.testing.payment.Currency;
+
+import java.util.UUID;
+
+// projection of the payments of a customer in a currency summed by the database
+public interface SpendTotal {
+    UUID getCustomerId();
+
+    Currency getCurrency();
+
+    long getTotalMinorUnits();
+
+    long getPaymentCount();
+}
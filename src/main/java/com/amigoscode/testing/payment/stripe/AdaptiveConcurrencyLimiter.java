@@ -0,0 +1,85 @@
+package com.amigoscode.testing.payment.stripe;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+* AIMD limit on the number of concurrent calls to stripe.
+* A call slower than latencyThreshold or a failed call multiplies the limit by backoffRatio,
+* a fast call made while the limit is well used grows it by one. When stripe slows down fewer
+* calls are let through instead of every request thread piling up on the client timeout
+* */
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+
+    private double limit;
+    private int inFlight;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+        double backoffRatio, long latencyThresholdMillis) {
+        this.name = name;
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+    }
+
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    // releases a slot without feeding the limit, used when the call never reached stripe
+    public synchronized void release() {
+        inFlight--;
+    }
+
+    public synchronized void onSuccess(long durationNanos) {
+        if (durationNanos > latencyThresholdNanos) {
+            decrease();
+        } else if (inFlight * 2 >= limit) {
+            // only grow while the current limit is actually being used
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        inFlight--;
+    }
+
+    public synchronized void onFailure() {
+        decrease();
+        inFlight--;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("concurrency_limiter.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+            .tag("name", name)
+            .register(meterRegistry);
+        Gauge.builder("concurrency_limiter.in_flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+            .tag("name", name)
+            .register(meterRegistry);
+    }
+}
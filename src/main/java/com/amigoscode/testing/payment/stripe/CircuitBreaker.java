@@ -0,0 +1,141 @@
+package com.amigoscode.testing.payment.stripe;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/*
+* Count based circuit breaker for calls to stripe.
+* CLOSED - calls go through and the outcome of the last windowSize calls is tracked, a call slower than
+*          slowCallThreshold counts as a failure. Once the failure rate reaches the threshold the breaker opens
+* OPEN - calls fail fast until openDuration has passed
+* HALF_OPEN - a few trial calls are let through, all of them succeeding closes the breaker again and
+*             any failure opens it
+* */
+public class CircuitBreaker implements MeterBinder {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final boolean[] window; // true = failed call
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long slowCallThresholdNanos;
+    private final long openDurationNanos;
+    private final int halfOpenTrialCalls;
+    private final LongSupplier nanoTime;
+
+    private State state = State.CLOSED;
+    private int windowIndex;
+    private int recordedCalls;
+    private int failedCalls;
+    private long openedAt;
+    private int trialCallsStarted;
+    private int trialCallsSucceeded;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+        long slowCallThresholdMillis, long openDurationMillis, int halfOpenTrialCalls, LongSupplier nanoTime) {
+        this.name = name;
+        this.window = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowCallThresholdMillis);
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+        this.halfOpenTrialCalls = halfOpenTrialCalls;
+        this.nanoTime = nanoTime;
+    }
+
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (nanoTime.getAsLong() - openedAt < openDurationNanos) {
+                return false;
+            }
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialCallsStarted >= halfOpenTrialCalls) {
+                return false;
+            }
+            trialCallsStarted++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess(long durationNanos) {
+        if (durationNanos > slowCallThresholdNanos) {
+            onFailure();
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            trialCallsSucceeded++;
+            if (trialCallsSucceeded >= halfOpenTrialCalls) {
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            transitionTo(State.OPEN);
+            return;
+        }
+        record(true);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failed) {
+        if (state != State.CLOSED) {
+            return; // late results of calls started before the breaker opened
+        }
+        if (recordedCalls == window.length) {
+            if (window[windowIndex]) {
+                failedCalls--;
+            }
+        } else {
+            recordedCalls++;
+        }
+        window[windowIndex] = failed;
+        if (failed) {
+            failedCalls++;
+        }
+        windowIndex = (windowIndex + 1) % window.length;
+
+        if (recordedCalls >= minimumCalls && (double) failedCalls / recordedCalls >= failureRateThreshold) {
+            transitionTo(State.OPEN);
+        }
+    }
+
+    private void transitionTo(State newState) {
+        state = newState;
+        trialCallsStarted = 0;
+        trialCallsSucceeded = 0;
+        if (newState == State.OPEN) {
+            openedAt = nanoTime.getAsLong();
+        }
+        if (newState == State.CLOSED) {
+            windowIndex = 0;
+            recordedCalls = 0;
+            failedCalls = 0;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry meterRegistry) {
+        // 0 closed, 1 open, 2 half open
+        Gauge.builder("circuit_breaker.state", this, breaker -> breaker.getState().ordinal())
+            .tag("name", name)
+            .register(meterRegistry);
+    }
+}
@@ -2,12 +2,10 @@ package com.amigoscode.testing.payment.stripe;
 
 import com.amigoscode.testing.payment.CardPaymentCharge;
 import com.amigoscode.testing.payment.CardPaymentCharger;
-import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
-
 /*
 * Class is used for integration testing
 * Stripe will be disabled - everytime we run the service, this class will be injected
@@ -19,8 +17,7 @@ import java.math.BigDecimal;
 )
 public class MockStripeService implements CardPaymentCharger {
     @Override
-    public CardPaymentCharge chargeCard(String source, BigDecimal amount, Currency currency,
-        String description) {
+    public CardPaymentCharge chargeCard(String source, Money amount, String description) {
 
         return new CardPaymentCharge(true);
     }
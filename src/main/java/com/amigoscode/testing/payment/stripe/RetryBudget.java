@@ -0,0 +1,41 @@
+package com.amigoscode.testing.payment.stripe;
+
+/*
+* Caps retries at a share of the calls rather than of the failures, so retrying cannot multiply the load on
+* a stripe that is already failing. Every call deposits ratio of a token and every retry takes a whole one.
+* The balance holds at most burst tokens and starts full, so the first failures after a quiet spell can
+* still be retried
+* */
+public class RetryBudget {
+
+    // the balance is kept in thousandths of a token, ten deposits of 0.1 then add up to exactly one
+    private static final long TOKEN = 1000;
+
+    private final long deposit;
+    private final long burst;
+
+    private long balance;
+
+    public RetryBudget(double ratio, int burst) {
+        this.deposit = Math.round(ratio * TOKEN);
+        this.burst = burst * TOKEN;
+        this.balance = this.burst;
+    }
+
+    public synchronized void onCall() {
+        balance = Math.min(burst, balance + deposit);
+    }
+
+    // takes a token for a retry, false when the budget is spent
+    public synchronized boolean tryAcquireRetry() {
+        if (balance < TOKEN) {
+            return false;
+        }
+        balance -= TOKEN;
+        return true;
+    }
+
+    public synchronized double getBalance() {
+        return (double) balance / TOKEN;
+    }
+}
@@ -0,0 +1,306 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.ratelimit.InMemoryTokenBucketStore;
+import com.amigoscode.testing.payment.ratelimit.RateLimit;
+import com.amigoscode.testing.payment.ratelimit.TokenBucketStore;
+import com.amigoscode.testing.payment.routing.LatencyDistribution;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.AuthenticationException;
+import com.stripe.exception.CardException;
+import com.stripe.exception.IdempotencyException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.PermissionException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Charge;
+import com.stripe.net.RequestOptions;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/*
+* Stripe in this process, for load and latency tests of the real StripeService with its retries, circuit
+* breaker and concurrency limiter. Every charge takes a sampled latency and then fails, is declined or is
+* charged at the configured rates. The errors are the exceptions the stripe client throws for each error type.
+*
+* As with stripe:
+*   more calls at once than maxConcurrency, or more a second than rateLimitPerSecond, are answered with 429
+*   a call slower than the read timeout of its RequestOptions times out, the charge is still made
+*   an api_connection_error may have reached stripe, half of them are charged and only the answer is lost
+*   a repeated idempotency key is answered with the charge or decline of the first call
+* The random draws of a call are taken together, so a seed gives the same outcomes when calls come in order
+* */
+public class SimulatedStripeApi extends StripeApi {
+
+    private static final int MAX_IDEMPOTENCY_KEYS = 10_000;
+
+    // stripe's error types, api_connection_error is the one the client raises itself
+    public enum ErrorType {
+        API_CONNECTION_ERROR,
+        API_ERROR,
+        AUTHENTICATION_ERROR,
+        IDEMPOTENCY_ERROR,
+        INVALID_REQUEST_ERROR,
+        PERMISSION_ERROR,
+        RATE_LIMIT_ERROR
+    }
+
+    private final LatencyDistribution latency;
+    private final double declineRate;
+    private final double errorRate;
+    private final Map<ErrorType, Double> errorRates;
+    private final Semaphore concurrency;
+    private final int maxConcurrency;
+    private final TokenBucketStore rateLimitStore;
+    private final RateLimit rateLimit;
+    private final Random random;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong charges = new AtomicLong();
+    // access ordered, the least recently used key goes first
+    private final Map<String, Outcome> outcomesByIdempotencyKey =
+        new LinkedHashMap<String, Outcome>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Outcome> eldest) {
+                return size() > MAX_IDEMPOTENCY_KEYS;
+            }
+        };
+
+    public SimulatedStripeApi(LatencyDistribution latency, double declineRate, Map<ErrorType, Double> errorRates,
+        int maxConcurrency, double rateLimitPerSecond, Random random, LongSupplier nanoTime) {
+        double errorRate = 0;
+        for (double rate : errorRates.values()) {
+            errorRate += rate;
+        }
+        if (declineRate < 0 || errorRate < 0 || declineRate + errorRate > 1) {
+            throw new IllegalArgumentException(String.format(
+                "Decline rate [%s] and error rates %s must be positive and add up to at most 1",
+                declineRate, errorRates));
+        }
+        this.latency = latency;
+        this.declineRate = declineRate;
+        this.errorRate = errorRate;
+        this.errorRates = errorRates.isEmpty()
+            ? Collections.emptyMap()
+            : Collections.unmodifiableMap(new EnumMap<>(errorRates));
+        this.maxConcurrency = maxConcurrency;
+        this.concurrency = maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+        this.rateLimitStore = rateLimitPerSecond > 0 ? new InMemoryTokenBucketStore(1, 1, nanoTime) : null;
+        this.rateLimit = rateLimitPerSecond > 0
+            ? new RateLimit((int) Math.max(1, rateLimitPerSecond), rateLimitPerSecond)
+            : null;
+        this.random = random;
+    }
+
+    /*
+    * Parses error rates written as <type>:<rate>, e.g. api_connection_error:0.01,api_error:0.005
+    * */
+    public static Map<ErrorType, Double> parseErrorRates(String spec) {
+        Map<ErrorType, Double> errorRates = new EnumMap<>(ErrorType.class);
+        for (String entry : spec.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            int colon = entry.indexOf(':');
+            try {
+                ErrorType type = ErrorType.valueOf(entry.substring(0, colon).trim().toUpperCase(Locale.ROOT));
+                errorRates.merge(type, Double.parseDouble(entry.substring(colon + 1).trim()), Double::sum);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IllegalArgumentException(String.format(
+                    "Stripe error rate [%s] is not <type>:<rate>, e.g. api_connection_error:0.01", entry.trim()));
+            }
+        }
+        return errorRates;
+    }
+
+    @Override
+    public Charge create(Map<String, Object> requestMap, RequestOptions options) throws StripeException {
+        String requestId = "req_sim_" + requests.incrementAndGet();
+        if (concurrency != null && !concurrency.tryAcquire()) {
+            throw new RateLimitException(String.format(
+                "Too many concurrent requests, at most [%s] at once", maxConcurrency),
+                null, requestId, "rate_limit", 429, null);
+        }
+        try {
+            if (rateLimitStore != null && rateLimitStore.tryAcquire("stripe", rateLimit) > 0) {
+                throw new RateLimitException("Too many requests hit the API too quickly",
+                    null, requestId, "rate_limit", 429, null);
+            }
+            String idempotencyKey = options == null ? null : options.getIdempotencyKey();
+            if (idempotencyKey != null) {
+                Outcome first;
+                synchronized (outcomesByIdempotencyKey) {
+                    first = outcomesByIdempotencyKey.get(idempotencyKey);
+                }
+                if (first != null) {
+                    return first.replay(requestMap, requestId);
+                }
+            }
+            return charge(requestMap, options, requestId, idempotencyKey);
+        } finally {
+            if (concurrency != null) {
+                concurrency.release();
+            }
+        }
+    }
+
+    private Charge charge(Map<String, Object> requestMap, RequestOptions options, String requestId,
+        String idempotencyKey) throws StripeException {
+        long latencyMillis;
+        double outcome;
+        boolean answerLost;
+        // java.util.Random is thread safe but a shared seed is only reproducible when drawn in order
+        synchronized (random) {
+            latencyMillis = latency.sampleMillis(random);
+            outcome = random.nextDouble();
+            answerLost = random.nextBoolean();
+        }
+        // a read timeout of 0 means none, as it does to the stripe client
+        int readTimeoutMillis = options == null || options.getReadTimeout() <= 0
+            ? Integer.MAX_VALUE
+            : options.getReadTimeout();
+        try {
+            Thread.sleep(Math.min(latencyMillis, readTimeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiConnectionException("Simulated stripe call was interrupted", e);
+        }
+
+        ErrorType error = errorFor(outcome);
+        Outcome result = null;
+        if (error == null) {
+            result = outcome < errorRate + declineRate
+                ? Outcome.declined(requestMap, requestId)
+                : Outcome.charged(requestMap, charge(requestMap));
+        } else if (error == ErrorType.API_CONNECTION_ERROR && answerLost) {
+            result = Outcome.charged(requestMap, charge(requestMap));
+        }
+        if (result != null && idempotencyKey != null) {
+            synchronized (outcomesByIdempotencyKey) {
+                outcomesByIdempotencyKey.putIfAbsent(idempotencyKey, result);
+            }
+        }
+
+        if (latencyMillis > readTimeoutMillis) {
+            throw new ApiConnectionException(String.format(
+                "IOException during API request to Stripe (%s): Read timed out", requestId));
+        }
+        if (error != null) {
+            throw error(error, requestId);
+        }
+        return result.replay(requestMap, requestId);
+    }
+
+    private ErrorType errorFor(double outcome) {
+        double upTo = 0;
+        for (Map.Entry<ErrorType, Double> errorRate : errorRates.entrySet()) {
+            upTo += errorRate.getValue();
+            if (outcome < upTo) {
+                return errorRate.getKey();
+            }
+        }
+        return null;
+    }
+
+    private Charge charge(Map<String, Object> requestMap) {
+        Charge charge = new Charge();
+        charge.setId("ch_sim_" + charges.incrementAndGet());
+        charge.setObject("charge");
+        charge.setAmount(((Number) requestMap.get("amount")).longValue());
+        charge.setCurrency((String) requestMap.get("currency"));
+        charge.setCreated(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        charge.setCaptured(true);
+        charge.setPaid(true);
+        charge.setStatus("succeeded");
+        return charge;
+    }
+
+    private static StripeException error(ErrorType error, String requestId) {
+        switch (error) {
+            case API_CONNECTION_ERROR:
+                return new ApiConnectionException(String.format(
+                    "IOException during API request to Stripe (%s): Connection reset", requestId));
+            case API_ERROR:
+                return new ApiException("An unknown error occurred", requestId, null, 500, null);
+            case AUTHENTICATION_ERROR:
+                return new AuthenticationException("Invalid API Key provided", requestId, null, 401);
+            case IDEMPOTENCY_ERROR:
+                return new IdempotencyException(
+                    "Keys for idempotent requests can only be used with the same parameters they were first used with",
+                    requestId, "idempotency_key_in_use", 400);
+            case INVALID_REQUEST_ERROR:
+                return new InvalidRequestException("No such token", "source", requestId, "resource_missing",
+                    400, null);
+            case PERMISSION_ERROR:
+                return new PermissionException("The provided key does not have access to this resource",
+                    requestId, null, 403);
+            case RATE_LIMIT_ERROR:
+                return new RateLimitException("Too many requests hit the API too quickly", null, requestId,
+                    "rate_limit", 429, null);
+            default:
+                throw new IllegalStateException("Unknown stripe error type " + error);
+        }
+    }
+
+    // calls to create, including the ones answered with an error
+    public long getRequests() {
+        return requests.get();
+    }
+
+    // charges made, a replayed charge is only counted once
+    public long getCharges() {
+        return charges.get();
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedStripeApi{" + "latency=" + latency + ", declineRate=" + declineRate
+            + ", errorRates=" + errorRates + ", maxConcurrency=" + maxConcurrency + ", rateLimit=" + rateLimit + '}';
+    }
+
+    /*
+    * What a repeated idempotency key is answered with, a charge or a decline. Like stripe, a key only replays
+    * for the parameters it was first used with, other parameters are answered with idempotency_key_in_use
+    * */
+    private static final class Outcome {
+
+        private final Map<String, Object> requestMap;
+        private final Charge charge;
+        private final String declinedRequestId;
+
+        private Outcome(Map<String, Object> requestMap, Charge charge, String declinedRequestId) {
+            this.requestMap = new HashMap<>(requestMap);
+            this.charge = charge;
+            this.declinedRequestId = declinedRequestId;
+        }
+
+        static Outcome charged(Map<String, Object> requestMap, Charge charge) {
+            return new Outcome(requestMap, charge, null);
+        }
+
+        static Outcome declined(Map<String, Object> requestMap, String requestId) {
+            return new Outcome(requestMap, null, requestId);
+        }
+
+        Charge replay(Map<String, Object> requestMap, String requestId) throws StripeException {
+            if (!this.requestMap.equals(requestMap)) {
+                throw new IdempotencyException("Keys for idempotent requests can only be used with the same "
+                    + "parameters they were first used with", requestId, "idempotency_key_in_use", 400);
+            }
+            if (charge == null) {
+                throw new CardException("Your card was declined.", declinedRequestId, "card_declined", null,
+                    "generic_decline", null, 402, null);
+            }
+            return charge;
+        }
+    }
+}
@@ -1,8 +1,14 @@
 package com.amigoscode.testing.payment.stripe;
 
+import com.stripe.Stripe;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Charge;
+import com.stripe.net.ApiResource;
+import com.stripe.net.LiveStripeResponseGetter;
 import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeResponseGetter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.Map;
@@ -11,11 +17,30 @@ import java.util.Map;
 * Purpose is to encapsulate the static call, Charge.create(requestMap, options), into a class
 * which we can now mock
 *
+* The charge is sent the way Charge.create sends it, but through StripeHttpClient instead of the library's
+* global client, and to stripe.api-base so tests can point it at a local server
 * */
 @Service
 public class StripeApi {
+
+    private final StripeResponseGetter responseGetter;
+    private final String chargesUrl;
+
+    @Autowired
+    public StripeApi(StripeHttpClient httpClient,
+        @Value("${stripe.api-base:" + Stripe.LIVE_API_BASE + "}") String apiBase) {
+        this.responseGetter = new LiveStripeResponseGetter(httpClient);
+        this.chargesUrl = apiBase + "/v1/charges";
+    }
+
+    // for stand-ins that override create, falls back to the library's own client
+    protected StripeApi() {
+        this.responseGetter = new LiveStripeResponseGetter();
+        this.chargesUrl = Stripe.getApiBase() + "/v1/charges";
+    }
+
     public Charge create(Map<String, Object> requestMap, RequestOptions options)
         throws StripeException { // let the client deal with the exception if we throw instead of surround with try catch
-        return Charge.create(requestMap, options);
+        return responseGetter.request(ApiResource.RequestMethod.POST, chargesUrl, requestMap, Charge.class, options);
     }
 }
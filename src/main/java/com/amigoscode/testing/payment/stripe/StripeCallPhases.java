@@ -0,0 +1,144 @@
+package com.amigoscode.testing.payment.stripe;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Times the phases of every http call to stripe as stripe.http.phase:
+*   dns      looking up the host
+*   connect  tcp handshake
+*   tls      tls handshake
+*   ttfb     request headers written until the response headers arrive, mostly stripe's own time
+*   total    the whole call
+* A call on a pooled connection skips dns, connect and tls, stripe.http.connections counts new and reused ones
+* */
+public class StripeCallPhases implements EventListener.Factory {
+
+    private final Timer dns;
+    private final Timer connect;
+    private final Timer tls;
+    private final Timer ttfb;
+    private final Timer total;
+    private final Counter newConnections;
+    private final Counter reusedConnections;
+
+    public StripeCallPhases(MeterRegistry meterRegistry) {
+        this.dns = phaseTimer(meterRegistry, "dns");
+        this.connect = phaseTimer(meterRegistry, "connect");
+        this.tls = phaseTimer(meterRegistry, "tls");
+        this.ttfb = phaseTimer(meterRegistry, "ttfb");
+        this.total = phaseTimer(meterRegistry, "total");
+        this.newConnections = connectionCounter(meterRegistry, "new");
+        this.reusedConnections = connectionCounter(meterRegistry, "reused");
+    }
+
+    private static Timer phaseTimer(MeterRegistry meterRegistry, String phase) {
+        return Timer.builder("stripe.http.phase")
+            .description("Time spent in each phase of http calls to stripe")
+            .tag("phase", phase)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    private static Counter connectionCounter(MeterRegistry meterRegistry, String connection) {
+        return Counter.builder("stripe.http.connections")
+            .description("Connections http calls to stripe ran on")
+            .tag("connection", connection)
+            .register(meterRegistry);
+    }
+
+    @Override
+    public EventListener create(Call call) {
+        return new PhaseListener();
+    }
+
+    // one per call, okhttp reports the events of a call on one thread at a time
+    private final class PhaseListener extends EventListener {
+
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+        private long requestStart;
+        private boolean connected;
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+            dns.record(System.nanoTime() - dnsStart, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connectStart = System.nanoTime();
+            secureConnectStart = 0;
+            connected = true;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = System.nanoTime();
+            connect.record(secureConnectStart - connectStart, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tls.record(System.nanoTime() - secureConnectStart, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            // over tls the tcp part was recorded when the handshake started
+            if (secureConnectStart == 0) {
+                connect.record(System.nanoTime() - connectStart, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            (connected ? newConnections : reusedConnections).increment();
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            ttfb.record(System.nanoTime() - requestStart, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            total.record(System.nanoTime() - callStart, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            total.record(System.nanoTime() - callStart, TimeUnit.NANOSECONDS);
+        }
+    }
+}
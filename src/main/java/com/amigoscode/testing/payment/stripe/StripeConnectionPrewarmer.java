@@ -0,0 +1,72 @@
+package com.amigoscode.testing.payment.stripe;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+* Opens connections to stripe at startup, so the first payments do not pay for dns, tcp and tls.
+* Every connection is opened by a HEAD request running at the same time as the others, what stripe answers
+* does not matter. Over HTTP/2 the requests share a single connection
+* */
+public class StripeConnectionPrewarmer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripeConnectionPrewarmer.class);
+
+    private final OkHttpClient okHttpClient;
+    private final String apiBase;
+    private final int connections;
+    private final long timeoutMillis;
+
+    public StripeConnectionPrewarmer(OkHttpClient okHttpClient, String apiBase, int connections, long timeoutMillis) {
+        this.okHttpClient = okHttpClient;
+        this.apiBase = apiBase;
+        this.connections = connections;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() throws InterruptedException {
+        int warmed = prewarm();
+        LOGGER.info("Opened [{}] of [{}] connections to {}", warmed, connections, apiBase);
+    }
+
+    /*
+    * Returns the number of warm-up requests answered within the timeout
+    * */
+    public int prewarm() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(connections);
+        AtomicInteger answered = new AtomicInteger();
+        Request request = new Request.Builder().url(apiBase).head().build();
+        for (int i = 0; i < connections; i++) {
+            okHttpClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    // closing hands the connection back to the pool
+                    response.close();
+                    answered.incrementAndGet();
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    LOGGER.warn("Could not open connection to {}", apiBase, e);
+                    done.countDown();
+                }
+            });
+        }
+        done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        return answered.get();
+    }
+}
@@ -0,0 +1,68 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.net.HttpClient;
+import com.stripe.net.HttpContent;
+import com.stripe.net.HttpHeaders;
+import com.stripe.net.RequestOptions;
+import com.stripe.net.StripeRequest;
+import com.stripe.net.StripeResponse;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+* Sends the stripe library's requests through one shared OkHttpClient instead of a new HttpURLConnection
+* per call, so connections, HTTP/2 streams and TLS sessions to stripe are pooled and reused.
+* The timeouts follow the RequestOptions of each request, e.g. cut to the deadline of a payment
+* */
+public class StripeHttpClient extends HttpClient {
+
+    private final OkHttpClient okHttpClient;
+
+    public StripeHttpClient(OkHttpClient okHttpClient) {
+        this.okHttpClient = okHttpClient;
+    }
+
+    @Override
+    public StripeResponse request(StripeRequest request) throws ApiConnectionException {
+        Request.Builder builder = new Request.Builder().url(request.url());
+        for (Map.Entry<String, List<String>> header : request.headers().map().entrySet()) {
+            for (String value : header.getValue()) {
+                builder.addHeader(header.getKey(), value);
+            }
+        }
+        HttpContent content = request.content();
+        builder.method(request.method().name(), content == null
+            ? null : RequestBody.create(MediaType.get(content.contentType()), content.byteArrayContent()));
+
+        try (Response response = client(request.options()).newCall(builder.build()).execute()) {
+            ResponseBody body = response.body();
+            return new StripeResponse(response.code(), HttpHeaders.of(response.headers().toMultimap()),
+                body == null ? "" : body.string());
+        } catch (IOException e) {
+            throw new ApiConnectionException(String.format(
+                "IOException during API request to Stripe (%s): %s", request.url(), e.getMessage()), e);
+        }
+    }
+
+    // a client derived with newBuilder shares the connection pool and dispatcher, only the timeouts differ
+    private OkHttpClient client(RequestOptions options) {
+        if (options.getConnectTimeout() == okHttpClient.connectTimeoutMillis()
+            && options.getReadTimeout() == okHttpClient.readTimeoutMillis()) {
+            return okHttpClient;
+        }
+        return okHttpClient.newBuilder()
+            .connectTimeout(options.getConnectTimeout(), TimeUnit.MILLISECONDS)
+            .readTimeout(options.getReadTimeout(), TimeUnit.MILLISECONDS)
+            .build();
+    }
+}
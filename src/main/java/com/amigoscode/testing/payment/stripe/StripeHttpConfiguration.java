@@ -0,0 +1,61 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.stripe.Stripe;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+* The http client that stripe calls go through:
+*   stripe.http.max-idle-connections   connections kept open to stripe between calls
+*   stripe.http.keep-alive-ms          how long an idle connection stays in the pool
+*   stripe.http.http2                  offers HTTP/2 in the tls handshake, all calls then share one connection
+*   stripe.http.prewarm-connections    connections opened at startup, only when stripe is enabled and not simulated
+* */
+@Configuration
+public class StripeHttpConfiguration {
+
+    @Bean
+    public OkHttpClient stripeOkHttpClient(MeterRegistry meterRegistry,
+        @Value("${stripe.http.max-idle-connections:20}") int maxIdleConnections,
+        @Value("${stripe.http.keep-alive-ms:60000}") long keepAliveMillis,
+        @Value("${stripe.http.http2:true}") boolean http2) {
+        // only the warm-up calls are dispatched, each of them needs its own slot to open its own connection
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(Math.max(dispatcher.getMaxRequestsPerHost(), maxIdleConnections));
+        return new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS))
+            .dispatcher(dispatcher)
+            .protocols(http2 ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+            // stripe's defaults, a request with the default RequestOptions then needs no client of its own
+            .connectTimeout(Stripe.DEFAULT_CONNECT_TIMEOUT, TimeUnit.MILLISECONDS)
+            .readTimeout(Stripe.DEFAULT_READ_TIMEOUT, TimeUnit.MILLISECONDS)
+            // a charge is not safe to send twice, stale pooled connections are checked before a POST instead
+            .retryOnConnectionFailure(false)
+            .eventListenerFactory(new StripeCallPhases(meterRegistry))
+            .build();
+    }
+
+    @Bean
+    public StripeHttpClient stripeHttpClient(OkHttpClient stripeOkHttpClient) {
+        return new StripeHttpClient(stripeOkHttpClient);
+    }
+
+    @Bean
+    @ConditionalOnExpression("${stripe.enabled:false} and !${stripe.simulator.enabled:false}")
+    public StripeConnectionPrewarmer stripeConnectionPrewarmer(OkHttpClient stripeOkHttpClient,
+        @Value("${stripe.api-base:" + Stripe.LIVE_API_BASE + "}") String apiBase,
+        @Value("${stripe.http.prewarm-connections:4}") int connections,
+        @Value("${stripe.http.prewarm-timeout-ms:5000}") long timeoutMillis) {
+        return new StripeConnectionPrewarmer(stripeOkHttpClient, apiBase, connections, timeoutMillis);
+    }
+}
@@ -0,0 +1,51 @@
+package com.amigoscode.testing.payment.stripe;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/*
+* Circuit breaker, concurrency limiter and retries protecting the real stripe calls, only needed when stripe is enabled
+* */
+@Configuration
+@ConditionalOnProperty(
+    value = "stripe.enabled",
+    havingValue = "true"
+)
+public class StripeResilienceConfiguration {
+
+    @Bean
+    public CircuitBreaker stripeCircuitBreaker(
+        @Value("${stripe.circuit-breaker.window-size:100}") int windowSize,
+        @Value("${stripe.circuit-breaker.minimum-calls:20}") int minimumCalls,
+        @Value("${stripe.circuit-breaker.failure-rate-threshold:0.5}") double failureRateThreshold,
+        @Value("${stripe.circuit-breaker.slow-call-threshold-ms:5000}") long slowCallThresholdMillis,
+        @Value("${stripe.circuit-breaker.open-duration-ms:10000}") long openDurationMillis,
+        @Value("${stripe.circuit-breaker.half-open-calls:5}") int halfOpenCalls) {
+        return new CircuitBreaker("stripe", windowSize, minimumCalls, failureRateThreshold,
+            slowCallThresholdMillis, openDurationMillis, halfOpenCalls, System::nanoTime);
+    }
+
+    @Bean
+    public AdaptiveConcurrencyLimiter stripeConcurrencyLimiter(
+        @Value("${stripe.concurrency-limit.initial:20}") int initialLimit,
+        @Value("${stripe.concurrency-limit.min:2}") int minLimit,
+        @Value("${stripe.concurrency-limit.max:200}") int maxLimit,
+        @Value("${stripe.concurrency-limit.backoff-ratio:0.9}") double backoffRatio,
+        @Value("${stripe.concurrency-limit.latency-threshold-ms:1000}") long latencyThresholdMillis) {
+        return new AdaptiveConcurrencyLimiter("stripe", initialLimit, minLimit, maxLimit, backoffRatio,
+            latencyThresholdMillis);
+    }
+
+    @Bean
+    public StripeRetryPolicy stripeRetryPolicy(
+        @Value("${stripe.retry.max-attempts:3}") int maxAttempts,
+        @Value("${stripe.retry.base-delay-ms:25}") long baseDelayMillis,
+        @Value("${stripe.retry.max-delay-ms:1000}") long maxDelayMillis,
+        @Value("${stripe.retry.budget-ratio:0.1}") double budgetRatio,
+        @Value("${stripe.retry.budget-burst:10}") int budgetBurst) {
+        return new StripeRetryPolicy(maxAttempts, baseDelayMillis, maxDelayMillis,
+            new RetryBudget(budgetRatio, budgetBurst));
+    }
+}
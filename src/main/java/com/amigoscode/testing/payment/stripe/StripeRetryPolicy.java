@@ -0,0 +1,71 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+* Which stripe failures are retried and how long to wait before each retry.
+* Only failures stripe may not have acted on, or that it asks us to repeat, are retried:
+*   ApiConnectionException  the request or its answer was lost on the network
+*   RateLimitException      429, stripe is shedding load
+*   ApiException            500 and above, or no status at all
+* Declined cards, bad requests and authentication errors fail the same way every time.
+*
+* Delays follow decorrelated jitter - a random delay between baseDelay and three times the previous one,
+* capped at maxDelay - so callers that failed together do not retry together
+* */
+public class StripeRetryPolicy implements MeterBinder {
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final RetryBudget retryBudget;
+
+    public StripeRetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, RetryBudget retryBudget) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryBudget = retryBudget;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    public boolean isRetryable(StripeException e) {
+        if (e instanceof ApiConnectionException || e instanceof RateLimitException) {
+            return true;
+        }
+        return e instanceof ApiException && (e.getStatusCode() == null || e.getStatusCode() >= 500);
+    }
+
+    // pass 0 before the first retry
+    public long nextDelayMillis(long previousDelayMillis) {
+        return decorrelatedJitter(baseDelayMillis, maxDelayMillis, previousDelayMillis,
+            ThreadLocalRandom.current().nextDouble());
+    }
+
+    static long decorrelatedJitter(long baseDelayMillis, long maxDelayMillis, long previousDelayMillis,
+        double random) {
+        long upper = Math.max(baseDelayMillis, previousDelayMillis * 3);
+        return Math.min(maxDelayMillis, baseDelayMillis + (long) ((upper - baseDelayMillis) * random));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("stripe.api.retry_budget", retryBudget, RetryBudget::getBalance)
+            .description("Retries of stripe calls the budget still allows")
+            .register(registry);
+    }
+}
@@ -2,17 +2,29 @@ package com.amigoscode.testing.payment.stripe;
 
 import com.amigoscode.testing.payment.CardPaymentCharge;
 import com.amigoscode.testing.payment.CardPaymentCharger;
+import com.amigoscode.testing.payment.ChargeNotAttemptedException;
 import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Deadline;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.PaymentMetrics;
+import com.stripe.exception.CardException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.RateLimitException;
 import com.stripe.exception.StripeException;
 import com.stripe.model.Charge;
 import com.stripe.net.RequestOptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @ConditionalOnProperty(
@@ -22,10 +34,62 @@ import java.util.Map;
 public class StripeService implements CardPaymentCharger {
 
     private final StripeApi stripeApi;
+    private final CircuitBreaker circuitBreaker;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final Timer successfulCalls;
+    private final Timer failedCalls;
+    private final Counter rejectedByCircuitBreaker;
+    private final Counter rejectedByConcurrencyLimit;
+    private final StripeRetryPolicy retryPolicy;
+    private final Counter retries;
+    private final Counter retriesSkippedByBudget;
+    private final Counter retriesSkippedByDeadline;
 
     @Autowired
-    public StripeService(StripeApi stripeApi) {
+    public StripeService(StripeApi stripeApi, MeterRegistry meterRegistry, CircuitBreaker circuitBreaker,
+        AdaptiveConcurrencyLimiter concurrencyLimiter, StripeRetryPolicy retryPolicy) {
         this.stripeApi = stripeApi;
+        this.circuitBreaker = circuitBreaker;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.retryPolicy = retryPolicy;
+        this.retries = retryCounter(meterRegistry, "retried");
+        this.retriesSkippedByBudget = retryCounter(meterRegistry, "budget_exhausted");
+        this.retriesSkippedByDeadline = retryCounter(meterRegistry, "deadline");
+        this.successfulCalls = stripeCallTimer(meterRegistry, "success");
+        this.failedCalls = stripeCallTimer(meterRegistry, "failure");
+        this.rejectedByCircuitBreaker = rejectedCallCounter(meterRegistry, "circuit_breaker_open");
+        this.rejectedByConcurrencyLimit = rejectedCallCounter(meterRegistry, "concurrency_limit");
+    }
+
+    private static Counter rejectedCallCounter(MeterRegistry meterRegistry, String reason) {
+        return Counter.builder("stripe.api.rejected")
+            .description("Charges failed fast without calling stripe")
+            .tag("reason", reason)
+            .register(meterRegistry);
+    }
+
+    private static Counter retryCounter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("stripe.api.retries")
+            .description("Retryable stripe failures, retried or not")
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+    private static Timer stripeCallTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("stripe.api.calls")
+            .description("Latency of Charge.create calls to stripe")
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(meterRegistry);
+    }
+
+    // stripe takes lower case iso codes
+    private static final Map<Currency, String> CURRENCY_CODES = new EnumMap<>(Currency.class);
+
+    static {
+        for (Currency currency : Currency.values()) {
+            CURRENCY_CODES.put(currency, currency.name().toLowerCase(Locale.ROOT));
+        }
     }
 
     private final static RequestOptions requestOptions = RequestOptions.builder()
@@ -35,25 +99,178 @@ public class StripeService implements CardPaymentCharger {
     @Override
     public CardPaymentCharge chargeCard(
         String cardSource,
-        BigDecimal amount,
-        Currency currency,
+        Money amount,
         String description
     ) {
-        Map<String, Object> params = new HashMap<>();
-        params.put("amount", amount);
-        params.put("currency", currency);
-        params.put("source", cardSource);
-        params.put(
-            "description",
-            description
-        );
+        return chargeCard(cardSource, amount, description, Deadline.none());
+    }
+
+    @Override
+    public CardPaymentCharge chargeCard(
+        String cardSource,
+        Money amount,
+        String description,
+        Deadline deadline
+    ) {
+        return chargeCard(cardSource, amount, description, deadline, null);
+    }
+
+    @Override
+    public CardPaymentCharge chargeCard(
+        String cardSource,
+        Money amount,
+        String description,
+        Deadline deadline,
+        String paymentIdempotencyKey
+    ) {
+        deadline.check(PaymentMetrics.Step.CARD_CHARGE);
+        Map<String, Object> params = chargeParams(cardSource, amount, description);
+        // every attempt sends the same key, stripe answers a repeated charge with the outcome of the first.
+        // The key of the payment carries that over to a retry of the whole payment, without one only the
+        // attempts of this call are deduplicated
+        String idempotencyKey = paymentIdempotencyKey != null
+            ? paymentIdempotencyKey
+            : UUID.randomUUID().toString();
+        retryPolicy.getRetryBudget().onCall();
+
+        // fail fast instead of waiting on the client timeout while stripe is degraded
+        String refused = tryAcquirePermits();
+        if (refused != null) {
+            throw new ChargeNotAttemptedException("Cannot make stripe charge, " + refused);
+        }
 
+        long delayMillis = 0;
+        for (int attempt = 1; ; attempt++) {
+            StripeException failure;
+            try {
+                Charge charge = call(params, requestOptions(deadline, idempotencyKey));
+                Boolean chargePaid = charge.getPaid();
+                return new CardPaymentCharge(chargePaid);
+            } catch (CardException e) {
+                // stripe answered and the card was not charged, the payment is declined rather than failed
+                return new CardPaymentCharge(false);
+            } catch (StripeException e) {
+                failure = e;
+            }
+
+            delayMillis = retryPolicy.nextDelayMillis(delayMillis);
+            if (!shouldRetry(failure, attempt, delayMillis, deadline)) {
+                throw new IllegalStateException("Cannot make stripe charge", failure);
+            }
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Cannot make stripe charge", failure);
+            }
+            // an earlier attempt may have reached stripe, so a refused retry is not a ChargeNotAttemptedException
+            if (tryAcquirePermits() != null) {
+                throw new IllegalStateException("Cannot make stripe charge", failure);
+            }
+        }
+    }
+
+    // null when both the concurrency limiter and the circuit breaker let a call through, otherwise the reason
+    private String tryAcquirePermits() {
+        if (!concurrencyLimiter.tryAcquire()) {
+            rejectedByConcurrencyLimit.increment();
+            return String.format("concurrency limit [%s] reached", concurrencyLimiter.getLimit());
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            concurrencyLimiter.release();
+            rejectedByCircuitBreaker.increment();
+            return "circuit breaker is open";
+        }
+        return null;
+    }
+
+    // one attempt, the permits are taken already and handed back here
+    private Charge call(Map<String, Object> params, RequestOptions options) throws StripeException {
+        long start = System.nanoTime();
         try {
-            Charge charge = stripeApi.create(params, requestOptions);
-            Boolean chargePaid = charge.getPaid();
-            return new CardPaymentCharge(chargePaid);
+            Charge charge = stripeApi.create(params, options);
+            long duration = System.nanoTime() - start;
+            successfulCalls.record(duration, TimeUnit.NANOSECONDS);
+            circuitBreaker.onSuccess(duration);
+            concurrencyLimiter.onSuccess(duration);
+            return charge;
         } catch (StripeException e) {
-            throw new IllegalStateException("Cannot make stripe charge", e);
+            long duration = System.nanoTime() - start;
+            failedCalls.record(duration, TimeUnit.NANOSECONDS);
+            if (isProviderFailure(e)) {
+                circuitBreaker.onFailure();
+                concurrencyLimiter.onFailure();
+            } else {
+                // declined cards and bad requests are answered by a healthy stripe
+                circuitBreaker.onSuccess(duration);
+                concurrencyLimiter.onSuccess(duration);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            circuitBreaker.onFailure();
+            concurrencyLimiter.onFailure();
+            throw e;
+        }
+    }
+
+    private boolean shouldRetry(StripeException e, int attempt, long delayMillis, Deadline deadline) {
+        if (!retryPolicy.isRetryable(e) || attempt >= retryPolicy.getMaxAttempts()) {
+            return false;
+        }
+        // a retry that cannot be answered within the deadline only adds load
+        if (deadline.remainingMillis() <= delayMillis) {
+            retriesSkippedByDeadline.increment();
+            return false;
+        }
+        if (!retryPolicy.getRetryBudget().tryAcquireRetry()) {
+            retriesSkippedByBudget.increment();
+            return false;
+        }
+        retries.increment();
+        return true;
+    }
+
+    /*
+    * The client timeouts are cut to the remaining budget, stripe's own defaults are far longer than any deadline.
+    * A read timeout gives up on a charge stripe may still make, the idempotency key lets a retry find it
+    * */
+    static RequestOptions requestOptions(Deadline deadline, String idempotencyKey) {
+        return requestOptions(deadline).toBuilder()
+            .setIdempotencyKey(idempotencyKey)
+            .build();
+    }
+
+    static RequestOptions requestOptions(Deadline deadline) {
+        if (!deadline.isBounded()) {
+            return requestOptions;
+        }
+        // a timeout of 0 means none to the stripe client, so never go below a millisecond
+        int timeoutMillis = (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline.remainingMillis()));
+        return requestOptions.toBuilder()
+            .setConnectTimeout(Math.min(timeoutMillis, requestOptions.getConnectTimeout()))
+            .setReadTimeout(Math.min(timeoutMillis, requestOptions.getReadTimeout()))
+            .build();
+    }
+
+    // stripe expects the amount as an integer in the smallest currency unit
+    static Map<String, Object> chargeParams(String cardSource, Money amount, String description) {
+        String currency = CURRENCY_CODES.get(amount.getCurrency());
+        if (description == null) {
+            return Map.of("amount", amount.getMinorUnits(), "currency", currency, "source", cardSource);
+        }
+        return Map.of(
+            "amount", amount.getMinorUnits(),
+            "currency", currency,
+            "source", cardSource,
+            "description", description
+        );
+    }
+
+    // a 429 is a RateLimitException, which extends InvalidRequestException, and means stripe wants fewer calls
+    private static boolean isProviderFailure(StripeException e) {
+        if (e instanceof RateLimitException) {
+            return true;
         }
+        return !(e instanceof CardException) && !(e instanceof InvalidRequestException);
     }
 }
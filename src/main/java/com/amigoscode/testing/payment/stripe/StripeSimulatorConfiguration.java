@@ -0,0 +1,41 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.routing.LatencyDistribution;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.util.Random;
+
+/*
+* Answers the calls of StripeService with SimulatedStripeApi instead of stripe, together with stripe.enabled=true
+*   stripe.simulator.latency               e.g. fixed:20, normal:50,10 or lognormal:50,400
+*   stripe.simulator.decline-rate          share of cards declined, default 0
+*   stripe.simulator.errors                share of calls failing per error type, e.g. api_connection_error:0.01
+*   stripe.simulator.max-concurrency       calls at once before 429s, 0 for no limit
+*   stripe.simulator.rate-limit-per-second calls a second before 429s, 0 for no limit
+*   stripe.simulator.seed                  fixes the random sequence for repeatable runs
+* */
+@Configuration
+@ConditionalOnProperty(
+    value = "stripe.simulator.enabled",
+    havingValue = "true"
+)
+public class StripeSimulatorConfiguration {
+
+    @Bean
+    @Primary
+    public SimulatedStripeApi simulatedStripeApi(
+        @Value("${stripe.simulator.latency:fixed:0}") String latency,
+        @Value("${stripe.simulator.decline-rate:0}") double declineRate,
+        @Value("${stripe.simulator.errors:}") String errors,
+        @Value("${stripe.simulator.max-concurrency:0}") int maxConcurrency,
+        @Value("${stripe.simulator.rate-limit-per-second:0}") double rateLimitPerSecond,
+        @Value("${stripe.simulator.seed:#{T(System).nanoTime()}}") long seed) {
+        return new SimulatedStripeApi(LatencyDistribution.parse(latency), declineRate,
+            SimulatedStripeApi.parseErrorRates(errors), maxConcurrency, rateLimitPerSecond, new Random(seed),
+            System::nanoTime);
+    }
+}
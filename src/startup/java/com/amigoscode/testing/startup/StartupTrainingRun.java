@@ -0,0 +1,110 @@
+package com.amigoscode.testing.startup;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+* The run the fast-startup maven profile records its AppCDS archive from. It starts the thin jar in a jvm of its
+* own with -XX:ArchiveClassesAtExit, registers a customer and makes a payment against it, so the classes of the
+* first request end up in the archive too, and stops it. The jvm writes the archive as it exits.
+*   args: the thin jar, the archive to write
+* The application stores what is sent, it runs on its in-memory database and a journal of its own
+* */
+public final class StartupTrainingRun {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    private StartupTrainingRun() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: StartupTrainingRun <thin jar> <archive>");
+        }
+        Path jar = Paths.get(args[0]);
+        Path archive = Paths.get(args[1]);
+        Path directory = archive.toAbsolutePath().getParent();
+        Path log = directory.resolve("training-run.log");
+        Files.deleteIfExists(archive);
+
+        int port = freePort();
+        Process process = new ProcessBuilder(List.of(
+            Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+            "-XX:ArchiveClassesAtExit=" + archive,
+            // one warning per class that cannot be archived, e.g. generated proxies
+            "-Xlog:cds=error",
+            "-Dserver.port=" + port,
+            "-Dpayment.journal.directory=" + Files.createTempDirectory(directory, "training-run-journal"),
+            "-jar",
+            jar.toString()))
+            .redirectErrorStream(true)
+            .redirectOutput(log.toFile())
+            .start();
+        try {
+            HttpClient httpClient = HttpClient.newHttpClient();
+            UUID customerId = UUID.randomUUID();
+            awaitOk(httpClient, process, port, "/api/v1/customer-registration", "{\"customer\":{\"id\":\""
+                + customerId + "\",\"name\":\"Training run\",\"phoneNumber\":\"+440000000000\"}}");
+            awaitOk(httpClient, process, port, "/api/v1/payment", "{\"payment\":{\"customerId\":\"" + customerId
+                + "\",\"amount\":1.00,\"currency\":\"USD\",\"source\":\"training-run\","
+                + "\"description\":\"Training run\"}}");
+        } finally {
+            // a graceful stop, the archive is dumped on the way out
+            process.destroy();
+            if (!process.waitFor(1, TimeUnit.MINUTES)) {
+                process.destroyForcibly().waitFor();
+            }
+        }
+        if (!Files.exists(archive)) {
+            throw new IllegalStateException(String.format("Training run wrote no archive to [%s], see [%s]",
+                archive, log));
+        }
+        System.out.printf("Recorded %s, training run log in %s%n", archive, log);
+    }
+
+    // a refused connection means the server is not listening yet
+    private static void awaitOk(HttpClient httpClient, Process process, int port, String path, String body)
+        throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+            .header("Content-Type", "application/json")
+            .PUT(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (true) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Application exited with " + process.exitValue());
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new IllegalStateException(path + " did not answer 200 in time");
+            }
+            try {
+                int status = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                if (status == 200) {
+                    return;
+                }
+                // the server is up, anything but a 200 will not change by asking again
+                throw new IllegalStateException(String.format("%s answered [%s]", path, status));
+            } catch (ConnectException e) {
+                // not up yet
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.amigoscode.testing.customer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+
+class CustomerExistenceCacheTest {
+
+    @Mock
+    private CustomerRepository customerRepository;
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private CustomerExistenceCache customerExistenceCache;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        customerExistenceCache = new CustomerExistenceCache(customerRepository, 2, 1000, nanoTime::get);
+    }
+
+    @Test
+    void itShouldQueryRepositoryOnlyOnFirstLookup() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(true);
+
+        // When
+        boolean first = customerExistenceCache.exists(customerId);
+        boolean second = customerExistenceCache.exists(customerId);
+
+        // Then
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+        then(customerRepository).should(times(1)).existsById(customerId);
+        then(customerRepository).shouldHaveNoMoreInteractions(); // entity is never loaded
+        assertThat(customerExistenceCache.getMissCount()).isEqualTo(1);
+        assertThat(customerExistenceCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldExpireUnknownCustomerAfterTtl() {
+        // Given an unknown customer
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(false);
+        assertThat(customerExistenceCache.exists(customerId)).isFalse();
+
+        // When the customer registers on another node and the ttl passes
+        given(customerRepository.existsById(customerId)).willReturn(true);
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+
+        // Then
+        assertThat(customerExistenceCache.exists(customerId)).isTrue();
+        then(customerRepository).should(times(2)).existsById(customerId);
+    }
+
+    @Test
+    void itShouldLookupAgainAfterInvalidation() {
+        // Given an unknown customer
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(false);
+        assertThat(customerExistenceCache.exists(customerId)).isFalse();
+
+        // When the customer registers on this node
+        given(customerRepository.existsById(customerId)).willReturn(true);
+        customerExistenceCache.invalidate(customerId);
+
+        // Then
+        assertThat(customerExistenceCache.exists(customerId)).isTrue();
+    }
+
+    @Test
+    void itShouldNotKeepUnknownCustomerLoadedWhileItWasInvalidated() {
+        // Given a lookup that read "not found" just before the customer was registered on this node
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willAnswer(invocation -> {
+            customerExistenceCache.invalidate(customerId);
+            return false;
+        });
+        assertThat(customerExistenceCache.exists(customerId)).isFalse();
+
+        // When
+        given(customerRepository.existsById(customerId)).willReturn(true);
+
+        // Then the stale "not found" was not cached behind the invalidation
+        assertThat(customerExistenceCache.exists(customerId)).isTrue();
+        then(customerRepository).should(times(2)).existsById(customerId);
+    }
+
+    @Test
+    void itShouldEvictOnceFull() {
+        // Given a cache of two entries
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+
+        // When
+        customerExistenceCache.markExisting(List.of(first, second, third));
+
+        // Then an older one made room for the last
+        assertThat(customerExistenceCache.size()).isEqualTo(2);
+        assertThat(customerExistenceCache.exists(third)).isTrue();
+        then(customerRepository).should(never()).existsById(any());
+
+        // ... and an evicted customer is looked up again
+        given(customerRepository.existsById(any())).willReturn(true);
+        assertThat(customerExistenceCache.exists(first)).isTrue();
+        assertThat(customerExistenceCache.exists(second)).isTrue();
+        assertThat(customerExistenceCache.size()).isEqualTo(2);
+    }
+}
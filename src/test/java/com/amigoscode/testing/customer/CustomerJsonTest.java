@@ -0,0 +1,60 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.json.JsonBindingModule;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CustomerJsonTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JsonBindingModule());
+
+    @Test
+    void itShouldRoundTripCustomerRegistrationRequest() throws Exception {
+        // Given
+        UUID id = UUID.randomUUID();
+        CustomerRegistrationRequest request = new CustomerRegistrationRequest(
+            new Customer(id, "Maryam", "+447000000000"));
+
+        // When
+        String json = objectMapper.writeValueAsString(request);
+        CustomerRegistrationRequest read = objectMapper.readValue(json, CustomerRegistrationRequest.class);
+
+        // Then
+        assertThat(json).isEqualTo(
+            "{\"customer\":{\"id\":\"" + id + "\",\"name\":\"Maryam\",\"phoneNumber\":\"+447000000000\"}}");
+        assertThat(read.getCustomer()).isEqualToComparingFieldByField(request.getCustomer());
+    }
+
+    @Test
+    void itShouldReadCustomerWithoutId() throws Exception {
+        // When
+        CustomerRegistrationRequest request = objectMapper.readValue(
+            "{\"customer\":{\"name\":\"Maryam\",\"phoneNumber\":\"+447000000000\"}}",
+            CustomerRegistrationRequest.class);
+
+        // Then
+        assertThat(request.getCustomer().getId()).isNull();
+        assertThat(request.getCustomer().getName()).isEqualTo("Maryam");
+        assertThat(request.getCustomer().getPhoneNumber()).isEqualTo("+447000000000");
+    }
+
+    @Test
+    void itShouldRejectObjectsAndArraysAsValues() {
+        assertThatThrownBy(() -> objectMapper.readValue(
+            "{\"customer\":{\"name\":{\"first\":\"Maryam\"},\"phoneNumber\":\"+447000000000\"}}",
+            CustomerRegistrationRequest.class))
+            .isInstanceOf(MismatchedInputException.class)
+            .hasMessageContaining("START_OBJECT");
+        assertThatThrownBy(() -> objectMapper.readValue(
+            "{\"customer\":{\"name\":\"Maryam\",\"phoneNumber\":[\"+447000000000\"]}}",
+            CustomerRegistrationRequest.class))
+            .isInstanceOf(MismatchedInputException.class)
+            .hasMessageContaining("START_ARRAY");
+    }
+}
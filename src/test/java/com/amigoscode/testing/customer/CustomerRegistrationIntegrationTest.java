@@ -0,0 +1,68 @@
+package com.amigoscode.testing.customer;
+
+import com.amigoscode.testing.json.JsonBindingModule;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class CustomerRegistrationIntegrationTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JsonBindingModule());
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private PhoneNumberIndex phoneNumberIndex;
+
+    @Test
+    void itShouldAnswerConflictWhenPhoneNumberIsTaken() throws Exception {
+        // Given a registered customer
+        register(new Customer(UUID.randomUUID(), "Maryam", "+447100000001")).andExpect(status().isOk());
+
+        // When another name registers the same number
+        ResultActions resultActions = register(new Customer(UUID.randomUUID(), "Alex", "+447100000001"));
+
+        // Then
+        resultActions.andExpect(status().isConflict())
+            .andExpect(result -> assertThat(result.getResolvedException())
+                .isInstanceOf(PhoneNumberTakenException.class));
+    }
+
+    @Test
+    void itShouldAnswerConflictWhileTheSameNameIsBeingRegistered() throws Exception {
+        // Given another registration of the same name holds the number and has not stored its customer yet
+        PhoneNumberIndex.Reservation first = phoneNumberIndex.reserve("+447100000002", "Nadia");
+
+        // When
+        ResultActions resultActions = register(new Customer(UUID.randomUUID(), "Nadia", "+447100000002"));
+
+        // Then the client is told to try again instead of getting a server error
+        resultActions.andExpect(status().isConflict())
+            .andExpect(result -> assertThat(result.getResolvedException())
+                .isInstanceOf(PhoneNumberPendingException.class));
+
+        // ... and the retry goes through once the other registration rolled back
+        phoneNumberIndex.release(first);
+        register(new Customer(UUID.randomUUID(), "Nadia", "+447100000002")).andExpect(status().isOk());
+    }
+
+    private ResultActions register(Customer customer) throws Exception {
+        return mockMvc.perform(MockMvcRequestBuilders
+            .put("/api/v1/customer-registration")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(new CustomerRegistrationRequest(customer))));
+    }
+}
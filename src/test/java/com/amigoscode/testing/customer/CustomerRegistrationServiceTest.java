@@ -6,6 +6,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
 
 import java.util.Optional;
 import java.util.UUID;
@@ -22,9 +23,14 @@ class CustomerRegistrationServiceTest {
     @Mock // mock the repo
     private CustomerRepository customerRepository;
 
+    @Mock
+    private CustomerExistenceCache customerExistenceCache;
+
     @Captor
     private ArgumentCaptor<Customer> customerArgumentCaptor;
 
+    private PhoneNumberIndex phoneNumberIndex;
+
     private CustomerRegistrationService customerRegistrationService;
 
     @BeforeEach
@@ -32,7 +38,9 @@ class CustomerRegistrationServiceTest {
         // initialize all the mocks in this class
         MockitoAnnotations.initMocks(this);
         // before each test have a fresh new instance CustomerRegistrationService
-        customerRegistrationService = new CustomerRegistrationService(customerRepository);
+        phoneNumberIndex = new PhoneNumberIndex(customerRepository, 100);
+        customerRegistrationService = new CustomerRegistrationService(customerRepository, customerExistenceCache,
+            phoneNumberIndex);
     }
 
     @Test
@@ -53,6 +61,7 @@ class CustomerRegistrationServiceTest {
         then(customerRepository).should().save(customerArgumentCaptor.capture()); // capture the customer argument being saved in the service
         Customer customerArgumentCaptorValue = customerArgumentCaptor.getValue(); // extract the customer object
         assertThat(customerArgumentCaptorValue).isEqualToComparingFieldByField(customer); // compare with expected result;
+        then(customerExistenceCache).should().invalidate(customer.getId()); // payments for the new customer are not rejected from cache
     }
 
     @Test
@@ -84,9 +93,8 @@ class CustomerRegistrationServiceTest {
         Customer customer = new Customer(id, "Maryam", phoneNumber);
         CustomerRegistrationRequest registrationRequest = new CustomerRegistrationRequest(customer);
 
-        // Test if customer already exists
-        given(customerRepository.selectCustomerByPhoneNumber(phoneNumber))
-            .willReturn(Optional.of(customer));
+        // Test if customer already exists - the phone number index already holds the number
+        phoneNumberIndex.register(phoneNumber, customer.getName());
 
         // When
         customerRegistrationService.registerNewCustomer(registrationRequest);
@@ -94,8 +102,7 @@ class CustomerRegistrationServiceTest {
         // Then
         then(customerRepository).should(never()).save(any()); // if we have an existing customer then repo should not save
         // .. OR test if repo wont have any interactions
-        then(customerRepository).should().selectCustomerByPhoneNumber(phoneNumber); // mock had first interaction by checking the phone number
-        then(customerRepository).shouldHaveNoMoreInteractions(); // but wont have anymore since customer exists
+        then(customerRepository).shouldHaveNoInteractions(); // the index answered so the repo is not even queried
     }
 
     @Test
@@ -109,15 +116,85 @@ class CustomerRegistrationServiceTest {
         Customer customer2 = new Customer(UUID.randomUUID(), "Alex", phoneNumber);
 
         // Test if customer already exists
-        given(customerRepository.selectCustomerByPhoneNumber(phoneNumber))
-            .willReturn(Optional.of(customer2));
+        phoneNumberIndex.register(phoneNumber, customer2.getName());
 
         // When
         assertThatThrownBy(() -> customerRegistrationService.registerNewCustomer(registrationRequest))
-            .isInstanceOf(IllegalStateException.class)
+            .isInstanceOf(PhoneNumberTakenException.class)
             .hasMessageContaining(String.format("phone number [%s] is taken", phoneNumber));
 
         // Finally
         then(customerRepository).should(never()).save(any(Customer.class)); // repo should not be saving anything
     }
+
+    @Test
+    void itShouldThrowPhoneNumberTakenWhenUniqueConstraintIsViolated() {
+        // Given a number registered on another node, so it is missing from the local index
+        String phoneNumber = "000099";
+        Customer customer = new Customer(UUID.randomUUID(), "Maryam", phoneNumber);
+        CustomerRegistrationRequest registrationRequest = new CustomerRegistrationRequest(customer);
+
+        DataIntegrityViolationException constraintViolation = new DataIntegrityViolationException("unique constraint");
+        given(customerRepository.save(customer)).willThrow(constraintViolation);
+        given(customerRepository.selectCustomerByPhoneNumber(phoneNumber))
+            .willReturn(Optional.of(new Customer(UUID.randomUUID(), "Alex", phoneNumber)));
+
+        // When
+        // Then the violation maps to the same outcome as a number found in the index
+        assertThatThrownBy(() -> customerRegistrationService.registerNewCustomer(registrationRequest))
+            .isInstanceOf(PhoneNumberTakenException.class)
+            .hasMessageContaining(String.format("phone number [%s] is taken", phoneNumber))
+            .hasCause(constraintViolation);
+
+        // ... and the index now knows the real owner
+        assertThat(phoneNumberIndex.reserve(phoneNumber, "Maryam").getOwnerName()).isEqualTo("Alex");
+    }
+
+    @Test
+    void itShouldReleasePhoneNumberWhenSaveFails() {
+        // Given
+        String phoneNumber = "000099";
+        Customer customer = new Customer(UUID.randomUUID(), "Maryam", phoneNumber);
+        given(customerRepository.save(customer)).willThrow(new IllegalArgumentException("database is down"));
+
+        // When
+        assertThatThrownBy(() -> customerRegistrationService.registerNewCustomer(new CustomerRegistrationRequest(customer)))
+            .isInstanceOf(IllegalArgumentException.class);
+
+        // Then the number can be registered again
+        assertThat(phoneNumberIndex.reserve(phoneNumber, "Maryam").isGranted()).isTrue();
+    }
+
+    @Test
+    void itShouldNotReportSameNameRegistrationAsDoneWhileTheFirstIsNotStored() {
+        // Given another request for the same name holds the number and has not stored its customer yet
+        String phoneNumber = "000099";
+        PhoneNumberIndex.Reservation first = phoneNumberIndex.reserve(phoneNumber, "Maryam");
+        Customer customer = new Customer(UUID.randomUUID(), "Maryam", phoneNumber);
+
+        // When
+        assertThatThrownBy(() -> customerRegistrationService.registerNewCustomer(new CustomerRegistrationRequest(customer)))
+            .isInstanceOf(PhoneNumberPendingException.class)
+            .hasMessageContaining(String.format("phone number [%s] is being registered", phoneNumber));
+
+        // Then once the first rolls back the second goes through
+        phoneNumberIndex.release(first);
+        customerRegistrationService.registerNewCustomer(new CustomerRegistrationRequest(customer));
+        then(customerRepository).should().save(customer);
+    }
+
+    @Test
+    void itShouldTreatSameNameAsRegisteredOnceTheFirstIsStored() {
+        // Given
+        String phoneNumber = "000099";
+        Customer customer = new Customer(UUID.randomUUID(), "Maryam", phoneNumber);
+        customerRegistrationService.registerNewCustomer(new CustomerRegistrationRequest(customer));
+
+        // When
+        customerRegistrationService.registerNewCustomer(
+            new CustomerRegistrationRequest(new Customer(UUID.randomUUID(), "Maryam", phoneNumber)));
+
+        // Then
+        then(customerRepository).should().save(any(Customer.class));
+    }
 }
@@ -1,11 +1,16 @@
 package com.amigoscode.testing.customer;
 
+import com.amigoscode.testing.payment.shard.PaymentShards;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -16,6 +21,7 @@ import static org.assertj.core.api.Assertions.assertThatThrownBy;
         "spring.jpa.properties.javax.persistence.validation.mode=none" // will trigger jpa annotations (@Column(nullable = false) when unit testing
     }
 )
+@Import(PaymentShards.class) // the payment repository fragment checks the shard of every payment
 class CustomerRepositoryTest {
 
     @Autowired
@@ -98,4 +104,40 @@ class CustomerRepositoryTest {
             .isInstanceOf(DataIntegrityViolationException.class);
 
     }
+
+    @Test
+    void itShouldSelectOnlyExistingCustomerIds() {
+        // Given
+        UUID existingId = UUID.randomUUID();
+        UUID unknownId = UUID.randomUUID();
+        customerRepository.save(new Customer(existingId, "Abel", "404-291-3891"));
+
+        // When
+        Set<UUID> existingIds = customerRepository.selectExistingCustomerIds(List.of(existingId, unknownId));
+
+        // Then
+        assertThat(existingIds).containsExactly(existingId);
+    }
+
+    @Test
+    void itShouldSelectPhoneNumberOwnersPageByPage() {
+        // Given
+        customerRepository.save(new Customer(UUID.randomUUID(), "Abel", "404-291-3891"));
+        customerRepository.save(new Customer(UUID.randomUUID(), "Bea", "404-291-3890"));
+        customerRepository.save(new Customer(UUID.randomUUID(), "Cy", "404-291-3892"));
+
+        // When
+        List<PhoneNumberOwner> first = customerRepository.selectPhoneNumberOwnersAfter("", PageRequest.of(0, 2));
+        List<PhoneNumberOwner> second = customerRepository.selectPhoneNumberOwnersAfter(
+            first.get(first.size() - 1).getPhoneNumber(), PageRequest.of(0, 2));
+
+        // Then in phone number order, each page after the last number of the one before
+        assertThat(first).extracting(PhoneNumberOwner::getPhoneNumber).containsExactly("404-291-3890", "404-291-3891");
+        assertThat(second).hasSize(1);
+        assertThat(second.get(0))
+            .satisfies(owner -> {
+                assertThat(owner.getPhoneNumber()).isEqualTo("404-291-3892");
+                assertThat(owner.getName()).isEqualTo("Cy");
+            });
+    }
 }
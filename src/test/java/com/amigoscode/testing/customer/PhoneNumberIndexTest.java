@@ -0,0 +1,147 @@
+package com.amigoscode.testing.customer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.data.domain.Pageable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+
+class PhoneNumberIndexTest {
+
+    @Mock
+    private CustomerRepository customerRepository;
+
+    private PhoneNumberIndex phoneNumberIndex;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        phoneNumberIndex = new PhoneNumberIndex(customerRepository, 2500);
+    }
+
+    @Test
+    void itShouldWarmIndexFromRepository() {
+        // Given
+        PhoneNumberOwner owner = owner("000099", "Maryam");
+        given(customerRepository.selectPhoneNumberOwnersAfter(eq(""), any())).willReturn(List.of(owner));
+
+        // When
+        phoneNumberIndex.warm();
+
+        // Then
+        PhoneNumberIndex.Reservation reservation = phoneNumberIndex.reserve("000099", "Alex");
+        assertThat(reservation.isGranted()).isFalse();
+        assertThat(reservation.getOwnerName()).isEqualTo("Maryam");
+        assertThat(reservation.isPending()).isFalse();
+    }
+
+    @Test
+    void itShouldWarmPageByPageUpToTheLimit() {
+        // Given more customers than the limit
+        given(customerRepository.selectPhoneNumberOwnersAfter(anyString(), any())).willAnswer(invocation -> {
+            String after = invocation.getArgument(0);
+            Pageable page = invocation.getArgument(1);
+            int from = after.isEmpty() ? 0 : Integer.parseInt(after) + 1;
+            List<PhoneNumberOwner> owners = new ArrayList<>();
+            for (int i = from; i < from + page.getPageSize(); i++) {
+                owners.add(owner(String.format("%06d", i), "name" + i));
+            }
+            return owners;
+        });
+
+        // When
+        phoneNumberIndex.warm();
+
+        // Then
+        assertThat(phoneNumberIndex.size()).isEqualTo(2500);
+        ArgumentCaptor<Pageable> pages = ArgumentCaptor.forClass(Pageable.class);
+        then(customerRepository).should(times(3)).selectPhoneNumberOwnersAfter(anyString(), pages.capture());
+        assertThat(pages.getAllValues()).extracting(Pageable::getPageSize).containsExactly(1000, 1000, 500);
+    }
+
+    @Test
+    void itShouldLetOnlyOneConcurrentRegistrationReserveNumber() throws Exception {
+        // Given
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> reservations = new ArrayList<>();
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            String name = "name" + i;
+            reservations.add(executor.submit(() -> phoneNumberIndex.reserve("000099", name).getOwnerName()));
+        }
+
+        // Then exactly one reservation found the number free, all of them see its name
+        Set<String> owners = new HashSet<>();
+        for (Future<String> reservation : reservations) {
+            owners.add(reservation.get());
+        }
+        assertThat(owners).hasSize(1);
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void itShouldOnlyReleaseOwnReservation() {
+        // Given two requests for the same name, the first holds the number
+        PhoneNumberIndex.Reservation first = phoneNumberIndex.reserve("000099", "Maryam");
+        PhoneNumberIndex.Reservation second = phoneNumberIndex.reserve("000099", "Maryam");
+
+        // When the second rolls back
+        phoneNumberIndex.release(second);
+
+        // Then the first still holds the number, pending until its customer is stored
+        assertThat(first.isGranted()).isTrue();
+        assertThat(second.isGranted()).isFalse();
+        assertThat(second.isPending()).isTrue();
+        assertThat(phoneNumberIndex.reserve("000099", "Alex").getOwnerName()).isEqualTo("Maryam");
+        phoneNumberIndex.confirm(first);
+        assertThat(phoneNumberIndex.reserve("000099", "Maryam").isPending()).isFalse();
+    }
+
+    @Test
+    void itShouldOnlyHoldReservationsInFlightOnceFull() {
+        // Given an index full of registered numbers
+        PhoneNumberIndex index = new PhoneNumberIndex(customerRepository, 2);
+        index.confirm(index.reserve("000001", "Maryam"));
+        index.confirm(index.reserve("000002", "Alex"));
+
+        // When another number is reserved
+        PhoneNumberIndex.Reservation reservation = index.reserve("000003", "Nadia");
+
+        // Then it holds the number until its customer is stored, the unique constraint guards it from there
+        assertThat(reservation.isGranted()).isTrue();
+        assertThat(index.reserve("000003", "Omar").getOwnerName()).isEqualTo("Nadia");
+        index.confirm(reservation);
+        assertThat(index.size()).isEqualTo(2);
+        index.register("000004", "Omar");
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.reserve("000001", "Omar").getOwnerName()).isEqualTo("Maryam");
+    }
+
+    private static PhoneNumberOwner owner(String phoneNumber, String name) {
+        PhoneNumberOwner owner = mock(PhoneNumberOwner.class);
+        given(owner.getPhoneNumber()).willReturn(phoneNumber);
+        given(owner.getName()).willReturn(name);
+        return owner;
+    }
+}
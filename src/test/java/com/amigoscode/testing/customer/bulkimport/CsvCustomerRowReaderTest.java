@@ -0,0 +1,60 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvCustomerRowReaderTest {
+
+    @Test
+    void itShouldSplitQuotedFields() {
+        assertThat(CsvCustomerRowReader.split("a,b,,c")).containsExactly("a", "b", "", "c");
+        assertThat(CsvCustomerRowReader.split("\"Doe, Jane\",+447000000000"))
+            .containsExactly("Doe, Jane", "+447000000000");
+        assertThat(CsvCustomerRowReader.split("\"say \"\"hi\"\"\",1")).containsExactly("say \"hi\"", "1");
+        // a field cannot continue on the next line
+        assertThat(CsvCustomerRowReader.split("\"Doe, Jane,1")).isNull();
+    }
+
+    @Test
+    void itShouldReadColumnsInTheOrderOfTheHeader() throws Exception {
+        // Given
+        UUID id = UUID.randomUUID();
+        String csv = "phoneNumber,id,NAME\n"
+            + "+447000000000," + id + ",Maryam\n"
+            + "\n"
+            + "+447000000001,,Ali\n"
+            + "+447000000002\n";
+
+        // When
+        try (CsvCustomerRowReader reader = new CsvCustomerRowReader(new BufferedReader(new StringReader(csv)))) {
+            CustomerRow first = reader.next();
+            CustomerRow second = reader.next();
+            CustomerRow third = reader.next();
+
+            // Then
+            assertThat(first.getRow()).isEqualTo(1);
+            assertThat(first.getCustomer().getId()).isEqualTo(id);
+            assertThat(first.getCustomer().getName()).isEqualTo("Maryam");
+            assertThat(first.isIdUploaded()).isTrue();
+            // blank lines are not rows
+            assertThat(second.getRow()).isEqualTo(2);
+            assertThat(second.getCustomer().getId()).isNull();
+            assertThat(second.getCustomer().getPhoneNumber()).isEqualTo("+447000000001");
+            assertThat(third.getError()).isEqualTo("Row has [1] fields, the header needs [3]");
+            assertThat(reader.next()).isNull();
+        }
+    }
+
+    @Test
+    void itShouldRejectAHeaderWithoutPhoneNumber() {
+        assertThatThrownBy(() -> new CsvCustomerRowReader(new BufferedReader(new StringReader("name,id\n"))))
+            .isInstanceOf(InvalidUploadException.class)
+            .hasMessageContaining("no [phoneNumber] column");
+    }
+}
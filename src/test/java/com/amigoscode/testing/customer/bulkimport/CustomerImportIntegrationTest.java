@@ -0,0 +1,154 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.customer.CustomerRegistrationService;
+import com.amigoscode.testing.customer.CustomerRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// two rows per chunk on two workers, so the rows of one upload are spread over several chunks
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:customer-import",
+    "customer.import.chunk-size=2",
+    "customer.import.parallelism=2"
+})
+@AutoConfigureMockMvc
+public class CustomerImportIntegrationTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private CustomerRepository customerRepository;
+    @Autowired
+    private CustomerRegistrationService customerRegistrationService;
+
+    @Test
+    void itShouldImportCsvAndReportEveryRow() throws Exception {
+        // Given a customer stored by another node, the phone number index of this one does not know it
+        UUID otherNodeCustomerId = UUID.randomUUID();
+        customerRepository.save(new Customer(otherNodeCustomerId, "Ali", "+447900000001"));
+        // ... and a customer registered on this node
+        customerRegistrationService.registerNewCustomer(new CustomerRegistrationRequest(
+            new Customer(null, "Ahmed", "+447900000002")));
+        UUID uploadedId = UUID.randomUUID();
+        String csv = "name,phoneNumber,id\n"
+            + "\"Doe, Jane\",+447900000010,\n"
+            + "Ali,+447900000001,\n"
+            + "Bob,+447900000002,\n"
+            + "Carl,+447900000010,\n"
+            + ",+447900000011,\n"
+            + "Dan,+447900000012," + otherNodeCustomerId + "\n"
+            + "Eve,+447900000013,not-a-uuid\n"
+            + "Fay,+447900000014," + uploadedId + "\n";
+
+        // When
+        List<JsonNode> report = upload(CustomerImportController.TEXT_CSV, csv);
+
+        // Then
+        assertThat(report).extracting(result -> result.get("row").asLong())
+            .containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L);
+        assertThat(report).extracting(result -> result.get("status").asText()).containsExactly(
+            "REGISTERED", "ALREADY_REGISTERED", "PHONE_NUMBER_TAKEN", "DUPLICATE_IN_IMPORT",
+            "INVALID", "CUSTOMER_ID_TAKEN", "INVALID", "REGISTERED");
+        assertThat(report.get(3).get("message").asText()).contains("is on row [1] already");
+        assertThat(report.get(7).get("customerId").asText()).isEqualTo(uploadedId.toString());
+
+        assertThat(customerRepository.selectCustomerByPhoneNumber("+447900000010"))
+            .hasValueSatisfying(c -> assertThat(c.getName()).isEqualTo("Doe, Jane"));
+        assertThat(customerRepository.findById(uploadedId))
+            .hasValueSatisfying(c -> assertThat(c.getPhoneNumber()).isEqualTo("+447900000014"));
+        assertThat(customerRepository.selectCustomerByPhoneNumber("+447900000012")).isEmpty();
+    }
+
+    @Test
+    void itShouldRejectOnlyTheRowsRepeatingAnUploadedId() throws Exception {
+        // Given an id on rows of the same chunk and of a later chunk
+        UUID repeatedId = UUID.randomUUID();
+        String csv = "name,phoneNumber,id\n"
+            + "Gus,+447900000030," + repeatedId + "\n"
+            + "Hana,+447900000031," + repeatedId + "\n"
+            + "Ivy,+447900000032,\n"
+            + "Jon,+447900000033," + repeatedId + "\n";
+
+        // When
+        List<JsonNode> report = upload(CustomerImportController.TEXT_CSV, csv);
+
+        // Then the rest of both chunks is stored
+        assertThat(report).extracting(result -> result.get("status").asText()).containsExactly(
+            "REGISTERED", "DUPLICATE_IN_IMPORT", "REGISTERED", "DUPLICATE_IN_IMPORT");
+        assertThat(report.get(1).get("message").asText()).contains("is on row [1] already");
+        assertThat(report.get(3).get("message").asText()).contains("is on row [1] already");
+        assertThat(customerRepository.findById(repeatedId))
+            .hasValueSatisfying(c -> assertThat(c.getName()).isEqualTo("Gus"));
+        assertThat(customerRepository.selectCustomerByPhoneNumber("+447900000032")).isPresent();
+        assertThat(customerRepository.selectCustomerByPhoneNumber("+447900000031")).isEmpty();
+    }
+
+    @Test
+    void itShouldImportNdjson() throws Exception {
+        // Given
+        String ndjson = "{\"name\":\"Maryam\",\"phoneNumber\":\"+447900000020\"}\n"
+            + "{\"name\":\"Maryam\",\"phoneNumber\":\n"
+            + "{\"name\":\"Omar\",\"phoneNumber\":\"+447900000021\"}\n";
+
+        // When
+        List<JsonNode> report = upload(CustomerImportController.APPLICATION_NDJSON, ndjson);
+
+        // Then
+        assertThat(report).extracting(result -> result.get("status").asText())
+            .containsExactly("REGISTERED", "INVALID", "REGISTERED");
+        UUID omarId = UUID.fromString(report.get(2).get("customerId").asText());
+        assertThat(customerRepository.findById(omarId))
+            .hasValueSatisfying(c -> assertThat(c.getName()).isEqualTo("Omar"));
+
+        // ... and importing it again changes nothing
+        assertThat(upload(CustomerImportController.APPLICATION_NDJSON, ndjson))
+            .extracting(result -> result.get("status").asText())
+            .containsExactly("ALREADY_REGISTERED", "INVALID", "ALREADY_REGISTERED");
+    }
+
+    @Test
+    void itShouldRejectCsvWithoutPhoneNumberColumn() throws Exception {
+        mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/customer-registration/import")
+            .contentType(CustomerImportController.TEXT_CSV)
+            .content("name\nMaryam\n"))
+            .andExpect(status().isBadRequest());
+    }
+
+    private List<JsonNode> upload(String contentType, String body) throws Exception {
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.post("/api/v1/customer-registration/import")
+            .contentType(contentType)
+            .content(body))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        String report = mockMvc.perform(asyncDispatch(mvcResult))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(CustomerImportController.APPLICATION_NDJSON))
+            .andReturn().getResponse().getContentAsString();
+        List<JsonNode> results = new ArrayList<>();
+        for (String line : report.split("\n")) {
+            results.add(objectMapper.readTree(line));
+        }
+        return results;
+    }
+}
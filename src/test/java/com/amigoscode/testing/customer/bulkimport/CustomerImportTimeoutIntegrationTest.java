@@ -0,0 +1,111 @@
+package com.amigoscode.testing.customer.bulkimport;
+
+import com.amigoscode.testing.customer.CustomerRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+* An upload that arrives slower than the mvc async timeout, on a real server since the mock one never times out
+* */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = {
+        "spring.datasource.url=jdbc:h2:mem:customer-import-timeout",
+        "spring.mvc.async.request-timeout=300",
+        "customer.import.timeout-ms=60000",
+        "customer.import.chunk-size=1"
+    })
+public class CustomerImportTimeoutIntegrationTest {
+
+    private static final int ROWS = 10;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private CustomerRepository customerRepository;
+
+    @Test
+    void itShouldImportAnUploadThatTakesLongerThanTheAsyncTimeout() throws Exception {
+        // Given an upload sending a row every 300ms, ten times the async timeout in all
+        HttpRequest request = HttpRequest.newBuilder(
+            URI.create("http://localhost:" + port + "/api/v1/customer-registration/import"))
+            .header("Content-Type", CustomerImportController.TEXT_CSV)
+            .timeout(Duration.ofSeconds(30))
+            .POST(HttpRequest.BodyPublishers.ofInputStream(SlowUpload::new))
+            .build();
+
+        // When
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+
+        // Then every row is imported and reported
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body().split("\n")).hasSize(ROWS)
+            .allSatisfy(result -> assertThat(result).contains("\"status\":\"REGISTERED\""));
+        for (int i = 0; i < ROWS; i++) {
+            assertThat(customerRepository.selectCustomerByPhoneNumber("+4479000005" + i)).isPresent();
+        }
+    }
+
+    // the header at once, then one row at a time with a pause before each
+    private static final class SlowUpload extends InputStream {
+
+        private int line;
+        private byte[] current = "name,phoneNumber\n".getBytes(StandardCharsets.UTF_8);
+        private int position;
+
+        @Override
+        public int read() {
+            if (position == current.length) {
+                if (line == ROWS) {
+                    return -1;
+                }
+                pause();
+                current = String.format("Customer%s,+4479000005%s\n", line, line).getBytes(StandardCharsets.UTF_8);
+                position = 0;
+                line++;
+            }
+            return current[position++];
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            int first = read();
+            if (first == -1) {
+                return -1;
+            }
+            b[off] = (byte) first;
+            // hand over the rest of the line only, so every row goes out on its own
+            int n = Math.min(len - 1, current.length - position);
+            System.arraycopy(current, position, b, off + 1, n);
+            position += n;
+            return n + 1;
+        }
+
+        private static void pause() {
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UncheckedIOException(new IOException("Upload interrupted", e));
+            }
+        }
+    }
+}
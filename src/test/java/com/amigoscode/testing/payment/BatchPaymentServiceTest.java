@@ -0,0 +1,340 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.customer.CustomerExistenceCache;
+import com.amigoscode.testing.customer.CustomerRepository;
+import com.amigoscode.testing.payment.idempotency.IdempotencyRecordRepository;
+import com.amigoscode.testing.payment.idempotency.IdempotencyStore;
+import com.amigoscode.testing.payment.idempotency.InvalidIdempotencyKeyException;
+import com.amigoscode.testing.payment.journal.PaymentJournal;
+import com.amigoscode.testing.payment.ratelimit.InMemoryTokenBucketStore;
+import com.amigoscode.testing.payment.ratelimit.PaymentRateLimiter;
+import com.amigoscode.testing.payment.ratelimit.RateLimit;
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+
+public class BatchPaymentServiceTest {
+
+    @Mock
+    private CustomerRepository customerRepository;
+    @Mock
+    private CustomerExistenceCache customerExistenceCache;
+    @Mock
+    private PaymentRepository paymentRepository;
+    @Mock
+    private PaymentJournal paymentJournal;
+    @Mock
+    private CardPaymentCharger cardPaymentCharger;
+    @Mock
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    private BatchPaymentService batchPaymentService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        batchPaymentService = new BatchPaymentService(customerRepository, customerExistenceCache, paymentRepository,
+            new PaymentShards(1), paymentJournal, cardPaymentCharger, rateLimiter(false),
+            new IdempotencyStore(idempotencyRecordRepository, 100, 60), 4, 10, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        batchPaymentService.shutdown();
+    }
+
+    @Test
+    void itShouldChargeBatchAndReturnResultPerPayment() {
+        // Given
+        UUID existingCustomerId = UUID.randomUUID();
+        UUID unknownCustomerId = UUID.randomUUID();
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(existingCustomerId));
+
+        Payment charged = new Payment(null, existingCustomerId, Money.parse("10.00", Currency.USD), "card-ok", "Donation");
+        Payment declined = new Payment(null, existingCustomerId, Money.parse("20.00", Currency.GBP), "card-declined", "Donation");
+        Payment euros = new Payment(null, existingCustomerId, Money.parse("30.00", Currency.EUR), "card-ok", "Donation");
+        Payment unknownCustomer = new Payment(null, unknownCustomerId, Money.parse("40.00", Currency.USD), "card-ok", "Donation");
+
+        given(cardPaymentCharger.chargeCard(eq("card-ok"), any(), any(), any(), any())).willReturn(new CardPaymentCharge(true));
+        given(cardPaymentCharger.chargeCard(eq("card-declined"), any(), any(), any(), any())).willReturn(new CardPaymentCharge(false));
+
+        // When
+        List<PaymentResult> results = batchPaymentService.chargeCards(List.of(
+            new PaymentRequest(charged),
+            new PaymentRequest(declined),
+            new PaymentRequest(euros),
+            new PaymentRequest(unknownCustomer)
+        ));
+
+        // Then each payment has its own outcome in request order
+        assertThat(results).extracting(PaymentResult::getStatus).containsExactly(
+            PaymentResult.Status.CHARGED,
+            PaymentResult.Status.CARD_NOT_DEBITED,
+            PaymentResult.Status.CURRENCY_NOT_SUPPORTED,
+            PaymentResult.Status.CUSTOMER_NOT_FOUND
+        );
+
+        // ... customers are validated in a single query
+        then(customerRepository).should().selectExistingCustomerIds(anyCollection());
+        then(customerRepository).shouldHaveNoMoreInteractions();
+        then(customerExistenceCache).should().markExisting(Set.of(existingCustomerId));
+
+        // ... only the debited payment is saved
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Payment>> paymentsArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        then(paymentRepository).should().saveAllInBatches(paymentsArgumentCaptor.capture());
+        assertThat(paymentsArgumentCaptor.getValue()).containsExactly(charged);
+    }
+
+    @Test
+    void itShouldNotFailBatchWhenChargerThrows() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(customerId));
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any(), any()))
+            .willThrow(new IllegalStateException("Cannot make stripe charge"));
+
+        Payment payment = new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card123", "Donation");
+
+        // When
+        List<PaymentResult> results = batchPaymentService.chargeCards(List.of(new PaymentRequest(payment)));
+
+        // Then
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).getStatus()).isEqualTo(PaymentResult.Status.FAILED);
+        assertThat(results.get(0).getMessage()).contains("Cannot make stripe charge");
+        then(paymentRepository).should(never()).saveAllInBatches(anyList());
+    }
+
+    @Test
+    void itShouldSaveDebitedPaymentsInChunks() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(customerId));
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any(), any())).willReturn(new CardPaymentCharge(true));
+        List<Payment> payments = List.of(
+            new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card123", "Donation"),
+            new Payment(null, customerId, Money.parse("20.00", Currency.USD), "card123", "Donation"),
+            new Payment(null, customerId, Money.parse("30.00", Currency.USD), "card123", "Donation"));
+
+        // When
+        List<PaymentResult> results = batchPaymentService.chargeCards(List.of(
+            new PaymentRequest(payments.get(0)),
+            new PaymentRequest(payments.get(1)),
+            new PaymentRequest(payments.get(2))));
+
+        // Then the payments are saved two at a time, in request order
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Payment>> paymentsArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        then(paymentRepository).should(times(2)).saveAllInBatches(paymentsArgumentCaptor.capture());
+        assertThat(paymentsArgumentCaptor.getAllValues().get(0)).containsExactly(payments.get(0), payments.get(1));
+        assertThat(paymentsArgumentCaptor.getAllValues().get(1)).containsExactly(payments.get(2));
+        assertThat(results).extracting(PaymentResult::getStatus).containsOnly(PaymentResult.Status.CHARGED);
+    }
+
+    @Test
+    void itShouldKeepPaymentsSavedWhenTheSaveOfAnotherChunkFails() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(customerId));
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any(), any())).willReturn(new CardPaymentCharge(true));
+
+        Payment saved = new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card-saved", "Donation");
+        Payment alsoSaved = new Payment(null, customerId, Money.parse("15.00", Currency.USD), "card-saved",
+            "Donation");
+        Payment notSaved = new Payment(null, customerId, Money.parse("20.00", Currency.USD), "card-not-saved",
+            "Donation");
+
+        // ... the database takes the first chunk and fails on the second
+        willAnswer(invocation -> {
+            List<Payment> payments = invocation.getArgument(0);
+            if (payments.get(0) == notSaved) {
+                throw new IllegalStateException("Connection refused");
+            }
+            payments.forEach(payment -> payment.setPaymentId(7L));
+            return payments;
+        }).given(paymentRepository).saveAllInBatches(anyList());
+
+        // When
+        List<PaymentResult> results = batchPaymentService.chargeCards(List.of(
+            new PaymentRequest(saved),
+            new PaymentRequest(alsoSaved),
+            new PaymentRequest(notSaved)
+        ));
+
+        // Then all charges are recorded, the ones the database refused in the journal
+        assertThat(results).extracting(PaymentResult::getStatus).containsOnly(PaymentResult.Status.CHARGED);
+        assertThat(results).extracting(PaymentResult::getPaymentId).containsExactly(7L, 7L, null);
+        assertThat(results.get(2).getMessage()).contains("journaled");
+        then(paymentJournal).should(times(3)).checkCapacity();
+        then(paymentJournal).should().append(notSaved);
+        then(paymentJournal).shouldHaveNoMoreInteractions();
+    }
+
+    @Test
+    void itShouldReportChargedPaymentThatCannotBeRecorded() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(customerId));
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any(), any())).willReturn(new CardPaymentCharge(true));
+        given(paymentRepository.saveAllInBatches(anyList())).willThrow(new IllegalStateException("Connection refused"));
+        Payment payment = new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card123", "Donation");
+        willThrow(new IllegalStateException("Cannot force payment journal to disk"))
+            .given(paymentJournal).append(payment);
+
+        // When
+        List<PaymentResult> results = batchPaymentService.chargeCards(List.of(new PaymentRequest(payment)));
+
+        // Then
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).getStatus()).isEqualTo(PaymentResult.Status.FAILED);
+        assertThat(results.get(0).getMessage()).contains("Card charged").contains("could not be recorded");
+    }
+
+    @Test
+    void itShouldNotChargePaymentTheDatabaseCannotHold() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(customerId));
+        Payment payment = new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card123",
+            "x".repeat(Payment.MAX_TEXT_LENGTH + 1));
+
+        // When
+        List<PaymentResult> results = batchPaymentService.chargeCards(List.of(new PaymentRequest(payment)));
+
+        // Then
+        assertThat(results.get(0).getStatus()).isEqualTo(PaymentResult.Status.INVALID);
+        assertThat(results.get(0).getMessage()).contains("description is longer than [255] characters");
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+        then(paymentJournal).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldReportPaymentsOverTheRateLimit() {
+        // Given a customer that may make one payment
+        UUID customerId = UUID.randomUUID();
+        BatchPaymentService rateLimitedBatchPaymentService = new BatchPaymentService(customerRepository,
+            customerExistenceCache, paymentRepository, new PaymentShards(1), paymentJournal, cardPaymentCharger,
+            rateLimiter(true), new IdempotencyStore(idempotencyRecordRepository, 100, 60), 4, 10, 2);
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(customerId));
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any(), any())).willReturn(new CardPaymentCharge(true));
+
+        // When
+        List<PaymentResult> results;
+        try {
+            results = rateLimitedBatchPaymentService.chargeCards(List.of(
+                new PaymentRequest(new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card-1", "a")),
+                new PaymentRequest(new Payment(null, customerId, Money.parse("20.00", Currency.USD), "card-2", "b"))));
+        } finally {
+            rateLimitedBatchPaymentService.shutdown();
+        }
+
+        // Then only the first is charged
+        assertThat(results).extracting(PaymentResult::getStatus)
+            .containsExactly(PaymentResult.Status.CHARGED, PaymentResult.Status.RATE_LIMITED);
+        assertThat(results.get(1).getMessage()).contains("rate limit of the customer exceeded");
+        then(cardPaymentCharger).should(times(1)).chargeCard(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void itShouldNotChargeOnceTheDeadlineOfTheBatchPassed() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(customerId));
+        Payment payment = new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card123", "Donation");
+
+        // When
+        List<PaymentResult> results = batchPaymentService.chargeCards(List.of(new PaymentRequest(payment)), null,
+            Deadline.after(0, TimeUnit.MILLISECONDS));
+
+        // Then
+        assertThat(results.get(0).getStatus()).isEqualTo(PaymentResult.Status.NOT_ATTEMPTED);
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldNotChargeAgainWhenABatchIsRetriedWithItsIdempotencyKey() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(customerId));
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any(), any())).willReturn(new CardPaymentCharge(true));
+        List<PaymentRequest> paymentRequests = List.of(
+            new PaymentRequest(new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card123", "a")),
+            new PaymentRequest(new Payment(null, customerId, Money.parse("20.00", Currency.USD), "card123", "b")));
+
+        // When the batch is sent twice with the same key
+        List<PaymentResult> first = batchPaymentService.chargeCards(paymentRequests, "batch-1", Deadline.none());
+        List<PaymentResult> retried = batchPaymentService.chargeCards(paymentRequests, "batch-1", Deadline.none());
+
+        // Then the cards are charged once, each payment under a provider key of its own
+        ArgumentCaptor<String> providerKeyArgumentCaptor = ArgumentCaptor.forClass(String.class);
+        then(cardPaymentCharger).should(times(2))
+            .chargeCard(any(), any(), any(), any(), providerKeyArgumentCaptor.capture());
+        assertThat(providerKeyArgumentCaptor.getAllValues()).doesNotContainNull().doesNotHaveDuplicates();
+        then(paymentRepository).should(times(1)).saveAllInBatches(anyList());
+        assertThat(first).extracting(PaymentResult::getStatus).containsOnly(PaymentResult.Status.CHARGED);
+        assertThat(retried).extracting(PaymentResult::getStatus).containsOnly(PaymentResult.Status.CHARGED);
+        assertThat(retried).extracting(PaymentResult::getMessage).allMatch(message -> message.contains("already"));
+    }
+
+    @Test
+    void itShouldNotChargeABatchWhoseIdempotencyKeyIsTooLongForItsPositions() {
+        // Given a key that fits on its own but not with the position of the second payment
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.selectExistingCustomerIds(anyCollection())).willReturn(Set.of(customerId));
+        String idempotencyKey = "k".repeat(IdempotencyStore.MAX_KEY_LENGTH - 1);
+        List<PaymentRequest> paymentRequests = List.of(
+            new PaymentRequest(new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card123", "a")),
+            new PaymentRequest(new Payment(null, customerId, Money.parse("20.00", Currency.USD), "card123", "b")));
+
+        // When
+        // Then no payment of the batch is charged
+        assertThatThrownBy(() -> batchPaymentService.chargeCards(paymentRequests, idempotencyKey, Deadline.none()))
+            .isInstanceOf(InvalidIdempotencyKeyException.class);
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+        then(idempotencyRecordRepository).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldThrowWhenBatchIsTooLarge() {
+        // Given
+        List<PaymentRequest> paymentRequests = Collections.nCopies(11, new PaymentRequest(new Payment()));
+
+        // When
+        // Then
+        assertThatThrownBy(() -> batchPaymentService.chargeCards(paymentRequests))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("exceeds the maximum of [10]");
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+        then(paymentRepository).should(never()).saveAllInBatches(anyList());
+    }
+
+    private static PaymentRateLimiter rateLimiter(boolean enabled) {
+        // one payment per customer and source, refilled once a minute
+        return new PaymentRateLimiter(new InMemoryTokenBucketStore(1, 100, System::nanoTime), enabled, new RateLimit(1, 1.0 / 60),
+            new RateLimit(1, 1.0 / 60));
+    }
+}
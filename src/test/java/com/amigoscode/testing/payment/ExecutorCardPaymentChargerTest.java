@@ -0,0 +1,116 @@
+package com.amigoscode.testing.payment;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+
+public class ExecutorCardPaymentChargerTest {
+
+    @Mock
+    private CardPaymentCharger cardPaymentCharger;
+
+    private ExecutorCardPaymentCharger asyncCharger;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        asyncCharger = new ExecutorCardPaymentCharger(cardPaymentCharger, Executors.newFixedThreadPool(2), 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        asyncCharger.shutdown();
+    }
+
+    @Test
+    void itShouldChargeCardOnExecutor() {
+        // Given
+        given(cardPaymentCharger.chargeCard("card123", Money.parse("10.00", Currency.USD), "Donation", Deadline.none(),
+            null)).willReturn(new CardPaymentCharge(true));
+
+        // When
+        CardPaymentCharge charge = asyncCharger
+            .chargeCardAsync("card123", Money.parse("10.00", Currency.USD), "Donation")
+            .join();
+
+        // Then
+        assertThat(charge.isCardDebited()).isTrue();
+        assertThat(asyncCharger.getInFlightCharges()).isZero();
+    }
+
+    @Test
+    void itShouldRejectChargesAboveInFlightLimit() throws InterruptedException {
+        // Given a charge that blocks until released
+        CountDownLatch release = new CountDownLatch(1);
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any(), any())).willAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new CardPaymentCharge(true);
+        });
+        CompletableFuture<CardPaymentCharge> first =
+            asyncCharger.chargeCardAsync("card123", Money.parse("10.00", Currency.USD), "Donation");
+
+        // When the limit of one charge in flight is reached
+        CompletableFuture<CardPaymentCharge> second =
+            asyncCharger.chargeCardAsync("card456", Money.parse("10.00", Currency.USD), "Donation");
+
+        // Then the second charge fails fast
+        assertThatThrownBy(second::join)
+            .hasCauseInstanceOf(ChargeNotAttemptedException.class)
+            .hasMessageContaining("Too many charges in flight, limit is [1]");
+
+        // ... and the permit is handed back once the first charge completes
+        release.countDown();
+        assertThat(first.join().isCardDebited()).isTrue();
+        assertThat(asyncCharger.getInFlightCharges()).isZero();
+    }
+
+    @Test
+    void itShouldNotAttemptChargesOnceShutDown() {
+        // Given
+        asyncCharger.shutdown();
+
+        // When
+        CompletableFuture<CardPaymentCharge> charge =
+            asyncCharger.chargeCardAsync("card123", Money.parse("10.00", Currency.USD), "Donation");
+
+        // Then the charge fails as not attempted and hands its permit back
+        assertThatThrownBy(charge::join)
+            .hasCauseInstanceOf(ChargeNotAttemptedException.class)
+            .hasMessageContaining("Charge executor is shut down");
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+        assertThat(asyncCharger.getInFlightCharges()).isZero();
+    }
+
+    @Test
+    void itShouldTellChargesAboveInFlightLimitDidNotCharge() {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any(), any())).willAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new CardPaymentCharge(true);
+        });
+        asyncCharger.chargeCardAsync("card123", Money.parse("10.00", Currency.USD), "Donation");
+
+        // When
+        CompletableFuture<CardPaymentCharge> second =
+            asyncCharger.chargeCardAsync("card456", Money.parse("10.00", Currency.USD), "Donation");
+
+        // Then the payment service does not keep the idempotency key as possibly charged
+        Throwable failure = second.handle((charge, e) -> e).join();
+        assertThat(PaymentService.mayHaveCharged(failure)).isFalse();
+        release.countDown();
+    }
+}
@@ -0,0 +1,64 @@
+package com.amigoscode.testing.payment;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MoneyTest {
+
+    @Test
+    void itShouldParseDecimalIntoMinorUnits() {
+        assertThat(Money.parse("10.50", Currency.GBP).getMinorUnits()).isEqualTo(1050);
+        assertThat(Money.parse("10.5", Currency.GBP).getMinorUnits()).isEqualTo(1050);
+        assertThat(Money.parse("10", Currency.GBP).getMinorUnits()).isEqualTo(1000);
+        assertThat(Money.parse("0.07", Currency.USD).getMinorUnits()).isEqualTo(7);
+        assertThat(Money.parse("-3.20", Currency.EUR).getMinorUnits()).isEqualTo(-320);
+        // trailing zeros past the scale do not change the amount
+        assertThat(Money.parse("10.500", Currency.GBP).getMinorUnits()).isEqualTo(1050);
+    }
+
+    @Test
+    void itShouldNotRoundAmountsWithMoreDigitsThanTheCurrencyHas() {
+        assertThatThrownBy(() -> Money.parse("10.505", Currency.GBP))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("Amount [10.505] is not a valid GBP amount");
+    }
+
+    @Test
+    void itShouldRejectTextThatIsNotAPlainDecimal() {
+        assertThatThrownBy(() -> Money.parse("1e3", Currency.USD)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Money.parse("", Currency.USD)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Money.parse("1.2.3", Currency.USD)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Money.parse("99999999999999999999", Currency.USD))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void itShouldWriteDecimalInTheScaleOfTheCurrency() {
+        assertThat(Money.of(1050, Currency.GBP).toDecimalString()).isEqualTo("10.50");
+        assertThat(Money.of(7, Currency.USD).toDecimalString()).isEqualTo("0.07");
+        assertThat(Money.of(-320, Currency.EUR).toDecimalString()).isEqualTo("-3.20");
+        assertThat(Money.of(Long.MIN_VALUE, Currency.USD).toDecimalString()).isEqualTo("-92233720368547758.08");
+        assertThat(Money.of(1050, Currency.GBP)).hasToString("10.50 GBP");
+    }
+
+    @Test
+    void itShouldWriteTheSameDecimalIntoACharArray() {
+        char[] dest = new char[24];
+        for (long minorUnits : new long[] {0, 7, 1050, -320, 100_000, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            Money money = Money.of(minorUnits, Currency.USD);
+
+            int length = money.getDecimalChars(dest, 2);
+
+            assertThat(new String(dest, 2, length)).isEqualTo(money.toDecimalString());
+        }
+    }
+
+    @Test
+    void itShouldOnlyAddAmountsOfTheSameCurrency() {
+        assertThat(Money.of(100, Currency.USD).plus(Money.of(5, Currency.USD))).isEqualTo(Money.of(105, Currency.USD));
+        assertThatThrownBy(() -> Money.of(100, Currency.USD).plus(Money.of(5, Currency.GBP)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
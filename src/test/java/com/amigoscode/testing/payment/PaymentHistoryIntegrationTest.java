@@ -0,0 +1,116 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.json.JsonBindingModule;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// own database so the payments stored here do not shift the ids PaymentsIntegrationTest expects
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:payment-history")
+@AutoConfigureMockMvc
+public class PaymentHistoryIntegrationTest {
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void itShouldPageThroughCustomerPayments() throws Exception {
+        // Given
+        UUID customerId = givenPayments(3);
+
+        // When the first page is requested
+        mockMvc.perform(MockMvcRequestBuilders
+            .get("/api/v1/payment-history/{customerId}", customerId)
+            .param("limit", "2"))
+            // Then
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.payments.length()").value(2))
+            .andExpect(jsonPath("$.payments[0].source").value("card0"))
+            .andExpect(jsonPath("$.payments[0].amount").value(10.5))
+            .andExpect(jsonPath("$.nextAfterPaymentId").isNumber());
+
+        // When the last page is requested
+        long afterPaymentId = paymentRepository.selectPaymentsForCustomer(
+            customerId, 0, PageRequest.of(0, 2)).get(1).getPaymentId();
+        mockMvc.perform(MockMvcRequestBuilders
+            .get("/api/v1/payment-history/{customerId}", customerId)
+            .param("afterPaymentId", String.valueOf(afterPaymentId))
+            .param("limit", "2"))
+            // Then
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.payments.length()").value(1))
+            .andExpect(jsonPath("$.payments[0].source").value("card2"))
+            .andExpect(jsonPath("$.nextAfterPaymentId").doesNotExist());
+    }
+
+    @Test
+    void itShouldExportCustomerPaymentsAsNdjson() throws Exception {
+        // Given
+        UUID customerId = givenPayments(3);
+
+        // When
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders
+            .get("/api/v1/payment-history/{customerId}/export", customerId))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        // Then every payment is one json document per line
+        String body = mockMvc.perform(asyncDispatch(mvcResult))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(PaymentHistoryController.APPLICATION_NDJSON))
+            .andReturn().getResponse().getContentAsString();
+        String[] lines = body.split("\n");
+        assertThat(lines).hasSize(3);
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JsonBindingModule());
+        for (int i = 0; i < lines.length; i++) {
+            Payment payment = objectMapper.readValue(lines[i], Payment.class);
+            assertThat(payment.getCustomerId()).isEqualTo(customerId);
+            assertThat(payment.getSource()).isEqualTo("card" + i);
+        }
+    }
+
+    @Test
+    void itShouldServeRunningSpendTotalOfCustomer() throws Exception {
+        // Given
+        UUID customerId = givenPayments(3);
+
+        // When
+        mockMvc.perform(MockMvcRequestBuilders.get("/api/v1/customer-spend/{customerId}", customerId))
+            // Then
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(1))
+            .andExpect(jsonPath("$[0].currency").value("GBP"))
+            .andExpect(jsonPath("$[0].total").value(31.5))
+            .andExpect(jsonPath("$[0].paymentCount").value(3));
+    }
+
+    private UUID givenPayments(int count) {
+        UUID customerId = UUID.randomUUID();
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            payments.add(new Payment(null, customerId, Money.parse("10.50", Currency.GBP), "card" + i, "Donation"));
+        }
+        paymentRepository.saveAllInBatches(payments);
+        return customerId;
+    }
+}
@@ -0,0 +1,117 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.json.JsonBindingModule;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.InvalidFormatException;
+import com.fasterxml.jackson.databind.exc.MismatchedInputException;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PaymentJsonTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JsonBindingModule());
+
+    @Test
+    void itShouldWriteAmountAsDecimalNextToCurrency() throws Exception {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        Payment payment = new Payment(1L, customerId, Money.of(1050, Currency.GBP), "card123", "Donation");
+
+        // When
+        String json = objectMapper.writeValueAsString(payment);
+
+        // Then
+        assertThat(json).isEqualTo("{\"paymentId\":1,\"customerId\":\"" + customerId + "\","
+            + "\"amount\":10.50,\"currency\":\"GBP\",\"source\":\"card123\",\"description\":\"Donation\"}");
+        assertThat(objectMapper.readValue(json, Payment.class)).isEqualToComparingFieldByField(payment);
+    }
+
+    @Test
+    void itShouldReadAmountInAnyOrderAndNumberFormat() throws Exception {
+        // When the currency comes after the amount and the amount is a string
+        Payment payment = objectMapper.readValue(
+            "{\"currency\":\"USD\",\"amount\":\"7\",\"source\":\"card123\",\"paymentId\":null}", Payment.class);
+
+        // Then
+        assertThat(payment.getAmount()).isEqualTo(Money.of(700, Currency.USD));
+        assertThat(payment.getPaymentId()).isNull();
+        assertThat(payment.getSource()).isEqualTo("card123");
+    }
+
+    @Test
+    void itShouldRejectAmountWithoutCurrency() {
+        assertThatThrownBy(() -> objectMapper.readValue("{\"amount\":10.00}", Payment.class))
+            .isInstanceOf(JsonMappingException.class)
+            .hasMessageContaining("Payment needs both an amount and a currency");
+    }
+
+    @Test
+    void itShouldRejectAmountThatNeedsRounding() {
+        assertThatThrownBy(() -> objectMapper.readValue("{\"amount\":10.001,\"currency\":\"GBP\"}", Payment.class))
+            .isInstanceOf(JsonMappingException.class)
+            .hasMessageContaining("Amount [10.001] is not a valid GBP amount");
+    }
+
+    @Test
+    void itShouldRoundTripPaymentRequest() throws Exception {
+        // Given
+        PaymentRequest request = new PaymentRequest(new Payment(
+            null, UUID.randomUUID(), Money.of(-320, Currency.EUR), "card123", "Refund"));
+
+        // When
+        String json = objectMapper.writeValueAsString(request);
+        PaymentRequest read = objectMapper.readValue(json, PaymentRequest.class);
+
+        // Then
+        assertThat(json).startsWith("{\"payment\":{\"paymentId\":null,");
+        assertThat(read.getPayment()).isEqualToComparingFieldByField(request.getPayment());
+    }
+
+    @Test
+    void itShouldReadCustomerIdInAnyFormUuidAccepts() throws Exception {
+        // When upper case, and not in the canonical form at all
+        Payment upperCase = objectMapper.readValue(
+            "{\"customerId\":\"123E4567-E89B-12D3-A456-426614174000\"}", Payment.class);
+        Payment shortGroups = objectMapper.readValue("{\"customerId\":\"1-2-3-4-5\"}", Payment.class);
+
+        // Then
+        assertThat(upperCase.getCustomerId()).isEqualTo(UUID.fromString("123e4567-e89b-12d3-a456-426614174000"));
+        assertThat(shortGroups.getCustomerId()).isEqualTo(UUID.fromString("1-2-3-4-5"));
+    }
+
+    @Test
+    void itShouldRejectInvalidCustomerIdAndCurrency() {
+        assertThatThrownBy(() -> objectMapper.readValue(
+            "{\"customerId\":\"123e4567-e89b-12d3-a456-42661417400g\"}", Payment.class))
+            .isInstanceOf(InvalidFormatException.class)
+            .hasMessageContaining("not a valid UUID");
+        assertThatThrownBy(() -> objectMapper.readValue("{\"amount\":1,\"currency\":\"XYZ\"}", Payment.class))
+            .isInstanceOf(InvalidFormatException.class)
+            .hasMessageContaining("not one of [USD, GBP, EUR]");
+    }
+
+    @Test
+    void itShouldRejectObjectsAndArraysAsValues() {
+        assertThatThrownBy(() -> objectMapper.readValue("{\"source\":{\"card\":\"123\"}}", Payment.class))
+            .isInstanceOf(MismatchedInputException.class)
+            .hasMessageContaining("START_OBJECT");
+        assertThatThrownBy(() -> objectMapper.readValue("{\"description\":[\"Donation\"]}", Payment.class))
+            .isInstanceOf(MismatchedInputException.class)
+            .hasMessageContaining("START_ARRAY");
+        assertThatThrownBy(() -> objectMapper.readValue("{\"paymentId\":[1]}", Payment.class))
+            .isInstanceOf(MismatchedInputException.class)
+            .hasMessageContaining("START_ARRAY");
+        assertThatThrownBy(() -> objectMapper.readValue(
+            "{\"amount\":{\"value\":10},\"currency\":\"GBP\"}", Payment.class))
+            .isInstanceOf(MismatchedInputException.class)
+            .hasMessageContaining("START_OBJECT");
+        assertThatThrownBy(() -> objectMapper.readValue("{\"amount\":1,\"currency\":[\"GBP\"]}", Payment.class))
+            .isInstanceOf(MismatchedInputException.class)
+            .hasMessageContaining("START_ARRAY");
+    }
+}
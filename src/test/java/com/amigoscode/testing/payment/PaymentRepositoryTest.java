@@ -1,12 +1,19 @@
 package com.amigoscode.testing.payment;
 
+import com.amigoscode.testing.payment.shard.PaymentShards;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -15,29 +22,116 @@ import static org.assertj.core.api.Assertions.assertThat;
         "spring.jpa.properties.javax.persistence.validation.mode=none" // will trigger jpa annotations (@Column(nullable = false) when unit testing
     }
 )
+@Import(PaymentShards.class) // the payment repository fragment checks the shard of every payment
 public class PaymentRepositoryTest {
 
     @Autowired
     private PaymentRepository paymentRepository;
 
+    @Autowired
+    private TestEntityManager testEntityManager;
+
     @Test
     void itShouldInsertPayment() {
         // Given
-        long paymentId = 1L;
         Payment payment = new Payment(
             null,
             UUID.randomUUID(),
-            new BigDecimal("10.00"),
-            Currency.USD, "card123",
+            Money.parse("10.00", Currency.USD), "card123",
             "Donation");
         // When
         paymentRepository.save(payment);
 
-        // Then
-        Optional<Payment> paymentOptional = paymentRepository.findById(paymentId);
+        // Then ids come from a sequence shared by every test of the context, so look up the generated one
+        Optional<Payment> paymentOptional = paymentRepository.findById(payment.getPaymentId());
         assertThat(paymentOptional)
             .isPresent()
             .hasValueSatisfying(p -> assertThat(p).isEqualTo(payment));
     }
 
+    @Test
+    void itShouldInsertPaymentsInBatches() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 0; i < 120; i++) { // more than one jdbc batch
+            payments.add(new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card" + i, "Donation"));
+        }
+
+        // When
+        paymentRepository.saveAllInBatches(payments);
+
+        // Then every payment got an id and can be read back
+        assertThat(payments).extracting(Payment::getPaymentId).doesNotContainNull();
+        assertThat(paymentRepository.findAllById(
+            payments.stream().map(Payment::getPaymentId).collect(Collectors.toList())))
+            .hasSize(120);
+    }
+
+    @Test
+    void itShouldAllocatePaymentIdsFromPooledSequence() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            payments.add(new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card" + i, "Donation"));
+        }
+
+        // When
+        paymentRepository.saveAllInBatches(payments);
+
+        // Then one sequence call hands out a whole jdbc batch of ids
+        Number increment = (Number) testEntityManager.getEntityManager()
+            .createNativeQuery("SELECT INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = 'PAYMENT_ID_SEQ'")
+            .getSingleResult();
+        assertThat(increment.intValue()).isEqualTo(Payment.PAYMENT_ID_ALLOCATION_SIZE);
+
+        // ... and the ids follow each other without gaps
+        List<Long> paymentIds = payments.stream().map(Payment::getPaymentId).collect(Collectors.toList());
+        for (int i = 1; i < paymentIds.size(); i++) {
+            assertThat(paymentIds.get(i)).isEqualTo(paymentIds.get(i - 1) + 1);
+        }
+    }
+
+    @Test
+    void itShouldSelectCustomerPaymentsPageByPageAfterLastPaymentId() {
+        // Given payments of two customers
+        UUID customerId = UUID.randomUUID();
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            payments.add(new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card" + i, "Donation"));
+            payments.add(new Payment(null, UUID.randomUUID(), Money.parse("10.00", Currency.USD), "other" + i, "Donation"));
+        }
+        paymentRepository.saveAllInBatches(payments);
+
+        // When
+        List<Payment> firstPage = paymentRepository.selectPaymentsForCustomer(customerId, 0, PageRequest.of(0, 3));
+        List<Payment> secondPage = paymentRepository.selectPaymentsForCustomer(
+            customerId, firstPage.get(2).getPaymentId(), PageRequest.of(0, 3));
+
+        // Then
+        assertThat(firstPage).extracting(Payment::getSource).containsExactly("card0", "card1", "card2");
+        assertThat(secondPage).extracting(Payment::getSource).containsExactly("card3", "card4");
+    }
+
+    @Test
+    void itShouldStreamCustomerPaymentsInPaymentIdOrder() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        List<Payment> payments = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            payments.add(new Payment(null, customerId, Money.parse("10.00", Currency.USD), "card" + i, "Donation"));
+        }
+        paymentRepository.saveAllInBatches(payments);
+
+        // When
+        List<String> sources;
+        try (Stream<Payment> stream = paymentRepository.streamPaymentsForCustomer(customerId)) {
+            sources = stream.map(Payment::getSource).collect(Collectors.toList());
+        }
+
+        // Then
+        assertThat(sources).containsExactly("card0", "card1", "card2");
+    }
+
 }
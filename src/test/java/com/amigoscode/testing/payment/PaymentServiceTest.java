@@ -1,23 +1,29 @@
 package com.amigoscode.testing.payment;
 
-import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerExistenceCache;
 import com.amigoscode.testing.customer.CustomerRepository;
+import com.amigoscode.testing.payment.idempotency.IdempotencyStore;
+import com.amigoscode.testing.payment.journal.PaymentJournal;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.math.BigDecimal;
-import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.BDDMockito.then;
-import static org.mockito.Mockito.mock;
+import static org.mockito.BDDMockito.willThrow;
 import static org.mockito.Mockito.never;
 
 public class PaymentServiceTest {
@@ -25,9 +31,15 @@ public class PaymentServiceTest {
     @Mock
     private CustomerRepository customerRepository;
     @Mock
-    private PaymentRepository paymentRepository;
+    private PaymentJournal paymentJournal;
     @Mock
     private CardPaymentCharger cardPaymentCharger;
+    @Mock
+    private AsyncCardPaymentCharger asyncCardPaymentCharger;
+    @Mock
+    private IdempotencyStore idempotencyStore;
+
+    private SimpleMeterRegistry meterRegistry;
 
     private PaymentService paymentService;
 
@@ -35,21 +47,22 @@ public class PaymentServiceTest {
     void setUp() {
         // mock the repo's in the payment constructor
         MockitoAnnotations.initMocks(this);
-        paymentService = new PaymentService(customerRepository, paymentRepository, cardPaymentCharger);
+        meterRegistry = new SimpleMeterRegistry();
+        paymentService = new PaymentService(new CustomerExistenceCache(customerRepository, 100, 5000), paymentJournal, cardPaymentCharger, asyncCardPaymentCharger,
+            idempotencyStore, new PaymentMetrics(meterRegistry));
     }
 
     @Test
     void itShouldChargeCardSuccessfully() {
         // Given
         UUID customerId = UUID.randomUUID();
-        given(customerRepository.findById(customerId)).willReturn(Optional.of(mock(Customer.class))); // mock the customer repo that it/ll return a valid customer
+        given(customerRepository.existsById(customerId)).willReturn(true); // mock the customer repo that it'll find the customer
 
         PaymentRequest paymentRequest = new PaymentRequest(
             new Payment(
                 null,
                 null, // set to null since in the service we set it at the end of the method which will need to be tested
-                new BigDecimal("100.00"),
-                Currency.USD,
+                Money.parse("100.00", Currency.USD),
                 "card123xx",
                 "Donation"
             )
@@ -57,18 +70,19 @@ public class PaymentServiceTest {
 
         // mock card charger
         given(cardPaymentCharger.chargeCard(
-            paymentRequest.getPayment().getSource(),
-            paymentRequest.getPayment().getAmount(),
-            paymentRequest.getPayment().getCurrency(),
-            paymentRequest.getPayment().getDescription()
+            eq(paymentRequest.getPayment().getSource()),
+            eq(paymentRequest.getPayment().getAmount()),
+            eq(paymentRequest.getPayment().getDescription()),
+            eq(Deadline.none()),
+            isNull()
         )).willReturn(new CardPaymentCharge(true));
 
         // When
-        paymentService.chargeCard(customerId, paymentRequest);
+        paymentService.chargeCard(customerId, paymentRequest, Deadline.none());
 
         // Then - check if payment repo argument is being mocked saved
         ArgumentCaptor<Payment> paymentArgumentCaptor = ArgumentCaptor.forClass(Payment.class);
-        then(paymentRepository).should().save(paymentArgumentCaptor.capture());
+        then(paymentJournal).should().append(paymentArgumentCaptor.capture());
         Payment paymentArgumentCaptorValue = paymentArgumentCaptor.getValue();
 
         // check if the captured argument value is equal to payment request but ignore the null customerId field
@@ -76,20 +90,84 @@ public class PaymentServiceTest {
         assertThat(paymentArgumentCaptorValue)
             .isEqualToIgnoringGivenFields(paymentRequest.getPayment(), "customerId");
         assertThat(paymentArgumentCaptorValue.getCustomerId()).isEqualTo(customerId);
+
+        // ... and every step was recorded
+        assertThat(meterRegistry.get("payment.step").tag("outcome", "success").timers())
+            .allSatisfy(timer -> assertThat(timer.count()).isEqualTo(1));
+        assertThat(meterRegistry.get("payment.step").tag("outcome", "failure").timers())
+            .allSatisfy(timer -> assertThat(timer.count()).isZero());
+        assertThat(meterRegistry.get("payment.charges").tag("currency", "USD").tag("outcome", "debited")
+            .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldTimePaymentSaveThatFails() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(true);
+        PaymentRequest paymentRequest = new PaymentRequest(
+            new Payment(null, null, Money.parse("100.00", Currency.USD), "card123xx", "Donation"));
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), any(), isNull()))
+            .willReturn(new CardPaymentCharge(true));
+        willThrow(new IllegalStateException("Disk full")).given(paymentJournal).append(any(Payment.class));
+
+        // When
+        assertThatThrownBy(() -> paymentService.chargeCard(customerId, paymentRequest, Deadline.none()))
+            .hasMessage("Disk full");
+
+        // Then the failed save is in the latency, under its own outcome
+        assertThat(meterRegistry.get("payment.step").tag("step", "payment_save").tag("outcome", "failure")
+            .timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("payment.step").tag("step", "payment_save").tag("outcome", "success")
+            .timer().count()).isZero();
+    }
+
+    @Test
+    void itShouldNotChargePaymentTheDatabaseCannotHold() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(true);
+        PaymentRequest paymentRequest = new PaymentRequest(new Payment(null, null, Money.parse("100.00", Currency.USD),
+            "card123xx", "x".repeat(Payment.MAX_TEXT_LENGTH + 1)));
+
+        // When
+        // Then
+        assertThatThrownBy(() -> paymentService.chargeCard(customerId, paymentRequest, Deadline.none()))
+            .isInstanceOf(PaymentRefusedException.class)
+            .hasMessageContaining("description is longer than [255] characters");
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+        then(paymentJournal).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldNotChargeWhileTheJournalIsBackedUp() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(true);
+        willThrow(new ChargeNotAttemptedException("Payment journal has [10000] payments waiting for the database"))
+            .given(paymentJournal).checkCapacity();
+        PaymentRequest paymentRequest = new PaymentRequest(
+            new Payment(null, null, Money.parse("100.00", Currency.USD), "card123xx", "Donation"));
+
+        // When
+        // Then
+        assertThatThrownBy(() -> paymentService.chargeCard(customerId, paymentRequest, Deadline.none()))
+            .isInstanceOf(ChargeNotAttemptedException.class);
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+        then(paymentJournal).should(never()).append(any(Payment.class));
     }
 
     @Test
     void itShouldThrowWhenCardIsNotCharged() {
         // Given
         UUID customerId = UUID.randomUUID();
-        given(customerRepository.findById(customerId)).willReturn(Optional.of(mock(Customer.class))); // mock the customer repo that it/ll return a valid customer
+        given(customerRepository.existsById(customerId)).willReturn(true); // mock the customer repo that it'll find the customer
 
         PaymentRequest paymentRequest = new PaymentRequest(
             new Payment(
                 null,
                 null, // set to null since in the service we set it at the end of the method which will need to be tested
-                new BigDecimal("100.00"),
-                Currency.USD,
+                Money.parse("100.00", Currency.USD),
                 "card123xx",
                 "Donation"
             )
@@ -97,19 +175,22 @@ public class PaymentServiceTest {
 
         // mock card charger
         given(cardPaymentCharger.chargeCard(
-            paymentRequest.getPayment().getSource(),
-            paymentRequest.getPayment().getAmount(),
-            paymentRequest.getPayment().getCurrency(),
-            paymentRequest.getPayment().getDescription()
+            eq(paymentRequest.getPayment().getSource()),
+            eq(paymentRequest.getPayment().getAmount()),
+            eq(paymentRequest.getPayment().getDescription()),
+            eq(Deadline.none()),
+            isNull()
         )).willReturn(new CardPaymentCharge(false));
 
         // When
-        assertThatThrownBy(() -> paymentService.chargeCard(customerId, paymentRequest))
+        assertThatThrownBy(() -> paymentService.chargeCard(customerId, paymentRequest, Deadline.none()))
             .isInstanceOf(IllegalStateException.class)
             .hasMessageContaining(String.format("Card not debited for customer %s", customerId));
 
         // Then
-        then(paymentRepository).should(never()).save(any(Payment.class)); // check that this should not be invoked
+        then(paymentJournal).should(never()).append(any(Payment.class)); // check that this should not be invoked
+        assertThat(meterRegistry.get("payment.charges").tag("currency", "USD").tag("outcome", "declined")
+            .counter().count()).isEqualTo(1);
     }
 
     @Test
@@ -118,7 +199,7 @@ public class PaymentServiceTest {
         UUID customerId = UUID.randomUUID();
 
         // ... Customer exists
-        given(customerRepository.findById(customerId)).willReturn(Optional.of(mock(Customer.class)));
+        given(customerRepository.existsById(customerId)).willReturn(true);
 
         // ... Euros
         Currency currency = Currency.EUR;
@@ -128,15 +209,14 @@ public class PaymentServiceTest {
             new Payment(
                 null,
                 null,
-                new BigDecimal("100.00"),
-                currency,
+                Money.parse("100.00", currency),
                 "card123xx",
                 "Donation"
             )
         );
 
         // When
-        assertThatThrownBy(() -> paymentService.chargeCard(customerId, paymentRequest))
+        assertThatThrownBy(() -> paymentService.chargeCard(customerId, paymentRequest, Deadline.none()))
             .isInstanceOf(IllegalStateException.class)
             .hasMessageContaining(String.format(
                 "Currency [%s] not suported",
@@ -147,8 +227,8 @@ public class PaymentServiceTest {
         // ... No interaction with cardPaymentCharger
         then(cardPaymentCharger).shouldHaveNoInteractions();
 
-        // ... No interaction with paymentRepository
-        then(paymentRepository).shouldHaveNoInteractions();
+        // ... No interaction with paymentJournal
+        then(paymentJournal).shouldHaveNoInteractions();
     }
 
     @Test
@@ -157,16 +237,192 @@ public class PaymentServiceTest {
         UUID customerId = UUID.randomUUID();
 
         // Customer not found in db
-        given(customerRepository.findById(customerId)).willReturn(Optional.empty());
+        given(customerRepository.existsById(customerId)).willReturn(false);
 
         // When
         // Then
-        assertThatThrownBy(() -> paymentService.chargeCard(customerId, new PaymentRequest(new Payment())))
+        assertThatThrownBy(() -> paymentService.chargeCard(
+            customerId, new PaymentRequest(new Payment()), Deadline.none()))
             .isInstanceOf(IllegalStateException.class)
             .hasMessageContaining(String.format("Customer with id [%s] not found", customerId));
 
-        // ... No interactions with PaymentCharger not PaymentRepository
+        // ... No interactions with PaymentCharger not PaymentJournal
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+        then(paymentJournal).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldChargeCardAsynchronously() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(true);
+
+        PaymentRequest paymentRequest = new PaymentRequest(
+            new Payment(
+                null,
+                null,
+                Money.parse("100.00", Currency.USD),
+                "card123xx",
+                "Donation"
+            )
+        );
+
+        // ... charge completes later
+        CompletableFuture<CardPaymentCharge> pendingCharge = new CompletableFuture<>();
+        given(asyncCardPaymentCharger.chargeCardAsync(
+            eq(paymentRequest.getPayment().getSource()),
+            eq(paymentRequest.getPayment().getAmount()),
+            eq(paymentRequest.getPayment().getDescription()),
+            eq(Deadline.none()),
+            isNull()
+        )).willReturn(pendingCharge);
+
+        // When
+        CompletableFuture<Void> payment = paymentService.chargeCardAsync(customerId, paymentRequest, Deadline.none());
+
+        // Then nothing is saved while the charge is pending
+        assertThat(payment).isNotDone();
+        then(paymentJournal).should(never()).append(any(Payment.class));
+
+        // ... and the payment is saved once the card is debited
+        pendingCharge.complete(new CardPaymentCharge(true));
+        assertThat(payment).isCompleted();
+        then(paymentJournal).should().append(paymentRequest.getPayment());
+        assertThat(paymentRequest.getPayment().getCustomerId()).isEqualTo(customerId);
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldFailAsyncPaymentWhenCardIsNotCharged() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(true);
+        PaymentRequest paymentRequest = new PaymentRequest(
+            new Payment(null, null, Money.parse("100.00", Currency.USD), "card123xx", "Donation"));
+        given(asyncCardPaymentCharger.chargeCardAsync(any(), any(), any(), any(), any()))
+            .willReturn(CompletableFuture.completedFuture(new CardPaymentCharge(false)));
+
+        // When
+        CompletableFuture<Void> payment = paymentService.chargeCardAsync(customerId, paymentRequest, Deadline.none());
+
+        // Then
+        assertThatThrownBy(payment::join)
+            .hasCauseInstanceOf(IllegalStateException.class)
+            .hasMessageContaining(String.format("Card not debited for customer %s", customerId));
+        then(paymentJournal).should(never()).append(any(Payment.class));
+    }
+
+    @Test
+    void itShouldNotChargeAsyncWhenCustomerNotFound() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(false);
+
+        // When
+        CompletableFuture<Void> payment = paymentService.chargeCardAsync(
+            customerId, new PaymentRequest(new Payment()), Deadline.none());
+
+        // Then
+        assertThat(payment).isCompletedExceptionally();
+        then(asyncCardPaymentCharger).shouldHaveNoInteractions();
+        then(paymentJournal).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldChargeCardThroughIdempotencyStoreWhenKeyIsGiven() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        String idempotencyKey = "key-1";
+        PaymentRequest paymentRequest = new PaymentRequest(new Payment());
+
+        // When
+        paymentService.chargeCard(customerId, paymentRequest, idempotencyKey, Deadline.none());
+
+        // Then the charge is handed to the store which decides whether it runs
+        then(idempotencyStore).should().execute(eq(customerId), eq(idempotencyKey), anyString(), any(Runnable.class),
+            any());
+        then(cardPaymentCharger).shouldHaveNoInteractions();
+        then(paymentJournal).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldTellRefusedAndUnsentChargesFromOnesThatMayHaveCharged() {
+        // Given
+        // When
+        // Then a retry of these cannot double charge, the idempotency store may free their key
+        assertThat(PaymentService.mayHaveCharged(new PaymentRefusedException("Card not debited"))).isFalse();
+        assertThat(PaymentService.mayHaveCharged(new ChargeNotAttemptedException("Circuit open"))).isFalse();
+        // whereas a provider that failed or a payment that could not be journaled may have charged
+        assertThat(PaymentService.mayHaveCharged(new IllegalStateException("Cannot make stripe charge"))).isTrue();
+        assertThat(PaymentService.mayHaveCharged(
+            new DeadlineExceededException(PaymentMetrics.Step.CARD_CHARGE, new IllegalStateException()))).isTrue();
+    }
+
+    @Test
+    void itShouldNotStartAnyStepOnceDeadlineHasPassed() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        PaymentRequest paymentRequest = new PaymentRequest(
+            new Payment(null, null, Money.parse("100.00", Currency.USD), "card123xx", "Donation"));
+        Deadline expired = Deadline.after(0, TimeUnit.MILLISECONDS);
+
+        // When
+        // Then
+        assertThatThrownBy(() -> paymentService.chargeCard(customerId, paymentRequest, expired))
+            .isInstanceOf(DeadlineExceededException.class)
+            .hasMessageContaining("CUSTOMER_LOOKUP");
+        then(customerRepository).shouldHaveNoInteractions();
         then(cardPaymentCharger).shouldHaveNoInteractions();
-        then(paymentRepository).shouldHaveNoInteractions();
+        then(paymentJournal).shouldHaveNoInteractions();
+        assertThat(meterRegistry.get("payment.deadline.exceeded").tag("step", "customer_lookup")
+            .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldReportChargeFailingAfterDeadlineAsDeadlineExceeded() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(true);
+        PaymentRequest paymentRequest = new PaymentRequest(
+            new Payment(null, null, Money.parse("100.00", Currency.USD), "card123xx", "Donation"));
+        Deadline deadline = Deadline.after(50, TimeUnit.MILLISECONDS);
+
+        // ... the provider times out once the budget is gone
+        given(cardPaymentCharger.chargeCard(any(), any(), any(), eq(deadline), any())).willAnswer(invocation -> {
+            Thread.sleep(deadline.remainingMillis() + 10);
+            throw new IllegalStateException("Cannot make stripe charge");
+        });
+
+        // When
+        // Then
+        assertThatThrownBy(() -> paymentService.chargeCard(customerId, paymentRequest, deadline))
+            .isInstanceOf(DeadlineExceededException.class)
+            .hasMessageContaining("CARD_CHARGE")
+            .hasCauseInstanceOf(IllegalStateException.class);
+        then(paymentJournal).should(never()).append(any(Payment.class));
+        assertThat(meterRegistry.get("payment.deadline.exceeded").tag("step", "card_charge")
+            .counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldFailAsyncPaymentWhenChargeRanOutOfDeadline() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+        given(customerRepository.existsById(customerId)).willReturn(true);
+        PaymentRequest paymentRequest = new PaymentRequest(
+            new Payment(null, null, Money.parse("100.00", Currency.USD), "card123xx", "Donation"));
+        given(asyncCardPaymentCharger.chargeCardAsync(any(), any(), any(), any(), any()))
+            .willReturn(CompletableFuture.failedFuture(
+                new DeadlineExceededException(PaymentMetrics.Step.CARD_CHARGE)));
+
+        // When
+        CompletableFuture<Void> payment = paymentService.chargeCardAsync(
+            customerId, paymentRequest, Deadline.after(1, TimeUnit.MINUTES));
+
+        // Then
+        assertThatThrownBy(payment::join).hasCauseInstanceOf(DeadlineExceededException.class);
+        then(paymentJournal).should(never()).append(any(Payment.class));
+        assertThat(meterRegistry.get("payment.deadline.exceeded").tag("step", "card_charge")
+            .counter().count()).isEqualTo(1);
     }
 }
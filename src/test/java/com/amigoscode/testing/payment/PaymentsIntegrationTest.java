@@ -3,24 +3,33 @@ package com.amigoscode.testing.payment;
 import com.amigoscode.testing.customer.Customer;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.json.JsonBindingModule;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
-import java.math.BigDecimal;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.StreamSupport;
 
 @SpringBootTest // makes sure that we run this class the entire application will start up
 @AutoConfigureMockMvc
@@ -55,8 +64,7 @@ public class PaymentsIntegrationTest {
         Payment payment = new Payment(
             paymentId,
             customerId,
-            new BigDecimal("100.00"),
-            Currency.GBP,
+            Money.parse("100.00", Currency.GBP),
             "x0x0x0x0",
             "Zakat"
         );
@@ -75,16 +83,107 @@ public class PaymentsIntegrationTest {
         customerRegResultActions.andExpect(status().isOk()); // make sure the request went out fine
         paymentResultActions.andExpect(status().isOk());
 
-        // Payment is stored in db
+        // Payment is stored in db once the journal writer has drained it
         // TODO: Do not use paymentRepository instead create an endpoint to retrieve payments for customers
+        awaitStored(() -> paymentRepository.existsById(paymentId));
         assertThat(paymentRepository.findById(paymentId))
             .isPresent()
             .hasValueSatisfying(p -> assertThat(p).isEqualToComparingFieldByField(payment));
     }
 
+    @Test
+    void itShouldCreatePaymentAsynchronously() throws Exception {
+        // Given a customer
+        UUID customerId = UUID.randomUUID();
+        Customer customer = new Customer(customerId, "Nadia", "+447000000001");
+        mockMvc.perform(MockMvcRequestBuilders
+            .put("/api/v1/customer-registration")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(Objects.requireNonNull(objectToJson(new CustomerRegistrationRequest(customer))))
+        ).andExpect(status().isOk());
+
+        // ... Payment request
+        Payment payment = new Payment(
+            null,
+            customerId,
+            Money.parse("50.00", Currency.USD),
+            "x1x1x1x1",
+            "Sadaqah"
+        );
+
+        // When the async endpoint is called the request is suspended until the charge completes
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders
+            .put("/api/v1/payment/async")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(Objects.requireNonNull(objectToJson(new PaymentRequest(payment))))
+        ).andExpect(request().asyncStarted()).andReturn();
+
+        // Then the dispatched response is 200 and the payment is stored
+        mockMvc.perform(asyncDispatch(mvcResult)).andExpect(status().isOk());
+        awaitStored(() -> StreamSupport.stream(paymentRepository.findAll().spliterator(), false)
+            .anyMatch(p -> customerId.equals(p.getCustomerId())));
+        assertThat(paymentRepository.findAll())
+            .anySatisfy(p -> {
+                assertThat(p.getCustomerId()).isEqualTo(customerId);
+                assertThat(p.getSource()).isEqualTo("x1x1x1x1");
+            });
+    }
+
+    @Test
+    void itShouldAnswerAFloodOfPaymentsWithTooManyRequests() throws Exception {
+        // Given a customer paying faster than the default burst of 10 refills
+        UUID customerId = UUID.randomUUID();
+        mockMvc.perform(MockMvcRequestBuilders
+            .put("/api/v1/customer-registration")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(Objects.requireNonNull(objectToJson(
+                new CustomerRegistrationRequest(new Customer(customerId, "Omar", "+447000000002")))))
+        ).andExpect(status().isOk());
+        String paymentRequest = objectToJson(new PaymentRequest(
+            new Payment(null, customerId, Money.parse("1.00", Currency.GBP), "x2x2x2x2", "Sadaqah")));
+
+        // When
+        MvcResult result = null;
+        int sent = 0;
+        while ((result == null || result.getResponse().getStatus() != 429) && sent < 50) {
+            result = mockMvc.perform(MockMvcRequestBuilders
+                .put("/api/v1/payment")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(Objects.requireNonNull(paymentRequest))
+            ).andReturn();
+            sent++;
+        }
+
+        // Then the burst went through and the next one was told when to come back
+        assertThat(result.getResponse().getStatus()).isEqualTo(429);
+        assertThat(result.getResponse().getHeader(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        assertThat(sent).isGreaterThan(10);
+    }
+
+    @Test
+    void itShouldExposePaymentMetricsToPrometheus() throws Exception {
+        // When
+        ResultActions prometheusResultActions = mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus"));
+
+        // Then
+        prometheusResultActions
+            .andExpect(status().isOk())
+            .andExpect(content().string(containsString("payment_step_seconds_bucket")))
+            .andExpect(content().string(containsString("payment_charges_total")))
+            .andExpect(content().string(containsString("customer_existence_cache_requests_total")));
+    }
+
+    // payments are written to the table behind the response
+    private static void awaitStored(BooleanSupplier stored) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!stored.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
     private String objectToJson(Object object) {
         try {
-            return new ObjectMapper().writeValueAsString(object);
+            return new ObjectMapper().registerModule(new JsonBindingModule()).writeValueAsString(object);
         } catch (JsonProcessingException e) {
             fail("Failed to convert object to json");
             return null;
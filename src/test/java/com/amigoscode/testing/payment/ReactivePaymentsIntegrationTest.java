@@ -0,0 +1,171 @@
+package com.amigoscode.testing.payment;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.payment.idempotency.IdempotencyStore;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.StreamSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/*
+* Same flow as PaymentsIntegrationTest against the reactive stack, with a database of its own
+* */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = {
+        "spring.main.web-application-type=reactive",
+        "spring.datasource.url=jdbc:h2:mem:reactive-payments"
+    })
+@ActiveProfiles("reactive")
+public class ReactivePaymentsIntegrationTest {
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Test
+    void itShouldCreatePaymentSuccessfully() throws Exception {
+        // Given a customer
+        UUID customerId = UUID.randomUUID();
+        webTestClient.put()
+            .uri("/api/v1/customer-registration")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(new CustomerRegistrationRequest(new Customer(customerId, "Amal", "+447000000100")))
+            .exchange()
+            .expectStatus().isOk();
+
+        // ... Payment request
+        Payment payment = new Payment(null, customerId, Money.parse("25.00", Currency.GBP), "x2x2x2x2", "Zakat");
+
+        // When
+        webTestClient.put()
+            .uri("/api/v1/payment")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(new PaymentRequest(payment))
+            .exchange()
+            // Then
+            .expectStatus().isOk();
+
+        awaitStored(() -> StreamSupport.stream(paymentRepository.findAll().spliterator(), false)
+            .anyMatch(p -> customerId.equals(p.getCustomerId())));
+        assertThat(paymentRepository.findAll())
+            .anySatisfy(p -> {
+                assertThat(p.getCustomerId()).isEqualTo(customerId);
+                assertThat(p.getAmount()).isEqualTo(Money.parse("25.00", Currency.GBP));
+            });
+    }
+
+    @Test
+    void itShouldRejectAnIdempotencyKeyReusedForAnotherPayment() {
+        // Given a customer who paid with a key
+        UUID customerId = UUID.randomUUID();
+        webTestClient.put()
+            .uri("/api/v1/customer-registration")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(new CustomerRegistrationRequest(new Customer(customerId, "Layla", "+447000000101")))
+            .exchange()
+            .expectStatus().isOk();
+        webTestClient.put()
+            .uri("/api/v1/payment")
+            .header("Idempotency-Key", "order-1")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(new PaymentRequest(
+                new Payment(null, customerId, Money.parse("20.00", Currency.GBP), "x6x6x6x6", "Zakat")))
+            .exchange()
+            .expectStatus().isOk();
+
+        // When the same key comes back with another amount
+        // Then
+        webTestClient.put()
+            .uri("/api/v1/payment")
+            .header("Idempotency-Key", "order-1")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(new PaymentRequest(
+                new Payment(null, customerId, Money.parse("200.00", Currency.GBP), "x6x6x6x6", "Zakat")))
+            .exchange()
+            .expectStatus().isEqualTo(422);
+    }
+
+    @Test
+    void itShouldRejectAnIdempotencyKeyTooLongToRecord() {
+        // Given
+        Payment payment = new Payment(null, UUID.randomUUID(), Money.parse("20.00", Currency.GBP), "x7x7x7x7",
+            "Zakat");
+
+        // When
+        // Then
+        webTestClient.put()
+            .uri("/api/v1/payment")
+            .header("Idempotency-Key", "k".repeat(IdempotencyStore.MAX_KEY_LENGTH + 1))
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(new PaymentRequest(payment))
+            .exchange()
+            .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void itShouldNotChargeUnknownCustomer() {
+        // Given
+        Payment payment = new Payment(null, UUID.randomUUID(), Money.parse("25.00", Currency.GBP), "x3x3x3x3",
+            "Zakat");
+
+        // When
+        // Then
+        webTestClient.put()
+            .uri("/api/v1/payment/async")
+            .contentType(MediaType.APPLICATION_JSON)
+            .bodyValue(new PaymentRequest(payment))
+            .exchange()
+            .expectStatus().is5xxServerError();
+    }
+
+    @Test
+    void itShouldAnswerAFloodOfPaymentsWithTooManyRequests() {
+        // Given payments of one customer, faster than the default burst of 10 refills
+        Payment payment = new Payment(null, UUID.randomUUID(), Money.parse("1.00", Currency.GBP), "x4x4x4x4",
+            "Zakat");
+
+        // When
+        int status = 0;
+        int sent = 0;
+        String retryAfter = null;
+        while (status != 429 && sent < 50) {
+            EntityExchangeResult<byte[]> result = webTestClient.put()
+                .uri("/api/v1/payment")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(new PaymentRequest(payment))
+                .exchange()
+                .expectBody().returnResult();
+            status = result.getStatus().value();
+            retryAfter = result.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+            sent++;
+        }
+
+        // Then the burst went through and the next one was told when to come back
+        assertThat(status).isEqualTo(429);
+        assertThat(sent).isGreaterThan(10);
+        assertThat(retryAfter).isEqualTo("1");
+    }
+
+    // payments are written to the table behind the response
+    private static void awaitStored(BooleanSupplier stored) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!stored.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+}
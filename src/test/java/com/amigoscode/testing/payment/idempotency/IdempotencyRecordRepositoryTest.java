@@ -0,0 +1,38 @@
+package com.amigoscode.testing.payment.idempotency;
+
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest
+@Import(PaymentShards.class) // the payment repository fragment checks the shard of every payment
+class IdempotencyRecordRepositoryTest {
+
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    @Test
+    void itShouldDeleteRecordsCreatedBeforeTheGivenInstant() {
+        // Given a record of yesterday and one of today
+        Instant now = Instant.parse("2020-01-02T00:00:00Z");
+        idempotencyRecordRepository.save(new IdempotencyRecord("customer:old", "hash-1",
+            IdempotencyRecord.Status.COMPLETED, now.minusSeconds(86400)));
+        idempotencyRecordRepository.save(new IdempotencyRecord("customer:new", "hash-2",
+            IdempotencyRecord.Status.OUTCOME_UNKNOWN, now));
+
+        // When
+        int deleted = idempotencyRecordRepository.deleteCreatedBefore(now.minusSeconds(3600));
+
+        // Then
+        assertThat(deleted).isEqualTo(1);
+        assertThat(idempotencyRecordRepository.findAll())
+            .extracting(IdempotencyRecord::getIdempotencyKey)
+            .containsExactly("customer:new");
+    }
+}
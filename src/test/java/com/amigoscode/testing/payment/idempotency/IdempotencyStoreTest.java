@@ -0,0 +1,277 @@
+package com.amigoscode.testing.payment.idempotency;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+
+class IdempotencyStoreTest {
+
+    @Mock
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    private static final UUID CUSTOMER = UUID.fromString("a3b1e4a0-6b8f-4c57-9d43-0c1f3e5b7a21");
+
+    private MutableClock clock;
+
+    private IdempotencyStore idempotencyStore;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        clock = new MutableClock(Instant.parse("2020-01-01T00:00:00Z"));
+        idempotencyStore = new IdempotencyStore(idempotencyRecordRepository, 2, Duration.ofMinutes(10), clock);
+    }
+
+    @Test
+    void itShouldRunOperationOnceAndRecordKey() {
+        // Given
+        AtomicInteger charges = new AtomicInteger();
+
+        // When the same key is used twice
+        execute(CUSTOMER, "key-1", "hash-1", charges::incrementAndGet);
+        execute(CUSTOMER, "key-1", "hash-1", charges::incrementAndGet);
+
+        // Then the operation ran once and the key was persisted for the customer and request
+        assertThat(charges).hasValue(1);
+        ArgumentCaptor<IdempotencyRecord> recordArgumentCaptor = ArgumentCaptor.forClass(IdempotencyRecord.class);
+        then(idempotencyRecordRepository).should().save(recordArgumentCaptor.capture());
+        assertThat(recordArgumentCaptor.getValue().getIdempotencyKey()).isEqualTo(CUSTOMER + ":key-1");
+        assertThat(recordArgumentCaptor.getValue().getRequestHash()).isEqualTo("hash-1");
+        assertThat(recordArgumentCaptor.getValue().getStatus()).isEqualTo(IdempotencyRecord.Status.COMPLETED);
+    }
+
+    @Test
+    void itShouldScopeKeysByCustomer() {
+        // Given
+        AtomicInteger charges = new AtomicInteger();
+
+        // When two customers happen to send the same key
+        execute(CUSTOMER, "key-1", "hash-1", charges::incrementAndGet);
+        execute(UUID.randomUUID(), "key-1", "hash-2", charges::incrementAndGet);
+
+        // Then both are charged
+        assertThat(charges).hasValue(2);
+    }
+
+    @Test
+    void itShouldRejectKeyReusedWithAnotherRequest() {
+        // Given a completed key
+        AtomicInteger charges = new AtomicInteger();
+        execute(CUSTOMER, "key-1", "hash-1", charges::incrementAndGet);
+
+        // When
+        // Then
+        assertThatThrownBy(() -> execute(CUSTOMER, "key-1", "hash-2", charges::incrementAndGet))
+            .isInstanceOf(IdempotencyKeyMismatchException.class)
+            .hasMessageContaining("key-1");
+        assertThat(charges).hasValue(1);
+    }
+
+    @Test
+    void itShouldRejectKeyFoundInDatabaseWithAnotherRequest() {
+        // Given a key completed before a restart
+        given(idempotencyRecordRepository.findById(CUSTOMER + ":key-1")).willReturn(Optional.of(
+            new IdempotencyRecord(CUSTOMER + ":key-1", "hash-1", IdempotencyRecord.Status.COMPLETED, clock.instant())));
+        AtomicInteger charges = new AtomicInteger();
+
+        // When
+        // Then
+        assertThatThrownBy(() -> execute(CUSTOMER, "key-1", "hash-2", charges::incrementAndGet))
+            .isInstanceOf(IdempotencyKeyMismatchException.class);
+        assertThat(charges).hasValue(0);
+    }
+
+    @Test
+    void itShouldReplayKeyFoundInDatabase() {
+        // Given a key completed before a restart
+        given(idempotencyRecordRepository.findById(CUSTOMER + ":key-1")).willReturn(Optional.of(
+            new IdempotencyRecord(CUSTOMER + ":key-1", "hash-1", IdempotencyRecord.Status.COMPLETED, clock.instant())));
+        AtomicInteger charges = new AtomicInteger();
+
+        // When
+        execute(CUSTOMER, "key-1", "hash-1", charges::incrementAndGet);
+
+        // Then
+        assertThat(charges).hasValue(0);
+        then(idempotencyRecordRepository).should(never()).save(any());
+    }
+
+    @Test
+    void itShouldCoalesceConcurrentRequestsWithSameKey() {
+        // Given a first request whose charge is still pending
+        CompletableFuture<Void> pendingCharge = new CompletableFuture<>();
+        AtomicInteger charges = new AtomicInteger();
+        CompletableFuture<Void> first = idempotencyStore.executeAsync(CUSTOMER, "key-1", "hash-1", () -> {
+            charges.incrementAndGet();
+            return pendingCharge;
+        }, e -> true);
+
+        // When a second request with the same key arrives, and a third with another request
+        CompletableFuture<Void> second = idempotencyStore.executeAsync(CUSTOMER, "key-1", "hash-1", () -> {
+            charges.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }, e -> true);
+        CompletableFuture<Void> third = idempotencyStore.executeAsync(CUSTOMER, "key-1", "hash-2", () -> {
+            charges.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }, e -> true);
+
+        // Then it waits on the first charge instead of charging again
+        assertThat(second).isNotDone();
+        assertThat(third).hasFailedWithThrowableThat().isInstanceOf(IdempotencyKeyMismatchException.class);
+        pendingCharge.complete(null);
+        assertThat(first).isCompleted();
+        assertThat(second).isCompleted();
+        assertThat(charges).hasValue(1);
+    }
+
+    @Test
+    void itShouldNotRecordFailureThatHadNoEffect() {
+        // Given
+        AtomicInteger charges = new AtomicInteger();
+
+        // When the first attempt certainly did not charge
+        assertThatThrownBy(() -> idempotencyStore.execute(CUSTOMER, "key-1", "hash-1", () -> {
+            charges.incrementAndGet();
+            throw new IllegalStateException("Card not debited");
+        }, e -> false)).isInstanceOf(IllegalStateException.class).hasMessage("Card not debited");
+
+        // Then the key is free, even for another request
+        execute(CUSTOMER, "key-1", "hash-2", charges::incrementAndGet);
+        assertThat(charges).hasValue(2);
+        then(idempotencyRecordRepository).should(times(1)).save(any());
+    }
+
+    @Test
+    void itShouldRecordFailureWhoseOutcomeIsUnknown() {
+        // Given a first attempt whose answer was lost
+        AtomicInteger charges = new AtomicInteger();
+        assertThatThrownBy(() -> execute(CUSTOMER, "key-1", "hash-1", () -> {
+            charges.incrementAndGet();
+            throw new IllegalStateException("Read timed out");
+        })).isInstanceOf(IllegalStateException.class);
+        ArgumentCaptor<IdempotencyRecord> recordArgumentCaptor = ArgumentCaptor.forClass(IdempotencyRecord.class);
+        then(idempotencyRecordRepository).should().save(recordArgumentCaptor.capture());
+        IdempotencyRecord unknown = recordArgumentCaptor.getValue();
+        assertThat(unknown.getStatus()).isEqualTo(IdempotencyRecord.Status.OUTCOME_UNKNOWN);
+        given(idempotencyRecordRepository.findById(CUSTOMER + ":key-1")).willReturn(Optional.of(unknown));
+
+        // When
+        // Then the key stays bound to its request
+        assertThatThrownBy(() -> execute(CUSTOMER, "key-1", "hash-2", charges::incrementAndGet))
+            .isInstanceOf(IdempotencyKeyMismatchException.class);
+        // and a retry of the same request runs again, to be deduplicated by the provider
+        execute(CUSTOMER, "key-1", "hash-1", charges::incrementAndGet);
+        assertThat(charges).hasValue(2);
+        then(idempotencyRecordRepository).should(times(2)).save(recordArgumentCaptor.capture());
+        assertThat(recordArgumentCaptor.getValue().getStatus()).isEqualTo(IdempotencyRecord.Status.COMPLETED);
+    }
+
+    @Test
+    void itShouldFallBackToDatabaseOnceCachedKeyExpires() {
+        // Given a completed key
+        execute(CUSTOMER, "key-1", "hash-1", () -> { });
+
+        // When the ttl has passed
+        clock.advance(Duration.ofMinutes(11));
+        given(idempotencyRecordRepository.findById(CUSTOMER + ":key-1")).willReturn(Optional.of(
+            new IdempotencyRecord(CUSTOMER + ":key-1", "hash-1", IdempotencyRecord.Status.COMPLETED, clock.instant())));
+        AtomicInteger charges = new AtomicInteger();
+        execute(CUSTOMER, "key-1", "hash-1", charges::incrementAndGet);
+
+        // Then the database still knows the key
+        assertThat(charges).hasValue(0);
+        then(idempotencyRecordRepository).should(times(2)).findById(CUSTOMER + ":key-1"); // once for each execute
+    }
+
+    @Test
+    void itShouldRefuseTooLongKeyBeforeRunningTheOperation() {
+        // Given a key that would not fit the record's primary key once scoped by the customer
+        String idempotencyKey = "k".repeat(IdempotencyStore.MAX_KEY_LENGTH + 1);
+        AtomicInteger charges = new AtomicInteger();
+
+        // When
+        // Then
+        assertThatThrownBy(() -> execute(CUSTOMER, idempotencyKey, "hash-1", charges::incrementAndGet))
+            .isInstanceOf(InvalidIdempotencyKeyException.class);
+        assertThat(charges).hasValue(0);
+        then(idempotencyRecordRepository).shouldHaveNoInteractions();
+        execute(CUSTOMER, "k".repeat(IdempotencyStore.MAX_KEY_LENGTH), "hash-1", charges::incrementAndGet);
+        assertThat(charges).hasValue(1);
+    }
+
+    @Test
+    void itShouldPurgeRecordsOlderThanTheTtl() {
+        // Given
+        given(idempotencyRecordRepository.deleteCreatedBefore(any())).willReturn(3);
+
+        // When
+        idempotencyStore.purgeExpiredRecords();
+
+        // Then
+        then(idempotencyRecordRepository).should().deleteCreatedBefore(Instant.parse("2019-12-31T23:50:00Z"));
+    }
+
+    @Test
+    void itShouldHashRequestsByTheirParts() {
+        // Given
+        // When
+        // Then
+        assertThat(IdempotencyStore.requestHash("10.00 GBP", "card", null))
+            .isEqualTo(IdempotencyStore.requestHash("10.00 GBP", "card", null))
+            .hasSize(64)
+            .isNotEqualTo(IdempotencyStore.requestHash("10.00 GBP", "car", "d"));
+    }
+
+    // every failure may have taken effect unless a test says otherwise
+    private void execute(UUID customerId, String idempotencyKey, String requestHash, Runnable operation) {
+        idempotencyStore.execute(customerId, idempotencyKey, requestHash, operation, e -> true);
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
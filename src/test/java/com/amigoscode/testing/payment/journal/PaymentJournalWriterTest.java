@@ -0,0 +1,304 @@
+package com.amigoscode.testing.payment.journal;
+
+import com.amigoscode.testing.json.JsonBindingModule;
+import com.amigoscode.testing.payment.ChargeNotAttemptedException;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentRepository;
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.InvalidDataAccessResourceUsageException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+
+public class PaymentJournalWriterTest {
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private PaymentRepository paymentRepository;
+    @Mock
+    private JournalCheckpointRepository journalCheckpointRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JsonBindingModule());
+    private final List<PaymentJournal> journals = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.initMocks(this);
+        given(journalCheckpointRepository.findById(any())).willReturn(Optional.empty());
+    }
+
+    @AfterEach
+    void tearDown() {
+        journals.forEach(PaymentJournal::release);
+    }
+
+    @Test
+    void itShouldJournalPaymentToDiskAndQueueItForTheWriter() throws Exception {
+        // Given
+        PaymentJournal journal = journal();
+        Payment payment = payment("Zakat");
+
+        // When
+        journal.append(payment);
+
+        // Then the segment holds one line per payment
+        List<String> lines = Files.readAllLines(directory.resolve(journal.getSegment()));
+        assertThat(lines).hasSize(1);
+        JournalEntry journaled = objectMapper.readValue(lines.get(0), JournalEntry.class);
+        assertThat(journaled.getSequence()).isEqualTo(1);
+        assertThat(journaled.getPayment()).isEqualToComparingFieldByField(payment);
+
+        // ... and the writer can take it
+        List<JournalEntry> batch = new ArrayList<>();
+        assertThat(journal.drainTo(batch, 10, 0, TimeUnit.MILLISECONDS)).isEqualTo(1);
+        assertThat(batch.get(0).getPayment()).isSameAs(payment);
+    }
+
+    @Test
+    void itShouldStoreBatchTogetherWithCheckpoint() {
+        // Given
+        PaymentJournal journal = journal();
+        PaymentJournalWriter writer = writer(journal);
+        List<JournalEntry> batch = List.of(
+            new JournalEntry(1, payment("a")),
+            new JournalEntry(2, payment("b")));
+
+        // When
+        writer.store(journal.getSegment(), batch);
+
+        // Then
+        ArgumentCaptor<JournalCheckpoint> checkpointArgumentCaptor = ArgumentCaptor.forClass(JournalCheckpoint.class);
+        then(paymentRepository).should().saveAllInBatches(anyList());
+        then(journalCheckpointRepository).should().save(checkpointArgumentCaptor.capture());
+        assertThat(checkpointArgumentCaptor.getValue().getSegment()).isEqualTo(journal.getSegment());
+        assertThat(checkpointArgumentCaptor.getValue().getLastSequence()).isEqualTo(2);
+        then(transactionManager).should().commit(any());
+    }
+
+    @Test
+    void itShouldDeadLetterPaymentTheDatabaseRefusesAndStoreTheOthers() throws Exception {
+        // Given a batch with a payment the database refuses for good
+        PaymentJournal journal = journal();
+        PaymentJournalWriter writer = writer(journal);
+        JournalEntry poison = new JournalEntry(1, payment("poison"));
+        List<JournalEntry> batch = List.of(poison, new JournalEntry(2, payment("valid")));
+        given(paymentRepository.saveAllInBatches(anyList())).willAnswer(invocation -> {
+            List<Payment> payments = invocation.getArgument(0);
+            if (payments.stream().anyMatch(payment -> payment.getDescription().equals("poison"))) {
+                throw new DataIntegrityViolationException("Value too long for column DESCRIPTION");
+            }
+            return payments;
+        });
+
+        // When
+        writer.store(journal.getSegment(), batch);
+
+        // Then the valid payment is stored on its own
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Payment>> paymentsArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        then(paymentRepository).should(times(3)).saveAllInBatches(paymentsArgumentCaptor.capture());
+        assertThat(paymentsArgumentCaptor.getValue())
+            .extracting(Payment::getDescription)
+            .containsExactly("valid");
+
+        // ... the refused one is in the dead letter file, in the format of a segment
+        List<String> deadLetters = Files.readAllLines(
+            directory.resolve(PaymentJournalWriter.DEAD_LETTER_PREFIX + journal.getSegment()));
+        assertThat(deadLetters).hasSize(1);
+        assertThat(objectMapper.readValue(deadLetters.get(0), JournalEntry.class).getSequence()).isEqualTo(1);
+
+        // ... and the checkpoint moved past both
+        ArgumentCaptor<JournalCheckpoint> checkpointArgumentCaptor = ArgumentCaptor.forClass(JournalCheckpoint.class);
+        then(journalCheckpointRepository).should(times(2)).save(checkpointArgumentCaptor.capture());
+        assertThat(checkpointArgumentCaptor.getAllValues())
+            .extracting(JournalCheckpoint::getLastSequence)
+            .containsExactly(1L, 2L);
+    }
+
+    @Test
+    void itShouldThrowTransientFailureForRetry() {
+        // Given
+        PaymentJournal journal = journal();
+        PaymentJournalWriter writer = writer(journal);
+        given(paymentRepository.saveAllInBatches(anyList()))
+            .willThrow(new InvalidDataAccessResourceUsageException("Connection is closed"));
+
+        // When
+        // Then nothing is dead lettered
+        assertThatThrownBy(() -> writer.store(journal.getSegment(), List.of(new JournalEntry(1, payment("a")))))
+            .isInstanceOf(InvalidDataAccessResourceUsageException.class);
+        assertThat(directory.resolve(PaymentJournalWriter.DEAD_LETTER_PREFIX + journal.getSegment())).doesNotExist();
+    }
+
+    @Test
+    void itShouldRefuseChargesWhileTooManyPaymentsWaitForTheDatabase() {
+        // Given a journal that takes 2 pending payments
+        PaymentJournal journal = journal();
+        journal.append(payment("a"));
+        journal.checkCapacity();
+        journal.append(payment("b"));
+
+        // When
+        // Then
+        assertThatThrownBy(journal::checkCapacity)
+            .isInstanceOf(ChargeNotAttemptedException.class)
+            .hasMessageContaining("[2] payments waiting");
+    }
+
+    @Test
+    void itShouldReplayOrphanedSegmentPastItsCheckpoint() throws Exception {
+        // Given a segment left behind by a crashed instance, with a torn last line
+        String orphan = PaymentJournal.SEGMENT_PREFIX + UUID.randomUUID() + PaymentJournal.SEGMENT_SUFFIX;
+        Files.write(directory.resolve(orphan), List.of(
+            objectMapper.writeValueAsString(new JournalEntry(1, payment("stored"))),
+            objectMapper.writeValueAsString(new JournalEntry(2, payment("lost-1"))),
+            objectMapper.writeValueAsString(new JournalEntry(3, payment("lost-2"))),
+            "{\"sequence\":4,\"paym"));
+        // ... of which the first entry is in the database already
+        given(journalCheckpointRepository.findById(orphan)).willReturn(Optional.of(new JournalCheckpoint(orphan, 1)));
+
+        PaymentJournalWriter writer = writer(journal());
+
+        // When
+        writer.recover();
+
+        // Then only the entries past the checkpoint are stored
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Payment>> paymentsArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        then(paymentRepository).should().saveAllInBatches(paymentsArgumentCaptor.capture());
+        assertThat(paymentsArgumentCaptor.getValue())
+            .extracting(Payment::getDescription)
+            .containsExactly("lost-1", "lost-2");
+
+        // ... and the segment is gone
+        assertThat(directory.resolve(orphan)).doesNotExist();
+        then(journalCheckpointRepository).should().delete(any(JournalCheckpoint.class));
+    }
+
+    @Test
+    void itShouldKeepSegmentWithUnreadableLineBeforeReadableOnes() throws Exception {
+        // Given a segment with a line that cannot be read in the middle
+        String orphan = PaymentJournal.SEGMENT_PREFIX + UUID.randomUUID() + PaymentJournal.SEGMENT_SUFFIX;
+        Files.write(directory.resolve(orphan), List.of(
+            objectMapper.writeValueAsString(new JournalEntry(1, payment("before"))),
+            "{\"sequence\":2,\"paym",
+            objectMapper.writeValueAsString(new JournalEntry(3, payment("after")))));
+
+        PaymentJournalWriter writer = writer(journal());
+
+        // When
+        writer.recover();
+
+        // Then the readable entries are stored
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Payment>> paymentsArgumentCaptor = ArgumentCaptor.forClass(List.class);
+        then(paymentRepository).should().saveAllInBatches(paymentsArgumentCaptor.capture());
+        assertThat(paymentsArgumentCaptor.getValue())
+            .extracting(Payment::getDescription)
+            .containsExactly("before", "after");
+
+        // ... and the segment is kept with its checkpoint
+        assertThat(directory.resolve(orphan)).exists();
+        then(journalCheckpointRepository).should(never()).delete(any(JournalCheckpoint.class));
+    }
+
+    @Test
+    void itShouldNotReplaySegmentOfRunningJournal() {
+        // Given a journal that is still running
+        PaymentJournal running = journal();
+        running.append(payment("in flight"));
+
+        PaymentJournalWriter writer = writer(journal());
+
+        // When
+        writer.recover();
+
+        // Then
+        then(paymentRepository).should(never()).saveAllInBatches(anyList());
+        assertThat(directory.resolve(running.getSegment())).exists();
+    }
+
+    @Test
+    void itShouldDeleteSegmentOnReleaseOnlyWhenEverythingIsStored() {
+        // Given
+        PaymentJournal stored = journal();
+        stored.append(payment("a"));
+        stored.stored(1);
+
+        PaymentJournal notStored = journal();
+        notStored.append(payment("b"));
+
+        // When
+        boolean storedDeleted = stored.release();
+        boolean notStoredDeleted = notStored.release();
+
+        // Then
+        assertThat(storedDeleted).isTrue();
+        assertThat(directory.resolve(stored.getSegment())).doesNotExist();
+        assertThat(notStoredDeleted).isFalse();
+        assertThat(directory.resolve(notStored.getSegment())).exists();
+    }
+
+    @Test
+    void itShouldStopWhenTheCheckpointTableIsGone() {
+        // Given a writer that drained everything
+        PaymentJournal journal = journal();
+        PaymentJournalWriter writer = writer(journal);
+        writer.start();
+        // ... on a database another context dropped the schema of
+        given(journalCheckpointRepository.findById(journal.getSegment()))
+            .willThrow(new InvalidDataAccessResourceUsageException("Table \"JOURNAL_CHECKPOINT\" not found"));
+
+        // When
+        writer.stop();
+
+        // Then the stop completes and the stored segment is gone
+        assertThat(writer.isRunning()).isFalse();
+        assertThat(directory.resolve(journal.getSegment())).doesNotExist();
+    }
+
+    private PaymentJournal journal() {
+        PaymentJournal journal = new PaymentJournal(objectMapper, directory.toString(), 2);
+        journals.add(journal);
+        return journal;
+    }
+
+    private PaymentJournalWriter writer(PaymentJournal journal) {
+        return new PaymentJournalWriter(journal, paymentRepository, new PaymentShards(1), journalCheckpointRepository,
+            transactionManager, objectMapper, 10, 1024, 10);
+    }
+
+    private static Payment payment(String description) {
+        return new Payment(null, UUID.randomUUID(), Money.parse("10.00", Currency.USD), "card", description);
+    }
+}
@@ -0,0 +1,101 @@
+package com.amigoscode.testing.payment.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InMemoryTokenBucketStoreTest {
+
+    // 3 tokens, one more every 100 ms
+    private final RateLimit limit = new RateLimit(3, 10);
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    @Test
+    void itShouldLetTheBurstThroughAndThenAskToWaitForTheRefill() {
+        // Given
+        InMemoryTokenBucketStore store = new InMemoryTokenBucketStore(4, 100, nanoTime::get);
+
+        // When
+        long[] waits = new long[4];
+        for (int i = 0; i < waits.length; i++) {
+            waits[i] = store.tryAcquire("customer:1", limit);
+        }
+
+        // Then
+        assertThat(waits).containsExactly(0, 0, 0, TimeUnit.MILLISECONDS.toNanos(100));
+
+        // ... a token comes back once the wait is over, and only one
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertThat(store.tryAcquire("customer:1", limit)).isZero();
+        assertThat(store.tryAcquire("customer:1", limit)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    void itShouldKeepTheBucketsOfKeysApart() {
+        // Given
+        InMemoryTokenBucketStore store = new InMemoryTokenBucketStore(4, 100, nanoTime::get);
+        for (int i = 0; i < 3; i++) {
+            store.tryAcquire("customer:1", limit);
+        }
+
+        // When
+        // Then
+        assertThat(store.tryAcquire("customer:1", limit)).isPositive();
+        assertThat(store.tryAcquire("customer:2", limit)).isZero();
+    }
+
+    @Test
+    void itShouldDropBucketsOnceTheyAreFullAgain() {
+        // Given
+        InMemoryTokenBucketStore store = new InMemoryTokenBucketStore(1, 100, nanoTime::get);
+        store.tryAcquire("customer:1", limit);
+        store.tryAcquire("customer:2", limit);
+        store.tryAcquire("customer:2", limit);
+
+        // When the first bucket has refilled, the second not yet
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(150));
+        store.tryAcquire("customer:3", limit);
+
+        // Then
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    void itShouldHoldAtMostMaxKeys() {
+        // Given
+        InMemoryTokenBucketStore store = new InMemoryTokenBucketStore(2, 10, nanoTime::get);
+
+        // When
+        for (int i = 0; i < 1000; i++) {
+            store.tryAcquire("customer:" + i, limit);
+        }
+
+        // Then
+        assertThat(store.size()).isLessThanOrEqualTo(10);
+    }
+
+    @Test
+    void itShouldNotResetTheLimitOfAKeyWhenNewKeysFloodTheStore() {
+        // Given customer:1 has used its burst
+        InMemoryTokenBucketStore store = new InMemoryTokenBucketStore(1, 10, nanoTime::get);
+        for (int i = 0; i < 3; i++) {
+            store.tryAcquire("customer:1", limit);
+        }
+
+        // When
+        long[] floodWaits = new long[1000];
+        for (int i = 0; i < floodWaits.length; i++) {
+            floodWaits[i] = store.tryAcquire("flood:" + i, limit);
+        }
+
+        // Then customer:1 still waits for its refill
+        assertThat(store.tryAcquire("customer:1", limit)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        // ... the keys past the cap shared one bucket, its burst and no more
+        assertThat(store.size()).isEqualTo(10);
+        assertThat(Arrays.stream(floodWaits).filter(wait -> wait == 0).count()).isEqualTo(9 + 3);
+    }
+}
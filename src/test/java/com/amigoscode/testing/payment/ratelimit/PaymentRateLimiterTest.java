@@ -0,0 +1,73 @@
+package com.amigoscode.testing.payment.ratelimit;
+
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.Payment;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PaymentRateLimiterTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final TokenBucketStore store = new InMemoryTokenBucketStore(4, 100, nanoTime::get);
+
+    @Test
+    void itShouldLimitPaymentsOfACustomer() {
+        // Given one payment a second per customer, any number per source
+        PaymentRateLimiter limiter = new PaymentRateLimiter(store, true, new RateLimit(1, 1),
+            new RateLimit(100, 100));
+        UUID customerId = UUID.randomUUID();
+        limiter.acquire(payment(customerId, "card1"));
+
+        // When
+        // Then even with another card
+        assertThatThrownBy(() -> limiter.acquire(payment(customerId, "card2")))
+            .isInstanceOf(RateLimitExceededException.class)
+            .hasMessageContaining("rate limit of the customer exceeded")
+            .satisfies(e -> assertThat(((RateLimitExceededException) e).getRetryAfterSeconds()).isEqualTo(1));
+        assertThatCode(() -> limiter.acquire(payment(UUID.randomUUID(), "card2"))).doesNotThrowAnyException();
+    }
+
+    @Test
+    void itShouldLimitPaymentsWithACardSource() {
+        // Given one payment every two seconds per source
+        PaymentRateLimiter limiter = new PaymentRateLimiter(store, true, new RateLimit(100, 100),
+            new RateLimit(1, 0.5));
+        limiter.acquire(payment(UUID.randomUUID(), "card1"));
+
+        // When
+        // Then even for another customer
+        assertThatThrownBy(() -> limiter.acquire(payment(UUID.randomUUID(), "card1")))
+            .isInstanceOf(RateLimitExceededException.class)
+            .hasMessageContaining("rate limit of the card source exceeded")
+            .satisfies(e -> assertThat(((RateLimitExceededException) e).getRetryAfterSeconds()).isEqualTo(2));
+
+        // ... until the source's bucket refilled
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertThatCode(() -> limiter.acquire(payment(UUID.randomUUID(), "card1"))).doesNotThrowAnyException();
+    }
+
+    @Test
+    void itShouldLetEverythingThroughWhenDisabled() {
+        // Given
+        PaymentRateLimiter limiter = new PaymentRateLimiter(store, false, new RateLimit(1, 1), new RateLimit(1, 1));
+        UUID customerId = UUID.randomUUID();
+
+        // When
+        // Then
+        for (int i = 0; i < 5; i++) {
+            assertThatCode(() -> limiter.acquire(payment(customerId, "card1"))).doesNotThrowAnyException();
+        }
+    }
+
+    private static Payment payment(UUID customerId, String source) {
+        return new Payment(null, customerId, Money.parse("10.00", Currency.USD), source, "Donation");
+    }
+}
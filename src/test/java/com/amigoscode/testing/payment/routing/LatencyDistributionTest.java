@@ -0,0 +1,86 @@
+package com.amigoscode.testing.payment.routing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LatencyDistributionTest {
+
+    @Test
+    void itShouldParseFixedLatency() {
+        // Given
+        LatencyDistribution latency = LatencyDistribution.parse("fixed:50");
+
+        // When
+        // Then
+        assertThat(latency.sampleMillis(new Random(1))).isEqualTo(50);
+    }
+
+    @Test
+    void itShouldKeepUniformLatencyInItsRange() {
+        // Given
+        LatencyDistribution latency = LatencyDistribution.parse("uniform:20-80");
+        Random random = new Random(1);
+
+        // When
+        // Then
+        for (int i = 0; i < 1000; i++) {
+            assertThat(latency.sampleMillis(random)).isBetween(20L, 80L);
+        }
+    }
+
+    @Test
+    void itShouldMatchMedianAndP99OfLogNormalLatency() {
+        // Given
+        LatencyDistribution latency = LatencyDistribution.parse("lognormal:50,400");
+        Random random = new Random(1);
+
+        // When
+        long[] samples = new long[100_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = latency.sampleMillis(random);
+        }
+        Arrays.sort(samples);
+
+        // Then
+        assertThat(samples[samples.length / 2]).isBetween(48L, 52L);
+        assertThat(samples[(int) (samples.length * 0.99)]).isBetween(370L, 430L);
+    }
+
+    @Test
+    void itShouldMatchMeanOfNormalLatencyAndNeverGoBelowZero() {
+        // Given
+        LatencyDistribution latency = LatencyDistribution.parse("normal:50,10");
+        LatencyDistribution wide = LatencyDistribution.parse("normal:5,50");
+        Random random = new Random(1);
+
+        // When
+        long total = 0;
+        for (int i = 0; i < 100_000; i++) {
+            total += latency.sampleMillis(random);
+            assertThat(wide.sampleMillis(random)).isNotNegative();
+        }
+
+        // Then
+        assertThat(total / 100_000.0).isBetween(49.5, 50.5);
+    }
+
+    @Test
+    void itShouldRejectUnknownLatency() {
+        // When
+        // Then
+        assertThatThrownBy(() -> LatencyDistribution.parse("gamma:50,10"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("gamma:50,10");
+        // normal needs a standard deviation
+        assertThatThrownBy(() -> LatencyDistribution.parse("normal:50"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("normal:50");
+        assertThatThrownBy(() -> LatencyDistribution.parse("uniform:80"))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
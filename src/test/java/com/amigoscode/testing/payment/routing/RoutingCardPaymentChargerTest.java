@@ -0,0 +1,189 @@
+package com.amigoscode.testing.payment.routing;
+
+import com.amigoscode.testing.payment.CardPaymentCharge;
+import com.amigoscode.testing.payment.CardPaymentCharger;
+import com.amigoscode.testing.payment.ChargeNotAttemptedException;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RoutingCardPaymentChargerTest {
+
+    private static final Money AMOUNT = Money.of(1000, Currency.USD);
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final ExecutorService hedgeExecutor = Executors.newFixedThreadPool(4);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void tearDown() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    @Test
+    void itShouldRouteToFasterProviderOnceBothAreWarm() {
+        // Given two providers with 5 samples each, the first one configured takes 300ms and the second 100ms
+        Map<String, CardPaymentCharger> providers = new LinkedHashMap<>();
+        providers.put("slow", advancingClock(300, new AtomicInteger()));
+        AtomicInteger fastCharges = new AtomicInteger();
+        providers.put("fast", advancingClock(100, fastCharges));
+        RoutingCardPaymentCharger router = router(providers, Set.of(), nanoTime::get);
+
+        // When
+        for (int i = 0; i < 20; i++) {
+            router.chargeCard("card", AMOUNT, null);
+        }
+
+        // Then only the warm up went to the slow provider
+        assertThat(router.getRanking()).containsExactly("fast", "slow");
+        assertThat(fastCharges.get()).isEqualTo(15);
+    }
+
+    @Test
+    void itShouldAvoidProviderFailingAboveTheErrorRate() {
+        // Given a fast provider that fails every charge
+        Map<String, CardPaymentCharger> providers = new LinkedHashMap<>();
+        providers.put("failing", (source, amount, description) -> {
+            throw new IllegalStateException("boom");
+        });
+        providers.put("healthy", advancingClock(200, new AtomicInteger()));
+        RoutingCardPaymentCharger router = router(providers, Set.of(), nanoTime::get);
+
+        // When it has failed often enough to be judged
+        for (int i = 0; i < 5; i++) {
+            assertThatThrownBy(() -> router.chargeCard("card", AMOUNT, null)).hasMessage("boom");
+        }
+
+        // Then charges go elsewhere
+        assertThat(router.getRanking()).containsExactly("healthy", "failing");
+        assertThat(router.chargeCard("card", AMOUNT, null).isCardDebited()).isTrue();
+    }
+
+    @Test
+    void itShouldFailOverWhenProviderDidNotAttemptTheCharge() {
+        // Given
+        AtomicInteger backupCharges = new AtomicInteger();
+        Map<String, CardPaymentCharger> providers = new LinkedHashMap<>();
+        providers.put("open", (source, amount, description) -> {
+            throw new ChargeNotAttemptedException("circuit breaker is open");
+        });
+        providers.put("backup", advancingClock(100, backupCharges));
+        RoutingCardPaymentCharger router = router(providers, Set.of(), nanoTime::get);
+
+        // When
+        CardPaymentCharge charge = router.chargeCard("card", AMOUNT, null);
+
+        // Then
+        assertThat(charge.isCardDebited()).isTrue();
+        assertThat(backupCharges.get()).isEqualTo(1);
+        assertThat(meterRegistry.get("payment.routing.charges")
+            .tag("provider", "open").tag("outcome", "not_attempted").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldFailWhenNoProviderAttemptedTheCharge() {
+        // Given
+        Map<String, CardPaymentCharger> providers = new LinkedHashMap<>();
+        providers.put("open", (source, amount, description) -> {
+            throw new ChargeNotAttemptedException("circuit breaker is open");
+        });
+        RoutingCardPaymentCharger router = router(providers, Set.of(), nanoTime::get);
+
+        // When
+        // Then
+        assertThatThrownBy(() -> router.chargeCard("card", AMOUNT, null))
+            .isInstanceOf(ChargeNotAttemptedException.class)
+            .hasMessageContaining("circuit breaker is open");
+    }
+
+    @Test
+    void itShouldHedgeSlowChargeToHedgeableSecondary() {
+        // Given a primary stuck for 2s and a secondary answering at once, both hedgeable
+        SimulatedCardPaymentCharger stuck = new SimulatedCardPaymentCharger("stuck",
+            LatencyDistribution.fixed(2000), 0, 0, new Random(1));
+        SimulatedCardPaymentCharger quick = new SimulatedCardPaymentCharger("quick",
+            LatencyDistribution.fixed(0), 0, 0, new Random(1));
+        Map<String, CardPaymentCharger> providers = new LinkedHashMap<>();
+        providers.put("stuck", stuck);
+        providers.put("quick", quick);
+        RoutingCardPaymentCharger router = router(providers, Set.of("stuck", "quick"), System::nanoTime);
+
+        // When
+        long start = System.nanoTime();
+        CardPaymentCharge charge = router.chargeCard("card", AMOUNT, null);
+
+        // Then the answer of the secondary is taken without waiting for the primary
+        assertThat(charge.isCardDebited()).isTrue();
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+        assertThat(quick.getCharges()).isEqualTo(1);
+        assertThat(meterRegistry.get("payment.routing.hedges").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldNotHedgeWhenSecondaryIsNotHedgeable() {
+        // Given
+        SimulatedCardPaymentCharger slow = new SimulatedCardPaymentCharger("slow",
+            LatencyDistribution.fixed(100), 0, 0, new Random(1));
+        SimulatedCardPaymentCharger quick = new SimulatedCardPaymentCharger("quick",
+            LatencyDistribution.fixed(0), 0, 0, new Random(1));
+        Map<String, CardPaymentCharger> providers = new LinkedHashMap<>();
+        providers.put("slow", slow);
+        providers.put("quick", quick);
+        RoutingCardPaymentCharger router = router(providers, Set.of("slow"), System::nanoTime);
+
+        // When
+        router.chargeCard("card", AMOUNT, null);
+
+        // Then
+        assertThat(slow.getCharges()).isEqualTo(1);
+        assertThat(quick.getCharges()).isZero();
+        assertThat(meterRegistry.get("payment.routing.hedges").counter().count()).isZero();
+    }
+
+    @Test
+    void itShouldKeepConfiguredOrderWhileProvidersAreCold() {
+        // Given
+        Map<String, CardPaymentCharger> providers = new LinkedHashMap<>();
+        providers.put("a", advancingClock(300, new AtomicInteger()));
+        providers.put("b", advancingClock(100, new AtomicInteger()));
+
+        // When
+        RoutingCardPaymentCharger router = router(providers, Set.of(), nanoTime::get);
+
+        // Then
+        assertThat(router.getRanking()).isEqualTo(List.of("a", "b"));
+    }
+
+    // window of 10, judged after 5 samples, above 20% errors is unhealthy, hedge after 10ms at the earliest
+    private RoutingCardPaymentCharger router(Map<String, CardPaymentCharger> providers, Set<String> hedgeable,
+        LongSupplier clock) {
+        return new RoutingCardPaymentCharger(providers, hedgeable, hedgeExecutor, meterRegistry,
+            10, 60_000, 5, 0.2, 10, clock);
+    }
+
+    // a provider that takes latencyMillis on the test clock
+    private CardPaymentCharger advancingClock(long latencyMillis, AtomicInteger charges) {
+        return (source, amount, description) -> {
+            charges.incrementAndGet();
+            nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+            return new CardPaymentCharge(true);
+        };
+    }
+}
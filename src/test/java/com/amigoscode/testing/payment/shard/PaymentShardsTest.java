@@ -0,0 +1,78 @@
+package com.amigoscode.testing.payment.shard;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PaymentShardsTest {
+
+    private final PaymentShards paymentShards = new PaymentShards(4);
+
+    @AfterEach
+    void tearDown() {
+        paymentShards.shutdown();
+    }
+
+    @Test
+    void itShouldSpreadCustomersOverEveryShard() {
+        // Given
+        int[] customers = new int[paymentShards.getShardCount()];
+
+        // When
+        for (int i = 0; i < 10_000; i++) {
+            customers[paymentShards.shardOf(UUID.randomUUID())]++;
+        }
+
+        // Then every shard gets roughly a quarter
+        for (int shardCustomers : customers) {
+            assertThat(shardCustomers).isBetween(2_000, 3_000);
+        }
+    }
+
+    @Test
+    void itShouldKeepShardInPaymentId() {
+        // Given
+        long paymentId = ShardedPaymentIdGenerator.paymentId(3, 1234);
+
+        // When
+        // Then
+        assertThat(paymentShards.shardOfPaymentId(paymentId)).isEqualTo(3);
+        assertThat(ShardedPaymentIdGenerator.paymentId(0, 1234)).isEqualTo(1234);
+        // ... and ids stay exact as javascript numbers
+        assertThat(ShardedPaymentIdGenerator.paymentId(ShardedPaymentIdGenerator.MAX_SHARDS - 1,
+            (1L << ShardedPaymentIdGenerator.SEQUENCE_BITS) - 1)).isEqualTo((1L << 53) - 1);
+    }
+
+    @Test
+    void itShouldBindShardOnlyForTheAction() {
+        // When
+        int bound = paymentShards.onShard(2, PaymentShards::currentShard);
+
+        // Then
+        assertThat(bound).isEqualTo(2);
+        assertThat(PaymentShards.currentShard()).isZero();
+    }
+
+    @Test
+    void itShouldGatherResultsOfEveryShardInShardOrder() {
+        // When
+        List<Integer> shards = paymentShards.onEveryShard(shard -> PaymentShards.currentShard());
+
+        // Then
+        assertThat(shards).containsExactly(0, 1, 2, 3);
+    }
+
+    @Test
+    void itShouldRejectMoreShardsThanPaymentIdsCanHold() {
+        // When
+        // Then
+        assertThatThrownBy(() -> new PaymentShards(ShardedPaymentIdGenerator.MAX_SHARDS + 1))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("between 1 and 2048");
+    }
+}
@@ -0,0 +1,188 @@
+package com.amigoscode.testing.payment.shard;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRepository;
+import com.amigoscode.testing.payment.BatchPaymentService;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentHistoryPage;
+import com.amigoscode.testing.payment.PaymentHistoryService;
+import com.amigoscode.testing.payment.PaymentRepository;
+import com.amigoscode.testing.payment.PaymentRequest;
+import com.amigoscode.testing.payment.PaymentResult;
+import com.amigoscode.testing.payment.journal.PaymentJournal;
+import com.amigoscode.testing.payment.spend.CustomerSpend;
+import com.amigoscode.testing.payment.spend.CustomerSpendDrift;
+import com.amigoscode.testing.payment.spend.CustomerSpendRebuilder;
+import com.amigoscode.testing.payment.spend.CustomerSpendRepository;
+import com.amigoscode.testing.payment.spend.CustomerSpendService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// three in-memory databases standing in for the shards
+@SpringBootTest(properties = {
+    "payment.sharding.enabled=true",
+    "payment.sharding.urls=jdbc:h2:mem:shard-0,jdbc:h2:mem:shard-1,jdbc:h2:mem:shard-2"
+})
+public class ShardedPaymentsIntegrationTest {
+
+    private static final AtomicInteger PHONE_NUMBERS = new AtomicInteger();
+
+    @Autowired
+    private PaymentShards paymentShards;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private CustomerRepository customerRepository;
+    @Autowired
+    private PaymentRepository paymentRepository;
+    @Autowired
+    private CustomerSpendRepository customerSpendRepository;
+    @Autowired
+    private BatchPaymentService batchPaymentService;
+    @Autowired
+    private PaymentJournal paymentJournal;
+    @Autowired
+    private PaymentHistoryService paymentHistoryService;
+    @Autowired
+    private CustomerSpendService customerSpendService;
+    @Autowired
+    private CustomerSpendRebuilder customerSpendRebuilder;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void itShouldStorePaymentsOnTheShardOfTheirCustomer() {
+        // Given a customer on every shard, all registered on shard 0
+        List<UUID> customerIds = customerOnEveryShard();
+
+        // When
+        List<PaymentRequest> paymentRequests = new ArrayList<>();
+        for (UUID customerId : customerIds) {
+            paymentRequests.add(new PaymentRequest(payment(customerId, "10.00")));
+        }
+        List<PaymentResult> results = batchPaymentService.chargeCards(paymentRequests);
+
+        // Then every payment is on its customer's shard only, and its id says so
+        for (int shard = 0; shard < customerIds.size(); shard++) {
+            UUID customerId = customerIds.get(shard);
+            assertThat(results.get(shard).getStatus()).isEqualTo(PaymentResult.Status.CHARGED);
+            assertThat(paymentShards.shardOfPaymentId(results.get(shard).getPaymentId())).isEqualTo(shard);
+            for (int other = 0; other < paymentShards.getShardCount(); other++) {
+                assertThat(countPayments(other, customerId)).isEqualTo(other == shard ? 1 : 0);
+            }
+        }
+    }
+
+    @Test
+    void itShouldReadHistoryAndSpendFromTheShardOfTheCustomer() throws Exception {
+        // Given payments journaled for a customer of shard 2
+        UUID customerId = customerOnShard(2);
+        paymentJournal.append(payment(customerId, "10.00"));
+        paymentJournal.append(payment(customerId, "2.50"));
+        awaitStored(() -> countPayments(2, customerId) == 2);
+
+        // When
+        PaymentHistoryPage page = paymentHistoryService.getPayments(customerId, 0, 10);
+        List<CustomerSpend> spend = customerSpendService.getSpend(customerId);
+
+        // Then
+        assertThat(page.getPayments()).extracting(Payment::getAmount)
+            .containsExactly(Money.parse("10.00", Currency.USD), Money.parse("2.50", Currency.USD));
+        assertThat(spend).hasSize(1);
+        assertThat(spend.get(0).getTotalMinorUnits()).isEqualTo(1250);
+    }
+
+    @Test
+    void itShouldVerifyAndRebuildSpendOfEveryShard() {
+        // Given payments on every shard
+        List<UUID> customerIds = customerOnEveryShard();
+        for (UUID customerId : customerIds) {
+            paymentShards.onShard(paymentShards.shardOf(customerId),
+                () -> paymentRepository.saveAllInBatches(List.of(payment(customerId, "10.00"))));
+        }
+        // ... and the totals of shard 1 lost
+        paymentShards.runOnShard(1, () -> new TransactionTemplate(transactionManager)
+            .executeWithoutResult(status -> customerSpendRepository.deleteAllSpend()));
+
+        // When
+        CustomerSpendDrift drift = customerSpendRebuilder.verify();
+
+        // Then the drift of shard 1 is reported
+        assertThat(drift.isDrifted()).isTrue();
+        assertThat(drift.getMismatches()).extracting(CustomerSpendDrift.Mismatch::getCustomerId)
+            .contains(customerIds.get(1))
+            .doesNotContain(customerIds.get(0), customerIds.get(2));
+
+        // ... and a rebuild restores it
+        customerSpendRebuilder.rebuild();
+        assertThat(customerSpendRebuilder.verify().isDrifted()).isFalse();
+        assertThat(customerSpendService.getSpend(customerIds.get(1))).hasSize(1);
+    }
+
+    @Test
+    void itShouldNotStorePaymentOnAnotherShard() {
+        // Given
+        UUID customerId = customerOnShard(1);
+
+        // When
+        // Then the repository proxy translates the IllegalStateException
+        assertThatThrownBy(() -> paymentShards.onShard(2,
+            () -> paymentRepository.saveAllInBatches(List.of(payment(customerId, "10.00")))))
+            .isInstanceOf(InvalidDataAccessApiUsageException.class)
+            .hasRootCauseInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("belongs on shard [1], not on shard [2]");
+        assertThat(countPayments(2, customerId)).isZero();
+    }
+
+    private List<UUID> customerOnEveryShard() {
+        List<UUID> customerIds = new ArrayList<>();
+        for (int shard = 0; shard < paymentShards.getShardCount(); shard++) {
+            customerIds.add(customerOnShard(shard));
+        }
+        return customerIds;
+    }
+
+    private UUID customerOnShard(int shard) {
+        UUID customerId = UUID.randomUUID();
+        while (paymentShards.shardOf(customerId) != shard) {
+            customerId = UUID.randomUUID();
+        }
+        customerRepository.save(new Customer(customerId, "Maryam",
+            String.format("+4470000%05d", PHONE_NUMBERS.incrementAndGet())));
+        return customerId;
+    }
+
+    private long countPayments(int shard, UUID customerId) {
+        return paymentShards.onShard(shard, () -> new JdbcTemplate(dataSource)
+            .queryForObject("select count(*) from payment where customer_id = ?", Long.class, customerId));
+    }
+
+    private static Payment payment(UUID customerId, String amount) {
+        return new Payment(null, customerId, Money.parse(amount, Currency.USD), "card123", "Donation");
+    }
+
+    private static void awaitStored(BooleanSupplier stored) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!stored.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.amigoscode.testing.payment.spend;
+
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentRepository;
+import com.amigoscode.testing.payment.shard.PaymentShards;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "customer-spend.rebuild.chunk-size=2") // several chunks even for a handful of payments
+@Import({CustomerSpendService.class, CustomerSpendRebuilder.class, PaymentShards.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED) // the rebuild reads committed payments from other threads
+public class CustomerSpendRebuilderTest {
+
+    @Autowired
+    private PaymentRepository paymentRepository;
+    @Autowired
+    private CustomerSpendRepository customerSpendRepository;
+    @Autowired
+    private CustomerSpendService customerSpendService;
+    @Autowired
+    private CustomerSpendRebuilder customerSpendRebuilder;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    void tearDown() {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            paymentRepository.deleteAll();
+            customerSpendRepository.deleteAllSpend();
+        });
+    }
+
+    @Test
+    void itShouldKeepRunningTotalPerCustomerAndCurrency() {
+        // Given
+        UUID customerId = UUID.randomUUID();
+
+        // When payments are stored in two batches
+        paymentRepository.saveAllInBatches(List.of(
+            payment(customerId, "10.00", Currency.USD),
+            payment(customerId, "2.50", Currency.GBP)));
+        paymentRepository.saveAllInBatches(List.of(
+            payment(customerId, "5.25", Currency.USD)));
+
+        // Then
+        List<CustomerSpend> spend = customerSpendService.getSpend(customerId);
+        assertThat(spend).extracting(CustomerSpend::getCurrency).containsExactly(Currency.USD, Currency.GBP);
+        assertThat(spend.get(0).getTotal()).isEqualTo(Money.parse("15.25", Currency.USD));
+        assertThat(spend.get(0).getPaymentCount()).isEqualTo(2);
+        assertThat(spend.get(1).getTotal()).isEqualTo(Money.parse("2.50", Currency.GBP));
+        assertThat(spend.get(1).getPaymentCount()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldFindNoDriftWhenTotalsWereKeptWithThePayments() {
+        // Given
+        givenPaymentsOfThreeCustomers();
+
+        // When
+        CustomerSpendDrift drift = customerSpendRebuilder.verify();
+
+        // Then
+        assertThat(drift.isDrifted()).isFalse();
+        assertThat(drift.getExpectedRows()).isEqualTo(3);
+        assertThat(drift.getStoredRows()).isEqualTo(3);
+    }
+
+    @Test
+    void itShouldReportDriftAndRebuildTotalsFromPayments() {
+        // Given totals that no longer match the payments
+        List<UUID> customerIds = givenPaymentsOfThreeCustomers();
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            // one extra cent for the first customer
+            customerSpendRepository.addPayments(List.of(payment(customerIds.get(0), "0.01", Currency.USD)));
+            customerSpendRepository.deleteById(new CustomerSpend.Key(customerIds.get(1), Currency.GBP));
+        });
+
+        // When
+        CustomerSpendDrift drift = customerSpendRebuilder.verify();
+
+        // Then
+        assertThat(drift.getDriftedRows()).isEqualTo(2);
+        assertThat(drift.getMismatches())
+            .extracting(CustomerSpendDrift.Mismatch::getCustomerId)
+            .containsExactlyInAnyOrder(customerIds.get(0), customerIds.get(1));
+
+        // When
+        long rebuilt = customerSpendRebuilder.rebuild();
+
+        // Then
+        assertThat(rebuilt).isEqualTo(3);
+        assertThat(customerSpendRebuilder.verify().isDrifted()).isFalse();
+        assertThat(customerSpendService.getSpend(customerIds.get(1)))
+            .extracting(CustomerSpend::getTotal)
+            .containsExactly(Money.parse("7.00", Currency.GBP));
+    }
+
+    @Test
+    void itShouldCountFirstPaymentsOfACustomerStoredConcurrently() throws Exception {
+        // Given a customer without a running total yet
+        UUID customerId = UUID.randomUUID();
+        int writers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // When their first payments are stored at the same time
+        List<Future<List<Payment>>> stored = new ArrayList<>();
+        try {
+            for (int i = 0; i < writers; i++) {
+                stored.add(executor.submit(() -> {
+                    start.await();
+                    return paymentRepository.saveAllInBatches(List.of(payment(customerId, "1.00", Currency.USD)));
+                }));
+            }
+            start.countDown();
+            for (Future<List<Payment>> payments : stored) {
+                payments.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Then none of them failed on the total the others created
+        assertThat(customerSpendService.getSpend(customerId))
+            .extracting(CustomerSpend::getPaymentCount)
+            .containsExactly((long) writers);
+    }
+
+    @Test
+    void itShouldKeepPaymentsStoredDuringARebuild() throws Exception {
+        // Given payments being stored while the totals are rebuilt
+        List<UUID> customerIds = givenPaymentsOfThreeCustomers();
+        AtomicBoolean rebuilding = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Integer> writer = executor.submit(() -> {
+            int written = 0;
+            while (rebuilding.get() || written == 0) {
+                paymentRepository.saveAllInBatches(
+                    List.of(payment(customerIds.get(written % 3), "1.00", Currency.USD)));
+                written++;
+            }
+            return written;
+        });
+
+        // When
+        try {
+            for (int i = 0; i < 5; i++) {
+                customerSpendRebuilder.rebuild();
+            }
+        } finally {
+            rebuilding.set(false);
+        }
+        writer.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        // Then every payment stored during the rebuilds is in the totals
+        assertThat(customerSpendRebuilder.verify().isDrifted()).isFalse();
+    }
+
+    @Test
+    void itShouldNotHoldBackPaymentsOfOtherCustomersWhileATotalIsLocked() throws Exception {
+        // Given a total locked the way a rebuild locks it
+        List<UUID> customerIds = givenPaymentsOfThreeCustomers();
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> rebuild = executor.submit(() -> new TransactionTemplate(transactionManager)
+            .executeWithoutResult(status -> {
+                customerSpendRepository.lockSpend(new CustomerSpend.Key(customerIds.get(0), Currency.USD));
+                locked.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+
+        // When a payment of another customer is stored meanwhile
+        try {
+            assertThat(locked.await(10, TimeUnit.SECONDS)).isTrue();
+            paymentRepository.saveAllInBatches(List.of(payment(customerIds.get(1), "1.00", Currency.GBP)));
+        } finally {
+            release.countDown();
+        }
+        rebuild.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        // Then it did not wait for the lock
+        assertThat(customerSpendService.getSpend(customerIds.get(1)))
+            .extracting(CustomerSpend::getTotal)
+            .containsExactly(Money.parse("8.00", Currency.GBP));
+    }
+
+    private List<UUID> givenPaymentsOfThreeCustomers() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        paymentRepository.saveAllInBatches(List.of(
+            payment(first, "10.00", Currency.USD),
+            payment(second, "3.00", Currency.GBP),
+            payment(first, "1.00", Currency.USD),
+            payment(third, "9.99", Currency.EUR),
+            payment(second, "4.00", Currency.GBP)));
+        return List.of(first, second, third);
+    }
+
+    private static Payment payment(UUID customerId, String amount, Currency currency) {
+        return new Payment(null, customerId, Money.parse(amount, currency), "card123", "Donation");
+    }
+}
@@ -0,0 +1,77 @@
+package com.amigoscode.testing.payment.stripe;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private final long fastCall = TimeUnit.MILLISECONDS.toNanos(10);
+    private final long slowCall = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    void itShouldRejectCallsAboveLimit() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 10, 0.5, 100);
+
+        // When
+        boolean first = limiter.tryAcquire();
+        boolean second = limiter.tryAcquire();
+        boolean third = limiter.tryAcquire();
+
+        // Then
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+        assertThat(third).isFalse();
+        assertThat(limiter.getInFlight()).isEqualTo(2);
+    }
+
+    @Test
+    void itShouldShrinkLimitWhenLatencyRises() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 8, 1, 10, 0.5, 100);
+
+        // When
+        limiter.tryAcquire();
+        limiter.onSuccess(slowCall);
+
+        // Then
+        assertThat(limiter.getLimit()).isEqualTo(4);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void itShouldNotShrinkBelowMinimum() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 10, 0.5, 100);
+
+        // When
+        for (int i = 0; i < 5; i++) {
+            limiter.tryAcquire();
+            limiter.onFailure();
+        }
+
+        // Then
+        assertThat(limiter.getLimit()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldGrowLimitWhileFastAndBusy() {
+        // Given
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 2, 1, 3, 0.5, 100);
+
+        // When the limit is in use and calls are fast
+        limiter.tryAcquire();
+        limiter.tryAcquire();
+        limiter.onSuccess(fastCall);
+        limiter.tryAcquire();
+        limiter.onSuccess(fastCall);
+        limiter.tryAcquire();
+        limiter.onSuccess(fastCall);
+
+        // Then it grows up to the maximum
+        assertThat(limiter.getLimit()).isEqualTo(3);
+    }
+}
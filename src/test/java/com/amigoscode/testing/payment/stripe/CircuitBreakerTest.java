@@ -0,0 +1,102 @@
+package com.amigoscode.testing.payment.stripe;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CircuitBreakerTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    private CircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        // window of 4 calls, opens at 50% failures, calls over 100ms are slow, open for 1s, 2 trial calls
+        circuitBreaker = new CircuitBreaker("test", 4, 4, 0.5, 100, 1000, 2, nanoTime::get);
+    }
+
+    @Test
+    void itShouldOpenWhenFailureRateIsReached() {
+        // Given
+        recordCall(true);
+        recordCall(false);
+        recordCall(true);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED); // not enough calls yet
+
+        // When
+        recordCall(false);
+
+        // Then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    void itShouldCountSlowCallsAsFailures() {
+        // Given
+        long slowCall = TimeUnit.MILLISECONDS.toNanos(150);
+
+        // When
+        for (int i = 0; i < 4; i++) {
+            assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+            circuitBreaker.onSuccess(slowCall);
+        }
+
+        // Then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void itShouldCloseAfterSuccessfulTrialCalls() {
+        // Given an open breaker
+        for (int i = 0; i < 4; i++) {
+            recordCall(false);
+        }
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        // When the open duration has passed
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+
+        // Then only the trial calls are let through
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        // ... and the breaker closes once they succeed
+        circuitBreaker.onSuccess(0);
+        circuitBreaker.onSuccess(0);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void itShouldReopenWhenTrialCallFails() {
+        // Given a half open breaker
+        for (int i = 0; i < 4; i++) {
+            recordCall(false);
+        }
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1001));
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+
+        // When
+        circuitBreaker.onFailure();
+
+        // Then
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+    }
+
+    private void recordCall(boolean succeeded) {
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+        if (succeeded) {
+            circuitBreaker.onSuccess(0);
+        } else {
+            circuitBreaker.onFailure();
+        }
+    }
+}
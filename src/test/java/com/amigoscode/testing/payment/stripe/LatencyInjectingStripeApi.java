@@ -0,0 +1,49 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.stripe.exception.StripeException;
+import com.stripe.model.Charge;
+import com.stripe.net.RequestOptions;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+* Stand in for StripeApi that answers after a configurable delay and can be switched to failing,
+* so tests can degrade "stripe" without a network
+* */
+class LatencyInjectingStripeApi extends StripeApi {
+
+    private volatile long latencyMillis;
+    private volatile StripeException failure;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    void setFailure(StripeException failure) {
+        this.failure = failure;
+    }
+
+    int getCalls() {
+        return calls.get();
+    }
+
+    @Override
+    public Charge create(Map<String, Object> requestMap, RequestOptions options) throws StripeException {
+        calls.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        Charge charge = new Charge();
+        charge.setPaid(true);
+        return charge;
+    }
+}
@@ -0,0 +1,256 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.routing.LatencyDistribution;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.CardException;
+import com.stripe.exception.IdempotencyException;
+import com.stripe.exception.RateLimitException;
+import com.stripe.exception.StripeException;
+import com.stripe.model.Charge;
+import com.stripe.net.RequestOptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SimulatedStripeApiTest {
+
+    private static final Map<String, Object> PARAMS = Map.of("amount", 1050L, "currency", "gbp", "source", "tok_visa");
+
+    @Test
+    void itShouldGiveTheSameOutcomesForTheSameSeed() {
+        // Given
+        Map<SimulatedStripeApi.ErrorType, Double> errors =
+            SimulatedStripeApi.parseErrorRates("api_connection_error:0.1,api_error:0.1,rate_limit_error:0.1");
+        SimulatedStripeApi first = new SimulatedStripeApi(LatencyDistribution.fixed(0), 0.2, errors, 0, 0,
+            new Random(42), System::nanoTime);
+        SimulatedStripeApi second = new SimulatedStripeApi(LatencyDistribution.fixed(0), 0.2, errors, 0, 0,
+            new Random(42), System::nanoTime);
+
+        // When
+        List<String> firstOutcomes = outcomes(first, 200);
+        List<String> secondOutcomes = outcomes(second, 200);
+
+        // Then
+        assertThat(firstOutcomes).isEqualTo(secondOutcomes);
+        assertThat(firstOutcomes).contains("ApiConnectionException", "ApiException", "RateLimitException",
+            "CardException", "Charge");
+    }
+
+    @Test
+    void itShouldChargeWhenNothingIsInjected() throws StripeException {
+        // Given
+        SimulatedStripeApi stripeApi = simulator(LatencyDistribution.fixed(0), 0, Map.of());
+
+        // When
+        Charge charge = stripeApi.create(PARAMS, RequestOptions.getDefault());
+
+        // Then
+        assertThat(charge.getPaid()).isTrue();
+        assertThat(charge.getStatus()).isEqualTo("succeeded");
+        assertThat(charge.getAmount()).isEqualTo(1050L);
+        assertThat(charge.getCurrency()).isEqualTo("gbp");
+        assertThat(charge.getId()).isEqualTo("ch_sim_1");
+        assertThat(stripeApi.getCharges()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldDeclineCardsAsStripeDoes() {
+        // Given
+        SimulatedStripeApi stripeApi = simulator(LatencyDistribution.fixed(0), 1, Map.of());
+
+        // When
+        // Then
+        assertThatThrownBy(() -> stripeApi.create(PARAMS, RequestOptions.getDefault()))
+            .isInstanceOfSatisfying(CardException.class, e -> {
+                assertThat(e.getCode()).isEqualTo("card_declined");
+                assertThat(e.getStatusCode()).isEqualTo(402);
+            });
+        assertThat(stripeApi.getCharges()).isZero();
+    }
+
+    @Test
+    void itShouldThrowTheExceptionOfTheInjectedErrorType() {
+        // Given
+        SimulatedStripeApi serverErrors = simulator(LatencyDistribution.fixed(0), 0,
+            SimulatedStripeApi.parseErrorRates("api_error:1"));
+        SimulatedStripeApi rateLimited = simulator(LatencyDistribution.fixed(0), 0,
+            SimulatedStripeApi.parseErrorRates("rate_limit_error:1"));
+
+        // When
+        // Then
+        assertThatThrownBy(() -> serverErrors.create(PARAMS, RequestOptions.getDefault()))
+            .isInstanceOfSatisfying(ApiException.class, e -> assertThat(e.getStatusCode()).isEqualTo(500));
+        assertThatThrownBy(() -> rateLimited.create(PARAMS, RequestOptions.getDefault()))
+            .isInstanceOfSatisfying(RateLimitException.class, e -> assertThat(e.getStatusCode()).isEqualTo(429));
+    }
+
+    @Test
+    void itShouldRejectUnknownErrorTypesAndRatesAboveOne() {
+        // When
+        // Then
+        assertThatThrownBy(() -> SimulatedStripeApi.parseErrorRates("teapot_error:0.1"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("teapot_error:0.1");
+        assertThatThrownBy(() -> simulator(LatencyDistribution.fixed(0), 0.5,
+            SimulatedStripeApi.parseErrorRates("api_error:0.3,api_connection_error:0.3")))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void itShouldTimeOutCallsSlowerThanTheReadTimeoutAndStillCharge() throws StripeException {
+        // Given
+        SimulatedStripeApi stripeApi = simulator(LatencyDistribution.fixed(10_000), 0, Map.of());
+        RequestOptions options = RequestOptions.builder().setReadTimeout(20).setIdempotencyKey("key-1").build();
+
+        // When
+        long start = System.nanoTime();
+        // Then
+        assertThatThrownBy(() -> stripeApi.create(PARAMS, options))
+            .isInstanceOf(ApiConnectionException.class)
+            .hasMessageContaining("Read timed out");
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(5));
+        assertThat(stripeApi.getCharges()).isEqualTo(1);
+        // ... and a retry with the same key gets the charge without waiting
+        assertThat(stripeApi.create(PARAMS, options).getId()).isEqualTo("ch_sim_1");
+        assertThat(stripeApi.getCharges()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldReplayTheFirstOutcomeOfAnIdempotencyKey() {
+        // Given every card declined, then retried with the same key
+        SimulatedStripeApi stripeApi = simulator(LatencyDistribution.fixed(0), 1, Map.of());
+        RequestOptions options = RequestOptions.builder().setIdempotencyKey("key-2").build();
+        assertThatThrownBy(() -> stripeApi.create(PARAMS, options)).isInstanceOf(CardException.class);
+
+        // When
+        // Then
+        assertThatThrownBy(() -> stripeApi.create(PARAMS, options)).isInstanceOf(CardException.class);
+        assertThat(stripeApi.getRequests()).isEqualTo(2);
+    }
+
+    @Test
+    void itShouldRejectAnIdempotencyKeyReusedWithOtherParameters() throws StripeException {
+        // Given a charge made with a key
+        SimulatedStripeApi stripeApi = simulator(LatencyDistribution.fixed(0), 0, Map.of());
+        RequestOptions options = RequestOptions.builder().setIdempotencyKey("key-3").build();
+        Charge charge = stripeApi.create(PARAMS, options);
+
+        // When the same key comes with another amount
+        Map<String, Object> otherAmount = new HashMap<>(PARAMS);
+        otherAmount.put("amount", 2050L);
+
+        // Then
+        assertThatThrownBy(() -> stripeApi.create(otherAmount, options))
+            .isInstanceOfSatisfying(IdempotencyException.class,
+                e -> assertThat(e.getCode()).isEqualTo("idempotency_key_in_use"));
+        assertThat(stripeApi.create(new HashMap<>(PARAMS), options).getId()).isEqualTo(charge.getId());
+        assertThat(stripeApi.getCharges()).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldChargeLostConnectionsOnlyOnceWithTheSameKey() throws StripeException {
+        // Given every call fails with a connection error
+        SimulatedStripeApi stripeApi = simulator(LatencyDistribution.fixed(0), 0,
+            SimulatedStripeApi.parseErrorRates("api_connection_error:1"));
+
+        // When every key is sent once
+        for (int i = 0; i < 100; i++) {
+            RequestOptions options = RequestOptions.builder().setIdempotencyKey("key-" + i).build();
+            assertThatThrownBy(() -> stripeApi.create(PARAMS, options)).isInstanceOf(ApiConnectionException.class);
+        }
+        long reachedStripe = stripeApi.getCharges();
+        // ... and retried
+        int replayed = 0;
+        for (int i = 0; i < 100; i++) {
+            try {
+                stripeApi.create(PARAMS, RequestOptions.builder().setIdempotencyKey("key-" + i).build());
+                replayed++;
+            } catch (ApiConnectionException e) {
+                // the first call never reached stripe and neither did this one
+            }
+        }
+
+        // Then some reached stripe before the answer was lost, and their retries got the charge back
+        assertThat(reachedStripe).isBetween(20L, 80L);
+        assertThat(replayed).isEqualTo(reachedStripe);
+    }
+
+    @Test
+    void itShouldAnswerCallsOverTheConcurrencyCapWithTooManyRequests() throws Exception {
+        // Given two calls already waiting on a slow stripe
+        SimulatedStripeApi stripeApi = new SimulatedStripeApi(LatencyDistribution.fixed(300), 0, Map.of(), 2, 0,
+            new Random(1), System::nanoTime);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch started = new CountDownLatch(2);
+        List<Future<Charge>> slowCalls = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2; i++) {
+                slowCalls.add(executor.submit(() -> {
+                    started.countDown();
+                    return stripeApi.create(PARAMS, RequestOptions.getDefault());
+                }));
+            }
+            started.await();
+            Thread.sleep(50);
+
+            // When
+            // Then
+            assertThatThrownBy(() -> stripeApi.create(PARAMS, RequestOptions.getDefault()))
+                .isInstanceOfSatisfying(RateLimitException.class,
+                    e -> assertThat(e.getStatusCode()).isEqualTo(429));
+            for (Future<Charge> slowCall : slowCalls) {
+                assertThat(slowCall.get().getPaid()).isTrue();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void itShouldAnswerCallsOverTheRateLimitWithTooManyRequests() throws StripeException {
+        // Given a limit of 2 calls a second and a clock that only moves when told to
+        AtomicLong nanoTime = new AtomicLong();
+        SimulatedStripeApi stripeApi = new SimulatedStripeApi(LatencyDistribution.fixed(0), 0, Map.of(), 0, 2,
+            new Random(1), nanoTime::get);
+        stripeApi.create(PARAMS, RequestOptions.getDefault());
+        stripeApi.create(PARAMS, RequestOptions.getDefault());
+
+        // When
+        // Then
+        assertThatThrownBy(() -> stripeApi.create(PARAMS, RequestOptions.getDefault()))
+            .isInstanceOf(RateLimitException.class);
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(stripeApi.create(PARAMS, RequestOptions.getDefault()).getPaid()).isTrue();
+    }
+
+    private static SimulatedStripeApi simulator(LatencyDistribution latency, double declineRate,
+        Map<SimulatedStripeApi.ErrorType, Double> errors) {
+        return new SimulatedStripeApi(latency, declineRate, errors, 0, 0, new Random(1), System::nanoTime);
+    }
+
+    private static List<String> outcomes(SimulatedStripeApi stripeApi, int calls) {
+        List<String> outcomes = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            try {
+                outcomes.add(stripeApi.create(PARAMS, RequestOptions.getDefault()).getClass().getSimpleName());
+            } catch (StripeException e) {
+                outcomes.add(e.getClass().getSimpleName());
+            }
+        }
+        return outcomes;
+    }
+}
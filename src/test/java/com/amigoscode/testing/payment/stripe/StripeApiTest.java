@@ -0,0 +1,209 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.CardException;
+import com.stripe.model.Charge;
+import com.stripe.net.RequestOptions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// a local MockWebServer stands in for api.stripe.com
+class StripeApiTest {
+
+    private static final String CHARGE = "{\"id\":\"ch_1\",\"object\":\"charge\",\"amount\":1000,"
+        + "\"currency\":\"usd\",\"paid\":true}";
+    private static final RequestOptions OPTIONS = RequestOptions.builder().setApiKey("sk_test_123").build();
+
+    private final MockWebServer stripe = new MockWebServer();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private OkHttpClient okHttpClient;
+
+    @BeforeEach
+    void setUp() {
+        okHttpClient = new StripeHttpConfiguration().stripeOkHttpClient(meterRegistry, 20, 60_000, true);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        stripe.shutdown();
+    }
+
+    @Test
+    void itShouldSendChargeToStripeAndReadItBack() throws Exception {
+        // Given
+        stripe.enqueue(new MockResponse().setBody(CHARGE));
+        StripeApi stripeApi = stripeApi(okHttpClient);
+
+        // When
+        Charge charge = stripeApi.create(chargeParams(), OPTIONS);
+
+        // Then
+        assertThat(charge.getId()).isEqualTo("ch_1");
+        assertThat(charge.getPaid()).isTrue();
+        RecordedRequest request = stripe.takeRequest();
+        assertThat(request.getMethod()).isEqualTo("POST");
+        assertThat(request.getPath()).isEqualTo("/v1/charges");
+        assertThat(request.getHeader("Authorization")).isEqualTo("Bearer sk_test_123");
+        assertThat(request.getBody().readUtf8())
+            .contains("amount=1000", "currency=usd", "source=card123", "description=Donation");
+    }
+
+    @Test
+    void itShouldReuseTheConnectionAndTimeEveryPhase() throws Exception {
+        // Given
+        stripe.enqueue(new MockResponse().setBody(CHARGE));
+        stripe.enqueue(new MockResponse().setBody(CHARGE));
+        StripeApi stripeApi = stripeApi(okHttpClient);
+
+        // When
+        stripeApi.create(chargeParams(), OPTIONS);
+        stripeApi.create(chargeParams(), OPTIONS);
+
+        // Then the second charge is the second request on the first connection
+        assertThat(stripe.takeRequest().getSequenceNumber()).isZero();
+        assertThat(stripe.takeRequest().getSequenceNumber()).isEqualTo(1);
+        assertThat(connections("new")).isEqualTo(1);
+        assertThat(connections("reused")).isEqualTo(1);
+        assertThat(phaseCount("connect")).isEqualTo(1);
+        assertThat(phaseCount("tls")).isZero();
+        assertThat(phaseCount("ttfb")).isEqualTo(2);
+        assertThat(phaseCount("total")).isEqualTo(2);
+    }
+
+    @Test
+    void itShouldMultiplexChargesOverOneHttp2Connection() throws Exception {
+        // Given stripe over tls, offering HTTP/2 in the handshake
+        HeldCertificate certificate = new HeldCertificate.Builder()
+            .addSubjectAlternativeName(InetAddress.getByName("localhost").getCanonicalHostName())
+            .build();
+        HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+            .heldCertificate(certificate)
+            .build();
+        HandshakeCertificates clientCertificates = new HandshakeCertificates.Builder()
+            .addTrustedCertificate(certificate.certificate())
+            .build();
+        stripe.useHttps(serverCertificates.sslSocketFactory(), false);
+        stripe.setProtocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        for (int i = 0; i < 4; i++) {
+            stripe.enqueue(new MockResponse().setBody(CHARGE).setHeadersDelay(100, TimeUnit.MILLISECONDS));
+        }
+        List<Protocol> protocols = new CopyOnWriteArrayList<>();
+        OkHttpClient tlsClient = okHttpClient.newBuilder()
+            .sslSocketFactory(clientCertificates.sslSocketFactory(), clientCertificates.trustManager())
+            .addNetworkInterceptor(chain -> {
+                protocols.add(chain.connection().protocol());
+                return chain.proceed(chain.request());
+            })
+            .build();
+        StripeApi stripeApi = stripeApi(tlsClient);
+
+        // When two charges are in flight at the same time, after a first one opened the connection
+        stripeApi.create(chargeParams(), OPTIONS);
+        CompletableFuture<Charge> second = CompletableFuture.supplyAsync(() -> create(stripeApi));
+        CompletableFuture<Charge> third = CompletableFuture.supplyAsync(() -> create(stripeApi));
+
+        // Then
+        assertThat(second.get(5, TimeUnit.SECONDS).getPaid()).isTrue();
+        assertThat(third.get(5, TimeUnit.SECONDS).getPaid()).isTrue();
+        assertThat(protocols).containsOnly(Protocol.HTTP_2).hasSize(3);
+        assertThat(tlsClient.connectionPool().connectionCount()).isEqualTo(1);
+        assertThat(phaseCount("tls")).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldOpenConnectionsBeforeTheFirstCharge() throws Exception {
+        // Given slow answers, so the warm-up requests overlap and need a connection each
+        for (int i = 0; i < 3; i++) {
+            stripe.enqueue(new MockResponse().setHeadersDelay(100, TimeUnit.MILLISECONDS));
+        }
+        stripe.enqueue(new MockResponse().setBody(CHARGE));
+        StripeConnectionPrewarmer prewarmer = new StripeConnectionPrewarmer(
+            okHttpClient, apiBase(), 3, 5_000);
+
+        // When
+        int warmed = prewarmer.prewarm();
+        stripeApi(okHttpClient).create(chargeParams(), OPTIONS);
+
+        // Then the charge ran on one of the warm connections
+        assertThat(warmed).isEqualTo(3);
+        assertThat(okHttpClient.connectionPool().connectionCount()).isEqualTo(3);
+        assertThat(connections("new")).isEqualTo(3);
+        assertThat(connections("reused")).isEqualTo(1);
+    }
+
+    @Test
+    void itShouldHandStripeErrorsToTheLibrary() {
+        // Given
+        stripe.enqueue(new MockResponse().setResponseCode(402).setBody("{\"error\":{\"type\":\"card_error\","
+            + "\"code\":\"card_declined\",\"message\":\"Your card was declined.\"}}"));
+
+        // When
+        // Then
+        assertThatThrownBy(() -> stripeApi(okHttpClient).create(chargeParams(), OPTIONS))
+            .isInstanceOf(CardException.class)
+            .hasMessageContaining("Your card was declined.");
+    }
+
+    @Test
+    void itShouldApplyTheTimeoutsOfTheRequest() {
+        // Given an answer slower than the read timeout, e.g. cut to a payment's deadline
+        stripe.enqueue(new MockResponse().setBody(CHARGE).setHeadersDelay(2, TimeUnit.SECONDS));
+        RequestOptions options = OPTIONS.toBuilder().setReadTimeout(100).build();
+
+        // When
+        // Then
+        assertThatThrownBy(() -> stripeApi(okHttpClient).create(chargeParams(), options))
+            .isInstanceOf(ApiConnectionException.class)
+            .hasMessageContaining("/v1/charges");
+    }
+
+    private StripeApi stripeApi(OkHttpClient client) {
+        return new StripeApi(new StripeHttpClient(client), apiBase());
+    }
+
+    private String apiBase() {
+        String url = stripe.url("/").toString();
+        return url.substring(0, url.length() - 1);
+    }
+
+    private static Charge create(StripeApi stripeApi) {
+        try {
+            return stripeApi.create(chargeParams(), OPTIONS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, Object> chargeParams() {
+        return StripeService.chargeParams("card123", Money.parse("10.00", Currency.USD), "Donation");
+    }
+
+    private double connections(String connection) {
+        return meterRegistry.get("stripe.http.connections").tag("connection", connection).counter().count();
+    }
+
+    private long phaseCount(String phase) {
+        return meterRegistry.get("stripe.http.phase").tag("phase", phase).timer().count();
+    }
+}
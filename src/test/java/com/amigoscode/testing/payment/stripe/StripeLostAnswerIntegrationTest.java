@@ -0,0 +1,82 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.json.JsonBindingModule;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.web.util.NestedServletException;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+* Every call to the simulated stripe fails with a connection error and StripeService does not retry, so only
+* the client does. Some of those calls charged the card before their answer was lost
+* */
+@SpringBootTest(properties = {
+    "stripe.enabled=true",
+    "stripe.simulator.enabled=true",
+    "stripe.simulator.latency=fixed:1",
+    "stripe.simulator.errors=api_connection_error:1.0",
+    "stripe.simulator.seed=11",
+    "stripe.retry.max-attempts=1"
+})
+@AutoConfigureMockMvc
+public class StripeLostAnswerIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private SimulatedStripeApi simulatedStripeApi;
+
+    @Test
+    void itShouldChargeOnceWhenTheClientRetriesAPaymentWhoseAnswerWasLost() throws Exception {
+        // Given
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JsonBindingModule());
+        UUID customerId = UUID.randomUUID();
+        mockMvc.perform(MockMvcRequestBuilders
+            .put("/api/v1/customer-registration")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(new CustomerRegistrationRequest(
+                new Customer(customerId, "Idris", "+447910099999"))))
+        ).andExpect(status().isOk());
+        String paymentRequest = objectMapper.writeValueAsString(new PaymentRequest(
+            new Payment(null, customerId, Money.parse("5.00", Currency.GBP), "x7x7x7x7", "Sadaqah")));
+
+        // When the client retries with the same key until it is answered with 200
+        int status = 0;
+        int attempts = 0;
+        while (status != 200 && attempts < 8) {
+            attempts++;
+            try {
+                status = mockMvc.perform(MockMvcRequestBuilders
+                    .put("/api/v1/payment")
+                    .header("Idempotency-Key", "order-7")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(paymentRequest)
+                ).andReturn().getResponse().getStatus();
+            } catch (NestedServletException e) {
+                // mock mvc rethrows what a server would answer with 500
+                status = 500;
+            }
+        }
+
+        // Then the charge of the attempt that got lost is replayed instead of charging again
+        assertThat(status).isEqualTo(200);
+        assertThat(attempts).isGreaterThan(1);
+        assertThat(simulatedStripeApi.getCharges()).isEqualTo(1);
+    }
+}
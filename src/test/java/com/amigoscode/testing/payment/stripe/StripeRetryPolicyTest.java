@@ -0,0 +1,83 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.ApiException;
+import com.stripe.exception.AuthenticationException;
+import com.stripe.exception.CardException;
+import com.stripe.exception.InvalidRequestException;
+import com.stripe.exception.RateLimitException;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StripeRetryPolicyTest {
+
+    private final StripeRetryPolicy retryPolicy = new StripeRetryPolicy(3, 25, 1000, new RetryBudget(0.1, 10));
+
+    @Test
+    void itShouldOnlyRetryFailuresThatMaySucceedLater() {
+        assertThat(retryPolicy.isRetryable(new ApiConnectionException("Connection reset"))).isTrue();
+        assertThat(retryPolicy.isRetryable(
+            new RateLimitException("Too many requests", null, "req_1", "rate_limit", 429, null))).isTrue();
+        assertThat(retryPolicy.isRetryable(new ApiException("Server error", "req_1", null, 503, null))).isTrue();
+        // e.g. a conflicting request with the same idempotency key
+        assertThat(retryPolicy.isRetryable(new ApiException("Conflict", "req_1", null, 409, null))).isFalse();
+        assertThat(retryPolicy.isRetryable(
+            new CardException("Declined", "req_1", "card_declined", null, null, null, 402, null))).isFalse();
+        assertThat(retryPolicy.isRetryable(
+            new InvalidRequestException("Bad request", null, "req_1", null, 400, null))).isFalse();
+        assertThat(retryPolicy.isRetryable(
+            new AuthenticationException("Bad key", "req_1", null, 401))).isFalse();
+    }
+
+    @Test
+    void itShouldSpreadDelaysBetweenBaseAndThreeTimesThePreviousDelay() {
+        assertThat(StripeRetryPolicy.decorrelatedJitter(25, 1000, 0, 0)).isEqualTo(25);
+        assertThat(StripeRetryPolicy.decorrelatedJitter(25, 1000, 0, 0.99)).isEqualTo(25);
+        assertThat(StripeRetryPolicy.decorrelatedJitter(25, 1000, 100, 0)).isEqualTo(25);
+        assertThat(StripeRetryPolicy.decorrelatedJitter(25, 1000, 100, 0.5)).isEqualTo(162);
+        assertThat(StripeRetryPolicy.decorrelatedJitter(25, 1000, 100, 0.999)).isEqualTo(299);
+        // capped
+        assertThat(StripeRetryPolicy.decorrelatedJitter(25, 1000, 900, 0.9)).isEqualTo(1000);
+
+        long delay = 0;
+        for (int i = 0; i < 100; i++) {
+            long next = retryPolicy.nextDelayMillis(delay);
+            assertThat(next).isBetween(25L, Math.min(1000L, Math.max(25L, delay * 3)));
+            delay = next;
+        }
+    }
+
+    @Test
+    void itShouldAllowRetriesForATenthOfTheCallsAfterTheBurst() {
+        // Given
+        RetryBudget retryBudget = new RetryBudget(0.1, 10);
+
+        // When the burst is spent
+        for (int i = 0; i < 10; i++) {
+            assertThat(retryBudget.tryAcquireRetry()).isTrue();
+        }
+
+        // Then
+        assertThat(retryBudget.tryAcquireRetry()).isFalse();
+        for (int i = 0; i < 10; i++) {
+            retryBudget.onCall();
+        }
+        assertThat(retryBudget.tryAcquireRetry()).isTrue();
+        assertThat(retryBudget.tryAcquireRetry()).isFalse();
+    }
+
+    @Test
+    void itShouldNotSaveUpMoreThanTheBurst() {
+        // Given
+        RetryBudget retryBudget = new RetryBudget(0.5, 2);
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            retryBudget.onCall();
+        }
+
+        // Then
+        assertThat(retryBudget.getBalance()).isEqualTo(2);
+    }
+}
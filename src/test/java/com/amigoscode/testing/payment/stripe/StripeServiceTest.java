@@ -2,7 +2,15 @@ package com.amigoscode.testing.payment.stripe;
 
 import com.amigoscode.testing.payment.CardPaymentCharge;
 import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Deadline;
+import com.amigoscode.testing.payment.DeadlineExceededException;
+import com.amigoscode.testing.payment.Money;
+import com.stripe.Stripe;
+import com.stripe.exception.ApiConnectionException;
+import com.stripe.exception.CardException;
+import com.stripe.exception.RateLimitException;
 import com.stripe.exception.StripeException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import com.stripe.model.Charge;
 import com.stripe.net.RequestOptions;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,8 +19,9 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.math.BigDecimal;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -30,15 +39,15 @@ public class StripeServiceTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.initMocks(this);
-        stripeService = new StripeService(stripeApi);
+        stripeService = new StripeService(stripeApi, new SimpleMeterRegistry(), circuitBreaker(), concurrencyLimiter(),
+            retryPolicy());
     }
 
     @Test
     void itShouldChargeCard() throws StripeException {
         // Given
         String cardSource = "0x0x0x";
-        BigDecimal amount = new BigDecimal("10.00");
-        Currency usd = Currency.USD;
+        Money amount = Money.parse("10.00", Currency.USD);
         String zakat = "Zakat";
 
         // Successful charge
@@ -48,7 +57,7 @@ public class StripeServiceTest {
 
         // When
         CardPaymentCharge
-            cardPaymentCharge = stripeService.chargeCard(cardSource, amount, usd, zakat);
+            cardPaymentCharge = stripeService.chargeCard(cardSource, amount, zakat);
 
         // Then
         ArgumentCaptor<Map<String, Object>> mapArgumentCaptor = ArgumentCaptor.forClass(Map.class); // capture both arguments
@@ -60,8 +69,8 @@ public class StripeServiceTest {
         // Assert on requestMap
         Map<String, Object> requestMap = mapArgumentCaptor.getValue();
         assertThat(requestMap.keySet()).hasSize(4); // check for 4 keysets
-        assertThat(requestMap.get("amount")).isEqualTo(amount);
-        assertThat(requestMap.get("currency")).isEqualTo(usd);
+        assertThat(requestMap.get("amount")).isEqualTo(1000L); // minor units
+        assertThat(requestMap.get("currency")).isEqualTo("usd");
         assertThat(requestMap.get("source")).isEqualTo(cardSource);
         assertThat(requestMap.get("description")).isEqualTo(zakat);
 
@@ -78,8 +87,7 @@ public class StripeServiceTest {
     void itShouldNotChargeWhenApiThrowsException() throws StripeException {
         // Given
         String cardSource = "0x0x0x";
-        BigDecimal amount = new BigDecimal("10.00");
-        Currency currency = Currency.USD;
+        Money amount = Money.parse("10.00", Currency.USD);
         String description = "Zakat";
 
         // Throw exception when stripe api is called
@@ -88,9 +96,203 @@ public class StripeServiceTest {
 
         // When
         // Then
-        assertThatThrownBy(() -> stripeService.chargeCard(cardSource, amount, currency, description))
+        assertThatThrownBy(() -> stripeService.chargeCard(cardSource, amount, description))
             .isInstanceOf(IllegalStateException.class)
             .hasRootCause(stripeException)
             .hasMessageContaining("Cannot make stripe charge");
     }
+
+    @Test
+    void itShouldFailFastOnceCircuitBreakerOpens() {
+        // Given a stripe that keeps failing
+        LatencyInjectingStripeApi failingStripeApi = new LatencyInjectingStripeApi();
+        failingStripeApi.setFailure(mock(StripeException.class));
+        CircuitBreaker circuitBreaker = circuitBreaker();
+        StripeService degradedStripeService = new StripeService(
+            failingStripeApi, new SimpleMeterRegistry(), circuitBreaker, concurrencyLimiter(), retryPolicy());
+
+        // When more calls fail than the breaker tolerates
+        for (int i = 0; i < 10; i++) {
+            assertThatThrownBy(() -> degradedStripeService.chargeCard("0x0x0x", Money.parse("10.00", Currency.USD), "Zakat"))
+                .isInstanceOf(IllegalStateException.class);
+        }
+
+        // Then stripe is no longer called
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(failingStripeApi.getCalls()).isEqualTo(4);
+        assertThatThrownBy(() -> degradedStripeService.chargeCard("0x0x0x", Money.parse("10.00", Currency.USD), "Zakat"))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("circuit breaker is open");
+    }
+
+    @Test
+    void itShouldBackOffWhenStripeRateLimits() throws StripeException {
+        // Given a stripe answering every call with a 429
+        CircuitBreaker circuitBreaker = circuitBreaker();
+        AdaptiveConcurrencyLimiter concurrencyLimiter = concurrencyLimiter();
+        StripeService rateLimitedStripeService = new StripeService(
+            stripeApi, new SimpleMeterRegistry(), circuitBreaker, concurrencyLimiter, retryPolicy());
+        given(stripeApi.create(anyMap(), any())).willThrow(
+            new RateLimitException("Too many requests", "req_1", "rate_limit", null, 429, null));
+
+        // When
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> rateLimitedStripeService.chargeCard(
+                "0x0x0x", Money.parse("10.00", Currency.USD), "Zakat"))
+                .isInstanceOf(IllegalStateException.class);
+        }
+
+        // Then the 429s count as failures, not as answers of a healthy stripe
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(concurrencyLimiter.getLimit()).isLessThan(10);
+        then(stripeApi).should(times(4)).create(anyMap(), any());
+    }
+
+    @Test
+    void itShouldShrinkConcurrencyLimitWhenStripeSlowsDown() {
+        // Given a stripe answering slower than the latency threshold
+        LatencyInjectingStripeApi slowStripeApi = new LatencyInjectingStripeApi();
+        slowStripeApi.setLatencyMillis(60);
+        AdaptiveConcurrencyLimiter concurrencyLimiter = concurrencyLimiter();
+        StripeService slowStripeService = new StripeService(
+            slowStripeApi, new SimpleMeterRegistry(), circuitBreaker(), concurrencyLimiter, retryPolicy());
+
+        // When
+        CardPaymentCharge charge = slowStripeService.chargeCard("0x0x0x", Money.parse("10.00", Currency.USD), "Zakat");
+
+        // Then the charge went through but the limit backed off
+        assertThat(charge.isCardDebited()).isTrue();
+        assertThat(concurrencyLimiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    void itShouldCutStripeTimeoutsToRemainingDeadline() {
+        // Given
+        Deadline deadline = Deadline.after(2, TimeUnit.SECONDS);
+
+        // When
+        RequestOptions options = StripeService.requestOptions(deadline);
+
+        // Then
+        assertThat(options.getReadTimeout()).isBetween(1, 2000);
+        assertThat(options.getConnectTimeout()).isBetween(1, 2000);
+        assertThat(StripeService.requestOptions(Deadline.none()).getReadTimeout())
+            .isEqualTo(Stripe.DEFAULT_READ_TIMEOUT);
+    }
+
+    @Test
+    void itShouldNotCallStripeOnceDeadlineHasPassed() {
+        // When
+        // Then
+        assertThatThrownBy(() -> stripeService.chargeCard("0x0x0x", Money.parse("10.00", Currency.USD), "Zakat",
+            Deadline.after(0, TimeUnit.MILLISECONDS)))
+            .isInstanceOf(DeadlineExceededException.class);
+        then(stripeApi).shouldHaveNoInteractions();
+    }
+
+    @Test
+    void itShouldRetryNetworkFailuresWithTheSameIdempotencyKey() throws StripeException {
+        // Given a connection reset on the first attempt
+        Charge charge = new Charge();
+        charge.setPaid(true);
+        given(stripeApi.create(anyMap(), any()))
+            .willThrow(new ApiConnectionException("Connection reset"))
+            .willReturn(charge);
+
+        // When
+        CardPaymentCharge cardPaymentCharge = stripeService.chargeCard(
+            "0x0x0x", Money.parse("10.00", Currency.USD), "Zakat");
+
+        // Then the retry can only be answered with the first attempt's charge, never charge again
+        assertThat(cardPaymentCharge.isCardDebited()).isTrue();
+        ArgumentCaptor<RequestOptions> optionsArgumentCaptor = ArgumentCaptor.forClass(RequestOptions.class);
+        then(stripeApi).should(times(2)).create(anyMap(), optionsArgumentCaptor.capture());
+        List<RequestOptions> attempts = optionsArgumentCaptor.getAllValues();
+        assertThat(attempts.get(0).getIdempotencyKey()).isNotBlank();
+        assertThat(attempts.get(1).getIdempotencyKey()).isEqualTo(attempts.get(0).getIdempotencyKey());
+
+        // ... and the next charge has a key of its own
+        given(stripeApi.create(anyMap(), any())).willReturn(charge);
+        stripeService.chargeCard("0x0x0x", Money.parse("10.00", Currency.USD), "Zakat");
+        then(stripeApi).should(times(3)).create(anyMap(), optionsArgumentCaptor.capture());
+        assertThat(optionsArgumentCaptor.getValue().getIdempotencyKey())
+            .isNotEqualTo(attempts.get(0).getIdempotencyKey());
+    }
+
+    @Test
+    void itShouldAnswerDeclinedCardsWithACardNotDebitedWithoutRetrying() throws StripeException {
+        // Given
+        CardException declined = mock(CardException.class);
+        given(stripeApi.create(anyMap(), any())).willThrow(declined);
+
+        // When
+        CardPaymentCharge cardPaymentCharge =
+            stripeService.chargeCard("0x0x0x", Money.parse("10.00", Currency.USD), "Zakat");
+
+        // Then the payment service records it as declined instead of an error
+        assertThat(cardPaymentCharge.isCardDebited()).isFalse();
+        then(stripeApi).should(times(1)).create(anyMap(), any());
+    }
+
+    @Test
+    void itShouldGiveUpAfterMaxAttempts() throws StripeException {
+        // Given
+        given(stripeApi.create(anyMap(), any())).willThrow(new ApiConnectionException("Connection reset"));
+
+        // When
+        // Then
+        assertThatThrownBy(() -> stripeService.chargeCard("0x0x0x", Money.parse("10.00", Currency.USD), "Zakat"))
+            .isInstanceOf(IllegalStateException.class)
+            .hasRootCauseInstanceOf(ApiConnectionException.class);
+        then(stripeApi).should(times(3)).create(anyMap(), any());
+    }
+
+    @Test
+    void itShouldStopRetryingOnceTheRetryBudgetIsSpent() throws StripeException {
+        // Given a budget of a single retry that calls do not refill
+        StripeService budgetedStripeService = new StripeService(stripeApi, new SimpleMeterRegistry(),
+            circuitBreaker(), concurrencyLimiter(), new StripeRetryPolicy(3, 1, 5, new RetryBudget(0, 1)));
+        given(stripeApi.create(anyMap(), any())).willThrow(new ApiConnectionException("Connection reset"));
+
+        // When
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> budgetedStripeService.chargeCard(
+                "0x0x0x", Money.parse("10.00", Currency.USD), "Zakat"))
+                .isInstanceOf(IllegalStateException.class);
+        }
+
+        // Then the first charge was retried once and the second not at all
+        then(stripeApi).should(times(3)).create(anyMap(), any());
+    }
+
+    @Test
+    void itShouldNotRetryPastTheDeadline() throws StripeException {
+        // Given backoff longer than the deadline
+        StripeService slowRetryingStripeService = new StripeService(stripeApi, new SimpleMeterRegistry(),
+            circuitBreaker(), concurrencyLimiter(), new StripeRetryPolicy(3, 5_000, 5_000, new RetryBudget(1, 10)));
+        given(stripeApi.create(anyMap(), any())).willThrow(new ApiConnectionException("Connection reset"));
+
+        // When
+        // Then
+        assertThatThrownBy(() -> slowRetryingStripeService.chargeCard("0x0x0x",
+            Money.parse("10.00", Currency.USD), "Zakat", Deadline.after(1, TimeUnit.SECONDS)))
+            .isInstanceOf(IllegalStateException.class)
+            .hasRootCauseInstanceOf(ApiConnectionException.class);
+        then(stripeApi).should(times(1)).create(anyMap(), any());
+    }
+
+    private static CircuitBreaker circuitBreaker() {
+        // opens after 4 calls with a failure rate of 50%, calls over 1s are slow
+        return new CircuitBreaker("stripe", 10, 4, 0.5, 1000, 60_000, 1, System::nanoTime);
+    }
+
+    private static AdaptiveConcurrencyLimiter concurrencyLimiter() {
+        // starts at 10 and halves for calls slower than 50ms
+        return new AdaptiveConcurrencyLimiter("stripe", 10, 1, 20, 0.5, 50);
+    }
+
+    private static StripeRetryPolicy retryPolicy() {
+        // 3 attempts, 1 to 5ms apart
+        return new StripeRetryPolicy(3, 1, 5, new RetryBudget(0.1, 10));
+    }
 }
@@ -0,0 +1,72 @@
+package com.amigoscode.testing.payment.stripe;
+
+import com.amigoscode.testing.customer.Customer;
+import com.amigoscode.testing.customer.CustomerRegistrationRequest;
+import com.amigoscode.testing.json.JsonBindingModule;
+import com.amigoscode.testing.payment.Currency;
+import com.amigoscode.testing.payment.Money;
+import com.amigoscode.testing.payment.Payment;
+import com.amigoscode.testing.payment.PaymentRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// the real StripeService, with its retries, in front of a simulated stripe that drops a fifth of the calls
+@SpringBootTest(properties = {
+    "stripe.enabled=true",
+    "stripe.simulator.enabled=true",
+    "stripe.simulator.latency=fixed:1",
+    "stripe.simulator.errors=api_connection_error:0.2",
+    "stripe.simulator.seed=7",
+    "stripe.retry.max-attempts=5"
+})
+@AutoConfigureMockMvc
+public class StripeSimulatorIntegrationTest {
+
+    private static final int PAYMENTS = 20;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private SimulatedStripeApi simulatedStripeApi;
+
+    @Test
+    void itShouldChargeEveryPaymentOnceThroughRetries() throws Exception {
+        // Given a customer and card per payment, so no payment is held back by the rate limits
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JsonBindingModule());
+
+        // When
+        for (int i = 0; i < PAYMENTS; i++) {
+            UUID customerId = UUID.randomUUID();
+            mockMvc.perform(MockMvcRequestBuilders
+                .put("/api/v1/customer-registration")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new CustomerRegistrationRequest(
+                    new Customer(customerId, "Yusuf", String.format("+4479100%05d", i)))))
+            ).andExpect(status().isOk());
+            Payment payment = new Payment(null, customerId, Money.parse("5.00", Currency.GBP),
+                "x5x5x5" + i, "Sadaqah");
+
+            // Then
+            mockMvc.perform(MockMvcRequestBuilders
+                .put("/api/v1/payment")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new PaymentRequest(payment)))
+            ).andExpect(status().isOk());
+        }
+
+        // ... some calls failed and were retried, and no payment was charged twice
+        assertThat(simulatedStripeApi.getRequests()).isGreaterThan(PAYMENTS);
+        assertThat(simulatedStripeApi.getCharges()).isEqualTo(PAYMENTS);
+    }
+}